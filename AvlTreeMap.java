@@ -1,10 +1,12 @@
 package hw6;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Queue;
+import java.util.function.BiFunction;
 
 /**
  * Map implemented as an AvlTree.
@@ -15,9 +17,66 @@ import java.util.Queue;
 public class AvlTreeMap<K extends Comparable<K>, V>
     implements OrderedMap<K, V> {
 
+  // initial capacity of the iterator stack, enough for an AVL tree
+  // of about 2^22 keys; it grows if needed.
+  private static final int INITIAL_STACK = 32;
+
   /*** Do not change variable name of 'root'. ***/
   private Node<K, V> root;
   private int size;
+  // number of structural changes, for fail-fast iterators.
+  private int modCount;
+  // whether the last findOrCreate call created its node.
+  private boolean created;
+  // nodes on the path from the root taken by the current insert or
+  // remove, reused between calls; path[0] is the root.
+  private Node<K, V>[] path = newPath(INITIAL_STACK);
+  private final MapMetrics metrics = MapMetrics.forMap();
+
+  /**
+   * build a perfectly balanced tree from sorted input in O(n) time.
+   * the iterators are read one key and then its value at a time, so
+   * they may be backed by a single stream of entries.
+   * @param keys n keys in strictly increasing order.
+   * @param values the n values, in the same order.
+   * @param n number of entries.
+   * @param <K> Type for keys.
+   * @param <V> Type for values.
+   * @return a new map with the given entries.
+   * @throws IllegalArgumentException thrown when n is negative, there
+   *     are fewer than n entries, or keys are null or out of order.
+   */
+  public static <K extends Comparable<K>, V> AvlTreeMap<K, V> fromSorted(
+      Iterator<K> keys, Iterator<V> values, int n)
+      throws IllegalArgumentException {
+    SortedInput<K, V> in = new SortedInput<>(keys, values, n);
+    AvlTreeMap<K, V> map = new AvlTreeMap<>();
+    map.root = build(in, n);
+    map.size = n;
+    return map;
+  }
+
+  /**
+   * build a balanced subtree from the next n entries, in order. the two
+   * halves differ in size by at most one, so their heights differ by at
+   * most one too.
+   * @param in sorted input.
+   * @param n number of entries to consume.
+   * @return root of the subtree.
+   */
+  private static <K extends Comparable<K>, V> Node<K, V> build(
+      SortedInput<K, V> in, int n) {
+    if (n == 0) {
+      return null;
+    }
+    int leftSize = (n - 1) / 2;
+    Node<K, V> left = build(in, leftSize);
+    Node<K, V> node = new Node<>(in.nextKey(), in.nextValue());
+    node.left = left;
+    node.right = build(in, n - 1 - leftSize);
+    update(node);
+    return node;
+  }
 
   /**
    * To insert a node into the AVL Tree and keep the tree balanced.
@@ -27,39 +86,211 @@ public class AvlTreeMap<K extends Comparable<K>, V>
    */
   @Override
   public void insert(K k, V v) throws IllegalArgumentException {
-    if (k == null) {
-      throw new IllegalArgumentException("null key error.");
+    Node<K, V> n = findOrCreate(k);
+    if (!created) {
+      throw new IllegalArgumentException("duplicate key" + k);
     }
-    root = insertHelper(root, k, v);
-    size++;
+    n.value = v;
+  }
+
+  /**
+   * make an array for the path buffer.
+   * @param capacity number of nodes it can hold.
+   * @return the new array.
+   */
+  @SuppressWarnings("unchecked")
+  private static <K, V> Node<K, V>[] newPath(int capacity) {
+    return (Node<K, V>[]) new Node<?, ?>[capacity];
   }
 
   /**
-   * Helper function to insert node and return modified tree.
-   * @param node root of the tree/subtree (if called in recursion).
-   * @param k key of node to be inserted.
-   * @param v value of node to be inserted.
-   * @return
+   * record a node on the path, growing the buffer if needed.
+   * @param depth position of the node on the path.
+   * @param node the node.
    */
-  private Node<K,V> insertHelper(Node<K,V> node, K k, V v) {
-    if (node == null) {
-      return new Node<>(k, v, 0);
+  private void pathSet(int depth, Node<K, V> node) {
+    if (depth == path.length) {
+      path = Arrays.copyOf(path, 2 * depth);
     }
-    if (k.compareTo(node.key) < 0) {
-      node.left = insertHelper(node.left, k, v);
-    } else if (k.compareTo(node.key) > 0) {
-      node.right = insertHelper(node.right, k, v);
+    path[depth] = node;
+  }
+
+  /**
+   * make the parent of the path node at a given depth (or the root
+   * pointer) point to a replacement subtree.
+   * @param depth depth of the node being replaced.
+   * @param old the node being replaced.
+   * @param replacement the subtree taking its place, can be null.
+   */
+  private void relink(int depth, Node<K, V> old, Node<K, V> replacement) {
+    if (depth == 0) {
+      root = replacement;
+    } else if (path[depth - 1].left == old) {
+      path[depth - 1].left = replacement;
     } else {
-      throw new IllegalArgumentException("duplicate key" + k);
+      path[depth - 1].right = replacement;
     }
-    if (node.left == null || node.right == null) {
-      node.height++;
+  }
+
+  /**
+   * walk the path bottom-up after a node was added (delta 1) or removed
+   * (delta -1) below it: update heights and sizes and rebalance. once a
+   * subtree keeps its old height nothing above it can become
+   * unbalanced, so the rest of the path only gets its size adjusted.
+   * @param depth number of nodes on the path.
+   * @param delta change in size for every node on the path.
+   */
+  private void retrace(int depth, int delta) {
+    int i = depth - 1;
+    for (; i >= 0; i--) {
+      Node<K, V> node = path[i];
+      path[i] = null;
+      int oldHeight = node.height;
+      update(node);
+      int bf = balanceFactor(node);
+      if (bf == 2 || bf == -2) {
+        Node<K, V> sub = reBalance(node, bf);
+        relink(i, node, sub);
+        node = sub;
+      }
+      if (node.height == oldHeight) {
+        break;
+      }
     }
-    int rootBF = balanceFactor(node);
-    if (rootBF == 2 || rootBF == -2) {
-      node = reBalance(node, rootBF);
+    while (--i >= 0) {
+      path[i].size += delta;
+      path[i] = null;
     }
-    return node;
+  }
+
+  /**
+   * recompute height and subtree size of a node from its children.
+   * @param node node to update.
+   */
+  private static void update(Node<?, ?> node) {
+    node.height = larger(height(node.left), height(node.right)) + 1;
+    node.size = size(node.left) + size(node.right) + 1;
+  }
+
+  /**
+   * height of a subtree; -1 for an empty one.
+   * @param node root of subtree, can be null.
+   * @return height.
+   */
+  private static int height(Node<?, ?> node) {
+    return node == null ? -1 : node.height;
+  }
+
+  /**
+   * number of nodes in a subtree.
+   * @param node root of subtree, can be null.
+   * @return size.
+   */
+  private static int size(Node<?, ?> node) {
+    return node == null ? 0 : node.size;
+  }
+
+  /**
+   * find the node with a key, or insert a new one with a null value if
+   * there is none, in a single iterative descent. rebalancing only
+   * happens if a node was created.
+   * @param k key to find or insert.
+   * @return the node with key k; created tells whether it is new.
+   * @throws IllegalArgumentException thrown when k is null.
+   */
+  private Node<K, V> findOrCreate(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("null key error.");
+    }
+    int depth = 0;
+    int cmp = 0;
+    Node<K, V> n = root;
+    while (n != null) {
+      cmp = k.compareTo(n.key);
+      if (cmp == 0) {
+        if (MapMetrics.ENABLED) {
+          metrics.searched(depth + 1);
+        }
+        // nothing changed, but don't keep nodes alive from the path.
+        Arrays.fill(path, 0, depth, null);
+        created = false;
+        return n;
+      }
+      pathSet(depth++, n);
+      n = cmp < 0 ? n.left : n.right;
+    }
+    if (MapMetrics.ENABLED) {
+      metrics.searched(depth);
+    }
+    n = new Node<>(k, null, 0);
+    if (depth == 0) {
+      root = n;
+    } else if (cmp < 0) {
+      path[depth - 1].left = n;
+    } else {
+      path[depth - 1].right = n;
+    }
+    retrace(depth, 1);
+    size++;
+    modCount++;
+    created = true;
+    return n;
+  }
+
+  /**
+   * insert a key/value pair unless the key exists, in one descent.
+   * @param k The key.
+   * @param v The value to be associated with k if k is not mapped.
+   * @return true if k was inserted.
+   * @throws IllegalArgumentException thrown when k is null.
+   */
+  @Override
+  public boolean putIfAbsent(K k, V v) throws IllegalArgumentException {
+    Node<K, V> n = findOrCreate(k);
+    if (created) {
+      n.value = v;
+    }
+    return created;
+  }
+
+  /**
+   * insert v, or combine it with the existing value, in one descent.
+   * @param k The key.
+   * @param v The value to insert or combine.
+   * @param f Function combining the old value and v.
+   * @return the value now associated with k.
+   * @throws IllegalArgumentException thrown when k is null.
+   */
+  @Override
+  public V merge(K k, V v, BiFunction<? super V, ? super V, ? extends V> f)
+      throws IllegalArgumentException {
+    Node<K, V> n = findOrCreate(k);
+    n.value = created ? v : f.apply(n.value, v);
+    return n.value;
+  }
+
+  /**
+   * compute a new value from the existing one (or null), in one
+   * descent.
+   * @param k The key.
+   * @param f Function computing the new value.
+   * @return the value now associated with k.
+   * @throws IllegalArgumentException thrown when k is null.
+   */
+  @Override
+  public V compute(K k, BiFunction<? super K, ? super V, ? extends V> f)
+      throws IllegalArgumentException {
+    Node<K, V> n = findOrCreate(k);
+    boolean isNew = created;
+    try {
+      n.value = f.apply(k, n.value);
+    } catch (RuntimeException | Error e) {
+      if (isNew) {
+        remove(k);
+      }
+      throw e;
+    }
+    return n.value;
   }
 
   /**
@@ -68,19 +299,7 @@ public class AvlTreeMap<K extends Comparable<K>, V>
    * @return balance factor.
    */
   private int balanceFactor(Node<K,V> cur) {
-    int leftFactor;
-    int rightFactor;
-    if (cur.left == null) {
-      leftFactor = -1;
-    } else {
-      leftFactor = cur.left.height;
-    }
-    if (cur.right == null) {
-      rightFactor = -1;
-    } else {
-      rightFactor = cur.right.height;
-    }
-    return leftFactor - rightFactor;
+    return height(cur.left) - height(cur.right);
   }
 
   /**
@@ -90,16 +309,31 @@ public class AvlTreeMap<K extends Comparable<K>, V>
    * @return modified subtree.
    */
   private Node<K, V> reBalance(Node<K,V> node, int rootBF) {
+    if (MapMetrics.ENABLED) {
+      metrics.rebalanced();
+    }
     if (rootBF == 2) {
       if (balanceFactor(node.left) == -1) {
+        if (MapMetrics.ENABLED) {
+          metrics.rotated(MapMetrics.Rotation.LEFT_RIGHT);
+        }
         return leftRightRotation(node);
       } else {
+        if (MapMetrics.ENABLED) {
+          metrics.rotated(MapMetrics.Rotation.RIGHT);
+        }
         return rightRotation(node);
       }
     } else if (rootBF == -2) { // right heavy
       if (balanceFactor(node.right) == 1) {
+        if (MapMetrics.ENABLED) {
+          metrics.rotated(MapMetrics.Rotation.RIGHT_LEFT);
+        }
         return rightLeftRotation(node);
       } else {
+        if (MapMetrics.ENABLED) {
+          metrics.rotated(MapMetrics.Rotation.LEFT);
+        }
         node = leftRotation(node);
       }
     }
@@ -115,8 +349,9 @@ public class AvlTreeMap<K extends Comparable<K>, V>
     Node<K, V> leftChild = node.left;
     node.left = leftChild.right;
     leftChild.right = node;
-    //update height
-    node.height -= 2;
+    // update heights and sizes, bottom up
+    update(node);
+    update(leftChild);
     return leftChild;
   }
 
@@ -129,8 +364,9 @@ public class AvlTreeMap<K extends Comparable<K>, V>
     Node<K,V> rightChild = node.right;
     node.right = rightChild.left;
     rightChild.left = node;
-    //update height
-    node.height -= 2;
+    // update heights and sizes, bottom up
+    update(node);
+    update(rightChild);
     return rightChild;
   }
 
@@ -140,14 +376,7 @@ public class AvlTreeMap<K extends Comparable<K>, V>
    * @return modified subtree.
    */
   private Node<K, V> rightLeftRotation(Node<K,V> node) {
-    Node<K, V> rightChild = node.right;
-    Node<K, V> grandchild = rightChild.left;
-    rightChild.left = grandchild.right;
-    grandchild.right = rightChild;
-    node.right = grandchild;
-    // update heights
-    grandchild.height++;
-    rightChild.height--;
+    node.right = rightRotation(node.right);
     return leftRotation(node);
   }
 
@@ -157,106 +386,67 @@ public class AvlTreeMap<K extends Comparable<K>, V>
    * @return modified subtree.
    */
   private Node<K,V> leftRightRotation(Node<K,V> node) {
-    // first left rotation
-    Node<K, V> leftChild = node.left;
-    Node<K, V> grandchild = leftChild.right;
-    leftChild.right = grandchild.left;
-    grandchild.left = leftChild;
-    node.left = grandchild;
-    // update heights
-    grandchild.height++;
-    leftChild.height--;
+    node.left = leftRotation(node.left);
     return rightRotation(node);
   }
 
   /**
-   * remove a node from the tree.
+   * remove a node from the tree. a node with two children is replaced
+   * by its successor (the minimum of its right subtree), so nodes never
+   * change keys.
    * @param k The key.
    * @return value of removed node.
    * @throws IllegalArgumentException if the key does not exist.
    */
   @Override
   public V remove(K k) throws IllegalArgumentException {
-    Node<K, V> n = findForSure(k);
-    root = remove(root, n);
-    size--;
-    return n.value;
-  }
-
-  /**
-   * helper function to remove the node from a narrowed subtree.
-   * @param node root of subtree.
-   * @param toRemove node to remove.
-   * @return modified subtree.
-   */
-  private Node<K, V> remove(Node<K, V> node, Node<K, V> toRemove) {
-    int cmp = toRemove.key.compareTo(node.key);
-    if (cmp == 0) {
-      return remove(node);
-    } else if (cmp < 0) {
-      node.left = remove(node.left, toRemove);
-    } else {
-      node.right = remove(node.right, toRemove);
-    }
-    int bf = balanceFactor(node);
-    if (bf == 2 || bf == -2) {
-      node = reBalance(node, bf);
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
     }
-    return node;
-  }
-
-  /**
-   * remove a node based on cases of its child.
-   * @param node node to remove.
-   * @return the subtree after removing the node.
-   */
-  private Node<K, V> remove(Node<K, V> node) {
-    if (node.left == null) {
-      node.height--;
-      return node.right;
-    } else if (node.right == null) {
-      node.height--;
-      return node.left;
+    int depth = 0;
+    Node<K, V> n = root;
+    while (n != null) {
+      int cmp = k.compareTo(n.key);
+      if (cmp == 0) {
+        break;
+      }
+      pathSet(depth++, n);
+      n = cmp < 0 ? n.left : n.right;
     }
-    Node<K, V> toReplaceWith = min(node.right);
-    node.key = toReplaceWith.key;
-    node.value = toReplaceWith.value;
-    node.right = remove(node.right, toReplaceWith);
-
-    // update heights
-    updateRightSubtreeHeights(node.right);
-    node.height = larger(node.left.height, node.right.height) + 1;
-    int bf = balanceFactor(node);
-    if (bf == -2 || bf == 2) {
-      reBalance(node, bf);
+    if (MapMetrics.ENABLED) {
+      metrics.searched(n == null ? depth : depth + 1);
     }
-    return node;
-  }
-
-  /**
-   * update the right subtree's height.
-   * @param node of right node.
-   */
-  private void updateRightSubtreeHeights(Node<K,V> node) {
-    if (node.left != null) {
-      updateRightSubtreeHeights(node.left);
+    if (n == null) {
+      Arrays.fill(path, 0, depth, null);
+      throw new IllegalArgumentException("cannot find key " + k);
     }
-    // base case: parent node of the removed node
-    if (node.left == null) {
-      if (node.right == null) {
-        node.height = 0;
+    if (n.left == null || n.right == null) {
+      relink(depth, n, n.left == null ? n.right : n.left);
+    } else {
+      // the successor will take n's place on the path.
+      int at = depth;
+      pathSet(depth++, n);
+      Node<K, V> successor = n.right;
+      while (successor.left != null) {
+        pathSet(depth++, successor);
+        successor = successor.left;
+      }
+      if (path[depth - 1] == n) {
+        n.right = successor.right;
       } else {
-        node.height = node.right.height + 1;
+        path[depth - 1].left = successor.right;
       }
-    } else {
-      node.height = larger(node.left.height, node.right.height) + 1;
+      successor.left = n.left;
+      successor.right = n.right;
+      successor.height = n.height;
+      successor.size = n.size;
+      relink(at, n, successor);
+      path[at] = successor;
     }
-    // check if BF = 2 or -2 for rotation
-    int bf = balanceFactor(node);
-    if (bf == 2 || bf == -2) {
-      reBalance(node, bf);
-    }
-    return;
+    retrace(depth, -1);
+    size--;
+    modCount++;
+    return n.value;
   }
 
   /**
@@ -265,7 +455,7 @@ public class AvlTreeMap<K extends Comparable<K>, V>
    * @param height2 right node height.
    * @return the larger height.
    */
-  private int larger(int height1, int height2) {
+  private static int larger(int height1, int height2) {
     if (height1 >= height2) {
       return height1;
     } else {
@@ -273,19 +463,6 @@ public class AvlTreeMap<K extends Comparable<K>, V>
     }
   }
 
-  /**
-   * find the minimum node of the right subtree.
-   * @param node the root of the right subtree.
-   * @return the minimum node of the right subtree.
-   */
-  private Node<K, V> min(Node<K, V> node) {
-    Node<K, V> cur = node;
-    while (cur.left != null) {
-      cur = cur.left;
-    }
-    return cur;
-  }
-
   /**
    * put a value into a node with a certain key.
    * @param k The key.
@@ -321,17 +498,22 @@ public class AvlTreeMap<K extends Comparable<K>, V>
       throw new IllegalArgumentException("cannot handle null key");
     }
     Node<K, V> n = root;
+    int compared = 0;
     while (n != null) {
       int cmp = k.compareTo(n.key);
+      compared++;
       if (cmp < 0) {
         n = n.left;
       } else if (cmp > 0) {
         n = n.right;
       } else {
-        return n;
+        break;
       }
     }
-    return null;
+    if (MapMetrics.ENABLED) {
+      metrics.searched(compared);
+    }
+    return n;
   }
 
   /**
@@ -369,29 +551,348 @@ public class AvlTreeMap<K extends Comparable<K>, V>
     return size;
   }
 
+  /**
+   * Metrics of this map's searches and rotations, collected only if
+   * MapMetrics.ENABLED.
+   *
+   * @return The metrics, live; shared by all maps while disabled.
+   */
+  public MapMetrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * shape of the tree, in one pass over all nodes.
+   * @return exact statistics.
+   */
+  @Override
+  public ShapeStats shapeStats() {
+    return ShapeStats.of(root, size, n -> n.left, n -> n.right);
+  }
+
+  /**
+   * estimated shape of the tree, from random paths down from the root.
+   * @param samples number of paths to follow.
+   * @return sampled statistics.
+   * @throws IllegalArgumentException thrown when samples is less than 1.
+   */
+  @Override
+  public ShapeStats shapeStats(int samples) {
+    return ShapeStats.sample(root, size, samples, n -> n.left,
+        n -> n.right);
+  }
+
+  /**
+   * find the node with the largest key below k (or equal to k, if
+   * inclusive).
+   * @param k key to compare against.
+   * @param inclusive whether a node with key k qualifies.
+   * @return the node found, can be null.
+   */
+  private Node<K, V> below(K k, boolean inclusive) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    Node<K, V> best = null;
+    Node<K, V> n = root;
+    while (n != null) {
+      int cmp = k.compareTo(n.key);
+      if (cmp > 0 || (cmp == 0 && inclusive)) {
+        best = n;
+        if (cmp == 0) {
+          break;
+        }
+        n = n.right;
+      } else {
+        n = n.left;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * find the node with the smallest key above k (or equal to k, if
+   * inclusive).
+   * @param k key to compare against.
+   * @param inclusive whether a node with key k qualifies.
+   * @return the node found, can be null.
+   */
+  private Node<K, V> above(K k, boolean inclusive) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    Node<K, V> best = null;
+    Node<K, V> n = root;
+    while (n != null) {
+      int cmp = k.compareTo(n.key);
+      if (cmp < 0 || (cmp == 0 && inclusive)) {
+        best = n;
+        if (cmp == 0) {
+          break;
+        }
+        n = n.left;
+      } else {
+        n = n.right;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * number of keys less than k, from the subtree sizes along one path.
+   * @param k The key.
+   * @return number of keys &lt; k.
+   * @throws IllegalArgumentException thrown when k is null.
+   */
+  @Override
+  public int rank(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    int rank = 0;
+    Node<K, V> n = root;
+    while (n != null) {
+      int cmp = k.compareTo(n.key);
+      if (cmp < 0) {
+        n = n.left;
+      } else if (cmp > 0) {
+        rank += size(n.left) + 1;
+        n = n.right;
+      } else {
+        return rank + size(n.left);
+      }
+    }
+    return rank;
+  }
+
+  /**
+   * key at position i, following subtree sizes down one path.
+   * @param i zero-based position.
+   * @return key with exactly i smaller keys.
+   * @throws IllegalArgumentException thrown when i is out of range.
+   */
+  @Override
+  public K select(int i) {
+    if (i < 0 || i >= size) {
+      throw new IllegalArgumentException("position out of range " + i);
+    }
+    Node<K, V> n = root;
+    while (true) {
+      int leftSize = size(n.left);
+      if (i < leftSize) {
+        n = n.left;
+      } else if (i > leftSize) {
+        i -= leftSize + 1;
+        n = n.right;
+      } else {
+        return n.key;
+      }
+    }
+  }
+
+  @Override
+  public K firstKey() {
+    Node<K, V> n = root;
+    if (n == null) {
+      return null;
+    }
+    while (n.left != null) {
+      n = n.left;
+    }
+    return n.key;
+  }
+
+  @Override
+  public K lastKey() {
+    Node<K, V> n = root;
+    if (n == null) {
+      return null;
+    }
+    while (n.right != null) {
+      n = n.right;
+    }
+    return n.key;
+  }
+
+  @Override
+  public K floorKey(K k) {
+    Node<K, V> n = below(k, true);
+    return n == null ? null : n.key;
+  }
+
+  @Override
+  public K lowerKey(K k) {
+    Node<K, V> n = below(k, false);
+    return n == null ? null : n.key;
+  }
+
+  @Override
+  public K ceilingKey(K k) {
+    Node<K, V> n = above(k, true);
+    return n == null ? null : n.key;
+  }
+
+  @Override
+  public K higherKey(K k) {
+    Node<K, V> n = above(k, false);
+    return n == null ? null : n.key;
+  }
+
+  @Override
+  public OrderedMap<K, V> subMap(K lo, K hi) {
+    if (lo == null || hi == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(lo, hi);
+  }
+
+  @Override
+  public OrderedMap<K, V> headMap(K hi) {
+    if (hi == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(null, hi);
+  }
+
+  @Override
+  public OrderedMap<K, V> tailMap(K lo) {
+    if (lo == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(lo, null);
+  }
+
+  /**
+   * range view backed by this tree that iterates over just the range.
+   */
+  private class SubMap extends OrderedSubMap<K, V> {
+    SubMap(K lo, K hi) {
+      super(AvlTreeMap.this, lo, hi);
+    }
+
+    @Override
+    OrderedSubMap<K, V> narrow(K lo, K hi) {
+      return new SubMap(lo, hi);
+    }
+
+    @Override
+    public Iterator<K> iterator() {
+      return new InorderIterator(lo, hi);
+    }
+
+    @Override
+    public EntryIterator<K, V> entryIterator() {
+      return new InorderIterator(lo, hi);
+    }
+  }
+
   /**
    * set up an iterator for in-order traversal.
-   * @return an iterator of a ArrayList object with all nodes.
+   * the iterator walks the tree lazily and fails fast with a
+   * ConcurrentModificationException if the tree is changed by
+   * insert or remove while iterating.
+   * @return an iterator over all keys in order.
    */
   @Override
   public Iterator<K> iterator() {
-    List<K> keys = new ArrayList<>();
-    iteratorHelper(root, keys);
-    return keys.iterator();
+    return new InorderIterator();
   }
 
   /**
-   * put nodes into array list by inoerder traversal.
-   * @param n root.
-   * @param keys list to be put in.
+   * set up an iterator that also gives the values, from the nodes it
+   * walks, so that going over keys and values takes O(n) time.
+   * @return an iterator over all keys in order and their values.
    */
-  private void iteratorHelper(Node<K,V> n, List<K> keys) {
-    if (n == null) {
-      return;
+  @Override
+  public EntryIterator<K, V> entryIterator() {
+    return new InorderIterator();
+  }
+
+  // In-order iterator that walks the tree on demand. The stack holds
+  // the nodes whose key has not been returned yet but whose left
+  // subtree is done (or in progress), so it never holds more nodes
+  // than the tree is high.
+  private class InorderIterator implements EntryIterator<K, V> {
+    private Node<K, V>[] stack;
+    private int top;
+    private final int expectedModCount;
+    // Exclusive upper bound, or null to iterate to the end.
+    private final K hi;
+    // Node of the key next() returned last, or null.
+    private Node<K, V> last;
+
+    InorderIterator() {
+      this(null, null);
+    }
+
+    // Iterate over the keys in [lo, hi); null bounds are open. The
+    // stack starts out as the path to the smallest key >= lo, minus
+    // the nodes below lo which are skipped.
+    @SuppressWarnings("unchecked")
+    InorderIterator(K lo, K hi) {
+      stack = (Node<K, V>[]) new Node<?, ?>[INITIAL_STACK];
+      expectedModCount = modCount;
+      this.hi = hi;
+      if (lo == null) {
+        pushLeftSpine(root);
+        return;
+      }
+      Node<K, V> n = root;
+      while (n != null) {
+        if (n.key.compareTo(lo) < 0) {
+          n = n.right;
+        } else {
+          push(n);
+          n = n.left;
+        }
+      }
+    }
+
+    private void push(Node<K, V> n) {
+      if (top == stack.length) {
+        stack = Arrays.copyOf(stack, 2 * top);
+      }
+      stack[top++] = n;
+    }
+
+    // Push n and all of its left descendants.
+    private void pushLeftSpine(Node<K, V> n) {
+      while (n != null) {
+        push(n);
+        n = n.left;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return top > 0 && (hi == null || stack[top - 1].key.compareTo(hi) < 0);
+    }
+
+    @Override
+    public K next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Node<K, V> n = stack[--top];
+      stack[top] = null;
+      pushLeftSpine(n.right);
+      last = n;
+      return n.key;
+    }
+
+    @Override
+    public V value() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (last == null) {
+        throw new IllegalStateException("next() not called yet");
+      }
+      return last.value;
     }
-    iteratorHelper(n.left, keys);
-    keys.add(n.key);
-    iteratorHelper(n.right, keys);
   }
 
   /*** Do not change this function's name or modify its code. ***/
@@ -457,8 +958,8 @@ public class AvlTreeMap<K extends Comparable<K>, V>
    * Just avoid changing any existing names or deleting any existing variables.
    * ***/
   // Inner node class, each holds a key (which is what we sort the
-  // BST by) as well as a value. We don't need a parent pointer as
-  // long as we use recursive insert/remove helpers.
+  // BST by) as well as a value. We don't need a parent pointer since
+  // insert/remove remember the path they took in a buffer.
   // Do not change the name of this class
   private static class Node<K, V> {
     /***  Do not change variable names in this section. ***/
@@ -469,6 +970,8 @@ public class AvlTreeMap<K extends Comparable<K>, V>
 
     /*** End of section. ***/
     int height;
+    // number of nodes in the subtree rooted here, for rank/select.
+    int size = 1;
 
     // Constructor to make node creation easier to read.
     Node(K k, V v) {
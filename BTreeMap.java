@@ -0,0 +1,777 @@
+package hw6;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+
+/**
+ * Ordered maps implemented as B+trees.
+ *
+ * <p>All entries live in leaves of up to fanout keys each, kept in a
+ * doubly linked list in key order; inner nodes have up to fanout
+ * children and only hold separator keys (child i has the keys from
+ * separator i - 1 inclusive to separator i exclusive). A lookup reads a
+ * handful of nodes, each a pair of contiguous arrays searched with
+ * binary search, instead of one node per level of a binary tree, and
+ * iteration walks the leaf list.</p>
+ *
+ * <p>Insert and remove descend once, recording the path, then split
+ * full nodes or fix underfull ones (by borrowing from a sibling or
+ * merging with it) on the way back up. Nodes other than the root are
+ * always at least half full. Nodes don't keep subtree sizes, so rank()
+ * and select() fall back to the O(n) defaults of OrderedMap. Range
+ * views iterate from the leaf holding their lower bound, so they take
+ * O(log n) time to start instead of walking all smaller keys.</p>
+ *
+ * @param <K> Type for keys.
+ * @param <V> Type for values.
+ */
+public class BTreeMap<K extends Comparable<K>, V>
+    implements OrderedMap<K, V> {
+
+  /** Fanout used by the default constructor. */
+  public static final int DEFAULT_FANOUT = 64;
+  private static final int MIN_FANOUT = 4;
+  // Initial capacity of the path buffer, enough for billions of keys
+  // at the default fanout; it grows if needed.
+  private static final int INITIAL_PATH = 8;
+
+  private final int fanout;
+  // Fewest keys a leaf other than the root may have.
+  private final int minLeafKeys;
+  // Fewest keys an inner node other than the root may have.
+  private final int minInnerKeys;
+  private Node root;
+  private int size;
+  // Number of structural changes, for fail-fast iterators.
+  private int modCount;
+  // Whether the last findOrCreate() call created its entry, and where
+  // in the returned leaf the entry is.
+  private boolean created;
+  private int slot;
+  // Inner nodes on the path from the root taken by the current insert
+  // or remove, and the child taken in each; path[0] is the root.
+  private Inner[] path = new Inner[INITIAL_PATH];
+  private int[] pathChild = new int[INITIAL_PATH];
+
+  /**
+   * Create an empty map with the default fanout.
+   */
+  public BTreeMap() {
+    this(DEFAULT_FANOUT);
+  }
+
+  /**
+   * Create an empty map.
+   *
+   * @param fanout Most keys per leaf and children per inner node.
+   * @throws IllegalArgumentException If fanout is less than 4.
+   */
+  public BTreeMap(int fanout) {
+    if (fanout < MIN_FANOUT) {
+      throw new IllegalArgumentException("fanout too small " + fanout);
+    }
+    this.fanout = fanout;
+    this.minLeafKeys = fanout / 2;
+    this.minInnerKeys = (fanout + 1) / 2 - 1;
+    this.root = new Leaf(fanout);
+  }
+
+  /**
+   * Most keys per leaf and children per inner node.
+   *
+   * @return The fanout this map was created with.
+   */
+  public int fanout() {
+    return fanout;
+  }
+
+  @SuppressWarnings("unchecked")
+  private K key(Node node, int i) {
+    return (K) node.keys[i];
+  }
+
+  @SuppressWarnings("unchecked")
+  private V value(Leaf leaf, int i) {
+    return (V) leaf.values[i];
+  }
+
+  // Position of k among the keys of a node if it's there, otherwise
+  // -(insertion point) - 1, like Arrays.binarySearch.
+  private int search(Node node, K k) {
+    int lo = 0;
+    int hi = node.count - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int cmp = k.compareTo(key(node, mid));
+      if (cmp > 0) {
+        lo = mid + 1;
+      } else if (cmp < 0) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(lo + 1);
+  }
+
+  // Index of the child of an inner node whose range contains k.
+  private int childFor(Inner inner, K k) {
+    int i = search(inner, k);
+    return i >= 0 ? i + 1 : -i - 1;
+  }
+
+  // Leaf whose range contains k.
+  private Leaf leafFor(K k) {
+    Node n = root;
+    while (n instanceof Inner) {
+      Inner inner = (Inner) n;
+      n = inner.children[childFor(inner, k)];
+    }
+    return (Leaf) n;
+  }
+
+  // Record an inner node and the child taken on the path, growing the
+  // buffers if needed.
+  private void pathSet(int depth, Inner inner, int child) {
+    if (depth == path.length) {
+      path = Arrays.copyOf(path, 2 * depth);
+      pathChild = Arrays.copyOf(pathChild, 2 * depth);
+    }
+    path[depth] = inner;
+    pathChild[depth] = child;
+  }
+
+  // Descend to the leaf for k, recording the path; returns the depth
+  // of the leaf.
+  private int descend(K k) {
+    int depth = 0;
+    Node n = root;
+    while (n instanceof Inner) {
+      Inner inner = (Inner) n;
+      int c = childFor(inner, k);
+      pathSet(depth++, inner, c);
+      n = inner.children[c];
+    }
+    return depth;
+  }
+
+  // The leaf at the end of a path of the given depth.
+  private Leaf leafAt(int depth) {
+    return (Leaf) (depth == 0 ? root
+        : path[depth - 1].children[pathChild[depth - 1]]);
+  }
+
+  // Find the leaf with key k, or insert k with a null value if it's not
+  // there, in a single descent. Sets created and slot accordingly.
+  private Leaf findOrCreate(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    int depth = descend(k);
+    Leaf leaf = leafAt(depth);
+    int i = search(leaf, k);
+    if (i >= 0) {
+      Arrays.fill(path, 0, depth, null);
+      created = false;
+      slot = i;
+      return leaf;
+    }
+    int at = -i - 1;
+    System.arraycopy(leaf.keys, at, leaf.keys, at + 1, leaf.count - at);
+    System.arraycopy(leaf.values, at, leaf.values, at + 1,
+        leaf.count - at);
+    leaf.keys[at] = k;
+    leaf.values[at] = null;
+    leaf.count++;
+    if (leaf.count > fanout) {
+      Leaf right = splitLeaf(leaf);
+      addToParent(depth, right.keys[0], right);
+      if (at >= leaf.count) {
+        at -= leaf.count;
+        leaf = right;
+      }
+    }
+    Arrays.fill(path, 0, depth, null);
+    size++;
+    modCount++;
+    created = true;
+    slot = at;
+    return leaf;
+  }
+
+  // Move the upper half of an overfull leaf into a new leaf to its
+  // right, which is returned.
+  private Leaf splitLeaf(Leaf leaf) {
+    Leaf right = new Leaf(fanout);
+    int keep = leaf.count / 2;
+    int move = leaf.count - keep;
+    System.arraycopy(leaf.keys, keep, right.keys, 0, move);
+    System.arraycopy(leaf.values, keep, right.values, 0, move);
+    Arrays.fill(leaf.keys, keep, leaf.count, null);
+    Arrays.fill(leaf.values, keep, leaf.count, null);
+    leaf.count = keep;
+    right.count = move;
+    right.next = leaf.next;
+    if (right.next != null) {
+      right.next.prev = right;
+    }
+    right.prev = leaf;
+    leaf.next = right;
+    return right;
+  }
+
+  // Add a separator and the new node to its right to the parent of the
+  // node that was split at the end of a path of the given depth,
+  // splitting inner nodes up the path as needed.
+  private void addToParent(int depth, Object separator, Node right) {
+    while (depth > 0) {
+      Inner parent = path[--depth];
+      int c = pathChild[depth];
+      System.arraycopy(parent.keys, c, parent.keys, c + 1,
+          parent.count - c);
+      System.arraycopy(parent.children, c + 1, parent.children, c + 2,
+          parent.count - c);
+      parent.keys[c] = separator;
+      parent.children[c + 1] = right;
+      parent.count++;
+      if (parent.count < fanout) {
+        return;
+      }
+      // Now fanout + 1 children: the left half keeps (fanout + 1) / 2
+      // of them, the key between the halves moves up.
+      Inner sibling = new Inner(fanout);
+      int keep = (fanout + 1) / 2 - 1;
+      int move = parent.count - keep - 1;
+      separator = parent.keys[keep];
+      System.arraycopy(parent.keys, keep + 1, sibling.keys, 0, move);
+      System.arraycopy(parent.children, keep + 1, sibling.children, 0,
+          move + 1);
+      Arrays.fill(parent.keys, keep, parent.count, null);
+      Arrays.fill(parent.children, keep + 1, parent.count + 1, null);
+      parent.count = keep;
+      sibling.count = move;
+      right = sibling;
+    }
+    Inner top = new Inner(fanout);
+    top.keys[0] = separator;
+    top.children[0] = root;
+    top.children[1] = right;
+    top.count = 1;
+    root = top;
+  }
+
+  @Override
+  public void insert(K k, V v) {
+    Leaf leaf = findOrCreate(k);
+    if (!created) {
+      throw new IllegalArgumentException("duplicate key " + k);
+    }
+    leaf.values[slot] = v;
+  }
+
+  @Override
+  public V remove(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    int depth = descend(k);
+    Leaf leaf = leafAt(depth);
+    int i = search(leaf, k);
+    if (i < 0) {
+      Arrays.fill(path, 0, depth, null);
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    V v = value(leaf, i);
+    int after = leaf.count - i - 1;
+    System.arraycopy(leaf.keys, i + 1, leaf.keys, i, after);
+    System.arraycopy(leaf.values, i + 1, leaf.values, i, after);
+    leaf.count--;
+    leaf.keys[leaf.count] = null;
+    leaf.values[leaf.count] = null;
+    if (depth > 0 && leaf.count < minLeafKeys) {
+      fixLeaf(depth, leaf);
+    }
+    Arrays.fill(path, 0, depth, null);
+    size--;
+    modCount++;
+    return v;
+  }
+
+  // Refill an underfull leaf at the end of a path of the given depth
+  // from a sibling, or merge it with one and fix the parent.
+  private void fixLeaf(int depth, Leaf leaf) {
+    Inner parent = path[depth - 1];
+    int c = pathChild[depth - 1];
+    Leaf left = c > 0 ? (Leaf) parent.children[c - 1] : null;
+    Leaf right = c < parent.count ? (Leaf) parent.children[c + 1] : null;
+    if (left != null && left.count > minLeafKeys) {
+      System.arraycopy(leaf.keys, 0, leaf.keys, 1, leaf.count);
+      System.arraycopy(leaf.values, 0, leaf.values, 1, leaf.count);
+      left.count--;
+      leaf.keys[0] = left.keys[left.count];
+      leaf.values[0] = left.values[left.count];
+      left.keys[left.count] = null;
+      left.values[left.count] = null;
+      leaf.count++;
+      parent.keys[c - 1] = leaf.keys[0];
+    } else if (right != null && right.count > minLeafKeys) {
+      leaf.keys[leaf.count] = right.keys[0];
+      leaf.values[leaf.count] = right.values[0];
+      leaf.count++;
+      right.count--;
+      System.arraycopy(right.keys, 1, right.keys, 0, right.count);
+      System.arraycopy(right.values, 1, right.values, 0, right.count);
+      right.keys[right.count] = null;
+      right.values[right.count] = null;
+      parent.keys[c] = right.keys[0];
+    } else {
+      if (left != null) {
+        mergeLeaves(left, leaf);
+        removeChild(parent, c - 1);
+      } else {
+        mergeLeaves(leaf, right);
+        removeChild(parent, c);
+      }
+      fixInner(depth - 1);
+    }
+  }
+
+  // Append the entries of a leaf to its left neighbor and unlink it.
+  private static void mergeLeaves(Leaf left, Leaf right) {
+    System.arraycopy(right.keys, 0, left.keys, left.count, right.count);
+    System.arraycopy(right.values, 0, left.values, left.count,
+        right.count);
+    left.count += right.count;
+    left.next = right.next;
+    if (left.next != null) {
+      left.next.prev = left;
+    }
+  }
+
+  // Drop separator i of an inner node and the child to its right.
+  private static void removeChild(Inner inner, int i) {
+    int after = inner.count - i - 1;
+    System.arraycopy(inner.keys, i + 1, inner.keys, i, after);
+    System.arraycopy(inner.children, i + 2, inner.children, i + 1,
+        after);
+    inner.count--;
+    inner.keys[inner.count] = null;
+    inner.children[inner.count + 1] = null;
+  }
+
+  // Fix the inner node at the given depth of the path after it lost a
+  // child, and its ancestors as needed. A root with a single child is
+  // replaced by that child.
+  private void fixInner(int depth) {
+    for (; depth > 0; depth--) {
+      Inner node = path[depth];
+      if (node.count >= minInnerKeys) {
+        return;
+      }
+      Inner parent = path[depth - 1];
+      int c = pathChild[depth - 1];
+      Inner left = c > 0 ? (Inner) parent.children[c - 1] : null;
+      Inner right = c < parent.count ? (Inner) parent.children[c + 1]
+          : null;
+      if (left != null && left.count > minInnerKeys) {
+        System.arraycopy(node.keys, 0, node.keys, 1, node.count);
+        System.arraycopy(node.children, 0, node.children, 1,
+            node.count + 1);
+        node.keys[0] = parent.keys[c - 1];
+        node.children[0] = left.children[left.count];
+        node.count++;
+        parent.keys[c - 1] = left.keys[left.count - 1];
+        left.keys[left.count - 1] = null;
+        left.children[left.count] = null;
+        left.count--;
+        return;
+      }
+      if (right != null && right.count > minInnerKeys) {
+        node.keys[node.count] = parent.keys[c];
+        node.children[node.count + 1] = right.children[0];
+        node.count++;
+        parent.keys[c] = right.keys[0];
+        System.arraycopy(right.keys, 1, right.keys, 0, right.count - 1);
+        System.arraycopy(right.children, 1, right.children, 0,
+            right.count);
+        right.keys[right.count - 1] = null;
+        right.children[right.count] = null;
+        right.count--;
+        return;
+      }
+      if (left != null) {
+        mergeInner(left, parent.keys[c - 1], node);
+        removeChild(parent, c - 1);
+      } else {
+        mergeInner(node, parent.keys[c], right);
+        removeChild(parent, c);
+      }
+    }
+    Inner top = path[0];
+    if (top.count == 0) {
+      root = top.children[0];
+    }
+  }
+
+  // Append the separator and the contents of an inner node to its left
+  // neighbor.
+  private static void mergeInner(Inner left, Object separator,
+                                 Inner right) {
+    left.keys[left.count] = separator;
+    System.arraycopy(right.keys, 0, left.keys, left.count + 1,
+        right.count);
+    System.arraycopy(right.children, 0, left.children, left.count + 1,
+        right.count + 1);
+    left.count += right.count + 1;
+  }
+
+  // Leaf with key k, with slot set to its position; throw an exception
+  // if it's not mapped.
+  private Leaf findForSure(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    Leaf leaf = leafFor(k);
+    slot = search(leaf, k);
+    if (slot < 0) {
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    return leaf;
+  }
+
+  @Override
+  public void put(K k, V v) {
+    findForSure(k).values[slot] = v;
+  }
+
+  @Override
+  public V get(K k) {
+    return value(findForSure(k), slot);
+  }
+
+  @Override
+  public boolean has(K k) {
+    if (k == null) {
+      return false;
+    }
+    return search(leafFor(k), k) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  // Number of levels, counting the root; 0 if there are no keys.
+  private int height() {
+    if (size == 0) {
+      return 0;
+    }
+    int height = 1;
+    for (Node n = root; n instanceof Inner; n = ((Inner) n).children[0]) {
+      height++;
+    }
+    return height;
+  }
+
+  @Override
+  public ShapeStats shapeStats() {
+    int leaves = 0;
+    if (size > 0) {
+      for (Leaf leaf = firstLeaf(); leaf != null; leaf = leaf.next) {
+        leaves++;
+      }
+    }
+    return ShapeStats.ofLevels(size, height(), leaves);
+  }
+
+  @Override
+  public ShapeStats shapeStats(int samples) {
+    return ShapeStats.sampleLevels(size, height(), samples);
+  }
+
+  @Override
+  public boolean putIfAbsent(K k, V v) {
+    Leaf leaf = findOrCreate(k);
+    if (created) {
+      leaf.values[slot] = v;
+    }
+    return created;
+  }
+
+  @Override
+  public V merge(K k, V v, BiFunction<? super V, ? super V, ? extends V> f) {
+    Leaf leaf = findOrCreate(k);
+    int i = slot;
+    V result = created ? v : f.apply(value(leaf, i), v);
+    leaf.values[i] = result;
+    return result;
+  }
+
+  @Override
+  public V compute(K k, BiFunction<? super K, ? super V, ? extends V> f) {
+    Leaf leaf = findOrCreate(k);
+    int i = slot;
+    boolean isNew = created;
+    V result;
+    try {
+      result = f.apply(k, value(leaf, i));
+    } catch (RuntimeException | Error e) {
+      if (isNew) {
+        remove(k);
+      }
+      throw e;
+    }
+    leaf.values[i] = result;
+    return result;
+  }
+
+  // Largest key below k (or equal to k, if inclusive), or null.
+  private K below(K k, boolean inclusive) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    Leaf leaf = leafFor(k);
+    int i = search(leaf, k);
+    int at = i >= 0 ? (inclusive ? i : i - 1) : -i - 2;
+    if (at >= 0) {
+      return key(leaf, at);
+    }
+    // Leaves other than the root are never empty.
+    return leaf.prev == null ? null : key(leaf.prev, leaf.prev.count - 1);
+  }
+
+  // Smallest key above k (or equal to k, if inclusive), or null.
+  private K above(K k, boolean inclusive) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    Leaf leaf = leafFor(k);
+    int i = search(leaf, k);
+    int at = i >= 0 ? (inclusive ? i : i + 1) : -i - 1;
+    if (at < leaf.count) {
+      return key(leaf, at);
+    }
+    return leaf.next == null ? null : key(leaf.next, 0);
+  }
+
+  // Leftmost leaf, where iteration starts.
+  private Leaf firstLeaf() {
+    Node n = root;
+    while (n instanceof Inner) {
+      n = ((Inner) n).children[0];
+    }
+    return (Leaf) n;
+  }
+
+  @Override
+  public K firstKey() {
+    Leaf leaf = firstLeaf();
+    return leaf.count == 0 ? null : key(leaf, 0);
+  }
+
+  @Override
+  public K lastKey() {
+    Node n = root;
+    while (n instanceof Inner) {
+      n = ((Inner) n).children[n.count];
+    }
+    return n.count == 0 ? null : key(n, n.count - 1);
+  }
+
+  @Override
+  public K floorKey(K k) {
+    return below(k, true);
+  }
+
+  @Override
+  public K lowerKey(K k) {
+    return below(k, false);
+  }
+
+  @Override
+  public K ceilingKey(K k) {
+    return above(k, true);
+  }
+
+  @Override
+  public K higherKey(K k) {
+    return above(k, false);
+  }
+
+  @Override
+  public OrderedMap<K, V> subMap(K lo, K hi) {
+    if (lo == null || hi == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(lo, hi);
+  }
+
+  @Override
+  public OrderedMap<K, V> headMap(K hi) {
+    if (hi == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(null, hi);
+  }
+
+  @Override
+  public OrderedMap<K, V> tailMap(K lo) {
+    if (lo == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(lo, null);
+  }
+
+  @Override
+  public Iterator<K> iterator() {
+    return new LeafIterator(null, null);
+  }
+
+  @Override
+  public EntryIterator<K, V> entryIterator() {
+    return new LeafIterator(null, null);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    s.append("{");
+    for (Leaf leaf = firstLeaf(); leaf != null; leaf = leaf.next) {
+      for (int i = 0; i < leaf.count; i++) {
+        if (s.length() > 1) {
+          s.append(", ");
+        }
+        s.append(leaf.keys[i]);
+        s.append(": ");
+        s.append(leaf.values[i]);
+      }
+    }
+    s.append("}");
+    return s.toString();
+  }
+
+  // Range view backed by this tree that iterates over just the range.
+  private class SubMap extends OrderedSubMap<K, V> {
+    SubMap(K lo, K hi) {
+      super(BTreeMap.this, lo, hi);
+    }
+
+    @Override
+    OrderedSubMap<K, V> narrow(K lo, K hi) {
+      return new SubMap(lo, hi);
+    }
+
+    @Override
+    public Iterator<K> iterator() {
+      return new LeafIterator(lo, hi);
+    }
+
+    @Override
+    public EntryIterator<K, V> entryIterator() {
+      return new LeafIterator(lo, hi);
+    }
+  }
+
+  // Iterator that walks the list of leaves.
+  private class LeafIterator implements EntryIterator<K, V> {
+    private Leaf leaf;
+    private int next;
+    private final int expectedModCount = modCount;
+    // Exclusive upper bound, or null to iterate to the end.
+    private final K hi;
+    // Leaf and index of the key next() returned last; null before.
+    private Leaf lastLeaf;
+    private int last;
+
+    // Iterate over the keys in [lo, hi); null bounds are open. Starts
+    // at the smallest key >= lo in the leaf whose range holds lo, or
+    // in the next leaf if lo is above all keys of that one.
+    LeafIterator(K lo, K hi) {
+      this.hi = hi;
+      if (lo == null) {
+        leaf = firstLeaf();
+        return;
+      }
+      leaf = leafFor(lo);
+      int i = search(leaf, lo);
+      next = i >= 0 ? i : -i - 1;
+      if (next == leaf.count && leaf.next != null) {
+        leaf = leaf.next;
+        next = 0;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < leaf.count
+          && (hi == null || key(leaf, next).compareTo(hi) < 0);
+    }
+
+    @Override
+    public K next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      lastLeaf = leaf;
+      last = next;
+      K k = key(leaf, next++);
+      if (next == leaf.count && leaf.next != null) {
+        leaf = leaf.next;
+        next = 0;
+      }
+      return k;
+    }
+
+    @Override
+    public V value() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (lastLeaf == null) {
+        throw new IllegalStateException("next() not called yet");
+      }
+      return BTreeMap.this.value(lastLeaf, last);
+    }
+  }
+
+  // Keys are in keys[0, count); the rest of the arrays is null. Arrays
+  // have room for one extra entry so a node can overflow before it is
+  // split.
+  private abstract static class Node {
+    final Object[] keys;
+    int count;
+
+    Node(int capacity) {
+      keys = new Object[capacity];
+    }
+  }
+
+  // Leaf with values[i] mapped by keys[i].
+  private static final class Leaf extends Node {
+    final Object[] values;
+    Leaf prev;
+    Leaf next;
+
+    Leaf(int fanout) {
+      super(fanout + 1);
+      values = new Object[fanout + 1];
+    }
+  }
+
+  // Inner node with count separators and count + 1 children.
+  private static final class Inner extends Node {
+    final Node[] children;
+
+    Inner(int fanout) {
+      super(fanout);
+      children = new Node[fanout + 1];
+    }
+  }
+}
@@ -1,17 +1,19 @@
 package hw6;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
-import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
 
 /**
  * Ordered maps implemented as (basic) binary search trees.
  *
  * <P>This BST is <b>not</b> balanced so all operations (except for size) are
- * O(n) in the worst case. Iterators operate on a copy of the keys, so
- * changing the tree will not change iterations in progress. (Iterating
- * over the tree directly would require a "threaded" representation, a
- * much more complicated beast.)</P>
+ * O(n) in the worst case. Iterators walk the tree directly with an
+ * explicit stack of at most height-many nodes, so stopping after k keys
+ * costs O(height + k). Changing the tree with insert or remove while
+ * iterating makes the iterator throw ConcurrentModificationException.</P>
  *
  * @param <K> Type for keys.
  * @param <V> Type for values.
@@ -19,15 +21,82 @@ import java.util.List;
 public class BinarySearchTreeMap<K extends Comparable<K>, V>
     implements OrderedMap<K, V> {
 
+  // Initial capacity of the iterator stack; it grows if needed.
+  private static final int INITIAL_STACK = 16;
+
   private Node<K, V> root;
   private int size;
+  // Number of structural changes, for fail-fast iterators.
+  private int modCount;
+  // Whether the last findOrCreate() call created its node.
+  private boolean created;
+  private final MapMetrics metrics = MapMetrics.forMap();
+
 
+  /**
+   * Build a perfectly balanced tree from sorted input in O(n) time.
+   *
+   * <p>The iterators are read one key and then its value at a time, so
+   * they may be backed by a single stream of entries.</p>
+   *
+   * @param keys n keys in strictly increasing order.
+   * @param values The n values, in the same order.
+   * @param n Number of entries.
+   * @param <K> Type for keys.
+   * @param <V> Type for values.
+   * @return A new map with the given entries.
+   * @throws IllegalArgumentException If n is negative, there are fewer
+   *     than n entries, or keys are null or out of order.
+   */
+  public static <K extends Comparable<K>, V> BinarySearchTreeMap<K, V>
+      fromSorted(Iterator<K> keys, Iterator<V> values, int n) {
+    SortedInput<K, V> in = new SortedInput<>(keys, values, n);
+    BinarySearchTreeMap<K, V> map = new BinarySearchTreeMap<>();
+    map.root = build(in, n);
+    map.size = n;
+    return map;
+  }
+
+  // Build a balanced subtree from the next n entries, in order.
+  private static <K extends Comparable<K>, V> Node<K, V> build(
+      SortedInput<K, V> in, int n) {
+    if (n == 0) {
+      return null;
+    }
+    int leftSize = (n - 1) / 2;
+    Node<K, V> left = build(in, leftSize);
+    Node<K, V> node = new Node<>(in.nextKey(), in.nextValue());
+    node.left = left;
+    node.right = build(in, n - 1 - leftSize);
+    return node;
+  }
 
   @Override
   public int size() {
     return size;
   }
 
+  /**
+   * Metrics of this map's searches, collected only if
+   * MapMetrics.ENABLED.
+   *
+   * @return The metrics, live; shared by all maps while disabled.
+   */
+  public MapMetrics metrics() {
+    return metrics;
+  }
+
+  @Override
+  public ShapeStats shapeStats() {
+    return ShapeStats.of(root, size, n -> n.left, n -> n.right);
+  }
+
+  @Override
+  public ShapeStats shapeStats(int samples) {
+    return ShapeStats.sample(root, size, samples, n -> n.left,
+        n -> n.right);
+  }
+
   // Return node for given key. This one is iterative, but a recursive
   // one would also work. It's just that there's no real advantage to
   // using recursion for this operation.
@@ -36,17 +105,22 @@ public class BinarySearchTreeMap<K extends Comparable<K>, V>
       throw new IllegalArgumentException("cannot handle null key");
     }
     Node<K, V> n = root;
+    int compared = 0;
     while (n != null) {
       int cmp = k.compareTo(n.key);
+      compared++;
       if (cmp < 0) {
         n = n.left;
       } else if (cmp > 0) {
         n = n.right;
       } else {
-        return n;
+        break;
       }
     }
-    return null;
+    if (MapMetrics.ENABLED) {
+      metrics.searched(compared);
+    }
+    return n;
   }
 
   @Override
@@ -79,64 +153,136 @@ public class BinarySearchTreeMap<K extends Comparable<K>, V>
     return n.value;
   }
 
-  // Insert given key and value into subtree rooted at given node;
-  // return changed subtree with a new node added. Unlike in find()
-  // above, doing this recursively *has* benefits: First we get
-  // away with simpler code that doesn't need parent pointers,
-  // second the recursive structure makes it easier to add fancy
-  // tree balancing code (later).
-  private Node<K, V> insert(Node<K, V> n, K k, V v) {
-    if (n == null) {
-      return new Node<>(k, v);
+  // Insertion is a single iterative descent (see findOrCreate below),
+  // so even a tree that degenerated into a list on sorted input does
+  // not overflow the call stack.
+  @Override
+  public void insert(K k, V v) {
+    Node<K, V> n = findOrCreate(k);
+    if (!created) {
+      throw new IllegalArgumentException("duplicate key " + k);
     }
+    n.value = v;
+  }
 
-    int cmp = k.compareTo(n.key);
-    if (cmp < 0) {
-      n.left = insert(n.left, k, v);
-    } else if (cmp > 0) {
-      n.right = insert(n.right, k, v);
+  // Return node for given key, adding a new one (with a null value) if
+  // the key is not in the tree yet; sets created accordingly. This
+  // takes a single descent since there is no balancing to do on the
+  // way back up.
+  private Node<K, V> findOrCreate(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    Node<K, V> parent = null;
+    Node<K, V> n = root;
+    int cmp = 0;
+    int compared = 0;
+    while (n != null) {
+      cmp = k.compareTo(n.key);
+      compared++;
+      if (cmp == 0) {
+        if (MapMetrics.ENABLED) {
+          metrics.searched(compared);
+        }
+        created = false;
+        return n;
+      }
+      parent = n;
+      n = cmp < 0 ? n.left : n.right;
+    }
+    if (MapMetrics.ENABLED) {
+      metrics.searched(compared);
+    }
+    n = new Node<>(k, null);
+    if (parent == null) {
+      root = n;
+    } else if (cmp < 0) {
+      parent.left = n;
     } else {
-      throw new IllegalArgumentException("duplicate key " + k);
+      parent.right = n;
     }
-
+    size++;
+    modCount++;
+    created = true;
     return n;
   }
 
   @Override
-  public void insert(K k, V v) {
-    if (k == null) {
-      throw new IllegalArgumentException("cannot handle null key");
+  public boolean putIfAbsent(K k, V v) {
+    Node<K, V> n = findOrCreate(k);
+    if (created) {
+      n.value = v;
     }
-    root = insert(root, k, v);
-    size++;
+    return created;
   }
 
+  @Override
+  public V merge(K k, V v, BiFunction<? super V, ? super V, ? extends V> f) {
+    Node<K, V> n = findOrCreate(k);
+    n.value = created ? v : f.apply(n.value, v);
+    return n.value;
+  }
+
+  @Override
+  public V compute(K k, BiFunction<? super K, ? super V, ? extends V> f) {
+    Node<K, V> n = findOrCreate(k);
+    boolean isNew = created;
+    try {
+      n.value = f.apply(k, n.value);
+    } catch (RuntimeException | Error e) {
+      if (isNew) {
+        remove(k);
+      }
+      throw e;
+    }
+    return n.value;
+  }
+
+  // Remove the node for the given key without recursion: we remember
+  // its parent on the way down and then unlink it (structural change).
   @Override
   public V remove(K k) {
-    Node<K, V> node = findForSure(k);
-    root = remove(root, node);
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    Node<K, V> parent = null;
+    Node<K, V> node = root;
+    int compared = 0;
+    while (node != null) {
+      int cmp = k.compareTo(node.key);
+      compared++;
+      if (cmp == 0) {
+        break;
+      }
+      parent = node;
+      node = cmp < 0 ? node.left : node.right;
+    }
+    if (MapMetrics.ENABLED) {
+      metrics.searched(compared);
+    }
+    if (node == null) {
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    replace(parent, node, remove(node));
     size--;
+    modCount++;
     return node.value;
   }
 
-  // Remove node with given key from subtree rooted at given node;
-  // Return changed subtree with given key missing.
-  // Doing this recursively makes it easier to
-  // add fancy tree balancing code later.
-  private Node<K, V> remove(Node<K, V> subtreeRoot, Node<K, V> toRemove) {
-    int cmp = subtreeRoot.key.compareTo(toRemove.key);
-    if (cmp == 0) {
-      return remove(subtreeRoot);
-    } else if (cmp > 0) {
-      subtreeRoot.left = remove(subtreeRoot.left, toRemove);
+  // Make parent (or the root pointer, if parent is null) point to
+  // replacement instead of child.
+  private void replace(Node<K, V> parent, Node<K, V> child,
+                       Node<K, V> replacement) {
+    if (parent == null) {
+      root = replacement;
+    } else if (parent.left == child) {
+      parent.left = replacement;
     } else {
-      subtreeRoot.right = remove(subtreeRoot.right, toRemove);
+      parent.right = replacement;
     }
-
-    return subtreeRoot;
   }
 
-  // Remove given node and return the remaining tree (structural change).
+  // Unlink given node and return the subtree that takes its place.
   private Node<K, V> remove(Node<K, V> node) {
     // Easy if the node has 0 or 1 child.
     if (node.right == null) {
@@ -145,56 +291,264 @@ public class BinarySearchTreeMap<K extends Comparable<K>, V>
       return node.right;
     }
 
-    // If it has two children, find the predecessor (max in left subtree),
-    Node<K, V> toReplaceWith = max(node);
-    // then copy its data to the given node (value change),
-    node.key = toReplaceWith.key;
-    node.value = toReplaceWith.value;
-    // then remove the predecessor node (structural change).
-    node.left = remove(node.left, toReplaceWith);
+    // If it has two children, find the predecessor (max in left
+    // subtree) and its parent,
+    Node<K, V> parent = node;
+    Node<K, V> toReplaceWith = node.left;
+    while (toReplaceWith.right != null) {
+      parent = toReplaceWith;
+      toReplaceWith = toReplaceWith.right;
+    }
+    // then unlink the predecessor (it has no right child),
+    replace(parent, toReplaceWith, toReplaceWith.left);
+    // and move it into the removed node's place. Moving the node
+    // rather than copying its key and value keeps node.value intact
+    // for remove() to return.
+    toReplaceWith.left = node.left;
+    toReplaceWith.right = node.right;
+    return toReplaceWith;
+  }
 
-    return node;
+  // Return node with the largest key below k (or equal to k, if
+  // inclusive), or null if there is none.
+  private Node<K, V> below(K k, boolean inclusive) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    Node<K, V> best = null;
+    Node<K, V> n = root;
+    while (n != null) {
+      int cmp = k.compareTo(n.key);
+      if (cmp > 0 || (cmp == 0 && inclusive)) {
+        best = n;
+        if (cmp == 0) {
+          break;
+        }
+        n = n.right;
+      } else {
+        n = n.left;
+      }
+    }
+    return best;
+  }
+
+  // Return node with the smallest key above k (or equal to k, if
+  // inclusive), or null if there is none.
+  private Node<K, V> above(K k, boolean inclusive) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    Node<K, V> best = null;
+    Node<K, V> n = root;
+    while (n != null) {
+      int cmp = k.compareTo(n.key);
+      if (cmp < 0 || (cmp == 0 && inclusive)) {
+        best = n;
+        if (cmp == 0) {
+          break;
+        }
+        n = n.left;
+      } else {
+        n = n.right;
+      }
+    }
+    return best;
   }
 
-  // Return a node with maximum key in subtree rooted at given node.
-  private Node<K, V> max(Node<K, V> node) {
-    Node<K, V> curr = node.left;
-    while (curr.right != null) {
-      curr = curr.right;
+  @Override
+  public K firstKey() {
+    Node<K, V> n = root;
+    if (n == null) {
+      return null;
     }
-    return curr;
+    while (n.left != null) {
+      n = n.left;
+    }
+    return n.key;
   }
 
-  // Recursively add keys from subtree rooted at given node into the
-  // given list in order.
-  private void iteratorHelper(Node<K, V> n, List<K> keys) {
+  @Override
+  public K lastKey() {
+    Node<K, V> n = root;
     if (n == null) {
-      return;
+      return null;
+    }
+    while (n.right != null) {
+      n = n.right;
+    }
+    return n.key;
+  }
+
+  @Override
+  public K floorKey(K k) {
+    Node<K, V> n = below(k, true);
+    return n == null ? null : n.key;
+  }
+
+  @Override
+  public K lowerKey(K k) {
+    Node<K, V> n = below(k, false);
+    return n == null ? null : n.key;
+  }
+
+  @Override
+  public K ceilingKey(K k) {
+    Node<K, V> n = above(k, true);
+    return n == null ? null : n.key;
+  }
+
+  @Override
+  public K higherKey(K k) {
+    Node<K, V> n = above(k, false);
+    return n == null ? null : n.key;
+  }
+
+  @Override
+  public OrderedMap<K, V> subMap(K lo, K hi) {
+    if (lo == null || hi == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(lo, hi);
+  }
+
+  @Override
+  public OrderedMap<K, V> headMap(K hi) {
+    if (hi == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(null, hi);
+  }
+
+  @Override
+  public OrderedMap<K, V> tailMap(K lo) {
+    if (lo == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(lo, null);
+  }
+
+  // Range view backed by this tree that iterates over just the range.
+  private class SubMap extends OrderedSubMap<K, V> {
+    SubMap(K lo, K hi) {
+      super(BinarySearchTreeMap.this, lo, hi);
+    }
+
+    @Override
+    OrderedSubMap<K, V> narrow(K lo, K hi) {
+      return new SubMap(lo, hi);
+    }
+
+    @Override
+    public Iterator<K> iterator() {
+      return new InorderIterator(lo, hi);
+    }
+
+    @Override
+    public EntryIterator<K, V> entryIterator() {
+      return new InorderIterator(lo, hi);
     }
-    iteratorHelper(n.left, keys);
-    keys.add(n.key);
-    iteratorHelper(n.right, keys);
   }
 
   @Override
   public Iterator<K> iterator() {
-    List<K> keys = new ArrayList<K>();
-    iteratorHelper(root, keys);
-    return keys.iterator();
+    return new InorderIterator();
   }
 
-  // Recursively append string representations of keys and values from
-  // subtree rooted at given node in order.
-  private void toStringHelper(Node<K, V> n, StringBuilder s) {
-    if (n == null) {
-      return;
+  @Override
+  public EntryIterator<K, V> entryIterator() {
+    return new InorderIterator();
+  }
+
+  // In-order iterator that walks the tree on demand. The stack holds
+  // the nodes whose key has not been returned yet but whose left
+  // subtree is done (or in progress), so it never holds more nodes
+  // than the tree is high.
+  private class InorderIterator implements EntryIterator<K, V> {
+    private Node<K, V>[] stack;
+    private int top;
+    private final int expectedModCount;
+    // Exclusive upper bound, or null to iterate to the end.
+    private final K hi;
+    // Node of the key next() returned last, or null.
+    private Node<K, V> last;
+
+    InorderIterator() {
+      this(null, null);
+    }
+
+    // Iterate over the keys in [lo, hi); null bounds are open. The
+    // stack starts out as the path to the smallest key >= lo, minus
+    // the nodes below lo which are skipped.
+    @SuppressWarnings("unchecked")
+    InorderIterator(K lo, K hi) {
+      stack = (Node<K, V>[]) new Node<?, ?>[INITIAL_STACK];
+      expectedModCount = modCount;
+      this.hi = hi;
+      if (lo == null) {
+        pushLeftSpine(root);
+        return;
+      }
+      Node<K, V> n = root;
+      while (n != null) {
+        if (n.key.compareTo(lo) < 0) {
+          n = n.right;
+        } else {
+          push(n);
+          n = n.left;
+        }
+      }
+    }
+
+    private void push(Node<K, V> n) {
+      if (top == stack.length) {
+        stack = Arrays.copyOf(stack, 2 * top);
+      }
+      stack[top++] = n;
+    }
+
+    // Push n and all of its left descendants.
+    private void pushLeftSpine(Node<K, V> n) {
+      while (n != null) {
+        push(n);
+        n = n.left;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return top > 0 && (hi == null || stack[top - 1].key.compareTo(hi) < 0);
+    }
+
+    @Override
+    public K next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      last = nextNode();
+      return last.key;
+    }
+
+    @Override
+    public V value() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (last == null) {
+        throw new IllegalStateException("next() not called yet");
+      }
+      return last.value;
+    }
+
+    // Next node in order; the caller checks hasNext() first.
+    Node<K, V> nextNode() {
+      Node<K, V> n = stack[--top];
+      stack[top] = null;
+      pushLeftSpine(n.right);
+      return n;
     }
-    toStringHelper(n.left, s);
-    s.append(n.key);
-    s.append(": ");
-    s.append(n.value);
-    s.append(", ");
-    toStringHelper(n.right, s);
   }
 
   @Override
@@ -202,12 +556,21 @@ public class BinarySearchTreeMap<K extends Comparable<K>, V>
     StringBuilder stringBuilder = new StringBuilder();
     stringBuilder.append("{");
 
-    toStringHelper(root, stringBuilder);
+    // Walk the tree with an iterator rather than recursively so that
+    // degenerate trees don't overflow the call stack.
+    InorderIterator it = new InorderIterator();
+    while (it.hasNext()) {
+      Node<K, V> n = it.nextNode();
+      stringBuilder.append(n.key);
+      stringBuilder.append(": ");
+      stringBuilder.append(n.value);
+      stringBuilder.append(", ");
+    }
 
     int length = stringBuilder.length();
     if (length > 1) {
       // If anything was appended at all, get rid of the last ", "
-      // toStringHelper put in; easier to correct this after the
+      // the loop put in; easier to correct this after the
       // fact than to avoid making the mistake in the first place.
       stringBuilder.setLength(length - 2);
     }
@@ -218,8 +581,8 @@ public class BinarySearchTreeMap<K extends Comparable<K>, V>
 
   // Node class holds a key (which is what we sort the BST by)
   // as well as a value.
-  // We don't need a parent pointer as long as we use recursive
-  // insert/remove helpers.
+  // We don't need a parent pointer since insert/remove keep track
+  // of the parent on their way down.
   private static class Node<K, V> {
     Node<K, V> left;
     Node<K, V> right;
@@ -0,0 +1,27 @@
+package hw6;
+
+import java.util.Iterator;
+
+/**
+ * Builds a map from entries in key order, like the fromSorted() methods
+ * of the tree maps, so AvlTreeMap::fromSorted and TreapMap::fromSorted
+ * can be passed wherever one is needed.
+ *
+ * @param <K> Type for keys.
+ * @param <V> Type for values.
+ */
+@FunctionalInterface
+public interface BulkLoader<K extends Comparable<K>, V> {
+  /**
+   * Build a map. The iterators are read one key and then its value at
+   * a time, so they may be backed by a single stream of entries.
+   *
+   * @param keys n keys in strictly increasing order.
+   * @param values The n values, in the same order.
+   * @param n Number of entries.
+   * @return A new map with the given entries.
+   * @throws IllegalArgumentException If there are fewer than n entries,
+   *     or keys are null or out of order.
+   */
+  OrderedMap<K, V> load(Iterator<K> keys, Iterator<V> values, int n);
+}
@@ -0,0 +1,134 @@
+package hw6;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts values to and from bytes on a stream, for maps that write
+ * their entries to files.
+ *
+ * @param <T> Type of the values.
+ */
+public interface Codec<T> {
+  /** Longs as 8 bytes. */
+  Codec<Long> LONG = new Codec<>() {
+    @Override
+    public void write(Long value, DataOutput out) throws IOException {
+      out.writeLong(value);
+    }
+
+    @Override
+    public Long read(DataInput in) throws IOException {
+      return in.readLong();
+    }
+  };
+
+  /** Integers as 4 bytes. */
+  Codec<Integer> INTEGER = new Codec<>() {
+    @Override
+    public void write(Integer value, DataOutput out) throws IOException {
+      out.writeInt(value);
+    }
+
+    @Override
+    public Integer read(DataInput in) throws IOException {
+      return in.readInt();
+    }
+  };
+
+  /** Strings as a 4 byte length followed by that many bytes of UTF-8. */
+  Codec<String> STRING = new Codec<>() {
+    @Override
+    public void write(String value, DataOutput out) throws IOException {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+
+    @Override
+    public String read(DataInput in) throws IOException {
+      int n = in.readInt();
+      if (n < 0) {
+        throw new IOException("negative string length " + n);
+      }
+      byte[] bytes = new byte[n];
+      in.readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  };
+
+  /**
+   * Integers as 1 to 5 bytes, fewer for values close to 0 (zigzag
+   * varints), which suits counts.
+   */
+  Codec<Integer> VARINT = new Codec<>() {
+    @Override
+    public void write(Integer value, DataOutput out) throws IOException {
+      int x = value << 1 ^ value >> 31;
+      while ((x & ~0x7f) != 0) {
+        out.writeByte(x & 0x7f | 0x80);
+        x >>>= 7;
+      }
+      out.writeByte(x);
+    }
+
+    @Override
+    public Integer read(DataInput in) throws IOException {
+      int x = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        int b = in.readUnsignedByte();
+        x |= (b & 0x7f) << shift;
+        if (b < 0x80) {
+          return x >>> 1 ^ -(x & 1);
+        }
+      }
+      throw new IOException("varint too long");
+    }
+  };
+
+  /** Longs as 1 to 10 bytes, like VARINT. */
+  Codec<Long> VARLONG = new Codec<>() {
+    @Override
+    public void write(Long value, DataOutput out) throws IOException {
+      long x = value << 1 ^ value >> 63;
+      while ((x & ~0x7fL) != 0) {
+        out.writeByte((int) (x & 0x7f | 0x80));
+        x >>>= 7;
+      }
+      out.writeByte((int) x);
+    }
+
+    @Override
+    public Long read(DataInput in) throws IOException {
+      long x = 0;
+      for (int shift = 0; shift < 70; shift += 7) {
+        int b = in.readUnsignedByte();
+        x |= (long) (b & 0x7f) << shift;
+        if (b < 0x80) {
+          return x >>> 1 ^ -(x & 1);
+        }
+      }
+      throw new IOException("varint too long");
+    }
+  };
+
+  /**
+   * Write a value.
+   *
+   * @param value The value, not null.
+   * @param out Stream to write to.
+   * @throws IOException If writing fails.
+   */
+  void write(T value, DataOutput out) throws IOException;
+
+  /**
+   * Read a value written by write().
+   *
+   * @param in Stream to read from.
+   * @return The value.
+   * @throws IOException If reading fails or the bytes make no sense.
+   */
+  T read(DataInput in) throws IOException;
+}
@@ -0,0 +1,625 @@
+package hw6;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+
+/**
+ * Thread-safe ordered maps implemented as persistent treaps.
+ *
+ * <P>Nodes are immutable. A writer copies the path from the root down to
+ * the node it changes (plus whatever rotations touch), which gives a
+ * new root that shares every other node with the old one, and then
+ * publishes it with a compare-and-set on the root reference. If another
+ * writer got there first, it starts over on the new root. Readers just
+ * read the root once and work on that snapshot, so get, has, the key
+ * queries and iteration are wait-free and never see a half-done
+ * update. Iterators see the map as it was when they were created and
+ * never throw ConcurrentModificationException.</P>
+ *
+ * <P>Every write allocates O(log n) expected nodes, so this pays off
+ * when reads are much more common than writes. Priorities come from
+ * ThreadLocalRandom, so writers don't contend on a shared generator.
+ * The functions passed to merge and compute may be called more than
+ * once if the write has to be retried, so they should not have side
+ * effects.</P>
+ *
+ * @param <K> Type for keys.
+ * @param <V> Type for values.
+ */
+public class ConcurrentTreapMap<K extends Comparable<K>, V>
+    implements OrderedMap<K, V> {
+
+  // Initial capacity of the iterator stack; it grows if needed.
+  private static final int INITIAL_STACK = 32;
+
+  // Current version of the treap; null when empty.
+  private final AtomicReference<Node<K, V>> root = new AtomicReference<>();
+
+  // Throw if k is null.
+  private static void checkKey(Object k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+  }
+
+  // Return node for given key in the given version, or null.
+  private static <K extends Comparable<K>, V> Node<K, V> find(
+      Node<K, V> n, K k) {
+    while (n != null) {
+      int cmp = k.compareTo(n.key);
+      if (cmp < 0) {
+        n = n.left;
+      } else if (cmp > 0) {
+        n = n.right;
+      } else {
+        return n;
+      }
+    }
+    return null;
+  }
+
+  // Return a copy of subtree n with a new node for k (which is not in
+  // it yet), rotated up while its priority is smaller than its
+  // parent's. Only nodes on the path to the new node are copied.
+  private static <K extends Comparable<K>, V> Node<K, V> insert(
+      Node<K, V> n, K k, V v, int priority) {
+    if (n == null) {
+      return new Node<>(k, v, priority, null, null);
+    }
+    if (k.compareTo(n.key) < 0) {
+      Node<K, V> left = insert(n.left, k, v, priority);
+      if (left.priority < n.priority) {
+        // Right rotation.
+        return left.with(left.left, n.with(left.right, n.right));
+      }
+      return n.with(left, n.right);
+    }
+    Node<K, V> right = insert(n.right, k, v, priority);
+    if (right.priority < n.priority) {
+      // Left rotation.
+      return right.with(n.with(n.left, right.left), right.right);
+    }
+    return n.with(n.left, right);
+  }
+
+  // Return a copy of subtree n with the value of k (which is in it)
+  // replaced.
+  private static <K extends Comparable<K>, V> Node<K, V> replace(
+      Node<K, V> n, K k, V v) {
+    int cmp = k.compareTo(n.key);
+    if (cmp < 0) {
+      return n.with(replace(n.left, k, v), n.right);
+    } else if (cmp > 0) {
+      return n.with(n.left, replace(n.right, k, v));
+    }
+    return new Node<>(k, v, n.priority, n.left, n.right);
+  }
+
+  // Return a copy of subtree n without k (which is in it).
+  private static <K extends Comparable<K>, V> Node<K, V> delete(
+      Node<K, V> n, K k) {
+    int cmp = k.compareTo(n.key);
+    if (cmp < 0) {
+      return n.with(delete(n.left, k), n.right);
+    } else if (cmp > 0) {
+      return n.with(n.left, delete(n.right, k));
+    }
+    return join(n.left, n.right);
+  }
+
+  // Join two treaps where all keys in a are smaller than all keys in
+  // b, copying only the nodes along the seam.
+  private static <K, V> Node<K, V> join(Node<K, V> a, Node<K, V> b) {
+    if (a == null) {
+      return b;
+    }
+    if (b == null) {
+      return a;
+    }
+    if (a.priority < b.priority) {
+      return a.with(a.left, join(a.right, b));
+    }
+    return b.with(join(a, b.left), b.right);
+  }
+
+  private static int nextPriority() {
+    return ThreadLocalRandom.current().nextInt();
+  }
+
+  @Override
+  public void insert(K k, V v) {
+    checkKey(k);
+    while (true) {
+      Node<K, V> r = root.get();
+      if (find(r, k) != null) {
+        throw new IllegalArgumentException("duplicate key " + k);
+      }
+      if (root.compareAndSet(r, insert(r, k, v, nextPriority()))) {
+        return;
+      }
+    }
+  }
+
+  @Override
+  public V remove(K k) {
+    checkKey(k);
+    while (true) {
+      Node<K, V> r = root.get();
+      Node<K, V> n = find(r, k);
+      if (n == null) {
+        throw new IllegalArgumentException("cannot find key " + k);
+      }
+      if (root.compareAndSet(r, delete(r, k))) {
+        return n.value;
+      }
+    }
+  }
+
+  @Override
+  public void put(K k, V v) {
+    checkKey(k);
+    while (true) {
+      Node<K, V> r = root.get();
+      if (find(r, k) == null) {
+        throw new IllegalArgumentException("cannot find key " + k);
+      }
+      if (root.compareAndSet(r, replace(r, k, v))) {
+        return;
+      }
+    }
+  }
+
+  @Override
+  public V get(K k) {
+    checkKey(k);
+    Node<K, V> n = find(root.get(), k);
+    if (n == null) {
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    return n.value;
+  }
+
+  @Override
+  public boolean has(K k) {
+    if (k == null) {
+      return false;
+    }
+    return find(root.get(), k) != null;
+  }
+
+  @Override
+  public int size() {
+    return size(root.get());
+  }
+
+  @Override
+  public ShapeStats shapeStats() {
+    Node<K, V> r = root.get();
+    return ShapeStats.of(r, size(r), n -> n.left, n -> n.right);
+  }
+
+  @Override
+  public ShapeStats shapeStats(int samples) {
+    Node<K, V> r = root.get();
+    return ShapeStats.sample(r, size(r), samples, n -> n.left,
+        n -> n.right);
+  }
+
+  private static int size(Node<?, ?> n) {
+    return n == null ? 0 : n.size;
+  }
+
+  @Override
+  public boolean putIfAbsent(K k, V v) {
+    checkKey(k);
+    while (true) {
+      Node<K, V> r = root.get();
+      if (find(r, k) != null) {
+        return false;
+      }
+      if (root.compareAndSet(r, insert(r, k, v, nextPriority()))) {
+        return true;
+      }
+    }
+  }
+
+  @Override
+  public V merge(K k, V v, BiFunction<? super V, ? super V, ? extends V> f) {
+    checkKey(k);
+    while (true) {
+      Node<K, V> r = root.get();
+      Node<K, V> n = find(r, k);
+      V result = n == null ? v : f.apply(n.value, v);
+      Node<K, V> updated = n == null
+          ? insert(r, k, result, nextPriority()) : replace(r, k, result);
+      if (root.compareAndSet(r, updated)) {
+        return result;
+      }
+    }
+  }
+
+  @Override
+  public V compute(K k, BiFunction<? super K, ? super V, ? extends V> f) {
+    checkKey(k);
+    while (true) {
+      Node<K, V> r = root.get();
+      Node<K, V> n = find(r, k);
+      V result = f.apply(k, n == null ? null : n.value);
+      Node<K, V> updated = n == null
+          ? insert(r, k, result, nextPriority()) : replace(r, k, result);
+      if (root.compareAndSet(r, updated)) {
+        return result;
+      }
+    }
+  }
+
+  // Return node with the largest key below k (or equal to k, if
+  // inclusive) in the given version, or null if there is none.
+  private static <K extends Comparable<K>, V> Node<K, V> below(
+      Node<K, V> n, K k, boolean inclusive) {
+    checkKey(k);
+    Node<K, V> best = null;
+    while (n != null) {
+      int cmp = k.compareTo(n.key);
+      if (cmp == 0 && inclusive) {
+        return n;
+      }
+      if (cmp > 0) {
+        best = n;
+        n = n.right;
+      } else {
+        n = n.left;
+      }
+    }
+    return best;
+  }
+
+  // Return node with the smallest key above k (or equal to k, if
+  // inclusive) in the given version, or null if there is none.
+  private static <K extends Comparable<K>, V> Node<K, V> above(
+      Node<K, V> n, K k, boolean inclusive) {
+    checkKey(k);
+    Node<K, V> best = null;
+    while (n != null) {
+      int cmp = k.compareTo(n.key);
+      if (cmp == 0 && inclusive) {
+        return n;
+      }
+      if (cmp < 0) {
+        best = n;
+        n = n.left;
+      } else {
+        n = n.right;
+      }
+    }
+    return best;
+  }
+
+  private static <K> K key(Node<K, ?> n) {
+    return n == null ? null : n.key;
+  }
+
+  @Override
+  public K firstKey() {
+    Node<K, V> n = root.get();
+    while (n != null && n.left != null) {
+      n = n.left;
+    }
+    return key(n);
+  }
+
+  @Override
+  public K lastKey() {
+    Node<K, V> n = root.get();
+    while (n != null && n.right != null) {
+      n = n.right;
+    }
+    return key(n);
+  }
+
+  @Override
+  public K floorKey(K k) {
+    return key(below(root.get(), k, true));
+  }
+
+  @Override
+  public K lowerKey(K k) {
+    return key(below(root.get(), k, false));
+  }
+
+  @Override
+  public K ceilingKey(K k) {
+    return key(above(root.get(), k, true));
+  }
+
+  @Override
+  public K higherKey(K k) {
+    return key(above(root.get(), k, false));
+  }
+
+  @Override
+  public int rank(K k) {
+    checkKey(k);
+    return rankIn(root.get(), k);
+  }
+
+  @Override
+  public K select(int i) {
+    Node<K, V> r = root.get();
+    if (i < 0 || i >= size(r)) {
+      throw new IllegalArgumentException("position out of range " + i);
+    }
+    return selectIn(r, i);
+  }
+
+  @Override
+  public int countInRange(K lo, K hi) {
+    checkKey(lo);
+    checkKey(hi);
+    if (lo.compareTo(hi) > 0) {
+      throw new IllegalArgumentException("empty range " + lo + ", " + hi);
+    }
+    // Both ranks from one version, so a concurrent change can't make
+    // the count negative.
+    Node<K, V> r = root.get();
+    return rankIn(r, hi) - rankIn(r, lo);
+  }
+
+  // Number of keys less than k in the treap rooted at n.
+  private static <K extends Comparable<K>> int rankIn(Node<K, ?> n, K k) {
+    int rank = 0;
+    while (n != null) {
+      int cmp = k.compareTo(n.key);
+      if (cmp <= 0) {
+        n = n.left;
+      } else {
+        rank += size(n.left) + 1;
+        n = n.right;
+      }
+    }
+    return rank;
+  }
+
+  // Key at position i of the treap rooted at n; i must be in range.
+  private static <K> K selectIn(Node<K, ?> n, int i) {
+    while (true) {
+      int leftSize = size(n.left);
+      if (i < leftSize) {
+        n = n.left;
+      } else if (i > leftSize) {
+        i -= leftSize + 1;
+        n = n.right;
+      } else {
+        return n.key;
+      }
+    }
+  }
+
+  @Override
+  public OrderedMap<K, V> subMap(K lo, K hi) {
+    checkKey(lo);
+    checkKey(hi);
+    return new SubMap(lo, hi);
+  }
+
+  @Override
+  public OrderedMap<K, V> headMap(K hi) {
+    checkKey(hi);
+    return new SubMap(null, hi);
+  }
+
+  @Override
+  public OrderedMap<K, V> tailMap(K lo) {
+    checkKey(lo);
+    return new SubMap(lo, null);
+  }
+
+  // Range view backed by this map that iterates over just the range.
+  // Like the iterator, size(), rank(), select() and countInRange() work
+  // on one version of the treap; going through the backing map would
+  // read the root once per bound and mix versions.
+  private class SubMap extends OrderedSubMap<K, V> {
+    SubMap(K lo, K hi) {
+      super(ConcurrentTreapMap.this, lo, hi);
+    }
+
+    // Rank of the lower bound in version r.
+    private int loRank(Node<K, V> r) {
+      return lo == null ? 0 : rankIn(r, lo);
+    }
+
+    // Rank of the upper bound in version r.
+    private int hiRank(Node<K, V> r) {
+      return hi == null ? ConcurrentTreapMap.size(r) : rankIn(r, hi);
+    }
+
+    // Rank of k within the view, in version r.
+    private int viewRank(Node<K, V> r, K k) {
+      if (!aboveLo(k)) {
+        return 0;
+      }
+      return (belowHi(k) ? rankIn(r, k) : hiRank(r)) - loRank(r);
+    }
+
+    @Override
+    public int size() {
+      Node<K, V> r = root.get();
+      return hiRank(r) - loRank(r);
+    }
+
+    @Override
+    public int rank(K k) {
+      checkKey(k);
+      return viewRank(root.get(), k);
+    }
+
+    @Override
+    public K select(int i) {
+      Node<K, V> r = root.get();
+      int loRank = loRank(r);
+      if (i < 0 || i >= hiRank(r) - loRank) {
+        throw new IllegalArgumentException("position out of range " + i);
+      }
+      return selectIn(r, loRank + i);
+    }
+
+    @Override
+    public int countInRange(K from, K to) {
+      checkKey(from);
+      checkKey(to);
+      if (from.compareTo(to) > 0) {
+        throw new IllegalArgumentException(
+            "empty range " + from + ", " + to);
+      }
+      Node<K, V> r = root.get();
+      return viewRank(r, to) - viewRank(r, from);
+    }
+
+    @Override
+    OrderedSubMap<K, V> narrow(K lo, K hi) {
+      return new SubMap(lo, hi);
+    }
+
+    @Override
+    public Iterator<K> iterator() {
+      return new InorderIterator<>(root.get(), lo, hi);
+    }
+
+    @Override
+    public EntryIterator<K, V> entryIterator() {
+      return new InorderIterator<>(root.get(), lo, hi);
+    }
+  }
+
+  @Override
+  public Iterator<K> iterator() {
+    return new InorderIterator<>(root.get(), null, null);
+  }
+
+  @Override
+  public EntryIterator<K, V> entryIterator() {
+    return new InorderIterator<>(root.get(), null, null);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    s.append("{");
+    InorderIterator<K, V> it = new InorderIterator<>(root.get(), null, null);
+    while (it.hasNext()) {
+      Node<K, V> n = it.nextNode();
+      s.append(n.key);
+      s.append(": ");
+      s.append(n.value);
+      if (it.hasNext()) {
+        s.append(", ");
+      }
+    }
+    s.append("}");
+    return s.toString();
+  }
+
+  // In-order iterator over one version of the treap. Since that version
+  // never changes, there is nothing to check for concurrent changes.
+  private static final class InorderIterator<K extends Comparable<K>, V>
+      implements EntryIterator<K, V> {
+    private Node<K, V>[] stack;
+    private int top;
+    // Exclusive upper bound, or null to iterate to the end.
+    private final K hi;
+    // Node of the key next() returned last, or null.
+    private Node<K, V> last;
+
+    // Iterate over the keys in [lo, hi) of the version rooted at n;
+    // null bounds are open.
+    @SuppressWarnings("unchecked")
+    InorderIterator(Node<K, V> n, K lo, K hi) {
+      stack = (Node<K, V>[]) new Node<?, ?>[INITIAL_STACK];
+      this.hi = hi;
+      while (n != null) {
+        if (lo != null && n.key.compareTo(lo) < 0) {
+          n = n.right;
+        } else {
+          push(n);
+          n = n.left;
+        }
+      }
+    }
+
+    private void push(Node<K, V> n) {
+      if (top == stack.length) {
+        stack = Arrays.copyOf(stack, 2 * top);
+      }
+      stack[top++] = n;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return top > 0 && (hi == null || stack[top - 1].key.compareTo(hi) < 0);
+    }
+
+    @Override
+    public K next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      last = nextNode();
+      return last.key;
+    }
+
+    // The value in the version iterated over, like the keys.
+    @Override
+    public V value() {
+      if (last == null) {
+        throw new IllegalStateException("next() not called yet");
+      }
+      return last.value;
+    }
+
+    // Next node in order; the caller checks hasNext() first.
+    Node<K, V> nextNode() {
+      Node<K, V> n = stack[--top];
+      stack[top] = null;
+      for (Node<K, V> c = n.right; c != null; c = c.left) {
+        push(c);
+      }
+      return n;
+    }
+  }
+
+  // Immutable node; size is the number of nodes in its subtree.
+  private static final class Node<K, V> {
+    final K key;
+    final V value;
+    final int priority;
+    final Node<K, V> left;
+    final Node<K, V> right;
+    final int size;
+
+    Node(K k, V v, int p, Node<K, V> l, Node<K, V> r) {
+      key = k;
+      value = v;
+      priority = p;
+      left = l;
+      right = r;
+      size = ConcurrentTreapMap.size(l) + ConcurrentTreapMap.size(r) + 1;
+    }
+
+    // Copy of this node with other children.
+    Node<K, V> with(Node<K, V> l, Node<K, V> r) {
+      return new Node<>(key, value, priority, l, r);
+    }
+
+    // Just for debugging purposes.
+    public String toString() {
+      return "Node<key: " + key
+          + "; value: " + value
+          + "; priority: " + priority
+          + ">";
+    }
+  }
+}
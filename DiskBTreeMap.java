@@ -0,0 +1,1264 @@
+package hw6;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+import java.util.zip.CRC32;
+
+/**
+ * Ordered maps implemented as B+trees in a memory-mapped file, for key
+ * sets that don't fit on the heap.
+ *
+ * <p>The file is a sequence of fixed-size pages (see MappedPageFile).
+ * Pages 0 and 1 hold two copies of the header: root page, number of
+ * pages, number of entries, free list and a generation number, with a
+ * checksum. Every other page is a leaf, an inner node or part of the
+ * free list. Keys and values are stored in the form their
+ * FixedWidthCodec gives them, and searches compare in place through
+ * the key codec, so a lookup decodes only the value it returns.</p>
+ *
+ * <p>Updates are copy-on-write: a page reachable from the last
+ * committed header is never written. The first change to such a page
+ * in a transaction copies it to a free page, which means copying its
+ * ancestors up to the root as well; later changes in the same
+ * transaction write the copy in place. commit() flushes the new pages,
+ * then writes the header with the next generation number into the
+ * other header page. Opening a file picks the valid header with the
+ * larger generation, so a crash at any point leaves the file as of the
+ * last commit. Pages replaced by a transaction are reused once the
+ * transaction after it starts; the free list is written to fresh pages
+ * at every commit.</p>
+ *
+ * <p>Opening an existing file reads one header page; pages are mapped
+ * as they are needed. Iterators keep a stack of pages and positions and
+ * read one page at a time; those of range views start on the path to
+ * their lower bound. Nodes don't keep subtree sizes, so rank() and
+ * select() fall back to the O(n) defaults of OrderedMap. Values can't
+ * be null. Like the other maps this is not thread-safe.</p>
+ *
+ * @param <K> Type for keys.
+ * @param <V> Type for values.
+ */
+public class DiskBTreeMap<K extends Comparable<K>, V>
+    implements OrderedMap<K, V>, Closeable {
+
+  /** Page size used by the short constructor. */
+  public static final int DEFAULT_PAGE_SIZE = 4096;
+  /**
+   * Number of mapped regions used by the short constructor; 1 GB of
+   * address space at the default page size (not memory: the operating
+   * system decides which pages stay resident).
+   */
+  public static final int DEFAULT_CACHED_REGIONS = 1024;
+
+  private static final int MAGIC = 0x48574254;
+  private static final int VERSION = 1;
+  // Header fields.
+  private static final int H_MAGIC = 0;
+  private static final int H_VERSION = 4;
+  private static final int H_PAGE_SIZE = 8;
+  private static final int H_KEY_WIDTH = 12;
+  private static final int H_VALUE_WIDTH = 16;
+  private static final int H_GENERATION = 20;
+  private static final int H_ROOT = 28;
+  private static final int H_PAGE_COUNT = 32;
+  private static final int H_SIZE = 36;
+  private static final int H_FREE_HEAD = 40;
+  private static final int H_FREE_COUNT = 44;
+  private static final int H_CRC = 48;
+  private static final int HEADER_BYTES = 52;
+  // Node fields: kind, number of keys, then the keys and either the
+  // values or the child page numbers.
+  private static final int KIND = 0;
+  private static final int COUNT = 2;
+  private static final int BODY = 4;
+  private static final byte LEAF = 1;
+  private static final byte INNER = 2;
+  // Free list page fields: next page, number of ids, ids.
+  private static final int FREE_NEXT = 0;
+  private static final int FREE_COUNT = 4;
+  private static final int FREE_IDS = 8;
+  // Pages 0 and 1 are headers, so 0 never names a node.
+  private static final int NIL = 0;
+  private static final int FIRST_PAGE = 2;
+  // Initial capacity of the path buffer and iterator stacks; they grow
+  // if needed.
+  private static final int INITIAL_PATH = 8;
+
+  private final FixedWidthCodec<K> keyCodec;
+  private final FixedWidthCodec<V> valueCodec;
+  private final int keyWidth;
+  private final int valueWidth;
+  private final int pageSize;
+  // Most keys in a leaf and in an inner node; both have room for one
+  // more so a node can overflow before it is split.
+  private final int leafKeys;
+  private final int innerKeys;
+  private final int minLeafKeys;
+  private final int minInnerKeys;
+  // Offsets of the values in a leaf and of the children in an inner
+  // node.
+  private final int valuesAt;
+  private final int childrenAt;
+  // Null once the map is closed.
+  private MappedPageFile file;
+
+  // State as of the last commit, plus the changes since.
+  private long generation;
+  private int root;
+  private int pageCount;
+  private int size;
+  // Pages written by the current transaction; they are not reachable
+  // from the committed header, so they can be changed in place.
+  private final BitSet fresh = new BitSet();
+  // Free pages: reusable ones aren't reachable from the committed
+  // header, pending ones are (they were replaced by the current
+  // transaction, or they hold the committed free list) and become
+  // reusable at the next commit.
+  private IntStack reusable = new IntStack();
+  private IntStack pending = new IntStack();
+  private boolean changed;
+  // Number of changes, for fail-fast iterators; since any change can
+  // move pages, this counts value updates too.
+  private int modCount;
+
+  // Pages on the path from the root taken by the current operation,
+  // path[0] being the root and path[depth] the leaf, and the child
+  // taken in each inner node.
+  private int[] path = new int[INITIAL_PATH];
+  private int[] pathChild = new int[INITIAL_PATH];
+  // Encoded key and value being written, and the separator being
+  // added to an inner node; encoding before the tree changes means a
+  // value the codec refuses leaves the tree alone.
+  private final ByteBuffer keyBytes;
+  private final ByteBuffer valueBytes;
+  private final ByteBuffer separator;
+  // Buffer for moving bytes within and between pages.
+  private final byte[] moving;
+
+  /**
+   * Open or create a map with the default page size and cache.
+   *
+   * @param path File to use; created if it doesn't exist.
+   * @param keyCodec Codec for keys; its order must match compareTo().
+   * @param valueCodec Codec for values.
+   * @throws IOException If the file can't be opened or is corrupt.
+   * @throws IllegalArgumentException If the file was written with a
+   *     different page size or codec widths.
+   */
+  public DiskBTreeMap(Path path, FixedWidthCodec<K> keyCodec,
+                      FixedWidthCodec<V> valueCodec) throws IOException {
+    this(path, keyCodec, valueCodec, DEFAULT_PAGE_SIZE,
+        DEFAULT_CACHED_REGIONS);
+  }
+
+  /**
+   * Open or create a map.
+   *
+   * @param path File to use; created if it doesn't exist.
+   * @param keyCodec Codec for keys; its order must match compareTo().
+   * @param valueCodec Codec for values.
+   * @param pageSize Bytes per page; must be the same every time the
+   *     file is opened.
+   * @param cachedRegions Most regions of MappedPageFile.REGION_PAGES
+   *     pages to keep mapped.
+   * @throws IOException If the file can't be opened or is corrupt.
+   * @throws IllegalArgumentException If pages don't hold between 4 and
+   *     65534 entries, cachedRegions is not positive, or the file was
+   *     written with a different page size or codec widths.
+   */
+  public DiskBTreeMap(Path path, FixedWidthCodec<K> keyCodec,
+                      FixedWidthCodec<V> valueCodec, int pageSize,
+                      int cachedRegions) throws IOException {
+    this.keyCodec = keyCodec;
+    this.valueCodec = valueCodec;
+    this.keyWidth = keyCodec.width();
+    this.valueWidth = valueCodec.width();
+    this.pageSize = pageSize;
+    leafKeys = (pageSize - BODY) / (keyWidth + valueWidth) - 1;
+    innerKeys = (pageSize - BODY - keyWidth - 8) / (keyWidth + 4);
+    if (pageSize < HEADER_BYTES || leafKeys < 4 || innerKeys < 3) {
+      throw new IllegalArgumentException("page size too small " + pageSize);
+    }
+    if (leafKeys >= 0xffff) {
+      throw new IllegalArgumentException("page size too large " + pageSize);
+    }
+    if (cachedRegions < 1) {
+      throw new IllegalArgumentException("bad cache size " + cachedRegions);
+    }
+    minLeafKeys = leafKeys / 2;
+    minInnerKeys = (innerKeys + 2) / 2 - 1;
+    valuesAt = BODY + (leafKeys + 1) * keyWidth;
+    childrenAt = BODY + (innerKeys + 1) * keyWidth;
+    keyBytes = ByteBuffer.allocate(keyWidth);
+    valueBytes = ByteBuffer.allocate(valueWidth);
+    separator = ByteBuffer.allocate(keyWidth);
+    moving = new byte[pageSize];
+
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+    try {
+      file = new MappedPageFile(channel, pageSize, cachedRegions);
+      if (file.size() == 0) {
+        pageCount = FIRST_PAGE;
+        root = allocate();
+        initNode(page(root), LEAF);
+        changed = true;
+        commit();
+      } else {
+        load();
+      }
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  // Read the newest valid header and the free list it points to.
+  private void load() throws IOException {
+    ByteBuffer best = null;
+    for (int slot = 0; slot < 2; slot++) {
+      ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES);
+      if (!file.read(h, (long) slot * pageSize) || !validHeader(h)) {
+        continue;
+      }
+      if (h.getInt(H_PAGE_SIZE) != pageSize
+          || h.getInt(H_KEY_WIDTH) != keyWidth
+          || h.getInt(H_VALUE_WIDTH) != valueWidth) {
+        throw new IllegalArgumentException("file has page size "
+            + h.getInt(H_PAGE_SIZE) + ", key width "
+            + h.getInt(H_KEY_WIDTH) + ", value width "
+            + h.getInt(H_VALUE_WIDTH));
+      }
+      if (best == null || h.getLong(H_GENERATION)
+          > best.getLong(H_GENERATION)) {
+        best = h;
+      }
+    }
+    if (best == null) {
+      throw new IOException("no valid header");
+    }
+    generation = best.getLong(H_GENERATION);
+    root = best.getInt(H_ROOT);
+    pageCount = best.getInt(H_PAGE_COUNT);
+    size = best.getInt(H_SIZE);
+    fresh.clear();
+    reusable = new IntStack();
+    pending = new IntStack();
+    for (int p = best.getInt(H_FREE_HEAD); p != NIL;) {
+      ByteBuffer list = page(p);
+      int n = list.getInt(FREE_COUNT);
+      for (int i = 0; i < n; i++) {
+        reusable.push(list.getInt(FREE_IDS + 4 * i));
+      }
+      pending.push(p);
+      p = list.getInt(FREE_NEXT);
+    }
+    changed = false;
+  }
+
+  private static boolean validHeader(ByteBuffer h) {
+    if (h.getInt(H_MAGIC) != MAGIC || h.getInt(H_VERSION) != VERSION) {
+      return false;
+    }
+    return h.getInt(H_CRC) == crc(h);
+  }
+
+  private static int crc(ByteBuffer h) {
+    CRC32 crc = new CRC32();
+    crc.update(h.duplicate().position(0).limit(H_CRC));
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Make all changes since the last commit durable. If the process or
+   * machine crashes before this returns, the file reopens as of the
+   * previous commit.
+   *
+   * @throws IOException If writing fails; the map should then be
+   *     closed, the file still holds the previous commit.
+   * @throws IllegalStateException If the map is closed.
+   */
+  public void commit() throws IOException {
+    checkOpen();
+    if (!changed) {
+      return;
+    }
+    // Every free page goes on the list, except for the pages that hold
+    // it, which come from the reusable ones (or the end of the file).
+    int perPage = (pageSize - FREE_IDS) / 4;
+    IntStack listPages = new IntStack();
+    while (listPages.size * perPage < reusable.size + pending.size) {
+      listPages.push(allocate());
+    }
+    IntStack ids = new IntStack();
+    ids.addAll(reusable);
+    ids.addAll(pending);
+    for (int i = 0; i < listPages.size; i++) {
+      ByteBuffer list = page(listPages.items[i]);
+      int from = i * perPage;
+      int n = Math.min(perPage, ids.size - from);
+      list.putInt(FREE_NEXT,
+          i + 1 < listPages.size ? listPages.items[i + 1] : NIL);
+      list.putInt(FREE_COUNT, n);
+      for (int j = 0; j < n; j++) {
+        list.putInt(FREE_IDS + 4 * j, ids.items[from + j]);
+      }
+    }
+    file.force();
+
+    ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES);
+    h.putInt(H_MAGIC, MAGIC);
+    h.putInt(H_VERSION, VERSION);
+    h.putInt(H_PAGE_SIZE, pageSize);
+    h.putInt(H_KEY_WIDTH, keyWidth);
+    h.putInt(H_VALUE_WIDTH, valueWidth);
+    h.putLong(H_GENERATION, generation + 1);
+    h.putInt(H_ROOT, root);
+    h.putInt(H_PAGE_COUNT, pageCount);
+    h.putInt(H_SIZE, size);
+    h.putInt(H_FREE_HEAD, listPages.size > 0 ? listPages.items[0] : NIL);
+    h.putInt(H_FREE_COUNT, ids.size);
+    h.putInt(H_CRC, crc(h));
+    file.writeDurably(h, ((generation + 1) % 2) * pageSize);
+
+    generation++;
+    reusable.addAll(pending);
+    pending = listPages;
+    fresh.clear();
+    changed = false;
+    modCount++;
+  }
+
+  /**
+   * Throw away all changes since the last commit.
+   *
+   * @throws IOException If the header can't be read again.
+   * @throws IllegalStateException If the map is closed.
+   */
+  public void rollback() throws IOException {
+    checkOpen();
+    load();
+    modCount++;
+  }
+
+  /**
+   * Commit, then close the file. Once closed, all methods throw
+   * IllegalStateException; closing it again does nothing.
+   *
+   * @throws IOException If committing or closing fails.
+   */
+  @Override
+  public void close() throws IOException {
+    if (file == null) {
+      return;
+    }
+    try {
+      commit();
+    } finally {
+      file.close();
+      file = null;
+    }
+  }
+
+  // Throw if the map is closed. Every public method starts here, when
+  // no page views are held, so it's also where evicted regions are
+  // unmapped.
+  private void checkOpen() {
+    if (file == null) {
+      throw new IllegalStateException("map is closed");
+    }
+    file.releaseEvicted();
+  }
+
+  // View of a page; pages of the current transaction are handed out
+  // for writing.
+  private ByteBuffer page(int p) {
+    return file.page(p, fresh.get(p));
+  }
+
+  // A free page for the current transaction.
+  private int allocate() {
+    int p = reusable.size > 0 ? reusable.pop() : pageCount++;
+    if (p < 0) {
+      throw new IllegalStateException("file too large");
+    }
+    fresh.set(p);
+    return p;
+  }
+
+  // Give back a page that is no longer in the tree.
+  private void free(int p) {
+    if (fresh.get(p)) {
+      fresh.clear(p);
+      reusable.push(p);
+    } else {
+      pending.push(p);
+    }
+  }
+
+  // Page p if it belongs to the current transaction, otherwise a copy
+  // of it that does (and p is freed).
+  private int writable(int p) {
+    if (fresh.get(p)) {
+      return p;
+    }
+    int copy = allocate();
+    move(page(p), 0, page(copy), 0, pageSize);
+    free(p);
+    return copy;
+  }
+
+  // Make child i of an inner node writable, updating the node if the
+  // child moved; the node itself must be writable.
+  private int writableChild(int inner, int i) {
+    ByteBuffer node = page(inner);
+    int p = child(node, i);
+    int w = writable(p);
+    if (w != p) {
+      setChild(page(inner), i, w);
+    }
+    return w;
+  }
+
+  // Make the pages on the current path, down to the given depth,
+  // writable.
+  private void writablePath(int depth) {
+    root = writable(root);
+    path[0] = root;
+    for (int d = 1; d <= depth; d++) {
+      path[d] = writableChild(path[d - 1], pathChild[d - 1]);
+    }
+  }
+
+  private void move(ByteBuffer from, int at, ByteBuffer to, int into,
+                    int length) {
+    from.get(at, moving, 0, length);
+    to.put(into, moving, 0, length);
+  }
+
+  private void initNode(ByteBuffer node, byte kind) {
+    node.put(KIND, kind);
+    setCount(node, 0);
+  }
+
+  private static boolean isLeaf(ByteBuffer node) {
+    return node.get(KIND) == LEAF;
+  }
+
+  private static int count(ByteBuffer node) {
+    return node.getShort(COUNT) & 0xffff;
+  }
+
+  private static void setCount(ByteBuffer node, int n) {
+    node.putShort(COUNT, (short) n);
+  }
+
+  private int keyAt(int i) {
+    return BODY + i * keyWidth;
+  }
+
+  private int valueAt(int i) {
+    return valuesAt + i * valueWidth;
+  }
+
+  private int childAt(int i) {
+    return childrenAt + 4 * i;
+  }
+
+  private K key(ByteBuffer node, int i) {
+    return keyCodec.read(node, keyAt(i));
+  }
+
+  private V value(ByteBuffer leaf, int i) {
+    return valueCodec.read(leaf, valueAt(i));
+  }
+
+  private int child(ByteBuffer inner, int i) {
+    return inner.getInt(childAt(i));
+  }
+
+  private void setChild(ByteBuffer inner, int i, int p) {
+    inner.putInt(childAt(i), p);
+  }
+
+  // Position of k among the keys of a node if it's there, otherwise
+  // -(insertion point) - 1, like Arrays.binarySearch.
+  private int search(ByteBuffer node, K k) {
+    int lo = 0;
+    int hi = count(node) - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int cmp = keyCodec.compare(k, node, keyAt(mid));
+      if (cmp > 0) {
+        lo = mid + 1;
+      } else if (cmp < 0) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(lo + 1);
+  }
+
+  // Index of the child of an inner node whose range contains k.
+  private int childFor(ByteBuffer inner, K k) {
+    int i = search(inner, k);
+    return i >= 0 ? i + 1 : -i - 1;
+  }
+
+  // Record a page on the path, growing the buffers if needed.
+  private void pathSet(int depth, int p) {
+    if (depth == path.length) {
+      path = Arrays.copyOf(path, 2 * depth);
+      pathChild = Arrays.copyOf(pathChild, 2 * depth);
+    }
+    path[depth] = p;
+  }
+
+  // Descend to the leaf for k, recording the path; returns the depth
+  // of the leaf.
+  private int descend(K k) {
+    checkOpen();
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    int depth = 0;
+    int p = root;
+    ByteBuffer node = page(p);
+    while (!isLeaf(node)) {
+      int c = childFor(node, k);
+      pathSet(depth, p);
+      pathChild[depth++] = c;
+      p = child(node, c);
+      node = page(p);
+    }
+    pathSet(depth, p);
+    return depth;
+  }
+
+  // Leaf that holds k, or null if k isn't mapped.
+  private ByteBuffer leafWith(K k) {
+    int depth = descend(k);
+    ByteBuffer leaf = page(path[depth]);
+    return search(leaf, k) >= 0 ? leaf : null;
+  }
+
+  // Encode a key before changing the tree.
+  private void encodeKey(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    keyCodec.write(k, keyBytes, 0);
+  }
+
+  // Encode a value before changing the tree.
+  private void encodeValue(V v) {
+    if (v == null) {
+      throw new IllegalArgumentException("cannot handle null value");
+    }
+    valueCodec.write(v, valueBytes, 0);
+  }
+
+  // Add the encoded key and value at position i of the leaf at the end
+  // of a path of the given depth, splitting up the path as needed.
+  private void insertAt(int depth, int i) {
+    writablePath(depth);
+    ByteBuffer leaf = page(path[depth]);
+    int n = count(leaf);
+    move(leaf, keyAt(i), leaf, keyAt(i + 1), (n - i) * keyWidth);
+    move(leaf, valueAt(i), leaf, valueAt(i + 1), (n - i) * valueWidth);
+    leaf.put(keyAt(i), keyBytes, 0, keyWidth);
+    leaf.put(valueAt(i), valueBytes, 0, valueWidth);
+    setCount(leaf, ++n);
+    if (n > leafKeys) {
+      int right = allocate();
+      ByteBuffer sibling = page(right);
+      initNode(sibling, LEAF);
+      int keep = n / 2;
+      move(leaf, keyAt(keep), sibling, keyAt(0), (n - keep) * keyWidth);
+      move(leaf, valueAt(keep), sibling, valueAt(0),
+          (n - keep) * valueWidth);
+      setCount(leaf, keep);
+      setCount(sibling, n - keep);
+      separator.put(0, sibling, keyAt(0), keyWidth);
+      addToParent(depth, right);
+    }
+    size++;
+    changed = true;
+    modCount++;
+  }
+
+  // Add the separator and the new page to its right to the parent of
+  // the page that was split at the end of a path of the given depth,
+  // splitting inner nodes up the path as needed.
+  private void addToParent(int depth, int right) {
+    while (depth > 0) {
+      depth--;
+      ByteBuffer parent = page(path[depth]);
+      int c = pathChild[depth];
+      int n = count(parent);
+      move(parent, keyAt(c), parent, keyAt(c + 1), (n - c) * keyWidth);
+      move(parent, childAt(c + 1), parent, childAt(c + 2), (n - c) * 4);
+      parent.put(keyAt(c), separator, 0, keyWidth);
+      setChild(parent, c + 1, right);
+      setCount(parent, ++n);
+      if (n <= innerKeys) {
+        return;
+      }
+      // Now innerKeys + 2 children: the left half keeps
+      // (innerKeys + 3) / 2 of them, the key between the halves moves
+      // up.
+      int keep = (innerKeys + 3) / 2 - 1;
+      int moved = n - keep - 1;
+      right = allocate();
+      ByteBuffer sibling = page(right);
+      initNode(sibling, INNER);
+      separator.put(0, parent, keyAt(keep), keyWidth);
+      move(parent, keyAt(keep + 1), sibling, keyAt(0), moved * keyWidth);
+      move(parent, childAt(keep + 1), sibling, childAt(0), (moved + 1) * 4);
+      setCount(parent, keep);
+      setCount(sibling, moved);
+    }
+    int top = allocate();
+    ByteBuffer node = page(top);
+    initNode(node, INNER);
+    node.put(keyAt(0), separator, 0, keyWidth);
+    setChild(node, 0, root);
+    setChild(node, 1, right);
+    setCount(node, 1);
+    root = top;
+  }
+
+  @Override
+  public void insert(K k, V v) {
+    encodeKey(k);
+    encodeValue(v);
+    int depth = descend(k);
+    int i = search(page(path[depth]), k);
+    if (i >= 0) {
+      throw new IllegalArgumentException("duplicate key " + k);
+    }
+    insertAt(depth, -i - 1);
+  }
+
+  @Override
+  public V remove(K k) {
+    int depth = descend(k);
+    int i = search(page(path[depth]), k);
+    if (i < 0) {
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    writablePath(depth);
+    ByteBuffer leaf = page(path[depth]);
+    V v = value(leaf, i);
+    int n = count(leaf) - 1;
+    move(leaf, keyAt(i + 1), leaf, keyAt(i), (n - i) * keyWidth);
+    move(leaf, valueAt(i + 1), leaf, valueAt(i), (n - i) * valueWidth);
+    setCount(leaf, n);
+    if (depth > 0 && n < minLeafKeys) {
+      fixLeaf(depth);
+    }
+    size--;
+    changed = true;
+    modCount++;
+    return v;
+  }
+
+  // Refill the underfull leaf at the end of a writable path of the
+  // given depth from a sibling, or merge it with one and fix the
+  // parent.
+  private void fixLeaf(int depth) {
+    int parentPage = path[depth - 1];
+    int c = pathChild[depth - 1];
+    ByteBuffer parent = page(parentPage);
+    int parentCount = count(parent);
+    int leftCount = c > 0 ? count(page(child(parent, c - 1))) : 0;
+    int rightCount = c < parentCount ? count(page(child(parent, c + 1))) : 0;
+    ByteBuffer leaf = page(path[depth]);
+    int n = count(leaf);
+    if (leftCount > minLeafKeys) {
+      ByteBuffer left = page(writableChild(parentPage, c - 1));
+      move(leaf, keyAt(0), leaf, keyAt(1), n * keyWidth);
+      move(leaf, valueAt(0), leaf, valueAt(1), n * valueWidth);
+      move(left, keyAt(leftCount - 1), leaf, keyAt(0), keyWidth);
+      move(left, valueAt(leftCount - 1), leaf, valueAt(0), valueWidth);
+      setCount(left, leftCount - 1);
+      setCount(leaf, n + 1);
+      move(leaf, keyAt(0), page(parentPage), keyAt(c - 1), keyWidth);
+    } else if (rightCount > minLeafKeys) {
+      ByteBuffer right = page(writableChild(parentPage, c + 1));
+      move(right, keyAt(0), leaf, keyAt(n), keyWidth);
+      move(right, valueAt(0), leaf, valueAt(n), valueWidth);
+      move(right, keyAt(1), right, keyAt(0), (rightCount - 1) * keyWidth);
+      move(right, valueAt(1), right, valueAt(0),
+          (rightCount - 1) * valueWidth);
+      setCount(right, rightCount - 1);
+      setCount(leaf, n + 1);
+      move(right, keyAt(0), page(parentPage), keyAt(c), keyWidth);
+    } else {
+      int at = c > 0 ? c - 1 : c;
+      int into = at == c ? path[depth] : writableChild(parentPage, at);
+      int from = child(page(parentPage), at + 1);
+      mergeLeaves(page(into), page(from));
+      free(from);
+      removeChild(page(parentPage), at);
+      fixInner(depth - 1);
+    }
+  }
+
+  // Append the entries of a leaf to its left neighbor.
+  private void mergeLeaves(ByteBuffer left, ByteBuffer right) {
+    int n = count(left);
+    int m = count(right);
+    move(right, keyAt(0), left, keyAt(n), m * keyWidth);
+    move(right, valueAt(0), left, valueAt(n), m * valueWidth);
+    setCount(left, n + m);
+  }
+
+  // Drop separator i of an inner node and the child to its right.
+  private void removeChild(ByteBuffer inner, int i) {
+    int n = count(inner) - 1;
+    move(inner, keyAt(i + 1), inner, keyAt(i), (n - i) * keyWidth);
+    move(inner, childAt(i + 2), inner, childAt(i + 1), (n - i) * 4);
+    setCount(inner, n);
+  }
+
+  // Fix the inner node at the given depth of the writable path after
+  // it lost a child, and its ancestors as needed. A root with a single
+  // child is replaced by that child.
+  private void fixInner(int depth) {
+    for (; depth > 0; depth--) {
+      ByteBuffer node = page(path[depth]);
+      int n = count(node);
+      if (n >= minInnerKeys) {
+        return;
+      }
+      int parentPage = path[depth - 1];
+      int c = pathChild[depth - 1];
+      ByteBuffer parent = page(parentPage);
+      int parentCount = count(parent);
+      int leftCount = c > 0 ? count(page(child(parent, c - 1))) : 0;
+      int rightCount = c < parentCount
+          ? count(page(child(parent, c + 1))) : 0;
+      if (leftCount > minInnerKeys) {
+        ByteBuffer left = page(writableChild(parentPage, c - 1));
+        parent = page(parentPage);
+        move(node, keyAt(0), node, keyAt(1), n * keyWidth);
+        move(node, childAt(0), node, childAt(1), (n + 1) * 4);
+        move(parent, keyAt(c - 1), node, keyAt(0), keyWidth);
+        setChild(node, 0, child(left, leftCount));
+        move(left, keyAt(leftCount - 1), parent, keyAt(c - 1), keyWidth);
+        setCount(left, leftCount - 1);
+        setCount(node, n + 1);
+        return;
+      }
+      if (rightCount > minInnerKeys) {
+        ByteBuffer right = page(writableChild(parentPage, c + 1));
+        parent = page(parentPage);
+        move(parent, keyAt(c), node, keyAt(n), keyWidth);
+        setChild(node, n + 1, child(right, 0));
+        move(right, keyAt(0), parent, keyAt(c), keyWidth);
+        move(right, keyAt(1), right, keyAt(0), (rightCount - 1) * keyWidth);
+        move(right, childAt(1), right, childAt(0), rightCount * 4);
+        setCount(right, rightCount - 1);
+        setCount(node, n + 1);
+        return;
+      }
+      int at = c > 0 ? c - 1 : c;
+      int into = at == c ? path[depth] : writableChild(parentPage, at);
+      int from = child(page(parentPage), at + 1);
+      mergeInner(page(into), page(parentPage), at, page(from));
+      free(from);
+      removeChild(page(parentPage), at);
+    }
+    ByteBuffer top = page(root);
+    if (!isLeaf(top) && count(top) == 0) {
+      int old = root;
+      root = child(top, 0);
+      free(old);
+    }
+  }
+
+  // Append separator i of the parent and the contents of an inner node
+  // to its left neighbor.
+  private void mergeInner(ByteBuffer left, ByteBuffer parent, int i,
+                          ByteBuffer right) {
+    int n = count(left);
+    int m = count(right);
+    move(parent, keyAt(i), left, keyAt(n), keyWidth);
+    move(right, keyAt(0), left, keyAt(n + 1), m * keyWidth);
+    move(right, childAt(0), left, childAt(n + 1), (m + 1) * 4);
+    setCount(left, n + m + 1);
+  }
+
+  // Overwrite the value of the entry at position i of the leaf at the
+  // end of a path of the given depth with the encoded value.
+  private void writeValue(int depth, int i) {
+    writablePath(depth);
+    page(path[depth]).put(valueAt(i), valueBytes, 0, valueWidth);
+    changed = true;
+    modCount++;
+  }
+
+  @Override
+  public void put(K k, V v) {
+    encodeValue(v);
+    int depth = descend(k);
+    int i = search(page(path[depth]), k);
+    if (i < 0) {
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    writeValue(depth, i);
+  }
+
+  @Override
+  public V get(K k) {
+    ByteBuffer leaf = leafWith(k);
+    if (leaf == null) {
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    return value(leaf, search(leaf, k));
+  }
+
+  @Override
+  public boolean has(K k) {
+    if (k == null) {
+      return false;
+    }
+    return leafWith(k) != null;
+  }
+
+  @Override
+  public int size() {
+    checkOpen();
+    return size;
+  }
+
+  // Number of levels, counting the root; 0 if there are no keys.
+  private int height() {
+    if (size == 0) {
+      return 0;
+    }
+    int height = 1;
+    for (ByteBuffer node = page(root); !isLeaf(node);
+         node = page(child(node, 0))) {
+      height++;
+    }
+    return height;
+  }
+
+  // Leaves are counted at their parents, so only inner pages are read.
+  @Override
+  public ShapeStats shapeStats() {
+    checkOpen();
+    int height = height();
+    int leaves = size == 0 ? 0 : 1;
+    if (height > 1) {
+      leaves = 0;
+      // Pages to visit, each followed by its level.
+      IntStack stack = new IntStack();
+      stack.push(root);
+      stack.push(1);
+      while (stack.size > 0) {
+        int level = stack.pop();
+        ByteBuffer node = page(stack.pop());
+        int n = count(node);
+        if (level == height - 1) {
+          leaves += n + 1;
+          continue;
+        }
+        for (int i = n; i >= 0; i--) {
+          stack.push(child(node, i));
+          stack.push(level + 1);
+        }
+      }
+    }
+    return ShapeStats.ofLevels(size, height, leaves);
+  }
+
+  @Override
+  public ShapeStats shapeStats(int samples) {
+    checkOpen();
+    return ShapeStats.sampleLevels(size, height(), samples);
+  }
+
+  @Override
+  public boolean putIfAbsent(K k, V v) {
+    encodeKey(k);
+    encodeValue(v);
+    int depth = descend(k);
+    int i = search(page(path[depth]), k);
+    if (i >= 0) {
+      return false;
+    }
+    insertAt(depth, -i - 1);
+    return true;
+  }
+
+  // Store the result of merge() or compute(); f may have used the map,
+  // so the path is found again.
+  private V store(K k, V result) {
+    encodeKey(k);
+    encodeValue(result);
+    int depth = descend(k);
+    int i = search(page(path[depth]), k);
+    if (i >= 0) {
+      writeValue(depth, i);
+    } else {
+      insertAt(depth, -i - 1);
+    }
+    return result;
+  }
+
+  @Override
+  public V merge(K k, V v, BiFunction<? super V, ? super V, ? extends V> f) {
+    encodeKey(k);
+    encodeValue(v);
+    ByteBuffer leaf = leafWith(k);
+    if (leaf == null) {
+      return store(k, v);
+    }
+    return store(k, f.apply(value(leaf, search(leaf, k)), v));
+  }
+
+  @Override
+  public V compute(K k, BiFunction<? super K, ? super V, ? extends V> f) {
+    encodeKey(k);
+    ByteBuffer leaf = leafWith(k);
+    V old = leaf == null ? null : value(leaf, search(leaf, k));
+    return store(k, f.apply(k, old));
+  }
+
+  // Largest key below k (or equal to k, if inclusive), or null. The
+  // fallback is the subtree just left of the path.
+  private K below(K k, boolean inclusive) {
+    checkOpen();
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    int fallback = NIL;
+    ByteBuffer node = page(root);
+    while (!isLeaf(node)) {
+      int c = childFor(node, k);
+      if (c > 0) {
+        fallback = child(node, c - 1);
+      }
+      node = page(child(node, c));
+    }
+    int i = search(node, k);
+    int at = i >= 0 ? (inclusive ? i : i - 1) : -i - 2;
+    if (at >= 0) {
+      return key(node, at);
+    }
+    return fallback == NIL ? null : lastKeyUnder(fallback);
+  }
+
+  // Smallest key above k (or equal to k, if inclusive), or null. The
+  // fallback is the subtree just right of the path.
+  private K above(K k, boolean inclusive) {
+    checkOpen();
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    int fallback = NIL;
+    ByteBuffer node = page(root);
+    while (!isLeaf(node)) {
+      int c = childFor(node, k);
+      if (c < count(node)) {
+        fallback = child(node, c + 1);
+      }
+      node = page(child(node, c));
+    }
+    int i = search(node, k);
+    int at = i >= 0 ? (inclusive ? i : i + 1) : -i - 1;
+    if (at < count(node)) {
+      return key(node, at);
+    }
+    return fallback == NIL ? null : firstKeyUnder(fallback);
+  }
+
+  // Smallest key in the subtree rooted at page p, or null if it's empty.
+  private K firstKeyUnder(int p) {
+    ByteBuffer node = page(p);
+    while (!isLeaf(node)) {
+      node = page(child(node, 0));
+    }
+    return count(node) == 0 ? null : key(node, 0);
+  }
+
+  // Largest key in the subtree rooted at page p, or null if it's empty.
+  private K lastKeyUnder(int p) {
+    ByteBuffer node = page(p);
+    while (!isLeaf(node)) {
+      node = page(child(node, count(node)));
+    }
+    int n = count(node);
+    return n == 0 ? null : key(node, n - 1);
+  }
+
+  @Override
+  public K firstKey() {
+    checkOpen();
+    return firstKeyUnder(root);
+  }
+
+  @Override
+  public K lastKey() {
+    checkOpen();
+    return lastKeyUnder(root);
+  }
+
+  @Override
+  public K floorKey(K k) {
+    return below(k, true);
+  }
+
+  @Override
+  public K lowerKey(K k) {
+    return below(k, false);
+  }
+
+  @Override
+  public K ceilingKey(K k) {
+    return above(k, true);
+  }
+
+  @Override
+  public K higherKey(K k) {
+    return above(k, false);
+  }
+
+  @Override
+  public OrderedMap<K, V> subMap(K lo, K hi) {
+    if (lo == null || hi == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(lo, hi);
+  }
+
+  @Override
+  public OrderedMap<K, V> headMap(K hi) {
+    if (hi == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(null, hi);
+  }
+
+  @Override
+  public OrderedMap<K, V> tailMap(K lo) {
+    if (lo == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(lo, null);
+  }
+
+  @Override
+  public Iterator<K> iterator() {
+    checkOpen();
+    return new PageIterator();
+  }
+
+  @Override
+  public EntryIterator<K, V> entryIterator() {
+    checkOpen();
+    return new PageIterator();
+  }
+
+  @Override
+  public String toString() {
+    checkOpen();
+    StringBuilder s = new StringBuilder();
+    s.append("{");
+    PageIterator it = new PageIterator();
+    while (it.hasNext()) {
+      ByteBuffer leaf = page(it.pages[it.top]);
+      int i = it.positions[it.top];
+      s.append(key(leaf, i));
+      s.append(": ");
+      s.append(value(leaf, i));
+      it.next();
+      if (it.hasNext()) {
+        s.append(", ");
+      }
+    }
+    s.append("}");
+    return s.toString();
+  }
+
+  // Range view backed by this tree that iterates over just the range.
+  private class SubMap extends OrderedSubMap<K, V> {
+    SubMap(K lo, K hi) {
+      super(DiskBTreeMap.this, lo, hi);
+    }
+
+    @Override
+    OrderedSubMap<K, V> narrow(K lo, K hi) {
+      return new SubMap(lo, hi);
+    }
+
+    @Override
+    public Iterator<K> iterator() {
+      checkOpen();
+      return new PageIterator(lo, hi);
+    }
+
+    @Override
+    public EntryIterator<K, V> entryIterator() {
+      checkOpen();
+      return new PageIterator(lo, hi);
+    }
+  }
+
+  // In-order iterator with an explicit stack of pages and positions,
+  // from the root down to the current leaf; it reads one page per
+  // step and never holds on to page views.
+  private class PageIterator implements EntryIterator<K, V> {
+    private int[] pages = new int[INITIAL_PATH];
+    private int[] positions = new int[INITIAL_PATH];
+    // Index of the current leaf in the stack, -1 when done.
+    private int top = -1;
+    private final int expectedModCount = modCount;
+    // Exclusive upper bound, or null to iterate to the end.
+    private final K hi;
+    // Leaf page and position of the key next() returned last; the page
+    // is -1 before that.
+    private int lastPage = -1;
+    private int last;
+
+    PageIterator() {
+      hi = null;
+      descendLeft(root);
+      settle();
+    }
+
+    // Iterate over the keys in [lo, hi); null bounds are open. The
+    // stack starts out as the path to lo, each inner node at the child
+    // whose range holds lo and the leaf at the smallest key >= lo.
+    PageIterator(K lo, K hi) {
+      this.hi = hi;
+      if (lo == null) {
+        descendLeft(root);
+        settle();
+        return;
+      }
+      int p = root;
+      ByteBuffer node = page(p);
+      while (!isLeaf(node)) {
+        int c = childFor(node, lo);
+        push(p, c);
+        p = child(node, c);
+        node = page(p);
+      }
+      int i = search(node, lo);
+      push(p, i >= 0 ? i : -i - 1);
+      settle();
+    }
+
+    private void push(int p, int position) {
+      top++;
+      if (top == pages.length) {
+        pages = Arrays.copyOf(pages, 2 * top);
+        positions = Arrays.copyOf(positions, 2 * top);
+      }
+      pages[top] = p;
+      positions[top] = position;
+    }
+
+    // Push p and the first children below it.
+    private void descendLeft(int p) {
+      while (true) {
+        push(p, 0);
+        ByteBuffer node = page(p);
+        if (isLeaf(node)) {
+          return;
+        }
+        p = child(node, 0);
+      }
+    }
+
+    // If the current leaf is used up, move on to the next one that
+    // isn't, or to the end.
+    private void settle() {
+      while (top >= 0 && positions[top] >= count(page(pages[top]))) {
+        top--;
+        if (top >= 0) {
+          int c = ++positions[top];
+          if (c <= count(page(pages[top]))) {
+            descendLeft(child(page(pages[top]), c));
+          }
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (top < 0 || hi == null) {
+        return top >= 0;
+      }
+      checkOpen();
+      return keyCodec.compare(hi, page(pages[top]),
+          keyAt(positions[top])) > 0;
+    }
+
+    @Override
+    public K next() {
+      checkOpen();
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      lastPage = pages[top];
+      last = positions[top]++;
+      K k = key(page(lastPage), last);
+      settle();
+      return k;
+    }
+
+    @Override
+    public V value() {
+      checkOpen();
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (lastPage < 0) {
+        throw new IllegalStateException("next() not called yet");
+      }
+      return DiskBTreeMap.this.value(page(lastPage), last);
+    }
+  }
+
+  // Growable stack of page numbers.
+  private static final class IntStack {
+    int[] items = new int[16];
+    int size;
+
+    void push(int x) {
+      if (size == items.length) {
+        items = Arrays.copyOf(items, 2 * size);
+      }
+      items[size++] = x;
+    }
+
+    int pop() {
+      return items[--size];
+    }
+
+    void addAll(IntStack other) {
+      for (int i = 0; i < other.size; i++) {
+        push(other.items[i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,520 @@
+package hw6;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * An ordered map kept in memory and made durable by a write-ahead log
+ * plus snapshots in a directory, so that a restart reloads it instead
+ * of rebuilding it from the original input.
+ *
+ * <p>Every change is applied to the map in memory and appended to the
+ * log as a record setting a key to a value or removing a key. The log
+ * syncs records in batches (see WriteAheadLog), so changes are durable
+ * once sync() or close() returns, and a crash loses at most the last
+ * batch otherwise. If the log fails, the change that hit the failure may
+ * be in memory but not on disk, and every later change throws
+ * UncheckedIOException; reopen the map to go back to what is on disk.
+ * When the log grows beyond a limit, the whole map is written in key
+ * order to a new snapshot file, which then atomically replaces the old
+ * one, and the log is emptied.</p>
+ *
+ * <p>Opening a directory streams the snapshot into a BulkLoader, such as
+ * AvlTreeMap::fromSorted, which builds the map in O(n) time, and then
+ * replays the log. Records set or remove keys rather than change them,
+ * so replaying records the snapshot already reflects does no harm; a
+ * crash between replacing the snapshot and emptying the log is fine.
+ * A record torn by a crash ends the replay.</p>
+ *
+ * <p>Keys and values are written with codecs; null values are fine.
+ * Like the maps it wraps, this class is not thread-safe.</p>
+ *
+ * @param <K> Type for keys.
+ * @param <V> Type for values.
+ */
+public class DurableMap<K extends Comparable<K>, V>
+    implements OrderedMap<K, V>, Closeable {
+  /** Records per group commit unless configured otherwise. */
+  public static final int DEFAULT_GROUP_RECORDS = 1024;
+  /** Most milliseconds a change waits for its group commit. */
+  public static final long DEFAULT_GROUP_MILLIS = 10;
+  /** Log size in bytes that triggers a snapshot. */
+  public static final long DEFAULT_SNAPSHOT_BYTES = 64L << 20;
+
+  private static final int MAGIC = 0x534e4150; // "SNAP"
+  private static final int VERSION = 1;
+  // Record kinds.
+  private static final byte SET = 1;
+  private static final byte SET_NULL = 2;
+  private static final byte REMOVE = 3;
+
+  private final Path snapshotFile;
+  private final Path snapshotTemp;
+  private final Codec<K> keyCodec;
+  private final Codec<V> valueCodec;
+  private final long snapshotBytes;
+  private final OrderedMap<K, V> map;
+  private final WriteAheadLog log;
+  // Record being encoded.
+  private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+  private final DataOutputStream recordOut = new DataOutputStream(record);
+  private boolean closed;
+
+  /**
+   * Open a map in a directory, with default settings.
+   *
+   * @param dir Directory of the map, created if needed.
+   * @param keyCodec Codec for keys.
+   * @param valueCodec Codec for values.
+   * @param loader Builds the map in memory, e.g. AvlTreeMap::fromSorted.
+   * @throws IOException If the files can't be read or are corrupt.
+   */
+  public DurableMap(Path dir, Codec<K> keyCodec, Codec<V> valueCodec,
+      BulkLoader<K, V> loader) throws IOException {
+    this(dir, keyCodec, valueCodec, loader, DEFAULT_GROUP_RECORDS,
+        DEFAULT_GROUP_MILLIS, DEFAULT_SNAPSHOT_BYTES);
+  }
+
+  /**
+   * Open a map in a directory.
+   *
+   * @param dir Directory of the map, created if needed.
+   * @param keyCodec Codec for keys.
+   * @param valueCodec Codec for values.
+   * @param loader Builds the map in memory, e.g. AvlTreeMap::fromSorted.
+   * @param groupRecords Changes per group commit, at least 1.
+   * @param groupMillis Most milliseconds a change waits for its group
+   *     commit, or 0 to commit only full groups.
+   * @param snapshotBytes Log size in bytes that triggers a snapshot.
+   * @throws IOException If the files can't be read or are corrupt.
+   * @throws IllegalArgumentException If a number is out of range.
+   */
+  public DurableMap(Path dir, Codec<K> keyCodec, Codec<V> valueCodec,
+      BulkLoader<K, V> loader, int groupRecords, long groupMillis,
+      long snapshotBytes) throws IOException {
+    if (groupRecords < 1 || groupMillis < 0 || snapshotBytes < 1) {
+      throw new IllegalArgumentException("bad durability settings");
+    }
+    Files.createDirectories(dir);
+    this.snapshotFile = dir.resolve("snapshot");
+    this.snapshotTemp = dir.resolve("snapshot.tmp");
+    this.keyCodec = keyCodec;
+    this.valueCodec = valueCodec;
+    this.snapshotBytes = snapshotBytes;
+    this.map = loadSnapshot(loader);
+    this.log = new WriteAheadLog(dir.resolve("log"), groupRecords,
+        groupMillis);
+    try {
+      log.replay(this::redo);
+    } catch (IOException | RuntimeException e) {
+      log.close();
+      throw e;
+    }
+  }
+
+  // Stream the snapshot, if any, into the loader.
+  private OrderedMap<K, V> loadSnapshot(BulkLoader<K, V> loader)
+      throws IOException {
+    if (!Files.exists(snapshotFile)) {
+      Reader empty = new Reader(null, 0);
+      return loader.load(empty, empty.values, 0);
+    }
+    CRC32 crc = new CRC32();
+    try (InputStream file = Files.newInputStream(snapshotFile)) {
+      DataInputStream in = new DataInputStream(new CheckedInputStream(
+          new BufferedInputStream(file, 1 << 16), crc));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("not a snapshot: " + snapshotFile);
+      }
+      int n = in.readInt();
+      Reader reader = new Reader(in, n);
+      OrderedMap<K, V> loaded = loader.load(reader, reader.values, n);
+      int sum = (int) crc.getValue();
+      if (in.readInt() != sum) {
+        throw new IOException("corrupt snapshot: " + snapshotFile);
+      }
+      return loaded;
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } catch (IllegalArgumentException e) {
+      throw new IOException("corrupt snapshot: " + snapshotFile, e);
+    }
+  }
+
+  // Reads the entries of a snapshot: keys from this, values from values.
+  private final class Reader implements Iterator<K> {
+    private final DataInputStream in;
+    private int keysLeft;
+    private int valuesLeft;
+    final Iterator<V> values = new Iterator<V>() {
+      @Override
+      public boolean hasNext() {
+        return valuesLeft > 0;
+      }
+
+      @Override
+      public V next() {
+        if (valuesLeft == 0) {
+          throw new NoSuchElementException();
+        }
+        valuesLeft--;
+        try {
+          return in.readBoolean() ? valueCodec.read(in) : null;
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    };
+
+    Reader(DataInputStream in, int n) {
+      this.in = in;
+      this.keysLeft = n;
+      this.valuesLeft = n;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return keysLeft > 0;
+    }
+
+    @Override
+    public K next() {
+      if (keysLeft == 0) {
+        throw new NoSuchElementException();
+      }
+      keysLeft--;
+      try {
+        return keyCodec.read(in);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  // Apply a logged record.
+  private void redo(ByteBuffer payload) {
+    DataInputStream in = new DataInputStream(new InputStream() {
+      @Override
+      public int read() {
+        return payload.hasRemaining() ? payload.get() & 0xff : -1;
+      }
+    });
+    try {
+      byte kind = in.readByte();
+      K k = keyCodec.read(in);
+      if (kind == REMOVE) {
+        if (map.has(k)) {
+          map.remove(k);
+        }
+        return;
+      }
+      V v = kind == SET ? valueCodec.read(in) : null;
+      map.compute(k, (key, old) -> v);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Write the whole map to a new snapshot and empty the log. This
+   * happens by itself as the log grows.
+   *
+   * @throws IOException If writing fails; the old snapshot and the log
+   *     are still good then.
+   */
+  public void snapshot() throws IOException {
+    checkOpen();
+    log.sync();
+    CRC32 crc = new CRC32();
+    try (FileChannel channel = FileChannel.open(snapshotTemp,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+          new BufferedOutputStream(Channels.newOutputStream(channel),
+              1 << 16), crc));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(map.size());
+      EntryIterator<K, V> it = map.entryIterator();
+      while (it.hasNext()) {
+        keyCodec.write(it.next(), out);
+        V v = it.value();
+        out.writeBoolean(v != null);
+        if (v != null) {
+          valueCodec.write(v, out);
+        }
+      }
+      out.writeInt((int) crc.getValue());
+      out.flush();
+      channel.force(true);
+    }
+    Files.move(snapshotTemp, snapshotFile, StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+    syncDirectory();
+    log.reset();
+  }
+
+  // Make the rename durable before the log goes away. Not every
+  // platform lets us open a directory; those don't need this.
+  private void syncDirectory() {
+    try (FileChannel dir = FileChannel.open(snapshotFile.getParent(),
+        StandardOpenOption.READ)) {
+      dir.force(true);
+    } catch (IOException e) {
+      // Nothing we can do.
+    }
+  }
+
+  /**
+   * Wait until all changes so far are on the storage device.
+   *
+   * @throws IOException If syncing fails.
+   */
+  public void sync() throws IOException {
+    checkOpen();
+    log.sync();
+  }
+
+  /**
+   * Sync and close the files. The map can't be used afterwards.
+   *
+   * @throws IOException If syncing or closing fails.
+   */
+  @Override
+  public void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      log.close();
+    }
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("map is closed");
+    }
+  }
+
+  // Throw if the map is closed or its log failed; a change can't be
+  // logged then, so it must not be made either.
+  private void checkWritable() {
+    checkOpen();
+    log.checkFailure();
+  }
+
+  // Encode a record into record, checking k like the map would.
+  private void encode(byte kind, K k, V v) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    record.reset();
+    try {
+      recordOut.writeByte(kind == SET && v == null ? SET_NULL : kind);
+      keyCodec.write(k, recordOut);
+      if (kind == SET && v != null) {
+        valueCodec.write(v, recordOut);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Append the encoded record, snapshotting if the log got too long.
+  private void logRecord() {
+    log.append(record.toByteArray(), record.size());
+    if (log.size() >= snapshotBytes) {
+      try {
+        snapshot();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  @Override
+  public void insert(K k, V v) throws IllegalArgumentException {
+    checkWritable();
+    encode(SET, k, v);
+    map.insert(k, v);
+    logRecord();
+  }
+
+  @Override
+  public V remove(K k) throws IllegalArgumentException {
+    checkWritable();
+    encode(REMOVE, k, null);
+    V v = map.remove(k);
+    logRecord();
+    return v;
+  }
+
+  @Override
+  public void put(K k, V v) throws IllegalArgumentException {
+    checkWritable();
+    encode(SET, k, v);
+    map.put(k, v);
+    logRecord();
+  }
+
+  @Override
+  public V get(K k) throws IllegalArgumentException {
+    checkOpen();
+    return map.get(k);
+  }
+
+  @Override
+  public boolean has(K k) {
+    checkOpen();
+    return map.has(k);
+  }
+
+  @Override
+  public int size() {
+    checkOpen();
+    return map.size();
+  }
+
+  @Override
+  public ShapeStats shapeStats() {
+    checkOpen();
+    return map.shapeStats();
+  }
+
+  @Override
+  public ShapeStats shapeStats(int samples) {
+    checkOpen();
+    return map.shapeStats(samples);
+  }
+
+  @Override
+  public boolean putIfAbsent(K k, V v) throws IllegalArgumentException {
+    checkWritable();
+    encode(SET, k, v);
+    if (!map.putIfAbsent(k, v)) {
+      return false;
+    }
+    logRecord();
+    return true;
+  }
+
+  // merge() and compute() encode the new value inside the function
+  // they pass on, so that a codec failure leaves both the map and the
+  // log alone.
+
+  @Override
+  public V merge(K k, V v, BiFunction<? super V, ? super V, ? extends V> f)
+      throws IllegalArgumentException {
+    checkWritable();
+    encode(SET, k, v);
+    V merged = map.merge(k, v, (old, x) -> {
+      V y = f.apply(old, x);
+      encode(SET, k, y);
+      return y;
+    });
+    logRecord();
+    return merged;
+  }
+
+  @Override
+  public V compute(K k, BiFunction<? super K, ? super V, ? extends V> f)
+      throws IllegalArgumentException {
+    checkWritable();
+    V computed = map.compute(k, (key, old) -> {
+      V y = f.apply(key, old);
+      encode(SET, key, y);
+      return y;
+    });
+    logRecord();
+    return computed;
+  }
+
+  @Override
+  public K firstKey() {
+    checkOpen();
+    return map.firstKey();
+  }
+
+  @Override
+  public K lastKey() {
+    checkOpen();
+    return map.lastKey();
+  }
+
+  @Override
+  public K floorKey(K k) throws IllegalArgumentException {
+    checkOpen();
+    return map.floorKey(k);
+  }
+
+  @Override
+  public K ceilingKey(K k) throws IllegalArgumentException {
+    checkOpen();
+    return map.ceilingKey(k);
+  }
+
+  @Override
+  public K lowerKey(K k) throws IllegalArgumentException {
+    checkOpen();
+    return map.lowerKey(k);
+  }
+
+  @Override
+  public K higherKey(K k) throws IllegalArgumentException {
+    checkOpen();
+    return map.higherKey(k);
+  }
+
+  @Override
+  public int rank(K k) throws IllegalArgumentException {
+    checkOpen();
+    return map.rank(k);
+  }
+
+  @Override
+  public K select(int i) throws IllegalArgumentException {
+    checkOpen();
+    return map.select(i);
+  }
+
+  @Override
+  public int countInRange(K lo, K hi) throws IllegalArgumentException {
+    checkOpen();
+    return map.countInRange(lo, hi);
+  }
+
+  @Override
+  public Iterator<K> iterator() {
+    checkOpen();
+    return map.iterator();
+  }
+
+  @Override
+  public EntryIterator<K, V> entryIterator() {
+    checkOpen();
+    return map.entryIterator();
+  }
+
+  @Override
+  public String toString() {
+    return map.toString();
+  }
+}
@@ -0,0 +1,25 @@
+package hw6;
+
+import java.util.Iterator;
+
+/**
+ * Iterator over the keys of a map that also gives the value of the key
+ * it returned last, see OrderedMap.entryIterator().
+ *
+ * <p>Going over a map's keys and calling get() for each one costs a
+ * search per key, O(n log n) in all for a tree. Tree maps implement
+ * this on top of their in-order iterator, which is already at the node
+ * holding the value, so going over keys and values takes O(n).</p>
+ *
+ * @param <K> Type for keys.
+ * @param <V> Type for values.
+ */
+public interface EntryIterator<K, V> extends Iterator<K> {
+  /**
+   * Value of the key that the last call to next() returned.
+   *
+   * @return The value, as it is now.
+   * @throws IllegalStateException If next() was not called yet.
+   */
+  V value() throws IllegalStateException;
+}
@@ -0,0 +1,180 @@
+package hw6;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts values to and from a fixed number of bytes, for maps that
+ * keep their entries in native memory.
+ *
+ * @param <T> Type of the values.
+ */
+public interface FixedWidthCodec<T> {
+  /** Longs as 8 bytes. */
+  FixedWidthCodec<Long> LONG = new FixedWidthCodec<>() {
+    @Override
+    public int width() {
+      return 8;
+    }
+
+    @Override
+    public void write(Long value, ByteBuffer buf, int offset) {
+      buf.putLong(offset, value);
+    }
+
+    @Override
+    public Long read(ByteBuffer buf, int offset) {
+      return buf.getLong(offset);
+    }
+
+    @Override
+    public int compare(Long probe, ByteBuffer buf, int offset) {
+      return Long.compare(probe, buf.getLong(offset));
+    }
+  };
+
+  /** Integers as 4 bytes. */
+  FixedWidthCodec<Integer> INTEGER = new FixedWidthCodec<>() {
+    @Override
+    public int width() {
+      return 4;
+    }
+
+    @Override
+    public void write(Integer value, ByteBuffer buf, int offset) {
+      buf.putInt(offset, value);
+    }
+
+    @Override
+    public Integer read(ByteBuffer buf, int offset) {
+      return buf.getInt(offset);
+    }
+
+    @Override
+    public int compare(Integer probe, ByteBuffer buf, int offset) {
+      return Integer.compare(probe, buf.getInt(offset));
+    }
+  };
+
+  /**
+   * Strings of at most maxBytes bytes of UTF-8, stored as a two byte
+   * length followed by the bytes (and padding).
+   *
+   * @param maxBytes Longest encoding to accept.
+   * @return The codec; write() throws IllegalArgumentException for
+   *     longer strings.
+   * @throws IllegalArgumentException If maxBytes is not in [0, 65535].
+   */
+  static FixedWidthCodec<String> string(int maxBytes) {
+    if (maxBytes < 0 || maxBytes > 0xffff) {
+      throw new IllegalArgumentException("bad string width " + maxBytes);
+    }
+    return new FixedWidthCodec<>() {
+      @Override
+      public int width() {
+        return 2 + maxBytes;
+      }
+
+      @Override
+      public void write(String value, ByteBuffer buf, int offset) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxBytes) {
+          throw new IllegalArgumentException("string too long " + value);
+        }
+        buf.putShort(offset, (short) bytes.length);
+        buf.put(offset + 2, bytes);
+      }
+
+      @Override
+      public String read(ByteBuffer buf, int offset) {
+        byte[] bytes = new byte[buf.getShort(offset) & 0xffff];
+        buf.get(offset + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+      }
+
+      // A probe and its encoding. A search compares one probe with the
+      // keys on its path, so compare() keeps the last probe and encodes
+      // each one once. Instances never change, so maps on other threads
+      // that share the codec at worst encode a probe again.
+      private final class Encoded {
+        final String string;
+        final byte[] bytes;
+
+        Encoded(String string) {
+          this.string = string;
+          this.bytes = string.getBytes(StandardCharsets.UTF_8);
+        }
+      }
+
+      private Encoded last = new Encoded("");
+
+      // Compares the bytes in place. Unsigned UTF-8 bytes order strings
+      // by code point, but compareTo() orders them by UTF-16 char, where
+      // characters above U+FFFF (4 byte sequences, led by 0xf0 to 0xf4)
+      // are surrogates and come before U+E000 to U+FFFF (3 byte
+      // sequences led by 0xee or 0xef); the first differing bytes are
+      // lead bytes of both strings, so that case is easy to spot.
+      @Override
+      public int compare(String probe, ByteBuffer buf, int offset) {
+        Encoded e = last;
+        if (e.string != probe) {
+          e = new Encoded(probe);
+          last = e;
+        }
+        byte[] bytes = e.bytes;
+        int length = buf.getShort(offset) & 0xffff;
+        int n = Math.min(bytes.length, length);
+        for (int i = 0; i < n; i++) {
+          int x = bytes[i] & 0xff;
+          int y = buf.get(offset + 2 + i) & 0xff;
+          if (x != y) {
+            boolean swapped = (x >= 0xf0) != (y >= 0xf0)
+                && Math.min(x, y) >= 0xee;
+            return swapped ? y - x : x - y;
+          }
+        }
+        return bytes.length - length;
+      }
+    };
+  }
+
+  /**
+   * Number of bytes per value.
+   *
+   * @return The width.
+   */
+  int width();
+
+  /**
+   * Store a value.
+   *
+   * @param value The value.
+   * @param buf Buffer to write to.
+   * @param offset Position of the first byte (absolute).
+   * @throws IllegalArgumentException If the value cannot be encoded.
+   */
+  void write(T value, ByteBuffer buf, int offset);
+
+  /**
+   * Load a value.
+   *
+   * @param buf Buffer to read from.
+   * @param offset Position of the first byte (absolute).
+   * @return The value.
+   */
+  T read(ByteBuffer buf, int offset);
+
+  /**
+   * Compare a value with a stored one. The default decodes the stored
+   * value; the codecs above override this to compare in place.
+   *
+   * @param probe The value to compare.
+   * @param buf Buffer with the stored value.
+   * @param offset Position of the stored value.
+   * @return probe.compareTo(stored value).
+   */
+  @SuppressWarnings("unchecked")
+  default int compare(T probe, ByteBuffer buf, int offset) {
+    return ((Comparable<T>) probe).compareTo(read(buf, offset));
+  }
+}
@@ -0,0 +1,97 @@
+package hw6;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts keys to byte strings and back, for formats that store keys
+ * in order and share the common prefix of neighbouring keys.
+ *
+ * <p>The built-in codecs order bytes like the keys (numbers big-endian
+ * with the sign bit flipped), so keys that are close together share
+ * long prefixes.</p>
+ *
+ * @param <K> Type for keys.
+ */
+public interface KeyCodec<K> {
+  /** Strings as UTF-8. */
+  KeyCodec<String> STRING = new KeyCodec<>() {
+    @Override
+    public byte[] toBytes(String key) {
+      return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String fromBytes(byte[] bytes, int offset, int length) {
+      return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+  };
+
+  /** Longs as 8 bytes. */
+  KeyCodec<Long> LONG = new KeyCodec<>() {
+    @Override
+    public byte[] toBytes(Long key) {
+      long x = key ^ Long.MIN_VALUE;
+      byte[] b = new byte[8];
+      for (int i = 7; i >= 0; i--) {
+        b[i] = (byte) x;
+        x >>>= 8;
+      }
+      return b;
+    }
+
+    @Override
+    public Long fromBytes(byte[] bytes, int offset, int length) {
+      if (length != 8) {
+        throw new IllegalArgumentException("long key of " + length
+            + " bytes");
+      }
+      long x = 0;
+      for (int i = 0; i < 8; i++) {
+        x = x << 8 | (bytes[offset + i] & 0xff);
+      }
+      return x ^ Long.MIN_VALUE;
+    }
+  };
+
+  /** Integers as 4 bytes. */
+  KeyCodec<Integer> INTEGER = new KeyCodec<>() {
+    @Override
+    public byte[] toBytes(Integer key) {
+      int x = key ^ Integer.MIN_VALUE;
+      return new byte[] {
+          (byte) (x >>> 24), (byte) (x >>> 16), (byte) (x >>> 8), (byte) x};
+    }
+
+    @Override
+    public Integer fromBytes(byte[] bytes, int offset, int length) {
+      if (length != 4) {
+        throw new IllegalArgumentException("integer key of " + length
+            + " bytes");
+      }
+      int x = 0;
+      for (int i = 0; i < 4; i++) {
+        x = x << 8 | (bytes[offset + i] & 0xff);
+      }
+      return x ^ Integer.MIN_VALUE;
+    }
+  };
+
+  /**
+   * Bytes of a key.
+   *
+   * @param key The key, not null.
+   * @return A new array holding its bytes.
+   */
+  byte[] toBytes(K key);
+
+  /**
+   * Key for bytes made by toBytes().
+   *
+   * @param bytes Array holding the bytes.
+   * @param offset Index of the first byte.
+   * @param length Number of bytes.
+   * @return The key.
+   * @throws IllegalArgumentException If the bytes can't be a key.
+   */
+  K fromBytes(byte[] bytes, int offset, int length);
+}
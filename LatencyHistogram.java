@@ -0,0 +1,166 @@
+package hw6;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies in nanoseconds, in the style of HdrHistogram:
+ * recording is O(1) and allocation-free, memory is fixed, and every
+ * value is kept with a relative error below 1/64 (about 1.6%) from one
+ * nanosecond to hundreds of years.
+ *
+ * <p>Values below 128 have a bucket each; above that, every power of two
+ * is split into 64 buckets of equal width, so bucket widths grow with
+ * the values they hold. Percentiles are by the nearest-rank method and
+ * report the largest value of the bucket they fall in (but never more
+ * than the largest value recorded), so they err on the slow side.</p>
+ */
+public final class LatencyHistogram {
+  // Buckets per power of two above the linear range, and its log.
+  private static final int SUB_BITS = 6;
+  private static final int SUB = 1 << SUB_BITS;
+  // Largest shift a long value can need: its top bit is at most 62.
+  private static final int SHIFTS = 62 - SUB_BITS;
+  /** Percentiles that toText() lists. */
+  private static final double[] LISTED = {50, 75, 90, 95, 99, 99.9, 99.99,
+      100};
+
+  private final long[] counts = new long[SHIFTS * SUB + 2 * SUB];
+  private long count;
+  private long min = Long.MAX_VALUE;
+  private long max;
+  private double sum;
+
+  // Bucket of a value.
+  private static int index(long value) {
+    int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+    return shift * SUB + (int) (value >>> shift);
+  }
+
+  // Largest value of a bucket.
+  private static long highest(int index) {
+    int shift = Math.max(0, index / SUB - 1);
+    long sub = index - (long) shift * SUB;
+    return ((sub + 1) << shift) - 1;
+  }
+
+  /**
+   * Record a latency.
+   *
+   * @param nanos The latency; negative values count as 0.
+   */
+  public void record(long nanos) {
+    long value = Math.max(nanos, 0);
+    counts[index(value)]++;
+    count++;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+    sum += value;
+  }
+
+  /**
+   * Add all latencies recorded by another histogram to this one.
+   *
+   * @param other The other histogram.
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] += other.counts[i];
+    }
+    count += other.count;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+    sum += other.sum;
+  }
+
+  /**
+   * Forget all latencies.
+   */
+  public void reset() {
+    Arrays.fill(counts, 0);
+    count = 0;
+    min = Long.MAX_VALUE;
+    max = 0;
+    sum = 0;
+  }
+
+  /**
+   * Number of latencies recorded.
+   *
+   * @return The number.
+   */
+  public long count() {
+    return count;
+  }
+
+  /**
+   * Smallest latency, exactly.
+   *
+   * @return Nanoseconds, or 0 if there are none.
+   */
+  public long min() {
+    return count == 0 ? 0 : min;
+  }
+
+  /**
+   * Largest latency, exactly.
+   *
+   * @return Nanoseconds, or 0 if there are none.
+   */
+  public long max() {
+    return max;
+  }
+
+  /**
+   * Average latency, exactly.
+   *
+   * @return Nanoseconds, or 0 if there are none.
+   */
+  public double mean() {
+    return count == 0 ? 0 : sum / count;
+  }
+
+  /**
+   * A percentile of the latencies.
+   *
+   * @param p The percentile, from 0 to 100.
+   * @return Nanoseconds, within 1.6% above the exact value; 0 if there
+   *     are none.
+   * @throws IllegalArgumentException If p is out of range.
+   */
+  public long percentile(double p) {
+    if (!(p >= 0 && p <= 100)) {
+      throw new IllegalArgumentException("bad percentile " + p);
+    }
+    long rank = Math.max(1, (long) Math.ceil(p / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(highest(i), max);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Percentile distribution, one line per percentile from the median to
+   * the maximum, in microseconds.
+   *
+   * @return The lines.
+   */
+  public String toText() {
+    StringBuilder s = new StringBuilder();
+    for (double p : LISTED) {
+      s.append(String.format("%8s%% %12.3f us%n", p,
+          percentile(p) / 1e3));
+    }
+    return s.toString();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count %d, mean %.3f us, p50 %.3f us,"
+        + " p99 %.3f us, max %.3f us", count, mean() / 1e3,
+        percentile(50) / 1e3, percentile(99) / 1e3, max / 1e3);
+  }
+}
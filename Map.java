@@ -1,5 +1,7 @@
 package hw6;
 
+import java.util.function.BiFunction;
+
 /**
  * Maps from arbitrary keys to arbitrary values.
  *
@@ -66,4 +68,81 @@ public interface Map<K, V> extends Iterable<K> {
    * @return Number of key/value pairs in the map.
    */
   int size();
+
+  /**
+   * Insert a new key/value pair unless the key is already mapped.
+   *
+   * <p>The default implementation searches twice; implementations
+   * should override it to find or create the entry in one go.</p>
+   *
+   * @param k The key.
+   * @param v The value to be associated with k if k is not mapped.
+   * @return True if k was inserted, false if it was already mapped.
+   * @throws IllegalArgumentException If k is null.
+   */
+  default boolean putIfAbsent(K k, V v) throws IllegalArgumentException {
+    if (has(k)) {
+      return false;
+    }
+    insert(k, v);
+    return true;
+  }
+
+  /**
+   * Combine a value with the one associated with a key.
+   *
+   * <p>If k is not mapped, v is inserted as is; otherwise the value
+   * associated with k becomes f(old value, v). Unlike java.util.Map, a
+   * null result is stored rather than removing k since null is a
+   * perfectly good value here. If f throws, the map is unchanged.</p>
+   *
+   * <p>The default implementation searches up to three times;
+   * implementations should override it to find or create the entry in
+   * one go.</p>
+   *
+   * @param k The key.
+   * @param v The value to insert or combine.
+   * @param f Function combining the old value and v.
+   * @return The value now associated with k.
+   * @throws IllegalArgumentException If k is null.
+   */
+  default V merge(K k, V v, BiFunction<? super V, ? super V, ? extends V> f)
+      throws IllegalArgumentException {
+    if (has(k)) {
+      V merged = f.apply(get(k), v);
+      put(k, merged);
+      return merged;
+    }
+    insert(k, v);
+    return v;
+  }
+
+  /**
+   * Compute the value associated with a key from its current one.
+   *
+   * <p>f is called with k and its current value, or with null if k is
+   * not mapped; the result is then associated with k, inserting k if
+   * needed. A null result is stored, not treated as a removal. If f
+   * throws, the map is unchanged.</p>
+   *
+   * <p>The default implementation searches up to three times;
+   * implementations should override it to find or create the entry in
+   * one go.</p>
+   *
+   * @param k The key.
+   * @param f Function computing the new value.
+   * @return The value now associated with k.
+   * @throws IllegalArgumentException If k is null.
+   */
+  default V compute(K k, BiFunction<? super K, ? super V, ? extends V> f)
+      throws IllegalArgumentException {
+    if (has(k)) {
+      V computed = f.apply(k, get(k));
+      put(k, computed);
+      return computed;
+    }
+    V computed = f.apply(k, null);
+    insert(k, computed);
+    return computed;
+  }
 }
\ No newline at end of file
@@ -0,0 +1,194 @@
+package hw6;
+
+import java.util.Arrays;
+
+/**
+ * Counts what the original maps (SimpleMap, BinarySearchTreeMap,
+ * AvlTreeMap and TreapMap) do to find keys and keep their shape, to
+ * explain differences in speed with numbers instead of guesses.
+ *
+ * <p>Collection is off unless the JVM runs with -Dhw6.metrics=true.
+ * The maps only record anything under "if (MapMetrics.ENABLED)", and
+ * since ENABLED is a static final constant the JIT compiler drops those
+ * branches entirely when it is false, so the maps run exactly as fast
+ * as without metrics.</p>
+ *
+ * <p>Every search for a key (by get, has, put, insert, remove and the
+ * like, but not by the navigation methods) counts as one search; the
+ * number of keys it compared k to goes into the total and into a
+ * histogram. In the trees that is the depth at which the search ended,
+ * in SimpleMap the number of entries it looked at. Rotations are
+ * counted by kind, and rebalances are the AVL fix-ups of a node whose
+ * balance factor reached 2 or -2 and the treap inserts and removes that
+ * needed any rotation. A map's metrics are no more thread-safe than the
+ * map. While disabled, all maps share one empty instance, so making a
+ * map allocates nothing for metrics.</p>
+ */
+public final class MapMetrics {
+  /** Whether metrics are collected, from -Dhw6.metrics=true. */
+  public static final boolean ENABLED = Boolean.getBoolean("hw6.metrics");
+
+  /** Kinds of rotations; AVL double rotations count once, as theirs. */
+  public enum Rotation {
+    /** Left rotation. */
+    LEFT,
+    /** Right rotation. */
+    RIGHT,
+    /** Left rotation of the left child, then right rotation. */
+    LEFT_RIGHT,
+    /** Right rotation of the right child, then left rotation. */
+    RIGHT_LEFT
+  }
+
+  // Handed to every map while disabled; nothing is ever recorded in it.
+  private static final MapMetrics DISABLED = new MapMetrics();
+
+  private long searches;
+  private long comparisons;
+  // Number of searches by comparisons made, grown as needed.
+  private long[] depths = new long[32];
+  private final long[] rotations = new long[Rotation.values().length];
+  private long rebalances;
+
+  /**
+   * Metrics for a new map: its own if ENABLED, otherwise a shared empty
+   * instance, so maps don't allocate anything for metrics that are off.
+   *
+   * @return The metrics.
+   */
+  static MapMetrics forMap() {
+    return ENABLED ? new MapMetrics() : DISABLED;
+  }
+
+  /**
+   * Record a search.
+   *
+   * @param compared Number of keys compared.
+   */
+  void searched(int compared) {
+    searches++;
+    comparisons += compared;
+    if (compared >= depths.length) {
+      depths = Arrays.copyOf(depths, Math.max(compared + 1,
+          2 * depths.length));
+    }
+    depths[compared]++;
+  }
+
+  /**
+   * Record a rotation.
+   *
+   * @param kind Its kind.
+   */
+  void rotated(Rotation kind) {
+    rotations[kind.ordinal()]++;
+  }
+
+  /**
+   * Record a rebalance.
+   */
+  void rebalanced() {
+    rebalances++;
+  }
+
+  /**
+   * Number of searches.
+   *
+   * @return The number.
+   */
+  public long searches() {
+    return searches;
+  }
+
+  /**
+   * Number of key comparisons in all searches.
+   *
+   * @return The number.
+   */
+  public long comparisons() {
+    return comparisons;
+  }
+
+  /**
+   * Average comparisons per search.
+   *
+   * @return The average, or 0 if there were no searches.
+   */
+  public double averageComparisons() {
+    return searches == 0 ? 0 : (double) comparisons / searches;
+  }
+
+  /**
+   * Number of searches that made a given number of comparisons.
+   *
+   * @param compared The number of comparisons (the depth, in trees).
+   * @return The number of searches.
+   */
+  public long searchesAtDepth(int compared) {
+    return compared >= 0 && compared < depths.length ? depths[compared] : 0;
+  }
+
+  /**
+   * Largest number of comparisons made by a search.
+   *
+   * @return The number, or -1 if there were no searches.
+   */
+  public int maxDepth() {
+    int d = depths.length - 1;
+    while (d >= 0 && depths[d] == 0) {
+      d--;
+    }
+    return d;
+  }
+
+  /**
+   * Number of rotations of a kind.
+   *
+   * @param kind The kind.
+   * @return The number.
+   */
+  public long rotations(Rotation kind) {
+    return rotations[kind.ordinal()];
+  }
+
+  /**
+   * Number of rebalances.
+   *
+   * @return The number.
+   */
+  public long rebalances() {
+    return rebalances;
+  }
+
+  /**
+   * Forget everything recorded so far.
+   */
+  public void reset() {
+    searches = 0;
+    comparisons = 0;
+    Arrays.fill(depths, 0);
+    Arrays.fill(rotations, 0);
+    rebalances = 0;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    s.append(String.format("searches %d, comparisons %d (%.2f per search)",
+        searches, comparisons, averageComparisons()));
+    for (Rotation kind : Rotation.values()) {
+      s.append(", ").append(kind.name().toLowerCase().replace('_', '-'))
+          .append(" rotations ").append(rotations[kind.ordinal()]);
+    }
+    s.append(", rebalances ").append(rebalances);
+    s.append(", depths {");
+    boolean first = true;
+    for (int d = 0; d < depths.length; d++) {
+      if (depths[d] != 0) {
+        s.append(first ? "" : ", ").append(d).append(": ").append(depths[d]);
+        first = false;
+      }
+    }
+    return s.append("}").toString();
+  }
+}
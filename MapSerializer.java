@@ -0,0 +1,352 @@
+package hw6;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary format for moving ordered maps between processes.
+ *
+ * <p>The entries are written in key order, each key as the length of
+ * the prefix it shares with the previous key plus the rest of its bytes,
+ * so sorted string keys take a fraction of their size. A stream is:</p>
+ *
+ * <pre>
+ * int     magic "HW6M", then a version byte
+ * varint  number of entries
+ * entries varint shared prefix length,
+ *         varint suffix length * 2 + 1 if the value isn't null,
+ *         suffix bytes, value as written by its Codec (if not null)
+ * int     CRC32 of everything before it
+ * </pre>
+ *
+ * <p>Both directions stream through a small buffer. read() hands the
+ * entries to a BulkLoader as they are decoded, so a map is rebuilt in
+ * O(n) time without holding the entries anywhere else.</p>
+ */
+public final class MapSerializer {
+  private static final int MAGIC = 0x4857364d; // "HW6M"
+  private static final int VERSION = 1;
+  private static final int BUFFER = 1 << 16;
+
+  private MapSerializer() {}
+
+  /**
+   * Write a map to a channel.
+   *
+   * @param map The map.
+   * @param channel Channel to write to; it is not closed.
+   * @param keyCodec Codec for keys.
+   * @param valueCodec Codec for values.
+   * @param <K> Type for keys.
+   * @param <V> Type for values.
+   * @return Number of bytes written.
+   * @throws IOException If writing fails.
+   */
+  public static <K extends Comparable<K>, V> long write(OrderedMap<K, V> map,
+      WritableByteChannel channel, KeyCodec<K> keyCodec, Codec<V> valueCodec)
+      throws IOException {
+    ChannelOutput out = new ChannelOutput(channel);
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(MAGIC);
+    data.writeByte(VERSION);
+    out.writeVarint(map.size());
+    byte[] prev = new byte[0];
+    EntryIterator<K, V> it = map.entryIterator();
+    while (it.hasNext()) {
+      K k = it.next();
+      byte[] key = keyCodec.toBytes(k);
+      int shared = Arrays.mismatch(prev, key);
+      if (shared < 0) {
+        throw new IllegalArgumentException("duplicate key bytes for " + k);
+      }
+      V v = it.value();
+      out.writeVarint(shared);
+      out.writeVarint((key.length - shared) << 1 | (v == null ? 0 : 1));
+      out.write(key, shared, key.length - shared);
+      if (v != null) {
+        valueCodec.write(v, data);
+      }
+      prev = key;
+    }
+    data.writeInt(out.checksum());
+    out.flush();
+    return out.written;
+  }
+
+  /**
+   * Read a map written by write() from a channel.
+   *
+   * @param channel Channel to read from; it is not closed, and it may be
+   *     read past the end of the map.
+   * @param keyCodec Codec for keys.
+   * @param valueCodec Codec for values.
+   * @param loader Builds the map, e.g. AvlTreeMap::fromSorted.
+   * @param <K> Type for keys.
+   * @param <V> Type for values.
+   * @return The map built by the loader.
+   * @throws IOException If reading fails or the bytes aren't a valid map.
+   */
+  public static <K extends Comparable<K>, V> OrderedMap<K, V> read(
+      ReadableByteChannel channel, KeyCodec<K> keyCodec, Codec<V> valueCodec,
+      BulkLoader<K, V> loader) throws IOException {
+    ChannelInput in = new ChannelInput(channel);
+    DataInputStream data = new DataInputStream(in);
+    if (data.readInt() != MAGIC || data.readUnsignedByte() != VERSION) {
+      throw new IOException("not a serialized map");
+    }
+    int n = in.readVarint();
+    if (n < 0) {
+      throw new IOException("corrupt map: negative size");
+    }
+    Entries<K, V> entries = new Entries<>(in, data, keyCodec, valueCodec, n);
+    OrderedMap<K, V> map;
+    try {
+      map = loader.load(entries, entries.values, n);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } catch (IllegalArgumentException e) {
+      throw new IOException("corrupt map: " + e.getMessage(), e);
+    }
+    int sum = in.checksum();
+    if (data.readInt() != sum) {
+      throw new IOException("corrupt map: checksum mismatch");
+    }
+    return map;
+  }
+
+  // Decodes entries: keys from this, values from values, alternately.
+  private static final class Entries<K, V> implements Iterator<K> {
+    private final ChannelInput in;
+    private final DataInputStream data;
+    private final KeyCodec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private int keysLeft;
+    private int valuesLeft;
+    // Bytes of the last key and whether its value isn't null.
+    private byte[] key = new byte[64];
+    private int keyLength;
+    private boolean hasValue;
+
+    final Iterator<V> values = new Iterator<V>() {
+      @Override
+      public boolean hasNext() {
+        return valuesLeft > 0;
+      }
+
+      @Override
+      public V next() {
+        if (valuesLeft == 0) {
+          throw new NoSuchElementException();
+        }
+        valuesLeft--;
+        try {
+          return hasValue ? valueCodec.read(data) : null;
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    };
+
+    Entries(ChannelInput in, DataInputStream data, KeyCodec<K> keyCodec,
+        Codec<V> valueCodec, int n) {
+      this.in = in;
+      this.data = data;
+      this.keyCodec = keyCodec;
+      this.valueCodec = valueCodec;
+      this.keysLeft = n;
+      this.valuesLeft = n;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return keysLeft > 0;
+    }
+
+    @Override
+    public K next() {
+      if (keysLeft == 0) {
+        throw new NoSuchElementException();
+      }
+      keysLeft--;
+      try {
+        int shared = in.readVarint();
+        int header = in.readVarint();
+        int suffix = header >>> 1;
+        if (shared < 0 || shared > keyLength || suffix > Integer.MAX_VALUE
+            - shared) {
+          throw new IOException("corrupt map: bad key length");
+        }
+        keyLength = shared + suffix;
+        if (keyLength > key.length) {
+          key = Arrays.copyOf(key, Math.max(keyLength, 2 * key.length));
+        }
+        in.readFully(key, shared, suffix);
+        hasValue = (header & 1) != 0;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return keyCodec.fromBytes(key, 0, keyLength);
+    }
+  }
+
+  // Unsynchronized buffered output to a channel that keeps a CRC32 of
+  // what went through it.
+  private static final class ChannelOutput extends OutputStream {
+    private final WritableByteChannel channel;
+    private final ByteBuffer buf = ByteBuffer.allocate(BUFFER);
+    private final CRC32 crc = new CRC32();
+    // Start of the bytes in buf not added to crc yet.
+    private int unsummed;
+    long written;
+
+    ChannelOutput(WritableByteChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (!buf.hasRemaining()) {
+        drain();
+      }
+      buf.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (!buf.hasRemaining()) {
+          drain();
+        }
+        int n = Math.min(len, buf.remaining());
+        buf.put(b, off, n);
+        off += n;
+        len -= n;
+      }
+    }
+
+    void writeVarint(int x) throws IOException {
+      if (buf.remaining() < 5) {
+        drain();
+      }
+      while ((x & ~0x7f) != 0) {
+        buf.put((byte) (x & 0x7f | 0x80));
+        x >>>= 7;
+      }
+      buf.put((byte) x);
+    }
+
+    // CRC32 of everything written so far.
+    int checksum() {
+      crc.update(buf.array(), unsummed, buf.position() - unsummed);
+      unsummed = buf.position();
+      return (int) crc.getValue();
+    }
+
+    private void drain() throws IOException {
+      crc.update(buf.array(), unsummed, buf.position() - unsummed);
+      buf.flip();
+      while (buf.hasRemaining()) {
+        written += channel.write(buf);
+      }
+      buf.clear();
+      unsummed = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      drain();
+    }
+  }
+
+  // Unsynchronized buffered input from a channel that keeps a CRC32 of
+  // what was read from it.
+  private static final class ChannelInput extends InputStream {
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buf = ByteBuffer.allocate(BUFFER).flip();
+    private final CRC32 crc = new CRC32();
+    // Start of the bytes in buf not added to crc yet.
+    private int unsummed;
+
+    ChannelInput(ReadableByteChannel channel) {
+      this.channel = channel;
+    }
+
+    // Refill buf, keeping the unread bytes; false at end of stream.
+    private boolean fill() throws IOException {
+      crc.update(buf.array(), unsummed, buf.position() - unsummed);
+      buf.compact();
+      int n = channel.read(buf);
+      while (n == 0) {
+        n = channel.read(buf);
+      }
+      buf.flip();
+      unsummed = 0;
+      return n > 0 || buf.hasRemaining();
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!buf.hasRemaining() && !fill()) {
+        return -1;
+      }
+      return buf.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buf.hasRemaining() && !fill()) {
+        return -1;
+      }
+      int n = Math.min(len, buf.remaining());
+      buf.get(b, off, n);
+      return n;
+    }
+
+    void readFully(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        int n = read(b, off, len);
+        if (n < 0) {
+          throw new IOException("corrupt map: unexpected end of stream");
+        }
+        off += n;
+        len -= n;
+      }
+    }
+
+    int readVarint() throws IOException {
+      int x = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        int b = read();
+        if (b < 0) {
+          throw new IOException("corrupt map: unexpected end of stream");
+        }
+        x |= (b & 0x7f) << shift;
+        if (b < 0x80) {
+          return x;
+        }
+      }
+      throw new IOException("corrupt map: varint too long");
+    }
+
+    // CRC32 of everything read so far.
+    int checksum() {
+      crc.update(buf.array(), unsummed, buf.position() - unsummed);
+      unsummed = buf.position();
+      return (int) crc.getValue();
+    }
+  }
+}
@@ -0,0 +1,265 @@
+package hw6;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A file of fixed-size pages accessed through memory mappings, used by
+ * DiskBTreeMap.
+ *
+ * <p>The file is mapped in regions of REGION_PAGES pages, on demand, so
+ * opening a file maps nothing and a lookup maps only the regions it
+ * touches. At most a fixed number of regions stay mapped; when another
+ * one is needed, the clock algorithm picks a region that wasn't used
+ * since the hand last passed it and drops its mapping. Mapping a
+ * region past the end of the file extends the file.</p>
+ *
+ * <p>An evicted region can't be unmapped right away since the caller
+ * may still hold views of its pages. It is retired instead, and
+ * releaseEvicted(), which the caller invokes when it holds no views,
+ * unmaps the retired regions (through Unsafe.invokeCleaner if the JDK
+ * has it; otherwise the garbage collector does it eventually, which
+ * can take long enough to run out of mappings).</p>
+ *
+ * <p>Writes go straight into the mappings. Callers say whether they
+ * want a page for writing, and the regions handed out that way are
+ * flushed by force(). Unmapping a region doesn't lose what was written
+ * to it, it just leaves it to the operating system's page cache, so
+ * once a region written to has been evicted force() also forces the
+ * whole file through the channel. The two header pages at the start of
+ * the file are read and written through the channel instead.</p>
+ */
+final class MappedPageFile {
+  /** Pages per mapped region. */
+  static final int REGION_PAGES = 256;
+
+  // Unsafe.invokeCleaner bound to the Unsafe instance, or null.
+  private static final MethodHandle CLEANER = findCleaner();
+
+  private final FileChannel channel;
+  private final int pageSize;
+  // Mapped regions and, per slot, the region number, whether the slot
+  // was used since the clock hand last passed and whether it was
+  // written to since the last force().
+  private final MappedByteBuffer[] slots;
+  private final int[] slotRegion;
+  private final boolean[] referenced;
+  private final boolean[] dirty;
+  private int hand;
+  // Slot of each region, or -1 if it's not mapped.
+  private int[] regionSlot = new int[0];
+  // Evicted regions not unmapped yet.
+  private final List<MappedByteBuffer> retired = new ArrayList<>();
+  // Whether a region written to was evicted since the last force().
+  private boolean evictedDirty;
+
+  /**
+   * Wrap an open channel.
+   *
+   * @param channel Channel opened for reading and writing.
+   * @param pageSize Bytes per page.
+   * @param cachedRegions Most regions to keep mapped.
+   */
+  MappedPageFile(FileChannel channel, int pageSize, int cachedRegions) {
+    this.channel = channel;
+    this.pageSize = pageSize;
+    this.slots = new MappedByteBuffer[cachedRegions];
+    this.slotRegion = new int[cachedRegions];
+    this.referenced = new boolean[cachedRegions];
+    this.dirty = new boolean[cachedRegions];
+  }
+
+  private static MethodHandle findCleaner() {
+    try {
+      Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+      Field field = unsafe.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      return MethodHandles.lookup().findVirtual(unsafe, "invokeCleaner",
+          MethodType.methodType(void.class, ByteBuffer.class))
+          .bindTo(field.get(null));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * View of a page. The view stays valid until the next call to
+   * releaseEvicted(), force() or close().
+   *
+   * @param page Page number.
+   * @param write Whether the caller will write to the page.
+   * @return A buffer of pageSize bytes, positioned at 0.
+   * @throws UncheckedIOException If the region can't be mapped.
+   */
+  ByteBuffer page(int page, boolean write) {
+    int region = page / REGION_PAGES;
+    int slot = region < regionSlot.length ? regionSlot[region] : -1;
+    if (slot < 0) {
+      slot = map(region);
+    }
+    referenced[slot] = true;
+    if (write) {
+      dirty[slot] = true;
+    }
+    return slots[slot].slice((page % REGION_PAGES) * pageSize, pageSize);
+  }
+
+  // Map a region into a slot chosen by the clock algorithm.
+  private int map(int region) {
+    while (slots[hand] != null && referenced[hand]) {
+      referenced[hand] = false;
+      hand = (hand + 1) % slots.length;
+    }
+    int slot = hand;
+    hand = (hand + 1) % slots.length;
+    if (slots[slot] != null) {
+      retired.add(slots[slot]);
+      evictedDirty |= dirty[slot];
+      regionSlot[slotRegion[slot]] = -1;
+    }
+    if (region >= regionSlot.length) {
+      int old = regionSlot.length;
+      regionSlot = Arrays.copyOf(regionSlot, Math.max(2 * old, region + 1));
+      Arrays.fill(regionSlot, old, regionSlot.length, -1);
+    }
+    long bytes = (long) REGION_PAGES * pageSize;
+    try {
+      slots[slot] = channel.map(FileChannel.MapMode.READ_WRITE,
+          region * bytes, bytes);
+    } catch (IOException e) {
+      slots[slot] = null;
+      throw new UncheckedIOException(e);
+    }
+    slotRegion[slot] = region;
+    regionSlot[region] = slot;
+    dirty[slot] = false;
+    return slot;
+  }
+
+  /**
+   * Unmap the regions evicted since the last call. Views of their pages
+   * must not be used afterwards.
+   */
+  void releaseEvicted() {
+    for (MappedByteBuffer buf : retired) {
+      free(buf);
+    }
+    retired.clear();
+  }
+
+  /**
+   * Unmap a mapped buffer, or free the native memory of one from
+   * ByteBuffer.allocateDirect(), right away through
+   * Unsafe.invokeCleaner. Without it this does nothing and the garbage
+   * collector frees the memory once the buffer is unreachable. The
+   * buffer must not be used afterwards, nor must any view of it.
+   *
+   * @param buf A direct buffer that is not a slice or duplicate.
+   */
+  static void free(ByteBuffer buf) {
+    if (CLEANER == null) {
+      return;
+    }
+    try {
+      CLEANER.invokeExact(buf);
+    } catch (Throwable e) {
+      throw new IllegalStateException("cannot free buffer", e);
+    }
+  }
+
+  /**
+   * Write all pages handed out for writing since the last call to the
+   * storage device. Like releaseEvicted(), this ends the life of views
+   * of evicted regions.
+   *
+   * @throws IOException If that fails.
+   */
+  void force() throws IOException {
+    releaseEvicted();
+    try {
+      for (int i = 0; i < slots.length; i++) {
+        if (dirty[i]) {
+          slots[i].force();
+          dirty[i] = false;
+        }
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    if (evictedDirty) {
+      channel.force(false);
+      evictedDirty = false;
+    }
+  }
+
+  /**
+   * Read bytes at a position through the channel.
+   *
+   * @param dst Buffer to fill up to its limit.
+   * @param position Position in the file.
+   * @return Whether the buffer could be filled (false at end of file).
+   * @throws IOException If reading fails.
+   */
+  boolean read(ByteBuffer dst, long position) throws IOException {
+    while (dst.hasRemaining()) {
+      int n = channel.read(dst, position);
+      if (n < 0) {
+        return false;
+      }
+      position += n;
+    }
+    return true;
+  }
+
+  /**
+   * Write bytes at a position through the channel and wait until they
+   * are on the storage device.
+   *
+   * @param src Buffer to write up to its limit.
+   * @param position Position in the file.
+   * @throws IOException If writing fails.
+   */
+  void writeDurably(ByteBuffer src, long position) throws IOException {
+    while (src.hasRemaining()) {
+      position += channel.write(src, position);
+    }
+    channel.force(true);
+  }
+
+  /**
+   * Size of the file in bytes.
+   *
+   * @return The size.
+   * @throws IOException If the size can't be read.
+   */
+  long size() throws IOException {
+    return channel.size();
+  }
+
+  /**
+   * Unmap everything and close the channel. Pages written since the
+   * last force() may or may not make it to the file.
+   *
+   * @throws IOException If closing fails.
+   */
+  void close() throws IOException {
+    for (int i = 0; i < slots.length; i++) {
+      if (slots[i] != null) {
+        retired.add(slots[i]);
+        slots[i] = null;
+      }
+    }
+    releaseEvicted();
+    channel.close();
+  }
+}
@@ -0,0 +1,180 @@
+package hw6;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Finds the words of a text file without decoding it or making strings,
+ * for WordFrequencyCountExperiment.
+ *
+ * <p>Words are what the experiment has always counted: tokens separated
+ * by whitespace (as java.util.Scanner splits them, i.e. anything that
+ * Character.isWhitespace() accepts) that consist of at least two ASCII
+ * letters or digits. The file is memory-mapped and its bytes are
+ * classified through a table; whitespace outside of ASCII is recognized
+ * by its UTF-8 encoding, so the file has to be UTF-8 (or ASCII). Each
+ * word is handed to a WordSink as a slice of the mapping, which is only
+ * valid during the call; see WordInterner for turning slices into
+ * strings without making one per occurrence.</p>
+ *
+ * <p>Files are mapped in windows of up to 1 GB, each starting at the
+ * beginning of a token, so words never straddle windows. A token as
+ * long as a window can't be a word as far as we're concerned.</p>
+ */
+public final class MappedTokenizer {
+  /** Receives words. */
+  @FunctionalInterface
+  public interface WordSink {
+    /**
+     * Handle a word.
+     *
+     * @param buf Buffer holding the word; only valid during the call.
+     * @param offset Index of the first byte of the word in buf.
+     * @param length Number of bytes in the word.
+     */
+    void word(MappedByteBuffer buf, int offset, int length);
+  }
+
+  // Most bytes mapped at once.
+  static final int WINDOW = 1 << 30;
+
+  // Byte classes, OTHER by default. LEAD bytes may start a multi-byte
+  // whitespace character.
+  private static final byte OTHER = 0;
+  private static final byte WORD = 1;
+  private static final byte SPACE = 2;
+  private static final byte LEAD = 3;
+  private static final byte[] CLASS = new byte[256];
+
+  static {
+    for (int c = '0'; c <= '9'; c++) {
+      CLASS[c] = WORD;
+    }
+    for (int c = 'a'; c <= 'z'; c++) {
+      CLASS[c] = WORD;
+      CLASS[c - 'a' + 'A'] = WORD;
+    }
+    for (int c = 0; c < 128; c++) {
+      if (Character.isWhitespace(c)) {
+        CLASS[c] = SPACE;
+      }
+    }
+    CLASS[0xe1] = LEAD;
+    CLASS[0xe2] = LEAD;
+    CLASS[0xe3] = LEAD;
+  }
+
+  private MappedTokenizer() {}
+
+  /**
+   * Hand all words of a file to a sink, in order.
+   *
+   * @param file The file.
+   * @param sink Receives the words.
+   * @return Number of words.
+   * @throws IOException If the file can't be read.
+   */
+  public static long tokenize(Path file, WordSink sink) throws IOException {
+    try (FileChannel channel = FileChannel.open(file,
+        StandardOpenOption.READ)) {
+      return tokenize(channel, 0, channel.size(), WINDOW, sink);
+    }
+  }
+
+  /**
+   * Hand the words in a range of a file to a sink, in order. The range
+   * is taken as is: a token cut by either end is only its part inside
+   * the range.
+   *
+   * @param channel Channel of the file.
+   * @param from Position of the first byte.
+   * @param to Position after the last byte.
+   * @param window Most bytes to scan per mapping.
+   * @param sink Receives the words.
+   * @return Number of words.
+   * @throws IOException If the file can't be read.
+   */
+  static long tokenize(FileChannel channel, long from, long to, int window,
+      WordSink sink) throws IOException {
+    long words = 0;
+    long pos = from;
+    // Whether pos is inside a token too long to be a word.
+    boolean carry = false;
+    while (pos < to) {
+      // Tokens are scanned up to n; the 3 bytes after that are mapped as
+      // well to recognize whitespace that starts before n.
+      int n = (int) Math.min(window, to - pos);
+      int mapped = (int) Math.min(n + 3L, to - pos);
+      boolean last = pos + n == to;
+      MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos,
+          mapped);
+      int i = 0;
+      int start = 0;
+      boolean inToken = carry;
+      boolean word = !carry;
+      while (i < n) {
+        int c = buf.get(i) & 0xff;
+        int space = CLASS[c] == SPACE ? 1
+            : CLASS[c] == LEAD ? spaceLength(buf, i, mapped) : 0;
+        if (space == 0) {
+          if (!inToken) {
+            inToken = true;
+            start = i;
+            word = true;
+          }
+          word &= CLASS[c] == WORD;
+          i++;
+          continue;
+        }
+        if (inToken) {
+          inToken = false;
+          if (word && i - start > 1) {
+            sink.word(buf, start, i - start);
+            words++;
+          }
+        }
+        i += space;
+      }
+      if (inToken && last && i == n) {
+        if (word && i - start > 1) {
+          sink.word(buf, start, i - start);
+          words++;
+        }
+        inToken = false;
+      } else if (inToken && start > 0) {
+        // Scan the token again from its start in the next window.
+        i = start;
+        inToken = false;
+      }
+      carry = inToken;
+      pos += i;
+    }
+    return words;
+  }
+
+  // Length of the UTF-8 whitespace character at buf[i], which starts
+  // with a LEAD byte; 0 if it's something else.
+  private static int spaceLength(MappedByteBuffer buf, int i, int limit) {
+    if (i + 3 > limit) {
+      return 0;
+    }
+    int c = buf.get(i) & 0xff;
+    int d = buf.get(i + 1) & 0xff;
+    int e = buf.get(i + 2) & 0xff;
+    if (c == 0xe1) {
+      return d == 0x9a && e == 0x80 ? 3 : 0; // U+1680
+    }
+    if (c == 0xe3) {
+      return d == 0x80 && e == 0x80 ? 3 : 0; // U+3000
+    }
+    if (d == 0x80) {
+      // U+2000 to U+200A except the non-breaking U+2007; U+2028, U+2029.
+      return e >= 0x80 && e <= 0x8a && e != 0x87 || e == 0xa8 || e == 0xa9
+          ? 3 : 0;
+    }
+    return d == 0x81 && e == 0x9f ? 3 : 0; // U+205F
+  }
+}
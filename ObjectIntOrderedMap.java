@@ -0,0 +1,92 @@
+package hw6;
+
+/**
+ * Ordered maps from comparable keys to primitive int values.
+ *
+ * <p>This is Map specialized for counting: values are stored as plain
+ * ints inside the nodes, so updating the value of an existing key never
+ * allocates. With Map&lt;K, Integer&gt; every count above 127 is a new
+ * Integer object, which adds up to millions of short-lived objects when
+ * counting the words of a large text.</p>
+ *
+ * <p>Iteration visits keys in ascending order. Like Map, we use
+ * IllegalArgumentException for null keys and keys that are (or are
+ * not) mapped when they should not (or should) be.</p>
+ *
+ * @param <K> Type for keys.
+ */
+public interface ObjectIntOrderedMap<K extends Comparable<K>>
+    extends Iterable<K> {
+  /**
+   * Insert a new key/value pair.
+   *
+   * @param k The key.
+   * @param v The value to be associated with k.
+   * @throws IllegalArgumentException If k is null or already mapped.
+   */
+  void insert(K k, int v) throws IllegalArgumentException;
+
+  /**
+   * Remove an existing key/value pair.
+   *
+   * @param k The key.
+   * @return The value that was associated with k.
+   * @throws IllegalArgumentException If k is null or not mapped.
+   */
+  int remove(K k) throws IllegalArgumentException;
+
+  /**
+   * Update the value associated with a key.
+   *
+   * @param k The key.
+   * @param v The value to be associated with k.
+   * @throws IllegalArgumentException If k is null or not mapped.
+   */
+  void put(K k, int v) throws IllegalArgumentException;
+
+  /**
+   * Get the value associated with a key.
+   *
+   * @param k The key.
+   * @return The value associated with k.
+   * @throws IllegalArgumentException If k is null or not mapped.
+   */
+  int get(K k) throws IllegalArgumentException;
+
+  /**
+   * Check existence of a key.
+   *
+   * @param k The key.
+   * @return True if k is mapped, false otherwise (even for null!).
+   */
+  boolean has(K k);
+
+  /**
+   * Number of mappings.
+   *
+   * @return Number of key/value pairs in the map.
+   */
+  int size();
+
+  /**
+   * Add delta to the value of a key, mapping it to delta if it is not
+   * mapped yet, in a single search. Allocates only for new keys.
+   *
+   * @param k The key.
+   * @param delta Amount to add.
+   * @return The new value associated with k.
+   * @throws IllegalArgumentException If k is null.
+   */
+  int increment(K k, int delta) throws IllegalArgumentException;
+
+  /**
+   * Add delta to the value of a key like increment(), but return the
+   * value before the update, 0 if k was not mapped.
+   *
+   * @param k The key.
+   * @param delta Amount to add.
+   * @return The previous value associated with k, or 0.
+   * @throws IllegalArgumentException If k is null.
+   */
+  int addTo(K k, int delta) throws IllegalArgumentException;
+}
@@ -0,0 +1,336 @@
+package hw6;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Ordered maps from comparable keys to ints, implemented as treaps.
+ *
+ * <p>This is TreapMap with an int in each node instead of a reference
+ * to a boxed value, and without subtree sizes. Insert and remove are
+ * iterative: a new node is rotated up its path while its priority is
+ * smaller than its parent's, and a removed node is rotated down until
+ * it can be spliced out.</p>
+ *
+ * @param <K> Type for keys.
+ */
+public class ObjectIntTreapMap<K extends Comparable<K>>
+    implements ObjectIntOrderedMap<K> {
+
+  // Initial capacity of the path buffer and iterator stacks; they grow
+  // if needed.
+  private static final int INITIAL_STACK = 32;
+
+  private final Random rand;
+  private Node<K> root;
+  private int size;
+  // Number of structural changes, for fail-fast iterators.
+  private int modCount;
+  // Whether the last findOrCreate() call created its node.
+  private boolean created;
+  // Nodes on the path from the root taken by the current insert or
+  // remove, reused between calls; path[0] is the root.
+  private Node<K>[] path = newPath(INITIAL_STACK);
+
+  /**
+   * Create an empty map.
+   */
+  public ObjectIntTreapMap() {
+    rand = new Random();
+  }
+
+  /**
+   * Create an empty map with seeded priorities.
+   *
+   * @param seed The seed for the random priorities.
+   */
+  public ObjectIntTreapMap(int seed) {
+    rand = new Random(seed);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K> Node<K>[] newPath(int capacity) {
+    return (Node<K>[]) new Node<?>[capacity];
+  }
+
+  // Record a node on the path, growing the buffer if needed.
+  private void pathSet(int depth, Node<K> node) {
+    if (depth == path.length) {
+      path = Arrays.copyOf(path, 2 * depth);
+    }
+    path[depth] = node;
+  }
+
+  // Make the parent of the path node at the given depth (or the root
+  // pointer) point to a replacement subtree.
+  private void relink(int depth, Node<K> old, Node<K> replacement) {
+    if (depth == 0) {
+      root = replacement;
+    } else if (path[depth - 1].left == old) {
+      path[depth - 1].left = replacement;
+    } else {
+      path[depth - 1].right = replacement;
+    }
+  }
+
+  private static <K> Node<K> rightRotation(Node<K> node) {
+    Node<K> leftChild = node.left;
+    node.left = leftChild.right;
+    leftChild.right = node;
+    return leftChild;
+  }
+
+  private static <K> Node<K> leftRotation(Node<K> node) {
+    Node<K> rightChild = node.right;
+    node.right = rightChild.left;
+    rightChild.left = node;
+    return rightChild;
+  }
+
+  // Return node for given key, or null if it's not mapped.
+  private Node<K> find(K k) {
+    Node<K> n = root;
+    while (n != null) {
+      int cmp = k.compareTo(n.key);
+      if (cmp < 0) {
+        n = n.left;
+      } else if (cmp > 0) {
+        n = n.right;
+      } else {
+        return n;
+      }
+    }
+    return null;
+  }
+
+  // Return node for given key, throw an exception if it's not mapped.
+  private Node<K> findForSure(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    Node<K> n = find(k);
+    if (n == null) {
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    return n;
+  }
+
+  // Find the node with key k, or insert a new one with value 0 if there
+  // is none, in a single iterative descent. Sets created accordingly.
+  private Node<K> findOrCreate(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    int depth = 0;
+    int cmp = 0;
+    Node<K> n = root;
+    while (n != null) {
+      cmp = k.compareTo(n.key);
+      if (cmp == 0) {
+        Arrays.fill(path, 0, depth, null);
+        created = false;
+        return n;
+      }
+      pathSet(depth++, n);
+      n = cmp < 0 ? n.left : n.right;
+    }
+    Node<K> fresh = new Node<>(k, rand.nextInt());
+    if (depth == 0) {
+      root = fresh;
+    } else if (cmp < 0) {
+      path[depth - 1].left = fresh;
+    } else {
+      path[depth - 1].right = fresh;
+    }
+    int i = depth - 1;
+    for (; i >= 0 && fresh.priority < path[i].priority; i--) {
+      Node<K> parent = path[i];
+      path[i] = null;
+      Node<K> sub = parent.left == fresh
+          ? rightRotation(parent) : leftRotation(parent);
+      relink(i, parent, sub);
+    }
+    Arrays.fill(path, 0, i + 1, null);
+    size++;
+    modCount++;
+    created = true;
+    return fresh;
+  }
+
+  @Override
+  public void insert(K k, int v) {
+    Node<K> n = findOrCreate(k);
+    if (!created) {
+      throw new IllegalArgumentException("duplicate key " + k);
+    }
+    n.value = v;
+  }
+
+  // Rotate the node down, lifting the child with the smaller priority,
+  // until it has at most one child; then splice it out.
+  @Override
+  public int remove(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    int depth = 0;
+    Node<K> n = root;
+    while (n != null) {
+      int cmp = k.compareTo(n.key);
+      if (cmp == 0) {
+        break;
+      }
+      pathSet(depth++, n);
+      n = cmp < 0 ? n.left : n.right;
+    }
+    if (n == null) {
+      Arrays.fill(path, 0, depth, null);
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    while (n.left != null && n.right != null) {
+      Node<K> sub = n.left.priority < n.right.priority
+          ? rightRotation(n) : leftRotation(n);
+      relink(depth, n, sub);
+      pathSet(depth++, sub);
+    }
+    relink(depth, n, n.left == null ? n.right : n.left);
+    Arrays.fill(path, 0, depth, null);
+    size--;
+    modCount++;
+    return n.value;
+  }
+
+  @Override
+  public void put(K k, int v) {
+    findForSure(k).value = v;
+  }
+
+  @Override
+  public int get(K k) {
+    return findForSure(k).value;
+  }
+
+  @Override
+  public boolean has(K k) {
+    if (k == null) {
+      return false;
+    }
+    return find(k) != null;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public int increment(K k, int delta) {
+    Node<K> n = findOrCreate(k);
+    n.value += delta;
+    return n.value;
+  }
+
+  @Override
+  public int addTo(K k, int delta) {
+    Node<K> n = findOrCreate(k);
+    int old = n.value;
+    n.value = old + delta;
+    return old;
+  }
+
+  @Override
+  public Iterator<K> iterator() {
+    return new InorderIterator();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    s.append("{");
+    InorderIterator it = new InorderIterator();
+    while (it.hasNext()) {
+      Node<K> n = it.nextNode();
+      s.append(n.key);
+      s.append(": ");
+      s.append(n.value);
+      if (it.hasNext()) {
+        s.append(", ");
+      }
+    }
+    s.append("}");
+    return s.toString();
+  }
+
+  // In-order iterator that walks the tree on demand with an explicit
+  // stack of the nodes whose left subtree is done (or in progress).
+  private class InorderIterator implements Iterator<K> {
+    private Node<K>[] stack = newPath(INITIAL_STACK);
+    private int top;
+    private final int expectedModCount = modCount;
+
+    InorderIterator() {
+      pushLeftSpine(root);
+    }
+
+    // Push n and all of its left descendants.
+    private void pushLeftSpine(Node<K> n) {
+      while (n != null) {
+        if (top == stack.length) {
+          stack = Arrays.copyOf(stack, 2 * top);
+        }
+        stack[top++] = n;
+        n = n.left;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return top > 0;
+    }
+
+    @Override
+    public K next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return nextNode().key;
+    }
+
+    // Next node in order; the caller checks hasNext() first.
+    Node<K> nextNode() {
+      Node<K> n = stack[--top];
+      stack[top] = null;
+      pushLeftSpine(n.right);
+      return n;
+    }
+  }
+
+  // Node with a primitive value and a priority; a new node is a leaf
+  // with value 0.
+  private static class Node<K> {
+    Node<K> left;
+    Node<K> right;
+    K key;
+    int value;
+    int priority;
+
+    Node(K k, int p) {
+      key = k;
+      priority = p;
+    }
+
+    // Just for debugging purposes.
+    public String toString() {
+      return "Node<key: " + key
+          + "; value: " + value
+          + "; priority: " + priority
+          + ">";
+    }
+  }
+}
@@ -0,0 +1,656 @@
+package hw6;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+
+/**
+ * AVL tree whose nodes live in slabs of native memory, shared by the
+ * off-heap maps.
+ *
+ * <p>A node is an int index into a list of direct ByteBuffers (slabs)
+ * of SLAB_NODES nodes each; index 0 is never used, so it stands for
+ * null. Every node starts with a fixed header (left, right, height and
+ * subtree size) followed by the key and value bytes, which only the
+ * subclasses interpret. Removed nodes go on a free list threaded
+ * through their left field and are reused by the next insert. The only
+ * things on the Java heap are this object, the array of slabs and the
+ * path buffer, so the garbage collector has (almost) nothing to mark
+ * no matter how many keys there are.</p>
+ *
+ * <p>The tree code is the iterative path-buffer code of AvlTreeMap with
+ * node references replaced by indices. Searches compare the nodes with
+ * a probe key the subclass keeps, see compareProbe(). Like the other
+ * maps this is not thread-safe.</p>
+ */
+abstract class OffHeapAvlTree implements AutoCloseable {
+  /** Index that stands for "no node". */
+  static final int NIL = 0;
+  /** Offset of the key and value bytes in a node. */
+  static final int HEADER_BYTES = 16;
+
+  private static final int SLAB_SHIFT = 14;
+  private static final int SLAB_NODES = 1 << SLAB_SHIFT;
+  private static final int SLAB_MASK = SLAB_NODES - 1;
+  // Offsets of the header fields.
+  private static final int LEFT = 0;
+  private static final int RIGHT = 4;
+  private static final int HEIGHT = 8;
+  private static final int SIZE = 12;
+  // Initial capacity of the path buffer and iterator stacks, enough for
+  // an AVL tree of about 2^22 keys; they grow if needed.
+  private static final int INITIAL_STACK = 32;
+
+  private final int nodeBytes;
+  // Null once the tree is closed.
+  private ByteBuffer[] slabs = new ByteBuffer[1];
+  // Smallest index that was never handed out.
+  private int fresh = 1;
+  // Head of the free list.
+  private int free = NIL;
+  private int root = NIL;
+  private int size;
+  // Number of structural changes, for fail-fast iterators.
+  private int modCount;
+  // Whether the last findOrCreate() call created its node.
+  private boolean created;
+  // Nodes on the path from the root taken by the current insert or
+  // remove; path[0] is the root.
+  private int[] path = new int[INITIAL_STACK];
+
+  /**
+   * Create an empty tree.
+   *
+   * @param payloadBytes Number of key and value bytes per node.
+   */
+  OffHeapAvlTree(int payloadBytes) {
+    if (payloadBytes < 0) {
+      throw new IllegalArgumentException("negative payload " + payloadBytes);
+    }
+    nodeBytes = HEADER_BYTES + payloadBytes;
+  }
+
+  /**
+   * Compare the subclass's probe key with the key of a node.
+   *
+   * @param node The node.
+   * @return Negative, zero or positive if the probe is smaller than,
+   *     equal to or greater than the node's key.
+   */
+  abstract int compareProbe(int node);
+
+  /**
+   * Release the native memory. Each slab is freed right away through
+   * Unsafe.invokeCleaner, the way MappedPageFile unmaps regions; on a
+   * JDK without it the slabs are freed only when the garbage collector
+   * finds them unreachable, which may take until the next full
+   * collection. Using the map afterwards throws IllegalStateException
+   * (ConcurrentModificationException from iterators made before);
+   * closing it again does nothing.
+   */
+  @Override
+  public void close() {
+    ByteBuffer[] closed = slabs;
+    if (closed == null) {
+      return;
+    }
+    // Nothing can reach the slabs once this is null, so no one reads
+    // freed memory.
+    slabs = null;
+    root = NIL;
+    size = 0;
+    modCount++;
+    for (ByteBuffer slab : closed) {
+      if (slab != null) {
+        MappedPageFile.free(slab);
+      }
+    }
+  }
+
+  // Throw if the tree is closed.
+  final void checkOpen() {
+    if (slabs == null) {
+      throw new IllegalStateException("map is closed");
+    }
+  }
+
+  /**
+   * Slab holding a node.
+   *
+   * @param node The node.
+   * @return The buffer to read its key and value from.
+   */
+  final ByteBuffer slab(int node) {
+    return slabs[node >>> SLAB_SHIFT];
+  }
+
+  /**
+   * Position of a node's key and value bytes in its slab.
+   *
+   * @param node The node.
+   * @return Offset of the first byte after the node header.
+   */
+  final int payload(int node) {
+    return (node & SLAB_MASK) * nodeBytes + HEADER_BYTES;
+  }
+
+  private int get(int node, int field) {
+    return slabs[node >>> SLAB_SHIFT].getInt(
+        (node & SLAB_MASK) * nodeBytes + field);
+  }
+
+  private void set(int node, int field, int value) {
+    slabs[node >>> SLAB_SHIFT].putInt(
+        (node & SLAB_MASK) * nodeBytes + field, value);
+  }
+
+  final int left(int node) {
+    return get(node, LEFT);
+  }
+
+  final int right(int node) {
+    return get(node, RIGHT);
+  }
+
+  private int height(int node) {
+    return node == NIL ? -1 : get(node, HEIGHT);
+  }
+
+  private int size(int node) {
+    return node == NIL ? 0 : get(node, SIZE);
+  }
+
+  /**
+   * Number of keys.
+   *
+   * @return Number of nodes in the tree.
+   */
+  final int treeSize() {
+    return size;
+  }
+
+  /**
+   * Shape of the tree, in one pass over all nodes; see
+   * OrderedMap.shapeStats().
+   *
+   * @return Exact statistics.
+   */
+  public ShapeStats shapeStats() {
+    checkOpen();
+    return ShapeStats.of(root, NIL, size, this::left, this::right);
+  }
+
+  /**
+   * Estimated shape of the tree, from random paths down from the root;
+   * see OrderedMap.shapeStats(int).
+   *
+   * @param samples Number of paths to follow.
+   * @return Sampled statistics.
+   * @throws IllegalArgumentException If samples is less than 1.
+   */
+  public ShapeStats shapeStats(int samples) {
+    checkOpen();
+    return ShapeStats.sample(root, NIL, size, samples, this::left,
+        this::right);
+  }
+
+  /**
+   * Number of structural changes so far.
+   *
+   * @return The modification count.
+   */
+  final int modCount() {
+    return modCount;
+  }
+
+  // Hand out a leaf node, from the free list if possible.
+  private int allocate() {
+    int node = free;
+    if (node != NIL) {
+      free = left(node);
+    } else {
+      if (fresh < 0) {
+        throw new IllegalStateException("too many nodes");
+      }
+      node = fresh++;
+      int s = node >>> SLAB_SHIFT;
+      if (s == slabs.length) {
+        slabs = Arrays.copyOf(slabs, 2 * s);
+      }
+      if (slabs[s] == null) {
+        slabs[s] = ByteBuffer.allocateDirect(SLAB_NODES * nodeBytes)
+            .order(ByteOrder.nativeOrder());
+      }
+    }
+    set(node, LEFT, NIL);
+    set(node, RIGHT, NIL);
+    set(node, HEIGHT, 0);
+    set(node, SIZE, 1);
+    return node;
+  }
+
+  /**
+   * Put a node returned by unlink() on the free list.
+   *
+   * @param node The node.
+   */
+  final void release(int node) {
+    set(node, LEFT, free);
+    free = node;
+  }
+
+  // Record a node on the path, growing the buffer if needed.
+  private void pathSet(int depth, int node) {
+    if (depth == path.length) {
+      path = Arrays.copyOf(path, 2 * depth);
+    }
+    path[depth] = node;
+  }
+
+  // Make the parent of the path node at the given depth (or the root
+  // pointer) point to a replacement subtree.
+  private void relink(int depth, int old, int replacement) {
+    if (depth == 0) {
+      root = replacement;
+    } else if (left(path[depth - 1]) == old) {
+      set(path[depth - 1], LEFT, replacement);
+    } else {
+      set(path[depth - 1], RIGHT, replacement);
+    }
+  }
+
+  // Walk the path bottom-up after a node was added (delta 1) or removed
+  // (delta -1) below it, updating and rebalancing until a subtree keeps
+  // its height; above that only sizes change.
+  private void retrace(int depth, int delta) {
+    int i = depth - 1;
+    for (; i >= 0; i--) {
+      int node = path[i];
+      int oldHeight = height(node);
+      update(node);
+      int bf = balanceFactor(node);
+      if (bf == 2 || bf == -2) {
+        int sub = reBalance(node, bf);
+        relink(i, node, sub);
+        node = sub;
+      }
+      if (height(node) == oldHeight) {
+        break;
+      }
+    }
+    while (--i >= 0) {
+      set(path[i], SIZE, size(path[i]) + delta);
+    }
+  }
+
+  // Recompute height and subtree size of a node from its children.
+  private void update(int node) {
+    int l = left(node);
+    int r = right(node);
+    set(node, HEIGHT, Math.max(height(l), height(r)) + 1);
+    set(node, SIZE, size(l) + size(r) + 1);
+  }
+
+  private int balanceFactor(int node) {
+    return height(left(node)) - height(right(node));
+  }
+
+  // Restore balance of a subtree whose balance factor is 2 or -2.
+  private int reBalance(int node, int bf) {
+    if (bf == 2) {
+      if (balanceFactor(left(node)) == -1) {
+        set(node, LEFT, leftRotation(left(node)));
+      }
+      return rightRotation(node);
+    }
+    if (balanceFactor(right(node)) == 1) {
+      set(node, RIGHT, rightRotation(right(node)));
+    }
+    return leftRotation(node);
+  }
+
+  private int rightRotation(int node) {
+    int leftChild = left(node);
+    set(node, LEFT, right(leftChild));
+    set(leftChild, RIGHT, node);
+    update(node);
+    update(leftChild);
+    return leftChild;
+  }
+
+  private int leftRotation(int node) {
+    int rightChild = right(node);
+    set(node, RIGHT, left(rightChild));
+    set(rightChild, LEFT, node);
+    update(node);
+    update(rightChild);
+    return rightChild;
+  }
+
+  /**
+   * Find the probe key.
+   *
+   * @return Its node, or NIL.
+   */
+  final int find() {
+    checkOpen();
+    int n = root;
+    while (n != NIL) {
+      int cmp = compareProbe(n);
+      if (cmp == 0) {
+        return n;
+      }
+      n = cmp < 0 ? left(n) : right(n);
+    }
+    return NIL;
+  }
+
+  /**
+   * Find the probe key, or add a node for it. The caller has to write
+   * the key (and value) bytes of a new node before the next search.
+   *
+   * @return Its node; created() tells whether it is new.
+   */
+  final int findOrCreate() {
+    checkOpen();
+    int depth = 0;
+    int cmp = 0;
+    int n = root;
+    while (n != NIL) {
+      cmp = compareProbe(n);
+      if (cmp == 0) {
+        created = false;
+        return n;
+      }
+      pathSet(depth++, n);
+      n = cmp < 0 ? left(n) : right(n);
+    }
+    n = allocate();
+    if (depth == 0) {
+      root = n;
+    } else if (cmp < 0) {
+      set(path[depth - 1], LEFT, n);
+    } else {
+      set(path[depth - 1], RIGHT, n);
+    }
+    retrace(depth, 1);
+    size++;
+    modCount++;
+    created = true;
+    return n;
+  }
+
+  /**
+   * Whether the last findOrCreate() call created its node.
+   *
+   * @return True if the node is new.
+   */
+  final boolean created() {
+    return created;
+  }
+
+  /**
+   * Take the node with the probe key out of the tree. A node with two
+   * children is replaced by its successor, so nodes keep their keys.
+   * The caller reads what it needs and then calls release().
+   *
+   * @return The unlinked node, or NIL if the probe key is not there.
+   */
+  final int unlink() {
+    checkOpen();
+    int depth = 0;
+    int n = root;
+    while (n != NIL) {
+      int cmp = compareProbe(n);
+      if (cmp == 0) {
+        break;
+      }
+      pathSet(depth++, n);
+      n = cmp < 0 ? left(n) : right(n);
+    }
+    if (n == NIL) {
+      return NIL;
+    }
+    if (left(n) == NIL || right(n) == NIL) {
+      relink(depth, n, left(n) == NIL ? right(n) : left(n));
+    } else {
+      // The successor will take n's place on the path.
+      int at = depth;
+      pathSet(depth++, n);
+      int successor = right(n);
+      while (left(successor) != NIL) {
+        pathSet(depth++, successor);
+        successor = left(successor);
+      }
+      if (path[depth - 1] == n) {
+        set(n, RIGHT, right(successor));
+      } else {
+        set(path[depth - 1], LEFT, right(successor));
+      }
+      set(successor, LEFT, left(n));
+      set(successor, RIGHT, right(n));
+      set(successor, HEIGHT, height(n));
+      set(successor, SIZE, size(n));
+      relink(at, n, successor);
+      path[at] = successor;
+    }
+    retrace(depth, -1);
+    size--;
+    modCount++;
+    return n;
+  }
+
+  /**
+   * Node with the largest key below the probe (or equal to it, if
+   * inclusive).
+   *
+   * @param inclusive Whether the probe itself counts.
+   * @return The node, or NIL if there is none.
+   */
+  final int below(boolean inclusive) {
+    checkOpen();
+    int best = NIL;
+    int n = root;
+    while (n != NIL) {
+      int cmp = compareProbe(n);
+      if (cmp == 0 && inclusive) {
+        return n;
+      }
+      if (cmp > 0) {
+        best = n;
+        n = right(n);
+      } else {
+        n = left(n);
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Node with the smallest key above the probe (or equal to it, if
+   * inclusive).
+   *
+   * @param inclusive Whether the probe itself counts.
+   * @return The node, or NIL if there is none.
+   */
+  final int above(boolean inclusive) {
+    checkOpen();
+    int best = NIL;
+    int n = root;
+    while (n != NIL) {
+      int cmp = compareProbe(n);
+      if (cmp == 0 && inclusive) {
+        return n;
+      }
+      if (cmp < 0) {
+        best = n;
+        n = left(n);
+      } else {
+        n = right(n);
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Node with the smallest key.
+   *
+   * @return The node, or NIL if the tree is empty.
+   */
+  final int first() {
+    checkOpen();
+    int n = root;
+    while (n != NIL && left(n) != NIL) {
+      n = left(n);
+    }
+    return n;
+  }
+
+  /**
+   * Node with the largest key.
+   *
+   * @return The node, or NIL if the tree is empty.
+   */
+  final int last() {
+    checkOpen();
+    int n = root;
+    while (n != NIL && right(n) != NIL) {
+      n = right(n);
+    }
+    return n;
+  }
+
+  /**
+   * Number of keys smaller than the probe.
+   *
+   * @return The rank of the probe.
+   */
+  final int rankOfProbe() {
+    checkOpen();
+    int rank = 0;
+    int n = root;
+    while (n != NIL) {
+      if (compareProbe(n) <= 0) {
+        n = left(n);
+      } else {
+        rank += size(left(n)) + 1;
+        n = right(n);
+      }
+    }
+    return rank;
+  }
+
+  /**
+   * Node at a position in key order.
+   *
+   * @param i Zero-based position.
+   * @return The node with exactly i smaller keys.
+   * @throws IllegalArgumentException If i is not in [0, size).
+   */
+  final int selectNode(int i) {
+    checkOpen();
+    if (i < 0 || i >= size) {
+      throw new IllegalArgumentException("position out of range " + i);
+    }
+    int n = root;
+    while (true) {
+      int leftSize = size(left(n));
+      if (i < leftSize) {
+        n = left(n);
+      } else if (i > leftSize) {
+        i -= leftSize + 1;
+        n = right(n);
+      } else {
+        return n;
+      }
+    }
+  }
+
+  /**
+   * In-order iterator over nodes that walks the tree on demand. It
+   * throws ConcurrentModificationException if the tree changes
+   * structurally while iterating.
+   */
+  final class NodeIterator {
+    private int[] stack = new int[INITIAL_STACK];
+    private int top;
+    private final int expectedModCount = modCount;
+
+    NodeIterator() {
+      this(false);
+    }
+
+    /**
+     * Create an iterator, from the smallest key or from the probe on.
+     * In the latter case the stack starts out as the path to the
+     * smallest key &gt;= the probe, minus the nodes below the probe
+     * which are skipped.
+     *
+     * @param fromProbe Whether to skip the keys below the probe.
+     */
+    NodeIterator(boolean fromProbe) {
+      checkOpen();
+      if (!fromProbe) {
+        pushLeftSpine(root);
+        return;
+      }
+      int n = root;
+      while (n != NIL) {
+        if (compareProbe(n) > 0) {
+          n = right(n);
+        } else {
+          push(n);
+          n = left(n);
+        }
+      }
+    }
+
+    private void push(int n) {
+      if (top == stack.length) {
+        stack = Arrays.copyOf(stack, 2 * top);
+      }
+      stack[top++] = n;
+    }
+
+    // Push n and all of its left descendants.
+    private void pushLeftSpine(int n) {
+      while (n != NIL) {
+        push(n);
+        n = left(n);
+      }
+    }
+
+    boolean hasNext() {
+      return top > 0;
+    }
+
+    /**
+     * Node that next() returns, without moving on, so that callers can
+     * check it against an upper bound.
+     *
+     * @return The node, or NIL at the end.
+     * @throws ConcurrentModificationException If the tree changed, as
+     *     the node may be gone.
+     */
+    int peek() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      return top == 0 ? NIL : stack[top - 1];
+    }
+
+    int next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (top == 0) {
+        throw new NoSuchElementException();
+      }
+      int n = stack[--top];
+      pushLeftSpine(right(n));
+      return n;
+    }
+  }
+}
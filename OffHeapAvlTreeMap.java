@@ -0,0 +1,367 @@
+package hw6;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+
+/**
+ * Ordered maps implemented as AVL trees in native memory, for keys and
+ * values that serialize to a fixed number of bytes.
+ *
+ * <p>Keys and values are stored in the nodes in the form the codecs
+ * give them, right after the node header (see OffHeapAvlTree), so an
+ * entry takes 16 + keyCodec.width() + valueCodec.width() bytes outside
+ * of the Java heap. get() and the iterator decode what they return;
+ * searches compare through the key codec, which decodes the stored
+ * key unless the codec knows better (the codecs of FixedWidthCodec
+ * compare in place). Range views iterate from their lower bound. Values
+ * can't be null.</p>
+ *
+ * <p>Call close() when done to give the native memory back.</p>
+ *
+ * @param <K> Type for keys.
+ * @param <V> Type for values.
+ */
+public class OffHeapAvlTreeMap<K extends Comparable<K>, V>
+    extends OffHeapAvlTree implements OrderedMap<K, V> {
+
+  private final FixedWidthCodec<K> keyCodec;
+  private final FixedWidthCodec<V> valueCodec;
+  // Offset of the value in the payload.
+  private final int valueAt;
+  // Key being added, encoded before the tree changes so that a key the
+  // codec refuses leaves the tree alone.
+  private final ByteBuffer scratch;
+  // Key the tree searches for.
+  private K probe;
+
+  /**
+   * Create an empty map.
+   *
+   * @param keyCodec Codec for keys; its order must match compareTo().
+   * @param valueCodec Codec for values.
+   */
+  public OffHeapAvlTreeMap(FixedWidthCodec<K> keyCodec,
+                           FixedWidthCodec<V> valueCodec) {
+    super(keyCodec.width() + valueCodec.width());
+    this.keyCodec = keyCodec;
+    this.valueCodec = valueCodec;
+    this.valueAt = keyCodec.width();
+    this.scratch = ByteBuffer.allocate(keyCodec.width())
+        .order(ByteOrder.nativeOrder());
+  }
+
+  @Override
+  int compareProbe(int node) {
+    return keyCodec.compare(probe, slab(node), payload(node));
+  }
+
+  private K key(int node) {
+    return keyCodec.read(slab(node), payload(node));
+  }
+
+  private V value(int node) {
+    return valueCodec.read(slab(node), payload(node) + valueAt);
+  }
+
+  private void setValue(int node, V v) {
+    valueCodec.write(v, slab(node), payload(node) + valueAt);
+  }
+
+  // Set the probe, throwing if the key is null.
+  private void probe(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    probe = k;
+  }
+
+  // Throw if a value is null since we can't store that.
+  private static <V> V checkValue(V v) {
+    if (v == null) {
+      throw new IllegalArgumentException("cannot handle null value");
+    }
+    return v;
+  }
+
+  // Node for k, or throw if it's not mapped.
+  private int findForSure(K k) {
+    probe(k);
+    int n = find();
+    if (n == NIL) {
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    return n;
+  }
+
+  // Node for k with value v, or the existing node for k. If the value
+  // codec refuses v, the new node is taken out again.
+  private int findOrCreate(K k, V v) {
+    probe(k);
+    keyCodec.write(k, scratch, 0);
+    int n = findOrCreate();
+    if (created()) {
+      slab(n).put(payload(n), scratch, 0, valueAt);
+      try {
+        setValue(n, v);
+      } catch (RuntimeException e) {
+        release(unlink());
+        throw e;
+      }
+    }
+    return n;
+  }
+
+  @Override
+  public void insert(K k, V v) {
+    checkValue(v);
+    findOrCreate(k, v);
+    if (!created()) {
+      throw new IllegalArgumentException("duplicate key " + k);
+    }
+  }
+
+  @Override
+  public V remove(K k) {
+    probe(k);
+    int n = unlink();
+    if (n == NIL) {
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    V v = value(n);
+    release(n);
+    return v;
+  }
+
+  @Override
+  public void put(K k, V v) {
+    checkValue(v);
+    setValue(findForSure(k), v);
+  }
+
+  @Override
+  public V get(K k) {
+    return value(findForSure(k));
+  }
+
+  @Override
+  public boolean has(K k) {
+    if (k == null) {
+      return false;
+    }
+    probe = k;
+    return find() != NIL;
+  }
+
+  @Override
+  public int size() {
+    checkOpen();
+    return treeSize();
+  }
+
+  @Override
+  public boolean putIfAbsent(K k, V v) {
+    checkValue(v);
+    findOrCreate(k, v);
+    return created();
+  }
+
+  @Override
+  public V merge(K k, V v, BiFunction<? super V, ? super V, ? extends V> f) {
+    checkValue(v);
+    int n = findOrCreate(k, v);
+    if (created()) {
+      return v;
+    }
+    V result = checkValue(f.apply(value(n), v));
+    setValue(n, result);
+    return result;
+  }
+
+  @Override
+  public V compute(K k, BiFunction<? super K, ? super V, ? extends V> f) {
+    probe(k);
+    int n = find();
+    V result = checkValue(f.apply(k, n == NIL ? null : value(n)));
+    if (n == NIL) {
+      findOrCreate(k, result);
+    } else {
+      setValue(n, result);
+    }
+    return result;
+  }
+
+  // Key of a node, or null for NIL.
+  private K keyOrNull(int node) {
+    return node == NIL ? null : key(node);
+  }
+
+  @Override
+  public K firstKey() {
+    return keyOrNull(first());
+  }
+
+  @Override
+  public K lastKey() {
+    return keyOrNull(last());
+  }
+
+  @Override
+  public K floorKey(K k) {
+    probe(k);
+    return keyOrNull(below(true));
+  }
+
+  @Override
+  public K lowerKey(K k) {
+    probe(k);
+    return keyOrNull(below(false));
+  }
+
+  @Override
+  public K ceilingKey(K k) {
+    probe(k);
+    return keyOrNull(above(true));
+  }
+
+  @Override
+  public K higherKey(K k) {
+    probe(k);
+    return keyOrNull(above(false));
+  }
+
+  @Override
+  public int rank(K k) {
+    probe(k);
+    return rankOfProbe();
+  }
+
+  @Override
+  public K select(int i) {
+    return key(selectNode(i));
+  }
+
+  @Override
+  public OrderedMap<K, V> subMap(K lo, K hi) {
+    if (lo == null || hi == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(lo, hi);
+  }
+
+  @Override
+  public OrderedMap<K, V> headMap(K hi) {
+    if (hi == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(null, hi);
+  }
+
+  @Override
+  public OrderedMap<K, V> tailMap(K lo) {
+    if (lo == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(lo, null);
+  }
+
+  @Override
+  public Iterator<K> iterator() {
+    return keys(null, null);
+  }
+
+  @Override
+  public EntryIterator<K, V> entryIterator() {
+    return keys(null, null);
+  }
+
+  // Iterator over the keys in [lo, hi) and their values; null bounds
+  // are open.
+  private EntryIterator<K, V> keys(K lo, K hi) {
+    NodeIterator it;
+    if (lo == null) {
+      it = new NodeIterator();
+    } else {
+      probe(lo);
+      it = new NodeIterator(true);
+    }
+    int expectedModCount = modCount();
+    return new EntryIterator<K, V>() {
+      // Node of the key next() returned last, or NIL.
+      private int last = NIL;
+
+      @Override
+      public boolean hasNext() {
+        if (hi == null) {
+          return it.hasNext();
+        }
+        int n = it.peek();
+        return n != NIL && keyCodec.compare(hi, slab(n), payload(n)) > 0;
+      }
+
+      @Override
+      public K next() {
+        if (hi != null && !hasNext()) {
+          throw new NoSuchElementException();
+        }
+        last = it.next();
+        return key(last);
+      }
+
+      @Override
+      public V value() {
+        checkOpen();
+        if (modCount() != expectedModCount) {
+          throw new ConcurrentModificationException();
+        }
+        if (last == NIL) {
+          throw new IllegalStateException("next() not called yet");
+        }
+        return OffHeapAvlTreeMap.this.value(last);
+      }
+    };
+  }
+
+  // Range view backed by this tree that iterates over just the range.
+  private class SubMap extends OrderedSubMap<K, V> {
+    SubMap(K lo, K hi) {
+      super(OffHeapAvlTreeMap.this, lo, hi);
+    }
+
+    @Override
+    OrderedSubMap<K, V> narrow(K lo, K hi) {
+      return new SubMap(lo, hi);
+    }
+
+    @Override
+    public Iterator<K> iterator() {
+      return keys(lo, hi);
+    }
+
+    @Override
+    public EntryIterator<K, V> entryIterator() {
+      return keys(lo, hi);
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    s.append("{");
+    NodeIterator it = new NodeIterator();
+    while (it.hasNext()) {
+      int n = it.next();
+      s.append(key(n));
+      s.append(": ");
+      s.append(value(n));
+      if (it.hasNext()) {
+        s.append(", ");
+      }
+    }
+    s.append("}");
+    return s.toString();
+  }
+}
@@ -0,0 +1,418 @@
+package hw6;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+
+/**
+ * Ordered maps from long to long, implemented as AVL trees in native
+ * memory.
+ *
+ * <p>Each entry takes 32 bytes outside of the Java heap: a 16 byte node
+ * header (see OffHeapAvlTree) plus the key and the value. The
+ * primitive methods (insert(long, long), get(long) and so on) never
+ * allocate on the heap except when the path buffer grows; the
+ * OrderedMap methods box keys and values as usual.</p>
+ *
+ * <p>Call close() when done to give the native memory back.</p>
+ */
+public class OffHeapLongAvlTreeMap extends OffHeapAvlTree
+    implements OrderedMap<Long, Long> {
+
+  private static final int KEY = 0;
+  private static final int VALUE = 8;
+
+  // Key the tree searches for.
+  private long probe;
+
+  /**
+   * Create an empty map.
+   */
+  public OffHeapLongAvlTreeMap() {
+    super(16);
+  }
+
+  @Override
+  int compareProbe(int node) {
+    return Long.compare(probe, key(node));
+  }
+
+  private long key(int node) {
+    return slab(node).getLong(payload(node) + KEY);
+  }
+
+  private long value(int node) {
+    return slab(node).getLong(payload(node) + VALUE);
+  }
+
+  private void setValue(int node, long v) {
+    slab(node).putLong(payload(node) + VALUE, v);
+  }
+
+  // Node for k, or throw if it's not mapped.
+  private int findForSure(long k) {
+    probe = k;
+    int n = find();
+    if (n == NIL) {
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    return n;
+  }
+
+  // Node for k, created with value 0 if it's not mapped yet.
+  private int findOrCreate(long k) {
+    probe = k;
+    int n = findOrCreate();
+    if (created()) {
+      slab(n).putLong(payload(n) + KEY, k);
+      setValue(n, 0);
+    }
+    return n;
+  }
+
+  /**
+   * Insert a new key/value pair.
+   *
+   * @param k The key.
+   * @param v The value to be associated with k.
+   * @throws IllegalArgumentException If k is already mapped.
+   */
+  public void insert(long k, long v) {
+    int n = findOrCreate(k);
+    if (!created()) {
+      throw new IllegalArgumentException("duplicate key " + k);
+    }
+    setValue(n, v);
+  }
+
+  /**
+   * Remove an existing key/value pair.
+   *
+   * @param k The key.
+   * @return The value that was associated with k.
+   * @throws IllegalArgumentException If k is not mapped.
+   */
+  public long remove(long k) {
+    probe = k;
+    int n = unlink();
+    if (n == NIL) {
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    long v = value(n);
+    release(n);
+    return v;
+  }
+
+  /**
+   * Update the value associated with a key.
+   *
+   * @param k The key.
+   * @param v The value to be associated with k.
+   * @throws IllegalArgumentException If k is not mapped.
+   */
+  public void put(long k, long v) {
+    setValue(findForSure(k), v);
+  }
+
+  /**
+   * Get the value associated with a key.
+   *
+   * @param k The key.
+   * @return The value associated with k.
+   * @throws IllegalArgumentException If k is not mapped.
+   */
+  public long get(long k) {
+    return value(findForSure(k));
+  }
+
+  /**
+   * Check existence of a key.
+   *
+   * @param k The key.
+   * @return True if k is mapped, false otherwise.
+   */
+  public boolean has(long k) {
+    probe = k;
+    return find() != NIL;
+  }
+
+  /**
+   * Add delta to the value of a key, mapping it to delta if it is not
+   * mapped yet, in a single search.
+   *
+   * @param k The key.
+   * @param delta Amount to add.
+   * @return The new value associated with k.
+   */
+  public long increment(long k, long delta) {
+    int n = findOrCreate(k);
+    long v = value(n) + delta;
+    setValue(n, v);
+    return v;
+  }
+
+  // Unbox a key, throwing if it's null.
+  private static long unbox(Long k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return k;
+  }
+
+  // Unbox a value, throwing if it's null since we can't store that.
+  private static long unboxValue(Long v) {
+    if (v == null) {
+      throw new IllegalArgumentException("cannot handle null value");
+    }
+    return v;
+  }
+
+  @Override
+  public void insert(Long k, Long v) {
+    long key = unbox(k);
+    long value = unboxValue(v);
+    insert(key, value);
+  }
+
+  @Override
+  public Long remove(Long k) {
+    return remove(unbox(k));
+  }
+
+  @Override
+  public void put(Long k, Long v) {
+    long key = unbox(k);
+    put(key, unboxValue(v));
+  }
+
+  @Override
+  public Long get(Long k) {
+    return get(unbox(k));
+  }
+
+  @Override
+  public boolean has(Long k) {
+    return k != null && has(k.longValue());
+  }
+
+  @Override
+  public int size() {
+    checkOpen();
+    return treeSize();
+  }
+
+  @Override
+  public boolean putIfAbsent(Long k, Long v) {
+    long key = unbox(k);
+    long value = unboxValue(v);
+    int n = findOrCreate(key);
+    if (created()) {
+      setValue(n, value);
+    }
+    return created();
+  }
+
+  @Override
+  public Long merge(Long k, Long v,
+      BiFunction<? super Long, ? super Long, ? extends Long> f) {
+    long key = unbox(k);
+    long value = unboxValue(v);
+    int n = findOrCreate(key);
+    if (!created()) {
+      value = unboxValue(f.apply(value(n), v));
+    }
+    setValue(n, value);
+    return value;
+  }
+
+  @Override
+  public Long compute(Long k,
+      BiFunction<? super Long, ? super Long, ? extends Long> f) {
+    long key = unbox(k);
+    int n = findOrCreate(key);
+    boolean isNew = created();
+    long value;
+    try {
+      value = unboxValue(f.apply(k, isNew ? null : value(n)));
+    } catch (RuntimeException | Error e) {
+      if (isNew) {
+        remove(key);
+      }
+      throw e;
+    }
+    setValue(n, value);
+    return value;
+  }
+
+  // Key of a node, or null for NIL.
+  private Long keyOrNull(int node) {
+    return node == NIL ? null : key(node);
+  }
+
+  @Override
+  public Long firstKey() {
+    return keyOrNull(first());
+  }
+
+  @Override
+  public Long lastKey() {
+    return keyOrNull(last());
+  }
+
+  @Override
+  public Long floorKey(Long k) {
+    probe = unbox(k);
+    return keyOrNull(below(true));
+  }
+
+  @Override
+  public Long lowerKey(Long k) {
+    probe = unbox(k);
+    return keyOrNull(below(false));
+  }
+
+  @Override
+  public Long ceilingKey(Long k) {
+    probe = unbox(k);
+    return keyOrNull(above(true));
+  }
+
+  @Override
+  public Long higherKey(Long k) {
+    probe = unbox(k);
+    return keyOrNull(above(false));
+  }
+
+  @Override
+  public int rank(Long k) {
+    probe = unbox(k);
+    return rankOfProbe();
+  }
+
+  @Override
+  public Long select(int i) {
+    return key(selectNode(i));
+  }
+
+  @Override
+  public OrderedMap<Long, Long> subMap(Long lo, Long hi) {
+    if (lo == null || hi == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(lo, hi);
+  }
+
+  @Override
+  public OrderedMap<Long, Long> headMap(Long hi) {
+    if (hi == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(null, hi);
+  }
+
+  @Override
+  public OrderedMap<Long, Long> tailMap(Long lo) {
+    if (lo == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(lo, null);
+  }
+
+  @Override
+  public Iterator<Long> iterator() {
+    return keys(null, null);
+  }
+
+  @Override
+  public EntryIterator<Long, Long> entryIterator() {
+    return keys(null, null);
+  }
+
+  // Iterator over the keys in [lo, hi) and their values; null bounds
+  // are open.
+  private EntryIterator<Long, Long> keys(Long lo, Long hi) {
+    NodeIterator it;
+    if (lo == null) {
+      it = new NodeIterator();
+    } else {
+      probe = lo;
+      it = new NodeIterator(true);
+    }
+    int expectedModCount = modCount();
+    return new EntryIterator<Long, Long>() {
+      // Node of the key next() returned last, or NIL.
+      private int last = NIL;
+
+      @Override
+      public boolean hasNext() {
+        if (hi == null) {
+          return it.hasNext();
+        }
+        int n = it.peek();
+        return n != NIL && key(n) < hi;
+      }
+
+      @Override
+      public Long next() {
+        if (hi != null && !hasNext()) {
+          throw new NoSuchElementException();
+        }
+        last = it.next();
+        return key(last);
+      }
+
+      @Override
+      public Long value() {
+        checkOpen();
+        if (modCount() != expectedModCount) {
+          throw new ConcurrentModificationException();
+        }
+        if (last == NIL) {
+          throw new IllegalStateException("next() not called yet");
+        }
+        return OffHeapLongAvlTreeMap.this.value(last);
+      }
+    };
+  }
+
+  // Range view backed by this tree that iterates over just the range.
+  private class SubMap extends OrderedSubMap<Long, Long> {
+    SubMap(Long lo, Long hi) {
+      super(OffHeapLongAvlTreeMap.this, lo, hi);
+    }
+
+    @Override
+    OrderedSubMap<Long, Long> narrow(Long lo, Long hi) {
+      return new SubMap(lo, hi);
+    }
+
+    @Override
+    public Iterator<Long> iterator() {
+      return keys(lo, hi);
+    }
+
+    @Override
+    public EntryIterator<Long, Long> entryIterator() {
+      return keys(lo, hi);
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    s.append("{");
+    NodeIterator it = new NodeIterator();
+    while (it.hasNext()) {
+      int n = it.next();
+      s.append(key(n));
+      s.append(": ");
+      s.append(value(n));
+      if (it.hasNext()) {
+        s.append(", ");
+      }
+    }
+    s.append("}");
+    return s.toString();
+  }
+}
@@ -0,0 +1,404 @@
+package hw6;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+
+/**
+ * Maps from arbitrary keys to arbitrary values, implemented as a hash
+ * table with open addressing.
+ *
+ * <P>Keys, values and (mixed) hash codes live in three parallel arrays
+ * and collisions are resolved by linear probing, so a lookup touches a
+ * few adjacent slots instead of chasing pointers. Caching the hash
+ * codes means probing only calls equals() on real candidates and
+ * growing the table never calls hashCode(). Removal shifts the rest of
+ * the probe run back instead of leaving tombstones, so lookups never
+ * slow down after many removals. All operations take O(1) expected
+ * time; keys come out of the iterator in no particular order.</P>
+ *
+ * <P>The capacity is a power of two and doubles when the table is 3/4
+ * full. Instead of copying everything at once, the old table is kept
+ * around and every insert or remove moves a few of its slots over, so
+ * no single operation pays for a whole rehash. Lookups check the new
+ * table first and the old one while a resize is in progress.</P>
+ *
+ * @param <K> Type for keys.
+ * @param <V> Type for values.
+ */
+public class OpenHashMap<K, V> implements Map<K, V> {
+
+  private static final int MIN_CAPACITY = 16;
+  // Migration steps per insert or remove while resizing; a step skips
+  // an empty old slot or moves one entry. An old table of capacity c
+  // holds at most 3c/4 entries, so it drains in at most c + 3c/4
+  // steps, while the next resize (of the new table of 2c, at 3c/2
+  // entries) is at least 3c/4 inserts away: 4/3 steps per insert for
+  // the slots plus one per entry, 7/3 in all, is enough to be done in
+  // time; we stay well clear of that.
+  private static final int MIGRATE_STEP = 8;
+  // find() result for keys that are not mapped; see find().
+  private static final int ABSENT = Integer.MIN_VALUE;
+
+  // Current table; a null key marks an empty slot.
+  private Object[] keys;
+  private Object[] values;
+  private int[] hashes;
+  // Table being drained by an incremental resize, or null. Slots below
+  // migrated are all empty.
+  private Object[] oldKeys;
+  private Object[] oldValues;
+  private int[] oldHashes;
+  private int migrated;
+  // Number of mappings in both tables.
+  private int size;
+  // Number of structural changes, for fail-fast iterators.
+  private int modCount;
+  // Whether the last findOrCreate() call created its slot.
+  private boolean created;
+
+  /**
+   * Create an empty map.
+   */
+  public OpenHashMap() {
+    this(0);
+  }
+
+  /**
+   * Create an empty map with room for the given number of mappings
+   * before the first resize.
+   *
+   * @param expectedSize Number of mappings to make room for.
+   * @throws IllegalArgumentException If expectedSize is negative.
+   */
+  public OpenHashMap(int expectedSize) {
+    if (expectedSize < 0) {
+      throw new IllegalArgumentException("negative size " + expectedSize);
+    }
+    int capacity = MIN_CAPACITY;
+    while (threshold(capacity) < expectedSize) {
+      capacity *= 2;
+    }
+    keys = new Object[capacity];
+    values = new Object[capacity];
+    hashes = new int[capacity];
+  }
+
+  // Maximum number of mappings for a table of the given capacity.
+  private static int threshold(int capacity) {
+    return capacity - capacity / 4;
+  }
+
+  // Hash code with its bits mixed so that the low bits we use for the
+  // index depend on all of them (Fibonacci hashing).
+  private static int hash(Object k) {
+    int h = k.hashCode() * 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+
+  // Slot holding key k (with hash h) in the given table, or -1. The
+  // table always has an empty slot, so the loop terminates.
+  private static int probe(Object[] ks, int[] hs, Object k, int h) {
+    int mask = ks.length - 1;
+    for (int i = h & mask; ks[i] != null; i = (i + 1) & mask) {
+      if (hs[i] == h && k.equals(ks[i])) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // Return the slot for key k: i >= 0 for slot i of the current table,
+  // ~i for slot i of the old one, or ABSENT.
+  private int find(Object k, int h) {
+    int i = probe(keys, hashes, k, h);
+    if (i >= 0 || oldKeys == null) {
+      return i >= 0 ? i : ABSENT;
+    }
+    i = probe(oldKeys, oldHashes, k, h);
+    return i >= 0 ? ~i : ABSENT;
+  }
+
+  // Return slot for given key, throw an exception if it's not mapped.
+  private int findForSure(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    int i = find(k, hash(k));
+    if (i == ABSENT) {
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    return i;
+  }
+
+  @SuppressWarnings("unchecked")
+  private V valueAt(int i) {
+    return (V) (i >= 0 ? values[i] : oldValues[~i]);
+  }
+
+  private void setValue(int i, V v) {
+    if (i >= 0) {
+      values[i] = v;
+    } else {
+      oldValues[~i] = v;
+    }
+  }
+
+  // Return slot for given key, adding it (with a null value) to the
+  // current table if it's not mapped yet; sets created accordingly.
+  private int findOrCreate(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    int h = hash(k);
+    int i = find(k, h);
+    if (i != ABSENT) {
+      created = false;
+      return i;
+    }
+    if (oldKeys != null) {
+      migrate(MIGRATE_STEP);
+    }
+    if (size >= threshold(keys.length)) {
+      grow();
+    }
+    int mask = keys.length - 1;
+    i = h & mask;
+    while (keys[i] != null) {
+      i = (i + 1) & mask;
+    }
+    keys[i] = k;
+    hashes[i] = h;
+    size++;
+    modCount++;
+    created = true;
+    return i;
+  }
+
+  // Start moving everything into a table of twice the size. Normally
+  // the previous resize is long done by now, but removals don't count
+  // towards the threshold, so finish it first just in case.
+  private void grow() {
+    if (oldKeys != null) {
+      migrate(Integer.MAX_VALUE);
+    }
+    int capacity = 2 * keys.length;
+    oldKeys = keys;
+    oldValues = values;
+    oldHashes = hashes;
+    migrated = 0;
+    keys = new Object[capacity];
+    values = new Object[capacity];
+    hashes = new int[capacity];
+  }
+
+  // Move entries from the old table to the current one, looking at up
+  // to steps slots. Each entry is removed from the old table with a
+  // backward shift, which may pull a later entry into the same slot,
+  // so we only advance past empty slots. Entries never shift below
+  // migrated since the slots there are empty, so once migrated reaches
+  // the end the old table is empty.
+  private void migrate(int steps) {
+    int mask = keys.length - 1;
+    for (; steps > 0 && migrated < oldKeys.length; steps--) {
+      Object k = oldKeys[migrated];
+      if (k == null) {
+        migrated++;
+        continue;
+      }
+      int h = oldHashes[migrated];
+      int i = h & mask;
+      while (keys[i] != null) {
+        i = (i + 1) & mask;
+      }
+      keys[i] = k;
+      values[i] = oldValues[migrated];
+      hashes[i] = h;
+      delete(oldKeys, oldValues, oldHashes, migrated);
+    }
+    if (migrated == oldKeys.length) {
+      oldKeys = null;
+      oldValues = null;
+      oldHashes = null;
+    }
+  }
+
+  // Empty slot i of the given table and close the gap: walk the rest
+  // of the probe run and move back every entry whose home slot is not
+  // between the gap and where it is now, which keeps all of them
+  // reachable from their home slot without tombstones.
+  private static void delete(Object[] ks, Object[] vs, int[] hs, int i) {
+    int mask = ks.length - 1;
+    for (int j = (i + 1) & mask; ks[j] != null; j = (j + 1) & mask) {
+      int home = hs[j] & mask;
+      if (((j - home) & mask) >= ((j - i) & mask)) {
+        ks[i] = ks[j];
+        vs[i] = vs[j];
+        hs[i] = hs[j];
+        i = j;
+      }
+    }
+    ks[i] = null;
+    vs[i] = null;
+  }
+
+  @Override
+  public void insert(K k, V v) {
+    int i = findOrCreate(k);
+    if (!created) {
+      throw new IllegalArgumentException("duplicate key " + k);
+    }
+    values[i] = v;
+  }
+
+  @Override
+  public V remove(K k) {
+    int i = findForSure(k);
+    V v = valueAt(i);
+    if (i >= 0) {
+      delete(keys, values, hashes, i);
+    } else {
+      delete(oldKeys, oldValues, oldHashes, ~i);
+    }
+    size--;
+    modCount++;
+    if (oldKeys != null) {
+      migrate(MIGRATE_STEP);
+    }
+    return v;
+  }
+
+  @Override
+  public void put(K k, V v) {
+    setValue(findForSure(k), v);
+  }
+
+  @Override
+  public V get(K k) {
+    return valueAt(findForSure(k));
+  }
+
+  @Override
+  public boolean has(K k) {
+    if (k == null) {
+      return false;
+    }
+    return find(k, hash(k)) != ABSENT;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean putIfAbsent(K k, V v) {
+    int i = findOrCreate(k);
+    if (created) {
+      values[i] = v;
+    }
+    return created;
+  }
+
+  @Override
+  public V merge(K k, V v, BiFunction<? super V, ? super V, ? extends V> f) {
+    int i = findOrCreate(k);
+    V result = created ? v : f.apply(valueAt(i), v);
+    setValue(i, result);
+    return result;
+  }
+
+  @Override
+  public V compute(K k, BiFunction<? super K, ? super V, ? extends V> f) {
+    int i = findOrCreate(k);
+    boolean isNew = created;
+    V result;
+    try {
+      result = f.apply(k, valueAt(i));
+    } catch (RuntimeException | Error e) {
+      if (isNew) {
+        remove(k);
+      }
+      throw e;
+    }
+    setValue(i, result);
+    return result;
+  }
+
+  @Override
+  public Iterator<K> iterator() {
+    return new SlotIterator();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    s.append("{");
+    SlotIterator it = new SlotIterator();
+    while (it.hasNext()) {
+      s.append(it.next());
+      s.append(": ");
+      s.append(it.value());
+      if (it.hasNext()) {
+        s.append(", ");
+      }
+    }
+    s.append("}");
+    return s.toString();
+  }
+
+  // Iterator over the occupied slots of the current table, then of the
+  // old one (if a resize is in progress).
+  private class SlotIterator implements Iterator<K> {
+    private final int expectedModCount = modCount;
+    private Object[] ks = keys;
+    private Object[] vs = values;
+    // Slot of the next key, or ks.length if there is none.
+    private int next = -1;
+    private Object value;
+
+    SlotIterator() {
+      advance();
+    }
+
+    // Move next to the following occupied slot, switching over to the
+    // old table at the end of the current one.
+    private void advance() {
+      do {
+        next++;
+        if (next == ks.length && ks == keys && oldKeys != null) {
+          ks = oldKeys;
+          vs = oldValues;
+          next = migrated;
+        }
+      } while (next < ks.length && ks[next] == null);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < ks.length;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public K next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      K k = (K) ks[next];
+      value = vs[next];
+      advance();
+      return k;
+    }
+
+    // Value of the key last returned by next().
+    @SuppressWarnings("unchecked")
+    V value() {
+      return (V) value;
+    }
+  }
+}
@@ -1,11 +1,293 @@
 package hw6;
 
+import java.util.Iterator;
+
 /**
  * Ordered maps from comparable keys to arbitrary values.
  *
+ * <p>Iteration visits keys in ascending order. On top of that, ordered
+ * maps answer "nearest key" queries and provide range views. The
+ * default implementations below simply iterate over the map and thus
+ * take O(n) time; tree-based implementations override them to take
+ * O(height) instead.</p>
+ *
+ * <p>The key queries return null when there is no such key (which is
+ * unambiguous since keys are never null).</p>
+ *
+ * <p>Ordered maps also support order statistics: rank() and select()
+ * convert between keys and their positions in key order, which makes
+ * percentiles and pagination cheap for maps that keep subtree sizes
+ * (these take O(n) time by default).</p>
+ *
  * @param <K> Type for keys.
  * @param <V> Type for values.
  */
 public interface OrderedMap<K extends Comparable<K>, V>
     extends Map<K, V> {
+
+  /**
+   * Smallest key.
+   *
+   * @return The smallest key, or null if the map is empty.
+   */
+  default K firstKey() {
+    Iterator<K> it = iterator();
+    return it.hasNext() ? it.next() : null;
+  }
+
+  /**
+   * Largest key.
+   *
+   * @return The largest key, or null if the map is empty.
+   */
+  default K lastKey() {
+    K last = null;
+    for (K key : this) {
+      last = key;
+    }
+    return last;
+  }
+
+  /**
+   * Largest key less than or equal to a given key.
+   *
+   * @param k The key.
+   * @return The largest key &lt;= k, or null if there is none.
+   * @throws IllegalArgumentException If k is null.
+   */
+  default K floorKey(K k) throws IllegalArgumentException {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    K floor = null;
+    for (K key : this) {
+      if (key.compareTo(k) > 0) {
+        break;
+      }
+      floor = key;
+    }
+    return floor;
+  }
+
+  /**
+   * Smallest key greater than or equal to a given key.
+   *
+   * @param k The key.
+   * @return The smallest key &gt;= k, or null if there is none.
+   * @throws IllegalArgumentException If k is null.
+   */
+  default K ceilingKey(K k) throws IllegalArgumentException {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    for (K key : this) {
+      if (key.compareTo(k) >= 0) {
+        return key;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Largest key strictly less than a given key.
+   *
+   * @param k The key.
+   * @return The largest key &lt; k, or null if there is none.
+   * @throws IllegalArgumentException If k is null.
+   */
+  default K lowerKey(K k) throws IllegalArgumentException {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    K lower = null;
+    for (K key : this) {
+      if (key.compareTo(k) >= 0) {
+        break;
+      }
+      lower = key;
+    }
+    return lower;
+  }
+
+  /**
+   * Smallest key strictly greater than a given key.
+   *
+   * @param k The key.
+   * @return The smallest key &gt; k, or null if there is none.
+   * @throws IllegalArgumentException If k is null.
+   */
+  default K higherKey(K k) throws IllegalArgumentException {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    for (K key : this) {
+      if (key.compareTo(k) > 0) {
+        return key;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Number of keys strictly less than a given key.
+   *
+   * <p>The key does not have to be mapped; if it is, this is its
+   * zero-based position in key order.</p>
+   *
+   * @param k The key.
+   * @return Number of keys &lt; k.
+   * @throws IllegalArgumentException If k is null.
+   */
+  default int rank(K k) throws IllegalArgumentException {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    int rank = 0;
+    for (K key : this) {
+      if (key.compareTo(k) >= 0) {
+        break;
+      }
+      rank++;
+    }
+    return rank;
+  }
+
+  /**
+   * Key at a given position in key order.
+   *
+   * @param i Zero-based position.
+   * @return The key with exactly i smaller keys.
+   * @throws IllegalArgumentException If i is not in [0, size()).
+   */
+  default K select(int i) throws IllegalArgumentException {
+    if (i < 0 || i >= size()) {
+      throw new IllegalArgumentException("position out of range " + i);
+    }
+    Iterator<K> it = iterator();
+    for (int j = 0; j < i; j++) {
+      it.next();
+    }
+    return it.next();
+  }
+
+  /**
+   * Number of keys in [lo, hi).
+   *
+   * @param lo Smallest key to count (inclusive).
+   * @param hi Upper bound (exclusive).
+   * @return Number of keys k with lo &lt;= k &lt; hi.
+   * @throws IllegalArgumentException If lo or hi is null, or lo &gt; hi.
+   */
+  default int countInRange(K lo, K hi) throws IllegalArgumentException {
+    if (lo == null || hi == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    if (lo.compareTo(hi) > 0) {
+      throw new IllegalArgumentException("empty range " + lo + ", " + hi);
+    }
+    return rank(hi) - rank(lo);
+  }
+
+  /**
+   * View of the keys in [lo, hi).
+   *
+   * <p>The view is backed by this map: it is not a copy, and changes
+   * to either show up in the other. Operations on keys outside of the
+   * range throw IllegalArgumentException, just like operations on keys
+   * that are not mapped. Creating a view takes O(1) time.</p>
+   *
+   * @param lo Smallest key in the view (inclusive).
+   * @param hi Upper bound of the view (exclusive).
+   * @return A view of the part of this map in [lo, hi).
+   * @throws IllegalArgumentException If lo or hi is null, or lo &gt; hi.
+   */
+  default OrderedMap<K, V> subMap(K lo, K hi)
+      throws IllegalArgumentException {
+    if (lo == null || hi == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new OrderedSubMap<>(this, lo, hi);
+  }
+
+  /**
+   * View of the keys strictly less than hi; see subMap().
+   *
+   * @param hi Upper bound of the view (exclusive).
+   * @return A view of the part of this map below hi.
+   * @throws IllegalArgumentException If hi is null.
+   */
+  default OrderedMap<K, V> headMap(K hi) throws IllegalArgumentException {
+    if (hi == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new OrderedSubMap<>(this, null, hi);
+  }
+
+  /**
+   * View of the keys greater than or equal to lo; see subMap().
+   *
+   * @param lo Smallest key in the view (inclusive).
+   * @return A view of the part of this map from lo on.
+   * @throws IllegalArgumentException If lo is null.
+   */
+  default OrderedMap<K, V> tailMap(K lo) throws IllegalArgumentException {
+    if (lo == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new OrderedSubMap<>(this, lo, null);
+  }
+
+  /**
+   * Iterator over the keys in ascending order that also gives their
+   * values. This one calls get() for each key; tree maps override it
+   * to read values off the nodes they walk, so that going over all
+   * keys and values takes O(n) time instead of O(n log n).
+   *
+   * @return An iterator over the keys that knows their values.
+   */
+  default EntryIterator<K, V> entryIterator() {
+    Iterator<K> keys = iterator();
+    return new EntryIterator<K, V>() {
+      private K last;
+
+      @Override
+      public boolean hasNext() {
+        return keys.hasNext();
+      }
+
+      @Override
+      public K next() {
+        last = keys.next();
+        return last;
+      }
+
+      @Override
+      public V value() {
+        if (last == null) {
+          throw new IllegalStateException("next() not called yet");
+        }
+        return get(last);
+      }
+    };
+  }
+
+  /**
+   * Shape of the tree holding the keys, in one pass over its nodes:
+   * O(n) time for binary trees, O(n / fanout) for B+trees. Range views
+   * describe the tree of the whole backing map.
+   *
+   * @return Exact statistics.
+   */
+  ShapeStats shapeStats();
+
+  /**
+   * Estimated shape of the tree holding the keys, from random paths
+   * from its root to a leaf, in O(samples * height) time; cheap enough
+   * to check a large map regularly for degeneration. See ShapeStats.
+   *
+   * @param samples Number of paths to follow, at least 1.
+   * @return Sampled statistics.
+   * @throws IllegalArgumentException If samples is less than 1.
+   */
+  ShapeStats shapeStats(int samples);
 }
@@ -0,0 +1,333 @@
+package hw6;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+
+/**
+ * Range view of an ordered map, as returned by subMap() and friends.
+ *
+ * <p>Every operation checks the range and then delegates to the
+ * backing map, so point operations and key queries are as fast as the
+ * backing map's. The only thing the view cannot get from the public
+ * interface is an iterator that starts in the middle, so by default
+ * iterator() filters the backing map's iterator; tree maps subclass
+ * this to iterate over just the range. size(), rank() and select()
+ * are computed from the backing map's rank() and select(), so they
+ * take O(height) time on maps that keep subtree sizes.</p>
+ *
+ * <p>A null bound means the range is open on that side.</p>
+ *
+ * @param <K> Type for keys.
+ * @param <V> Type for values.
+ */
+class OrderedSubMap<K extends Comparable<K>, V> implements OrderedMap<K, V> {
+  final OrderedMap<K, V> backing;
+  final K lo;
+  final K hi;
+
+  /**
+   * Create a view of [lo, hi) of the given map.
+   *
+   * @param backing The map to view.
+   * @param lo Inclusive lower bound, or null for none.
+   * @param hi Exclusive upper bound, or null for none.
+   * @throws IllegalArgumentException If lo &gt; hi.
+   */
+  OrderedSubMap(OrderedMap<K, V> backing, K lo, K hi) {
+    if (lo != null && hi != null && lo.compareTo(hi) > 0) {
+      throw new IllegalArgumentException("empty range " + lo + ", " + hi);
+    }
+    this.backing = backing;
+    this.lo = lo;
+    this.hi = hi;
+  }
+
+  /**
+   * Make a view of the same backing map with other bounds. Subclasses
+   * override this so that views of views keep their iterator.
+   *
+   * @param lo Inclusive lower bound, or null for none.
+   * @param hi Exclusive upper bound, or null for none.
+   * @return The new view.
+   */
+  OrderedSubMap<K, V> narrow(K lo, K hi) {
+    return new OrderedSubMap<>(backing, lo, hi);
+  }
+
+  // Is k at or above the lower bound?
+  boolean aboveLo(K k) {
+    return lo == null || k.compareTo(lo) >= 0;
+  }
+
+  // Is k below the upper bound?
+  boolean belowHi(K k) {
+    return hi == null || k.compareTo(hi) < 0;
+  }
+
+  // Is k in the range? False for null.
+  boolean inRange(K k) {
+    return k != null && aboveLo(k) && belowHi(k);
+  }
+
+  // Throw if k is not in the range (or null).
+  private void checkRange(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    if (!inRange(k)) {
+      throw new IllegalArgumentException("key out of range " + k);
+    }
+  }
+
+  @Override
+  public void insert(K k, V v) {
+    checkRange(k);
+    backing.insert(k, v);
+  }
+
+  @Override
+  public V remove(K k) {
+    checkRange(k);
+    return backing.remove(k);
+  }
+
+  @Override
+  public void put(K k, V v) {
+    checkRange(k);
+    backing.put(k, v);
+  }
+
+  @Override
+  public V get(K k) {
+    checkRange(k);
+    return backing.get(k);
+  }
+
+  @Override
+  public boolean has(K k) {
+    return inRange(k) && backing.has(k);
+  }
+
+  // Rank of the lower bound in the backing map.
+  private int loRank() {
+    return lo == null ? 0 : backing.rank(lo);
+  }
+
+  // Rank of the upper bound in the backing map.
+  private int hiRank() {
+    return hi == null ? backing.size() : backing.rank(hi);
+  }
+
+  @Override
+  public int size() {
+    return hiRank() - loRank();
+  }
+
+  @Override
+  public int rank(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    if (!aboveLo(k)) {
+      return 0;
+    }
+    return (belowHi(k) ? backing.rank(k) : hiRank()) - loRank();
+  }
+
+  @Override
+  public K select(int i) {
+    int loRank = loRank();
+    if (i < 0 || i >= hiRank() - loRank) {
+      throw new IllegalArgumentException("position out of range " + i);
+    }
+    return backing.select(loRank + i);
+  }
+
+  // The keys in range are part of the backing map's tree, so that is
+  // the shape searches in the view see.
+  @Override
+  public ShapeStats shapeStats() {
+    return backing.shapeStats();
+  }
+
+  @Override
+  public ShapeStats shapeStats(int samples) {
+    return backing.shapeStats(samples);
+  }
+
+  @Override
+  public boolean putIfAbsent(K k, V v) {
+    checkRange(k);
+    return backing.putIfAbsent(k, v);
+  }
+
+  @Override
+  public V merge(K k, V v, BiFunction<? super V, ? super V, ? extends V> f) {
+    checkRange(k);
+    return backing.merge(k, v, f);
+  }
+
+  @Override
+  public V compute(K k, BiFunction<? super K, ? super V, ? extends V> f) {
+    checkRange(k);
+    return backing.compute(k, f);
+  }
+
+  @Override
+  public K firstKey() {
+    K k = lo == null ? backing.firstKey() : backing.ceilingKey(lo);
+    return k != null && belowHi(k) ? k : null;
+  }
+
+  @Override
+  public K lastKey() {
+    K k = hi == null ? backing.lastKey() : backing.lowerKey(hi);
+    return k != null && aboveLo(k) ? k : null;
+  }
+
+  @Override
+  public K floorKey(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    if (!belowHi(k)) {
+      return lastKey();
+    }
+    K floor = backing.floorKey(k);
+    return floor != null && aboveLo(floor) ? floor : null;
+  }
+
+  @Override
+  public K ceilingKey(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    if (!aboveLo(k)) {
+      return firstKey();
+    }
+    K ceiling = backing.ceilingKey(k);
+    return ceiling != null && belowHi(ceiling) ? ceiling : null;
+  }
+
+  @Override
+  public K lowerKey(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    if (hi != null && k.compareTo(hi) > 0) {
+      return lastKey();
+    }
+    K lower = backing.lowerKey(k);
+    return lower != null && aboveLo(lower) ? lower : null;
+  }
+
+  @Override
+  public K higherKey(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    if (!aboveLo(k)) {
+      return firstKey();
+    }
+    K higher = backing.higherKey(k);
+    return higher != null && belowHi(higher) ? higher : null;
+  }
+
+  // Intersect this view's range with [from, to); null means open.
+  private OrderedSubMap<K, V> intersect(K from, K to) {
+    K newLo = lo == null || (from != null && from.compareTo(lo) > 0)
+        ? from : lo;
+    K newHi = hi == null || (to != null && to.compareTo(hi) < 0)
+        ? to : hi;
+    if (newLo != null && newHi != null && newLo.compareTo(newHi) > 0) {
+      // Disjoint ranges; any empty range will do.
+      newHi = newLo;
+    }
+    return narrow(newLo, newHi);
+  }
+
+  @Override
+  public OrderedMap<K, V> subMap(K from, K to) {
+    if (from == null || to == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    if (from.compareTo(to) > 0) {
+      throw new IllegalArgumentException("empty range " + from + ", " + to);
+    }
+    return intersect(from, to);
+  }
+
+  @Override
+  public OrderedMap<K, V> headMap(K to) {
+    if (to == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return intersect(null, to);
+  }
+
+  @Override
+  public OrderedMap<K, V> tailMap(K from) {
+    if (from == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return intersect(from, null);
+  }
+
+  @Override
+  public Iterator<K> iterator() {
+    return new FilteringIterator();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    s.append("{");
+    for (K k : this) {
+      if (s.length() > 1) {
+        s.append(", ");
+      }
+      s.append(k);
+      s.append(": ");
+      s.append(backing.get(k));
+    }
+    s.append("}");
+    return s.toString();
+  }
+
+  // Iterator that skips the backing map's keys below the range and
+  // stops at the first key above it.
+  private class FilteringIterator implements Iterator<K> {
+    private final Iterator<K> it = backing.iterator();
+    private K next;
+
+    FilteringIterator() {
+      while (it.hasNext()) {
+        K k = it.next();
+        if (aboveLo(k)) {
+          next = belowHi(k) ? k : null;
+          break;
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public K next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      K k = next;
+      next = null;
+      if (it.hasNext()) {
+        K n = it.next();
+        next = belowHi(n) ? n : null;
+      }
+      return k;
+    }
+  }
+}
@@ -0,0 +1,352 @@
+package hw6;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Counts the words of a file on several threads.
+ *
+ * <p>The file is cut into one byte range per thread, each boundary moved
+ * forward to the next ASCII whitespace byte so that no word is cut (such
+ * a byte can't be part of a multi-byte UTF-8 character). Each range is
+ * tokenized by MappedTokenizer into a map of its own, on a fork-join
+ * pool, with no sharing between the workers. Then the partial maps are
+ * combined: ordered maps with a BulkLoader walk their iterators in a
+ * k-way merge that adds up the counts of equal keys and streams the
+ * result into the loader, an O(n) build; other maps are folded into the
+ * first one with merge().</p>
+ *
+ * <p>main() reports the speedup over one thread for each map type.</p>
+ */
+public final class ParallelWordCount {
+
+  private ParallelWordCount() {}
+
+  /**
+   * Count the words of a file, like WordFrequencyCountExperiment.
+   *
+   * @param file The file.
+   * @param threads Number of ranges and worker threads, at least 1.
+   * @param newMap Makes the map each worker counts into.
+   * @param loader Builds the result from the merged counts if the maps
+   *     are OrderedMaps, e.g. AvlTreeMap::fromSorted; null to fold the
+   *     partial maps into the first one instead.
+   * @return Map from each word to the number of its occurrences.
+   * @throws IOException If the file can't be read.
+   * @throws IllegalArgumentException If threads is less than 1.
+   */
+  public static Map<String, Integer> count(Path file, int threads,
+      Supplier<? extends Map<String, Integer>> newMap,
+      BulkLoader<String, Integer> loader) throws IOException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("need at least one thread");
+    }
+    List<Map<String, Integer>> parts = new ArrayList<>();
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try (FileChannel channel = FileChannel.open(file,
+        StandardOpenOption.READ)) {
+      long[] bounds = split(channel, threads);
+      List<Future<Map<String, Integer>>> tasks = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        long from = bounds[i];
+        long to = bounds[i + 1];
+        tasks.add(pool.submit(() -> countRange(channel, from, to, newMap)));
+      }
+      for (Future<Map<String, Integer>> task : tasks) {
+        parts.add(task.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) e.getCause()).getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+    return combine(parts, loader);
+  }
+
+  // Range boundaries: threads + 1 positions from 0 to the size of the
+  // file, each inner one at an ASCII whitespace byte (or the end).
+  private static long[] split(FileChannel channel, int threads)
+      throws IOException {
+    long size = channel.size();
+    long[] bounds = new long[threads + 1];
+    ByteBuffer buf = ByteBuffer.allocate(4096);
+    for (int i = 1; i < threads; i++) {
+      long pos = Math.max(size / threads * i, bounds[i - 1]);
+      bounds[i] = nextSpace(channel, pos, size, buf);
+    }
+    bounds[threads] = size;
+    return bounds;
+  }
+
+  private static long nextSpace(FileChannel channel, long pos, long size,
+      ByteBuffer buf) throws IOException {
+    while (pos < size) {
+      buf.clear();
+      int n = channel.read(buf, pos);
+      for (int i = 0; i < n; i++) {
+        byte b = buf.get(i);
+        if (b >= 0 && Character.isWhitespace(b)) {
+          return pos + i;
+        }
+      }
+      pos += Math.max(n, 0);
+    }
+    return size;
+  }
+
+  // Count one range into a new map; runs on a worker.
+  private static Map<String, Integer> countRange(FileChannel channel,
+      long from, long to, Supplier<? extends Map<String, Integer>> newMap) {
+    Map<String, Integer> map = newMap.get();
+    WordInterner words = new WordInterner();
+    try {
+      MappedTokenizer.tokenize(channel, from, to, MappedTokenizer.WINDOW,
+          (buf, offset, length) ->
+              map.merge(words.intern(buf, offset, length), 1, Integer::sum));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return map;
+  }
+
+  // Add up partial counts, in the first map unless they can be merged
+  // into the loader.
+  private static Map<String, Integer> combine(
+      List<Map<String, Integer>> parts, BulkLoader<String, Integer> loader) {
+    List<OrderedMap<String, Integer>> ordered = new ArrayList<>();
+    for (Map<String, Integer> part : parts) {
+      if (part instanceof OrderedMap) {
+        ordered.add((OrderedMap<String, Integer>) part);
+      }
+    }
+    if (loader != null && ordered.size() == parts.size()) {
+      MergedCounts merged = new MergedCounts(ordered);
+      return loader.load(merged, merged.values, merged.size);
+    }
+    Map<String, Integer> result = parts.get(0);
+    for (Map<String, Integer> part : parts.subList(1, parts.size())) {
+      for (String word : part) {
+        result.merge(word, part.get(word), Integer::sum);
+      }
+    }
+    return result;
+  }
+
+  // K-way merge of the keys of ordered maps, adding up the counts of
+  // equal keys: the keys come from this, their totals from values. The
+  // number of distinct keys is counted by a first merge pass, since the
+  // loader wants it up front.
+  private static final class MergedCounts implements Iterator<String> {
+    private final List<OrderedMap<String, Integer>> maps;
+    private final PriorityQueue<Cursor> heap = new PriorityQueue<>();
+    final int size;
+    // Total count of the last key, if it wasn't taken yet.
+    private int total;
+    private boolean pending;
+
+    final Iterator<Integer> values = new Iterator<Integer>() {
+      @Override
+      public boolean hasNext() {
+        return pending;
+      }
+
+      @Override
+      public Integer next() {
+        if (!pending) {
+          throw new NoSuchElementException();
+        }
+        pending = false;
+        return total;
+      }
+    };
+
+    MergedCounts(List<OrderedMap<String, Integer>> maps) {
+      this.maps = maps;
+      start();
+      int n = 0;
+      while (hasNext()) {
+        advance(false);
+        n++;
+      }
+      this.size = n;
+      start();
+    }
+
+    private void start() {
+      heap.clear();
+      for (OrderedMap<String, Integer> map : maps) {
+        EntryIterator<String, Integer> it = map.entryIterator();
+        if (it.hasNext()) {
+          heap.add(new Cursor(it));
+        }
+      }
+    }
+
+    // Take the smallest key off all cursors, summing its counts if
+    // asked to.
+    private String advance(boolean sum) {
+      String key = heap.peek().key;
+      total = 0;
+      while (!heap.isEmpty() && heap.peek().key.equals(key)) {
+        Cursor c = heap.poll();
+        if (sum) {
+          total += c.it.value();
+        }
+        if (c.it.hasNext()) {
+          c.key = c.it.next();
+          heap.add(c);
+        }
+      }
+      return key;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !heap.isEmpty();
+    }
+
+    @Override
+    public String next() {
+      if (heap.isEmpty()) {
+        throw new NoSuchElementException();
+      }
+      String key = advance(true);
+      pending = true;
+      return key;
+    }
+  }
+
+  // Position in the keys of one map; it.value() is the count of key.
+  private static final class Cursor implements Comparable<Cursor> {
+    final EntryIterator<String, Integer> it;
+    String key;
+
+    Cursor(EntryIterator<String, Integer> it) {
+      this.it = it;
+      this.key = it.next();
+    }
+
+    @Override
+    public int compareTo(Cursor other) {
+      return key.compareTo(other.key);
+    }
+  }
+
+  // Maps the reports cover, and how to make them; WordCountDriver and
+  // Workload use this too.
+  static <K extends Comparable<K>, V> Map<K, V> newMap(String impl) {
+    switch (impl) {
+      case "SimpleMap":
+        return new SimpleMap<>();
+      case "BinarySearchTreeMap":
+        return new BinarySearchTreeMap<>();
+      case "AvlTreeMap":
+        return new AvlTreeMap<>();
+      case "TreapMap":
+        return new TreapMap<>();
+      case "OpenHashMap":
+        return new OpenHashMap<>();
+      case "PooledAvlTreeMap":
+        return new PooledAvlTreeMap<>();
+      case "PooledTreapMap":
+        return new PooledTreapMap<>();
+      case "BTreeMap":
+        return new BTreeMap<>();
+      case "ConcurrentTreapMap":
+        return new ConcurrentTreapMap<>();
+      case "PersistentAvlTreeMap":
+        return new PersistentAvlTreeMap<>();
+      default:
+        throw new IllegalArgumentException("unknown map " + impl);
+    }
+  }
+
+  private static BulkLoader<String, Integer> loader(String impl) {
+    switch (impl) {
+      case "AvlTreeMap":
+        return AvlTreeMap::fromSorted;
+      case "TreapMap":
+        return TreapMap::fromSorted;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Report the speedup of parallel counting for each map type, with 1,
+   * 2, 4 and so on up to the number of processors threads.
+   *
+   * @param args The file to count, then optionally the map types; by
+   *     default all tree maps and OpenHashMap.
+   * @throws IOException If the file can't be read.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.err.println("usage: ParallelWordCount file [map...]");
+      return;
+    }
+    Path file = Paths.get(args[0]);
+    List<String> impls = new ArrayList<>();
+    for (int i = 1; i < args.length; i++) {
+      impls.add(args[i]);
+    }
+    if (impls.isEmpty()) {
+      impls.addAll(List.of("AvlTreeMap", "TreapMap", "OpenHashMap",
+          "PooledAvlTreeMap", "PooledTreapMap", "BTreeMap"));
+    }
+    int cores = Runtime.getRuntime().availableProcessors();
+    List<Integer> counts = new ArrayList<>();
+    for (int t = 1; t < cores; t *= 2) {
+      counts.add(t);
+    }
+    counts.add(cores);
+    System.out.printf("%-20s %7s %10s %8s%n", "map", "threads", "ms",
+        "speedup");
+    for (String impl : impls) {
+      double base = 0;
+      for (int threads : counts) {
+        double ms = bestOf(3, file, threads, impl);
+        if (threads == 1) {
+          base = ms;
+        }
+        System.out.printf("%-20s %7d %10.1f %8.2f%n", impl, threads, ms,
+            base / ms);
+      }
+    }
+  }
+
+  // Best time in milliseconds out of some runs, after one for warmup.
+  private static double bestOf(int runs, Path file, int threads,
+      String impl) throws IOException {
+    double best = Double.MAX_VALUE;
+    for (int i = 0; i <= runs; i++) {
+      long start = System.nanoTime();
+      count(file, threads, () -> newMap(impl), loader(impl));
+      double ms = (System.nanoTime() - start) / 1e6;
+      if (i > 0) {
+        best = Math.min(best, ms);
+      }
+    }
+    return best;
+  }
+}
@@ -0,0 +1,613 @@
+package hw6;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+
+/**
+ * Ordered maps implemented as persistent AVL trees.
+ *
+ * <P>Nodes are immutable: a change copies the path from the root to the
+ * changed node, rebalancing the copies with the same rotations as
+ * AvlTreeMap, and shares every other node with the previous version.
+ * That costs O(log n) new nodes per change but makes old versions free
+ * to keep. inserted(), updated() and removed() return the new version
+ * and leave this map alone; insert(), put() and remove() move this map
+ * to the new version. snapshot() is O(1) and returns a map that keeps
+ * the current contents no matter what happens to this one later (and
+ * vice versa).</P>
+ *
+ * <P>One thread at a time may change a map, but snapshot() may be called
+ * from other threads while it does, so a long-running scan can take a
+ * consistent snapshot while another thread keeps writing. Iterators see
+ * the version the map had when they were created and never throw
+ * ConcurrentModificationException.</P>
+ *
+ * @param <K> Type for keys.
+ * @param <V> Type for values.
+ */
+public class PersistentAvlTreeMap<K extends Comparable<K>, V>
+    implements OrderedMap<K, V> {
+
+  // Initial capacity of the iterator stack, enough for an AVL tree
+  // of about 2^22 keys; it grows if needed.
+  private static final int INITIAL_STACK = 32;
+
+  // Current version; volatile so that snapshot() works from any thread.
+  private volatile Node<K, V> root;
+
+  /**
+   * Create an empty map.
+   */
+  public PersistentAvlTreeMap() {
+  }
+
+  // Make a map around an existing version.
+  private PersistentAvlTreeMap(Node<K, V> root) {
+    this.root = root;
+  }
+
+  /**
+   * Capture the current contents in O(1) time.
+   *
+   * @return A map with the same entries that shares all nodes with this
+   *     one; changing either map does not affect the other.
+   */
+  public PersistentAvlTreeMap<K, V> snapshot() {
+    return new PersistentAvlTreeMap<>(root);
+  }
+
+  /**
+   * The version with a new key/value pair, leaving this map unchanged.
+   *
+   * @param k The key.
+   * @param v The value to be associated with k.
+   * @return A new map with all entries of this one plus k.
+   * @throws IllegalArgumentException If k is null or already mapped.
+   */
+  public PersistentAvlTreeMap<K, V> inserted(K k, V v) {
+    checkKey(k);
+    return new PersistentAvlTreeMap<>(insert(root, k, v));
+  }
+
+  /**
+   * The version with another value for a key, leaving this map
+   * unchanged.
+   *
+   * @param k The key.
+   * @param v The value to be associated with k.
+   * @return A new map like this one but with k mapped to v.
+   * @throws IllegalArgumentException If k is null or not mapped.
+   */
+  public PersistentAvlTreeMap<K, V> updated(K k, V v) {
+    checkKey(k);
+    return new PersistentAvlTreeMap<>(replace(root, k, v));
+  }
+
+  /**
+   * The version without a key, leaving this map unchanged.
+   *
+   * @param k The key.
+   * @return A new map with all entries of this one except k.
+   * @throws IllegalArgumentException If k is null or not mapped.
+   */
+  public PersistentAvlTreeMap<K, V> removed(K k) {
+    checkKey(k);
+    return new PersistentAvlTreeMap<>(delete(root, k));
+  }
+
+  // Throw if k is null.
+  private static void checkKey(Object k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+  }
+
+  private static int height(Node<?, ?> n) {
+    return n == null ? -1 : n.height;
+  }
+
+  private static int size(Node<?, ?> n) {
+    return n == null ? 0 : n.size;
+  }
+
+  private static int balanceFactor(Node<?, ?> n) {
+    return height(n.left) - height(n.right);
+  }
+
+  // Return a balanced node with the given entry and children, whose
+  // heights differ by at most two.
+  private static <K, V> Node<K, V> balanced(Node<K, V> n) {
+    int bf = balanceFactor(n);
+    if (bf == 2) {
+      Node<K, V> left = n.left;
+      if (balanceFactor(left) == -1) {
+        left = leftRotation(left);
+      }
+      return rightRotation(n.with(left, n.right));
+    } else if (bf == -2) {
+      Node<K, V> right = n.right;
+      if (balanceFactor(right) == 1) {
+        right = rightRotation(right);
+      }
+      return leftRotation(n.with(n.left, right));
+    }
+    return n;
+  }
+
+  // Copy of the subtree rotated right; n itself is a fresh copy.
+  private static <K, V> Node<K, V> rightRotation(Node<K, V> n) {
+    Node<K, V> leftChild = n.left;
+    return leftChild.with(leftChild.left, n.with(leftChild.right, n.right));
+  }
+
+  // Copy of the subtree rotated left; n itself is a fresh copy.
+  private static <K, V> Node<K, V> leftRotation(Node<K, V> n) {
+    Node<K, V> rightChild = n.right;
+    return rightChild.with(n.with(n.left, rightChild.left), rightChild.right);
+  }
+
+  // Return a copy of subtree n with a new node for k.
+  private static <K extends Comparable<K>, V> Node<K, V> insert(
+      Node<K, V> n, K k, V v) {
+    if (n == null) {
+      return new Node<>(k, v, null, null);
+    }
+    int cmp = k.compareTo(n.key);
+    if (cmp < 0) {
+      return balanced(n.with(insert(n.left, k, v), n.right));
+    } else if (cmp > 0) {
+      return balanced(n.with(n.left, insert(n.right, k, v)));
+    }
+    throw new IllegalArgumentException("duplicate key " + k);
+  }
+
+  // Return a copy of subtree n with the value of k replaced.
+  private static <K extends Comparable<K>, V> Node<K, V> replace(
+      Node<K, V> n, K k, V v) {
+    if (n == null) {
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    int cmp = k.compareTo(n.key);
+    if (cmp < 0) {
+      return n.with(replace(n.left, k, v), n.right);
+    } else if (cmp > 0) {
+      return n.with(n.left, replace(n.right, k, v));
+    }
+    return new Node<>(n.key, v, n.left, n.right);
+  }
+
+  // Return a copy of subtree n without k. A node with two children is
+  // replaced by a copy of its successor.
+  private static <K extends Comparable<K>, V> Node<K, V> delete(
+      Node<K, V> n, K k) {
+    if (n == null) {
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    int cmp = k.compareTo(n.key);
+    if (cmp < 0) {
+      return balanced(n.with(delete(n.left, k), n.right));
+    } else if (cmp > 0) {
+      return balanced(n.with(n.left, delete(n.right, k)));
+    }
+    if (n.left == null) {
+      return n.right;
+    } else if (n.right == null) {
+      return n.left;
+    }
+    Node<K, V> successor = n.right;
+    while (successor.left != null) {
+      successor = successor.left;
+    }
+    return balanced(new Node<>(successor.key, successor.value, n.left,
+        deleteMin(n.right)));
+  }
+
+  // Return a copy of subtree n without its smallest key.
+  private static <K, V> Node<K, V> deleteMin(Node<K, V> n) {
+    if (n.left == null) {
+      return n.right;
+    }
+    return balanced(n.with(deleteMin(n.left), n.right));
+  }
+
+  // Return node for given key in the given version, or null.
+  private static <K extends Comparable<K>, V> Node<K, V> find(
+      Node<K, V> n, K k) {
+    while (n != null) {
+      int cmp = k.compareTo(n.key);
+      if (cmp < 0) {
+        n = n.left;
+      } else if (cmp > 0) {
+        n = n.right;
+      } else {
+        return n;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void insert(K k, V v) {
+    checkKey(k);
+    root = insert(root, k, v);
+  }
+
+  @Override
+  public V remove(K k) {
+    checkKey(k);
+    Node<K, V> r = root;
+    Node<K, V> n = find(r, k);
+    if (n == null) {
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    root = delete(r, k);
+    return n.value;
+  }
+
+  @Override
+  public void put(K k, V v) {
+    checkKey(k);
+    root = replace(root, k, v);
+  }
+
+  @Override
+  public V get(K k) {
+    checkKey(k);
+    Node<K, V> n = find(root, k);
+    if (n == null) {
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    return n.value;
+  }
+
+  @Override
+  public boolean has(K k) {
+    if (k == null) {
+      return false;
+    }
+    return find(root, k) != null;
+  }
+
+  @Override
+  public int size() {
+    return size(root);
+  }
+
+  @Override
+  public ShapeStats shapeStats() {
+    Node<K, V> r = root;
+    return ShapeStats.of(r, size(r), n -> n.left, n -> n.right);
+  }
+
+  @Override
+  public ShapeStats shapeStats(int samples) {
+    Node<K, V> r = root;
+    return ShapeStats.sample(r, size(r), samples, n -> n.left,
+        n -> n.right);
+  }
+
+  @Override
+  public boolean putIfAbsent(K k, V v) {
+    checkKey(k);
+    Node<K, V> r = root;
+    if (find(r, k) != null) {
+      return false;
+    }
+    root = insert(r, k, v);
+    return true;
+  }
+
+  @Override
+  public V merge(K k, V v, BiFunction<? super V, ? super V, ? extends V> f) {
+    checkKey(k);
+    Node<K, V> r = root;
+    Node<K, V> n = find(r, k);
+    if (n == null) {
+      root = insert(r, k, v);
+      return v;
+    }
+    V result = f.apply(n.value, v);
+    root = replace(r, k, result);
+    return result;
+  }
+
+  @Override
+  public V compute(K k, BiFunction<? super K, ? super V, ? extends V> f) {
+    checkKey(k);
+    Node<K, V> r = root;
+    Node<K, V> n = find(r, k);
+    V result = f.apply(k, n == null ? null : n.value);
+    root = n == null ? insert(r, k, result) : replace(r, k, result);
+    return result;
+  }
+
+  // Return node with the largest key below k (or equal to k, if
+  // inclusive) in the given version, or null if there is none.
+  private static <K extends Comparable<K>, V> Node<K, V> below(
+      Node<K, V> n, K k, boolean inclusive) {
+    checkKey(k);
+    Node<K, V> best = null;
+    while (n != null) {
+      int cmp = k.compareTo(n.key);
+      if (cmp == 0 && inclusive) {
+        return n;
+      }
+      if (cmp > 0) {
+        best = n;
+        n = n.right;
+      } else {
+        n = n.left;
+      }
+    }
+    return best;
+  }
+
+  // Return node with the smallest key above k (or equal to k, if
+  // inclusive) in the given version, or null if there is none.
+  private static <K extends Comparable<K>, V> Node<K, V> above(
+      Node<K, V> n, K k, boolean inclusive) {
+    checkKey(k);
+    Node<K, V> best = null;
+    while (n != null) {
+      int cmp = k.compareTo(n.key);
+      if (cmp == 0 && inclusive) {
+        return n;
+      }
+      if (cmp < 0) {
+        best = n;
+        n = n.left;
+      } else {
+        n = n.right;
+      }
+    }
+    return best;
+  }
+
+  private static <K> K key(Node<K, ?> n) {
+    return n == null ? null : n.key;
+  }
+
+  @Override
+  public K firstKey() {
+    Node<K, V> n = root;
+    while (n != null && n.left != null) {
+      n = n.left;
+    }
+    return key(n);
+  }
+
+  @Override
+  public K lastKey() {
+    Node<K, V> n = root;
+    while (n != null && n.right != null) {
+      n = n.right;
+    }
+    return key(n);
+  }
+
+  @Override
+  public K floorKey(K k) {
+    return key(below(root, k, true));
+  }
+
+  @Override
+  public K lowerKey(K k) {
+    return key(below(root, k, false));
+  }
+
+  @Override
+  public K ceilingKey(K k) {
+    return key(above(root, k, true));
+  }
+
+  @Override
+  public K higherKey(K k) {
+    return key(above(root, k, false));
+  }
+
+  @Override
+  public int rank(K k) {
+    checkKey(k);
+    int rank = 0;
+    Node<K, V> n = root;
+    while (n != null) {
+      if (k.compareTo(n.key) <= 0) {
+        n = n.left;
+      } else {
+        rank += size(n.left) + 1;
+        n = n.right;
+      }
+    }
+    return rank;
+  }
+
+  @Override
+  public K select(int i) {
+    Node<K, V> n = root;
+    if (i < 0 || i >= size(n)) {
+      throw new IllegalArgumentException("position out of range " + i);
+    }
+    while (true) {
+      int leftSize = size(n.left);
+      if (i < leftSize) {
+        n = n.left;
+      } else if (i > leftSize) {
+        i -= leftSize + 1;
+        n = n.right;
+      } else {
+        return n.key;
+      }
+    }
+  }
+
+  @Override
+  public OrderedMap<K, V> subMap(K lo, K hi) {
+    checkKey(lo);
+    checkKey(hi);
+    return new SubMap(lo, hi);
+  }
+
+  @Override
+  public OrderedMap<K, V> headMap(K hi) {
+    checkKey(hi);
+    return new SubMap(null, hi);
+  }
+
+  @Override
+  public OrderedMap<K, V> tailMap(K lo) {
+    checkKey(lo);
+    return new SubMap(lo, null);
+  }
+
+  // Range view backed by this map that iterates over just the range.
+  private class SubMap extends OrderedSubMap<K, V> {
+    SubMap(K lo, K hi) {
+      super(PersistentAvlTreeMap.this, lo, hi);
+    }
+
+    @Override
+    OrderedSubMap<K, V> narrow(K lo, K hi) {
+      return new SubMap(lo, hi);
+    }
+
+    @Override
+    public Iterator<K> iterator() {
+      return new InorderIterator<>(root, lo, hi);
+    }
+
+    @Override
+    public EntryIterator<K, V> entryIterator() {
+      return new InorderIterator<>(root, lo, hi);
+    }
+  }
+
+  @Override
+  public Iterator<K> iterator() {
+    return new InorderIterator<>(root, null, null);
+  }
+
+  @Override
+  public EntryIterator<K, V> entryIterator() {
+    return new InorderIterator<>(root, null, null);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    s.append("{");
+    InorderIterator<K, V> it = new InorderIterator<>(root, null, null);
+    while (it.hasNext()) {
+      Node<K, V> n = it.nextNode();
+      s.append(n.key);
+      s.append(": ");
+      s.append(n.value);
+      if (it.hasNext()) {
+        s.append(", ");
+      }
+    }
+    s.append("}");
+    return s.toString();
+  }
+
+  // In-order iterator over one version of the tree. Since that version
+  // never changes, there is nothing to check for concurrent changes.
+  private static final class InorderIterator<K extends Comparable<K>, V>
+      implements EntryIterator<K, V> {
+    private Node<K, V>[] stack;
+    private int top;
+    // Exclusive upper bound, or null to iterate to the end.
+    private final K hi;
+    // Node of the key next() returned last, or null.
+    private Node<K, V> last;
+
+    // Iterate over the keys in [lo, hi) of the version rooted at n;
+    // null bounds are open.
+    @SuppressWarnings("unchecked")
+    InorderIterator(Node<K, V> n, K lo, K hi) {
+      stack = (Node<K, V>[]) new Node<?, ?>[INITIAL_STACK];
+      this.hi = hi;
+      while (n != null) {
+        if (lo != null && n.key.compareTo(lo) < 0) {
+          n = n.right;
+        } else {
+          push(n);
+          n = n.left;
+        }
+      }
+    }
+
+    private void push(Node<K, V> n) {
+      if (top == stack.length) {
+        stack = Arrays.copyOf(stack, 2 * top);
+      }
+      stack[top++] = n;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return top > 0 && (hi == null || stack[top - 1].key.compareTo(hi) < 0);
+    }
+
+    @Override
+    public K next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      last = nextNode();
+      return last.key;
+    }
+
+    // The value in the version iterated over, like the keys.
+    @Override
+    public V value() {
+      if (last == null) {
+        throw new IllegalStateException("next() not called yet");
+      }
+      return last.value;
+    }
+
+    // Next node in order; the caller checks hasNext() first.
+    Node<K, V> nextNode() {
+      Node<K, V> n = stack[--top];
+      stack[top] = null;
+      for (Node<K, V> c = n.right; c != null; c = c.left) {
+        push(c);
+      }
+      return n;
+    }
+  }
+
+  // Immutable node; height and size are computed from the children.
+  private static final class Node<K, V> {
+    final K key;
+    final V value;
+    final Node<K, V> left;
+    final Node<K, V> right;
+    final int height;
+    final int size;
+
+    Node(K k, V v, Node<K, V> l, Node<K, V> r) {
+      key = k;
+      value = v;
+      left = l;
+      right = r;
+      height = Math.max(PersistentAvlTreeMap.height(l),
+          PersistentAvlTreeMap.height(r)) + 1;
+      size = PersistentAvlTreeMap.size(l) + PersistentAvlTreeMap.size(r) + 1;
+    }
+
+    // Copy of this node with other children.
+    Node<K, V> with(Node<K, V> l, Node<K, V> r) {
+      return new Node<>(key, value, l, r);
+    }
+
+    // Just for debugging purposes.
+    public String toString() {
+      return "Node<key: " + key
+          + "; value: " + value
+          + ">";
+    }
+  }
+}
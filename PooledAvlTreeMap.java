@@ -0,0 +1,677 @@
+package hw6;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+
+/**
+ * Ordered maps implemented as AVL trees stored in parallel arrays.
+ *
+ * <p>Instead of Node objects, a node is an index into int arrays for
+ * the left and right children, the height and the subtree size and
+ * Object arrays for the key and value; index 0 is never used, so it
+ * stands for null. That
+ * saves the object header and a pair of references per entry compared
+ * to AvlTreeMap, and a search reads the child indices from one array
+ * instead of hopping between objects scattered over the heap. Removed
+ * nodes go on a free list threaded through the left array and are
+ * reused by later inserts; the arrays double when they are full and
+ * never shrink.</p>
+ *
+ * <p>Insert and remove are the iterative path-buffer code of AvlTreeMap.
+ * Like there, subtree sizes make rank(), select() and countInRange()
+ * take O(log n) time, and range views iterate from their lower
+ * bound.</p>
+ *
+ * @param <K> Type for keys.
+ * @param <V> Type for values.
+ */
+public class PooledAvlTreeMap<K extends Comparable<K>, V>
+    implements OrderedMap<K, V> {
+
+  private static final int NIL = 0;
+  private static final int INITIAL_CAPACITY = 16;
+  // Initial capacity of the path buffer and iterator stacks, enough for
+  // an AVL tree of about 2^22 keys; they grow if needed.
+  private static final int INITIAL_STACK = 32;
+
+  private int[] left = new int[INITIAL_CAPACITY];
+  private int[] right = new int[INITIAL_CAPACITY];
+  private int[] height = new int[INITIAL_CAPACITY];
+  private int[] sizes = new int[INITIAL_CAPACITY];
+  private Object[] keys = new Object[INITIAL_CAPACITY];
+  private Object[] values = new Object[INITIAL_CAPACITY];
+  // Smallest index that was never handed out.
+  private int fresh = 1;
+  // Head of the free list.
+  private int free = NIL;
+  private int root = NIL;
+  private int size;
+  // Number of structural changes, for fail-fast iterators.
+  private int modCount;
+  // Whether the last findOrCreate() call created its node.
+  private boolean created;
+  // Nodes on the path from the root taken by the current insert or
+  // remove; path[0] is the root.
+  private int[] path = new int[INITIAL_STACK];
+
+  @SuppressWarnings("unchecked")
+  private K key(int n) {
+    return (K) keys[n];
+  }
+
+  @SuppressWarnings("unchecked")
+  private V value(int n) {
+    return (V) values[n];
+  }
+
+  // Hand out a leaf node for k, from the free list if possible.
+  private int allocate(K k) {
+    int n = free;
+    if (n != NIL) {
+      free = left[n];
+    } else {
+      if (fresh == keys.length) {
+        int capacity = 2 * fresh;
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        height = Arrays.copyOf(height, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+        values = Arrays.copyOf(values, capacity);
+      }
+      n = fresh++;
+    }
+    left[n] = NIL;
+    right[n] = NIL;
+    height[n] = 0;
+    sizes[n] = 1;
+    keys[n] = k;
+    return n;
+  }
+
+  // Put a node on the free list, dropping its key and value.
+  private void release(int n) {
+    keys[n] = null;
+    values[n] = null;
+    left[n] = free;
+    free = n;
+  }
+
+  // Record a node on the path, growing the buffer if needed.
+  private void pathSet(int depth, int n) {
+    if (depth == path.length) {
+      path = Arrays.copyOf(path, 2 * depth);
+    }
+    path[depth] = n;
+  }
+
+  // Make the parent of the path node at the given depth (or the root
+  // pointer) point to a replacement subtree.
+  private void relink(int depth, int old, int replacement) {
+    if (depth == 0) {
+      root = replacement;
+    } else if (left[path[depth - 1]] == old) {
+      left[path[depth - 1]] = replacement;
+    } else {
+      right[path[depth - 1]] = replacement;
+    }
+  }
+
+  // Walk the path bottom-up after a node was added (delta 1) or removed
+  // (delta -1) below it, updating and rebalancing until a subtree keeps
+  // its height; above that only sizes change.
+  private void retrace(int depth, int delta) {
+    int i = depth - 1;
+    for (; i >= 0; i--) {
+      int n = path[i];
+      int oldHeight = height[n];
+      update(n);
+      int bf = balanceFactor(n);
+      if (bf == 2 || bf == -2) {
+        int sub = reBalance(n, bf);
+        relink(i, n, sub);
+        n = sub;
+      }
+      if (height[n] == oldHeight) {
+        break;
+      }
+    }
+    while (--i >= 0) {
+      sizes[path[i]] += delta;
+    }
+  }
+
+  // Height of a subtree; -1 for an empty one.
+  private int height(int n) {
+    return n == NIL ? -1 : height[n];
+  }
+
+  // Size of a subtree; 0 for an empty one.
+  private int size(int n) {
+    return n == NIL ? 0 : sizes[n];
+  }
+
+  // Recompute height and subtree size of a node from its children.
+  private void update(int n) {
+    height[n] = Math.max(height(left[n]), height(right[n])) + 1;
+    sizes[n] = size(left[n]) + size(right[n]) + 1;
+  }
+
+  private int balanceFactor(int n) {
+    return height(left[n]) - height(right[n]);
+  }
+
+  // Restore balance of a subtree whose balance factor is 2 or -2.
+  private int reBalance(int n, int bf) {
+    if (bf == 2) {
+      if (balanceFactor(left[n]) == -1) {
+        left[n] = leftRotation(left[n]);
+      }
+      return rightRotation(n);
+    }
+    if (balanceFactor(right[n]) == 1) {
+      right[n] = rightRotation(right[n]);
+    }
+    return leftRotation(n);
+  }
+
+  private int rightRotation(int n) {
+    int leftChild = left[n];
+    left[n] = right[leftChild];
+    right[leftChild] = n;
+    update(n);
+    update(leftChild);
+    return leftChild;
+  }
+
+  private int leftRotation(int n) {
+    int rightChild = right[n];
+    right[n] = left[rightChild];
+    left[rightChild] = n;
+    update(n);
+    update(rightChild);
+    return rightChild;
+  }
+
+  // Return node for given key, or NIL if it's not mapped.
+  private int find(K k) {
+    int n = root;
+    while (n != NIL) {
+      int cmp = k.compareTo(key(n));
+      if (cmp < 0) {
+        n = left[n];
+      } else if (cmp > 0) {
+        n = right[n];
+      } else {
+        return n;
+      }
+    }
+    return NIL;
+  }
+
+  // Return node for given key, throw an exception if it's not mapped.
+  private int findForSure(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    int n = find(k);
+    if (n == NIL) {
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    return n;
+  }
+
+  // Find the node with key k, or insert a new one with a null value if
+  // there is none, in a single iterative descent. Sets created
+  // accordingly.
+  private int findOrCreate(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    int depth = 0;
+    int cmp = 0;
+    int n = root;
+    while (n != NIL) {
+      cmp = k.compareTo(key(n));
+      if (cmp == 0) {
+        created = false;
+        return n;
+      }
+      pathSet(depth++, n);
+      n = cmp < 0 ? left[n] : right[n];
+    }
+    n = allocate(k);
+    if (depth == 0) {
+      root = n;
+    } else if (cmp < 0) {
+      left[path[depth - 1]] = n;
+    } else {
+      right[path[depth - 1]] = n;
+    }
+    retrace(depth, 1);
+    size++;
+    modCount++;
+    created = true;
+    return n;
+  }
+
+  @Override
+  public void insert(K k, V v) {
+    int n = findOrCreate(k);
+    if (!created) {
+      throw new IllegalArgumentException("duplicate key " + k);
+    }
+    values[n] = v;
+  }
+
+  // A node with two children is replaced by its successor (the minimum
+  // of its right subtree), so nodes never change keys.
+  @Override
+  public V remove(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    int depth = 0;
+    int n = root;
+    while (n != NIL) {
+      int cmp = k.compareTo(key(n));
+      if (cmp == 0) {
+        break;
+      }
+      pathSet(depth++, n);
+      n = cmp < 0 ? left[n] : right[n];
+    }
+    if (n == NIL) {
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    if (left[n] == NIL || right[n] == NIL) {
+      relink(depth, n, left[n] == NIL ? right[n] : left[n]);
+    } else {
+      // The successor will take n's place on the path.
+      int at = depth;
+      pathSet(depth++, n);
+      int successor = right[n];
+      while (left[successor] != NIL) {
+        pathSet(depth++, successor);
+        successor = left[successor];
+      }
+      if (path[depth - 1] == n) {
+        right[n] = right[successor];
+      } else {
+        left[path[depth - 1]] = right[successor];
+      }
+      left[successor] = left[n];
+      right[successor] = right[n];
+      height[successor] = height[n];
+      sizes[successor] = sizes[n];
+      relink(at, n, successor);
+      path[at] = successor;
+    }
+    retrace(depth, -1);
+    V v = value(n);
+    release(n);
+    size--;
+    modCount++;
+    return v;
+  }
+
+  @Override
+  public void put(K k, V v) {
+    values[findForSure(k)] = v;
+  }
+
+  @Override
+  public V get(K k) {
+    return value(findForSure(k));
+  }
+
+  @Override
+  public boolean has(K k) {
+    if (k == null) {
+      return false;
+    }
+    return find(k) != NIL;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public int rank(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    int rank = 0;
+    int n = root;
+    while (n != NIL) {
+      int cmp = k.compareTo(key(n));
+      if (cmp < 0) {
+        n = left[n];
+      } else if (cmp > 0) {
+        rank += size(left[n]) + 1;
+        n = right[n];
+      } else {
+        return rank + size(left[n]);
+      }
+    }
+    return rank;
+  }
+
+  @Override
+  public K select(int i) {
+    if (i < 0 || i >= size) {
+      throw new IllegalArgumentException("position out of range " + i);
+    }
+    int n = root;
+    while (true) {
+      int leftSize = size(left[n]);
+      if (i < leftSize) {
+        n = left[n];
+      } else if (i > leftSize) {
+        i -= leftSize + 1;
+        n = right[n];
+      } else {
+        return key(n);
+      }
+    }
+  }
+
+  @Override
+  public ShapeStats shapeStats() {
+    return ShapeStats.of(root, NIL, size, n -> left[n], n -> right[n]);
+  }
+
+  @Override
+  public ShapeStats shapeStats(int samples) {
+    return ShapeStats.sample(root, NIL, size, samples, n -> left[n],
+        n -> right[n]);
+  }
+
+  @Override
+  public boolean putIfAbsent(K k, V v) {
+    int n = findOrCreate(k);
+    if (created) {
+      values[n] = v;
+    }
+    return created;
+  }
+
+  @Override
+  public V merge(K k, V v, BiFunction<? super V, ? super V, ? extends V> f) {
+    int n = findOrCreate(k);
+    V result = created ? v : f.apply(value(n), v);
+    values[n] = result;
+    return result;
+  }
+
+  @Override
+  public V compute(K k, BiFunction<? super K, ? super V, ? extends V> f) {
+    int n = findOrCreate(k);
+    boolean isNew = created;
+    V result;
+    try {
+      result = f.apply(k, value(n));
+    } catch (RuntimeException | Error e) {
+      if (isNew) {
+        remove(k);
+      }
+      throw e;
+    }
+    values[n] = result;
+    return result;
+  }
+
+  // Return node with the largest key below k (or equal to k, if
+  // inclusive), or NIL if there is none.
+  private int below(K k, boolean inclusive) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    int best = NIL;
+    int n = root;
+    while (n != NIL) {
+      int cmp = k.compareTo(key(n));
+      if (cmp == 0 && inclusive) {
+        return n;
+      }
+      if (cmp > 0) {
+        best = n;
+        n = right[n];
+      } else {
+        n = left[n];
+      }
+    }
+    return best;
+  }
+
+  // Return node with the smallest key above k (or equal to k, if
+  // inclusive), or NIL if there is none.
+  private int above(K k, boolean inclusive) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    int best = NIL;
+    int n = root;
+    while (n != NIL) {
+      int cmp = k.compareTo(key(n));
+      if (cmp == 0 && inclusive) {
+        return n;
+      }
+      if (cmp < 0) {
+        best = n;
+        n = left[n];
+      } else {
+        n = right[n];
+      }
+    }
+    return best;
+  }
+
+  // Key of a node, or null for NIL (whose key slot is always null).
+  private K keyOrNull(int n) {
+    return key(n);
+  }
+
+  @Override
+  public K firstKey() {
+    int n = root;
+    while (n != NIL && left[n] != NIL) {
+      n = left[n];
+    }
+    return keyOrNull(n);
+  }
+
+  @Override
+  public K lastKey() {
+    int n = root;
+    while (n != NIL && right[n] != NIL) {
+      n = right[n];
+    }
+    return keyOrNull(n);
+  }
+
+  @Override
+  public K floorKey(K k) {
+    return keyOrNull(below(k, true));
+  }
+
+  @Override
+  public K lowerKey(K k) {
+    return keyOrNull(below(k, false));
+  }
+
+  @Override
+  public K ceilingKey(K k) {
+    return keyOrNull(above(k, true));
+  }
+
+  @Override
+  public K higherKey(K k) {
+    return keyOrNull(above(k, false));
+  }
+
+  @Override
+  public OrderedMap<K, V> subMap(K lo, K hi) {
+    if (lo == null || hi == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(lo, hi);
+  }
+
+  @Override
+  public OrderedMap<K, V> headMap(K hi) {
+    if (hi == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(null, hi);
+  }
+
+  @Override
+  public OrderedMap<K, V> tailMap(K lo) {
+    if (lo == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(lo, null);
+  }
+
+  @Override
+  public Iterator<K> iterator() {
+    return new InorderIterator();
+  }
+
+  @Override
+  public EntryIterator<K, V> entryIterator() {
+    return new InorderIterator();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    s.append("{");
+    InorderIterator it = new InorderIterator();
+    while (it.hasNext()) {
+      int n = it.nextNode();
+      s.append(keys[n]);
+      s.append(": ");
+      s.append(values[n]);
+      if (it.hasNext()) {
+        s.append(", ");
+      }
+    }
+    s.append("}");
+    return s.toString();
+  }
+
+  // Range view backed by this tree that iterates over just the range.
+  private class SubMap extends OrderedSubMap<K, V> {
+    SubMap(K lo, K hi) {
+      super(PooledAvlTreeMap.this, lo, hi);
+    }
+
+    @Override
+    OrderedSubMap<K, V> narrow(K lo, K hi) {
+      return new SubMap(lo, hi);
+    }
+
+    @Override
+    public Iterator<K> iterator() {
+      return new InorderIterator(lo, hi);
+    }
+
+    @Override
+    public EntryIterator<K, V> entryIterator() {
+      return new InorderIterator(lo, hi);
+    }
+  }
+
+  // In-order iterator that walks the tree on demand with an explicit
+  // stack of the nodes whose left subtree is done (or in progress).
+  private class InorderIterator implements EntryIterator<K, V> {
+    private int[] stack = new int[INITIAL_STACK];
+    private int top;
+    private final int expectedModCount = modCount;
+    // Exclusive upper bound, or null to iterate to the end.
+    private final K hi;
+    // Node of the key next() returned last, or NIL.
+    private int last = NIL;
+
+    InorderIterator() {
+      this(null, null);
+    }
+
+    // Iterate over the keys in [lo, hi); null bounds are open. The
+    // stack starts out as the path to the smallest key >= lo, minus
+    // the nodes below lo which are skipped.
+    InorderIterator(K lo, K hi) {
+      this.hi = hi;
+      if (lo == null) {
+        pushLeftSpine(root);
+        return;
+      }
+      int n = root;
+      while (n != NIL) {
+        if (key(n).compareTo(lo) < 0) {
+          n = right[n];
+        } else {
+          push(n);
+          n = left[n];
+        }
+      }
+    }
+
+    private void push(int n) {
+      if (top == stack.length) {
+        stack = Arrays.copyOf(stack, 2 * top);
+      }
+      stack[top++] = n;
+    }
+
+    // Push n and all of its left descendants.
+    private void pushLeftSpine(int n) {
+      while (n != NIL) {
+        push(n);
+        n = left[n];
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return top > 0 && (hi == null || key(stack[top - 1]).compareTo(hi) < 0);
+    }
+
+    @Override
+    public K next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      last = nextNode();
+      return key(last);
+    }
+
+    @Override
+    public V value() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (last == NIL) {
+        throw new IllegalStateException("next() not called yet");
+      }
+      return PooledAvlTreeMap.this.value(last);
+    }
+
+    // Next node in order; the caller checks hasNext() first.
+    int nextNode() {
+      int n = stack[--top];
+      pushLeftSpine(right[n]);
+      return n;
+    }
+  }
+}
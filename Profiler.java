@@ -0,0 +1,432 @@
+package hw6;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Measures named sections of code: wall-clock time, bytes allocated and
+ * garbage collections, with statistics over repeated runs.
+ *
+ * <p>Use it like this:</p>
+ *
+ * <pre>
+ * Profiler profiler = new Profiler();
+ * try (Profiler.Section s = profiler.section("ingest")) {
+ *   try (Profiler.Section t = profiler.section("tokenize")) {
+ *     ...
+ *   }
+ * }
+ * System.out.println(profiler.toText());
+ * </pre>
+ *
+ * <p>A section opened while another one is open on the same thread is
+ * nested in it, and its statistics are kept under the path of names, here
+ * "ingest/tokenize". Every time a section closes, its run is added to
+ * the statistics for its path: System.nanoTime() duration, bytes the
+ * thread allocated (where the JVM can tell, through
+ * com.sun.management.ThreadMXBean; otherwise -1), and the number and
+ * time of garbage collections. Collections are counted for the whole
+ * JVM, since they aren't done by any one thread.</p>
+ *
+ * <p>Any number of threads can use a profiler at once; each has its own
+ * stack of open sections, and sections with the same path share their
+ * statistics.</p>
+ */
+public final class Profiler {
+  private static final com.sun.management.ThreadMXBean THREADS = threads();
+  private static final List<GarbageCollectorMXBean> COLLECTORS =
+      ManagementFactory.getGarbageCollectorMXBeans();
+  /** Percentiles reported by toText() and toJson(). */
+  private static final double[] REPORTED = {50, 90, 99};
+
+  private final ConcurrentMap<String, Stats> stats = new ConcurrentHashMap<>();
+  private final ThreadLocal<Deque<Section>> open =
+      ThreadLocal.withInitial(ArrayDeque::new);
+
+  private static com.sun.management.ThreadMXBean threads() {
+    Object bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean t =
+          (com.sun.management.ThreadMXBean) bean;
+      if (t.isThreadAllocatedMemorySupported()) {
+        t.setThreadAllocatedMemoryEnabled(true);
+        return t;
+      }
+    }
+    return null;
+  }
+
+  // Bytes allocated by this thread so far, or -1 if unknown.
+  private static long allocated() {
+    return THREADS == null ? -1 : THREADS.getCurrentThreadAllocatedBytes();
+  }
+
+  private static long totalGcCount() {
+    long n = 0;
+    for (GarbageCollectorMXBean gc : COLLECTORS) {
+      n += Math.max(gc.getCollectionCount(), 0);
+    }
+    return n;
+  }
+
+  private static long totalGcMillis() {
+    long n = 0;
+    for (GarbageCollectorMXBean gc : COLLECTORS) {
+      n += Math.max(gc.getCollectionTime(), 0);
+    }
+    return n;
+  }
+
+  /**
+   * Open a section on this thread, nested in the innermost open one.
+   *
+   * @param name Name of the section, not empty and without '/'.
+   * @return The section; close it on this thread, before the sections
+   *     it is nested in.
+   * @throws IllegalArgumentException If the name is bad.
+   */
+  public Section section(String name) {
+    if (name == null || name.isEmpty() || name.indexOf('/') >= 0) {
+      throw new IllegalArgumentException("bad section name " + name);
+    }
+    Deque<Section> stack = open.get();
+    String path = stack.isEmpty() ? name : stack.peek().path + "/" + name;
+    Section s = new Section(path, stack);
+    stack.push(s);
+    return s;
+  }
+
+  /**
+   * Statistics for a path.
+   *
+   * @param path Names of the section and those it was nested in,
+   *     separated by '/'.
+   * @return The statistics, or null if no such section was closed yet.
+   */
+  public Stats stats(String path) {
+    return stats.get(path);
+  }
+
+  /**
+   * Statistics for all paths, parents before the sections nested in
+   * them.
+   *
+   * @return A new list.
+   */
+  public List<Stats> allStats() {
+    List<Stats> all = new ArrayList<>(stats.values());
+    all.sort((a, b) -> a.path.compareTo(b.path));
+    return all;
+  }
+
+  /**
+   * Forget all statistics. Open sections are still recorded when they
+   * close.
+   */
+  public void reset() {
+    stats.clear();
+  }
+
+  /**
+   * Statistics as a table, one line per path, indented by nesting.
+   *
+   * @return The table.
+   */
+  public String toText() {
+    StringBuilder s = new StringBuilder();
+    s.append(String.format("%-32s %6s %10s %10s %10s %10s %12s %5s %7s%n",
+        "section", "runs", "total ms", "p50 ms", "p90 ms", "p99 ms",
+        "alloc kb", "gcs", "gc ms"));
+    for (Stats st : allStats()) {
+      String name = st.path.substring(st.path.lastIndexOf('/') + 1);
+      int depth = st.path.length() - st.path.replace("/", "").length();
+      synchronized (st) {
+        s.append(String.format("%-32s %6d %10.3f", "  ".repeat(depth) + name,
+            st.runs, st.totalNanos / 1e6));
+        for (double p : REPORTED) {
+          s.append(String.format(" %10.3f", st.percentile(p) / 1e6));
+        }
+        s.append(String.format(" %12d %5d %7d%n",
+            st.allocatedBytes < 0 ? -1 : st.allocatedBytes / 1024,
+            st.gcCount, st.gcMillis));
+      }
+    }
+    return s.toString();
+  }
+
+  /**
+   * Statistics as JSON: an array with one object per path.
+   *
+   * @return The JSON text.
+   */
+  public String toJson() {
+    StringBuilder s = new StringBuilder("[");
+    for (Stats st : allStats()) {
+      if (s.length() > 1) {
+        s.append(",");
+      }
+      synchronized (st) {
+        s.append("\n  {\"section\": ").append(quote(st.path))
+            .append(", \"runs\": ").append(st.runs)
+            .append(", \"totalNanos\": ").append(st.totalNanos)
+            .append(", \"minNanos\": ").append(st.minNanos)
+            .append(", \"maxNanos\": ").append(st.maxNanos);
+        for (double p : REPORTED) {
+          s.append(", \"p").append((int) p).append("Nanos\": ")
+              .append(st.percentile(p));
+        }
+        s.append(", \"allocatedBytes\": ").append(st.allocatedBytes)
+            .append(", \"gcCount\": ").append(st.gcCount)
+            .append(", \"gcMillis\": ").append(st.gcMillis).append("}");
+      }
+    }
+    return s.append(s.length() > 1 ? "\n]" : "]").toString();
+  }
+
+  // A JSON string literal.
+  static String quote(String text) {
+    StringBuilder s = new StringBuilder("\"");
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '"' || c == '\\') {
+        s.append('\\').append(c);
+      } else if (c < 0x20) {
+        s.append(String.format("\\u%04x", (int) c));
+      } else {
+        s.append(c);
+      }
+    }
+    return s.append('"').toString();
+  }
+
+  /**
+   * A run of a section, measured from section() to close().
+   */
+  public final class Section implements AutoCloseable {
+    private final String path;
+    private final Deque<Section> stack;
+    private final long startNanos;
+    private final long startAllocated;
+    private final long startGcCount;
+    private final long startGcMillis;
+    private long nanos = -1;
+    private long allocatedBytes;
+    private long gcCount;
+    private long gcMillis;
+
+    private Section(String path, Deque<Section> stack) {
+      this.path = path;
+      this.stack = stack;
+      this.startGcCount = totalGcCount();
+      this.startGcMillis = totalGcMillis();
+      this.startAllocated = allocated();
+      this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Stop measuring and add this run to the statistics of its path.
+     *
+     * @throws IllegalStateException If this isn't the innermost open
+     *     section of this thread.
+     */
+    @Override
+    public void close() {
+      long end = System.nanoTime();
+      long alloc = allocated();
+      if (nanos >= 0) {
+        return;
+      }
+      if (open.get() != stack || stack.peek() != this) {
+        throw new IllegalStateException("section " + path
+            + " is not the innermost open one of this thread");
+      }
+      stack.pop();
+      nanos = end - startNanos;
+      allocatedBytes = alloc < 0 ? -1 : alloc - startAllocated;
+      gcCount = totalGcCount() - startGcCount;
+      gcMillis = totalGcMillis() - startGcMillis;
+      stats.computeIfAbsent(path, Stats::new).add(this);
+    }
+
+    /**
+     * Path of the section.
+     *
+     * @return Its name and those of the sections it is nested in.
+     */
+    public String path() {
+      return path;
+    }
+
+    /**
+     * Duration of the run.
+     *
+     * @return Nanoseconds, or -1 while the section is open.
+     */
+    public long nanos() {
+      return nanos;
+    }
+
+    /**
+     * Bytes the thread allocated during the run.
+     *
+     * @return The bytes, or -1 if unknown or still open.
+     */
+    public long allocatedBytes() {
+      return nanos < 0 ? -1 : allocatedBytes;
+    }
+
+    /**
+     * Garbage collections during the run, in the whole JVM.
+     *
+     * @return Their number.
+     */
+    public long gcCount() {
+      return gcCount;
+    }
+
+    /**
+     * Time spent in garbage collections during the run.
+     *
+     * @return Milliseconds.
+     */
+    public long gcMillis() {
+      return gcMillis;
+    }
+  }
+
+  /**
+   * Statistics of all closed runs of a section.
+   */
+  public static final class Stats {
+    private final String path;
+    private long runs;
+    private long totalNanos;
+    private long minNanos = Long.MAX_VALUE;
+    private long maxNanos;
+    private long allocatedBytes;
+    private long gcCount;
+    private long gcMillis;
+    // Durations of all runs, sorted when a percentile is asked for.
+    private long[] samples = new long[16];
+    private boolean sorted = true;
+
+    private Stats(String path) {
+      this.path = path;
+    }
+
+    private synchronized void add(Section s) {
+      if (runs == samples.length) {
+        samples = Arrays.copyOf(samples, 2 * samples.length);
+      }
+      samples[(int) runs++] = s.nanos;
+      sorted = false;
+      totalNanos += s.nanos;
+      minNanos = Math.min(minNanos, s.nanos);
+      maxNanos = Math.max(maxNanos, s.nanos);
+      if (allocatedBytes >= 0) {
+        allocatedBytes = s.allocatedBytes < 0 ? -1
+            : allocatedBytes + s.allocatedBytes;
+      }
+      gcCount += s.gcCount;
+      gcMillis += s.gcMillis;
+    }
+
+    /**
+     * Path of the section.
+     *
+     * @return The path.
+     */
+    public String path() {
+      return path;
+    }
+
+    /**
+     * Number of runs.
+     *
+     * @return The number.
+     */
+    public synchronized long runs() {
+      return runs;
+    }
+
+    /**
+     * Total duration of all runs.
+     *
+     * @return Nanoseconds.
+     */
+    public synchronized long totalNanos() {
+      return totalNanos;
+    }
+
+    /**
+     * Duration of the shortest run.
+     *
+     * @return Nanoseconds.
+     */
+    public synchronized long minNanos() {
+      return minNanos;
+    }
+
+    /**
+     * Duration of the longest run.
+     *
+     * @return Nanoseconds.
+     */
+    public synchronized long maxNanos() {
+      return maxNanos;
+    }
+
+    /**
+     * A percentile of the durations, by the nearest-rank method.
+     *
+     * @param p The percentile, from 0 to 100.
+     * @return Nanoseconds.
+     * @throws IllegalArgumentException If p is out of range.
+     */
+    public synchronized long percentile(double p) {
+      if (!(p >= 0 && p <= 100)) {
+        throw new IllegalArgumentException("bad percentile " + p);
+      }
+      if (!sorted) {
+        Arrays.sort(samples, 0, (int) runs);
+        sorted = true;
+      }
+      int rank = (int) Math.ceil(p / 100 * runs);
+      return samples[Math.max(rank - 1, 0)];
+    }
+
+    /**
+     * Bytes allocated in all runs, by the threads running them.
+     *
+     * @return The bytes, or -1 if unknown.
+     */
+    public synchronized long allocatedBytes() {
+      return allocatedBytes;
+    }
+
+    /**
+     * Garbage collections during all runs.
+     *
+     * @return Their number.
+     */
+    public synchronized long gcCount() {
+      return gcCount;
+    }
+
+    /**
+     * Time spent in garbage collections during all runs.
+     *
+     * @return Milliseconds.
+     */
+    public synchronized long gcMillis() {
+      return gcMillis;
+    }
+  }
+}
@@ -0,0 +1,344 @@
+package hw6;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntUnaryOperator;
+import java.util.function.UnaryOperator;
+
+/**
+ * Shape of a search tree: how far its keys are from the root, compared
+ * to the best possible binary tree with as many keys.
+ *
+ * <p>Depths count nodes, the root being at depth 1, so the depth of a
+ * node in a binary tree is the number of comparisons a successful
+ * search for its key makes, and the height of the tree is the depth of
+ * its deepest node. A binary tree with n keys is at least
+ * ceil(log2(n+1)) high; ratio() divides the height by that, so it is 1
+ * for a perfectly balanced tree, at most about 1.44 for an AVL tree,
+ * around 2 to 3 for a treap or a binary search tree built in random
+ * order, and n / log2(n) for one that degenerated into a list.</p>
+ *
+ * <p>B+trees (BTreeMap, DiskBTreeMap) keep every key in a leaf, and all
+ * leaves are at the same depth, so there the depth of every key is the
+ * height, the number of nodes a search reads, and leaves() counts leaf
+ * nodes. The ratio compares that height with the best binary tree, so
+ * it is well below 1.</p>
+ *
+ * <p>Exact statistics take one pass over all nodes, in O(n) time and
+ * O(height) space. Sampled statistics follow a number of random paths
+ * from the root, each turning left or right with equal chance where
+ * both exist, down to a leaf, in O(samples * height) time. Their height
+ * is the longest path followed, a lower bound that finds a degenerated
+ * tree with few samples, and their average depth is that of the leaves
+ * reached, which favors leaves close to the root; the number of leaves
+ * is unknown.</p>
+ */
+public final class ShapeStats {
+  private final int size;
+  private final int height;
+  private final double averageDepth;
+  private final int leaves;
+  private final boolean sampled;
+
+  private ShapeStats(int size, int height, double averageDepth, int leaves,
+      boolean sampled) {
+    this.size = size;
+    this.height = height;
+    this.averageDepth = averageDepth;
+    this.leaves = leaves;
+    this.sampled = sampled;
+  }
+
+  /**
+   * Height of the best possible tree with a number of keys.
+   *
+   * @param n The number of keys.
+   * @return ceil(log2(n+1)).
+   */
+  public static int optimalHeight(int n) {
+    return 32 - Integer.numberOfLeadingZeros(n);
+  }
+
+  /**
+   * Exact statistics of a tree of nodes.
+   *
+   * @param root Root of the tree, null if it is empty.
+   * @param size Number of nodes.
+   * @param left Left child of a node, or null.
+   * @param right Right child of a node, or null.
+   * @param <N> Type for nodes.
+   * @return The statistics.
+   */
+  static <N> ShapeStats of(N root, int size, UnaryOperator<N> left,
+      UnaryOperator<N> right) {
+    // Depth-first, right children below left ones on the stack.
+    Object[] stack = new Object[32];
+    int[] depths = new int[32];
+    int top = 0;
+    if (root != null) {
+      stack[top] = root;
+      depths[top++] = 1;
+    }
+    long depthSum = 0;
+    int height = 0;
+    int leaves = 0;
+    while (top > 0) {
+      @SuppressWarnings("unchecked")
+      N n = (N) stack[--top];
+      int d = depths[top];
+      stack[top] = null;
+      depthSum += d;
+      height = Math.max(height, d);
+      N l = left.apply(n);
+      N r = right.apply(n);
+      if (l == null && r == null) {
+        leaves++;
+        continue;
+      }
+      if (top + 2 > stack.length) {
+        stack = Arrays.copyOf(stack, 2 * stack.length);
+        depths = Arrays.copyOf(depths, 2 * depths.length);
+      }
+      if (r != null) {
+        stack[top] = r;
+        depths[top++] = d + 1;
+      }
+      if (l != null) {
+        stack[top] = l;
+        depths[top++] = d + 1;
+      }
+    }
+    return exact(size, height, depthSum, leaves);
+  }
+
+  /**
+   * Exact statistics of a tree of nodes in arrays.
+   *
+   * @param root Root of the tree, nil if it is empty.
+   * @param nil Index that stands for no node.
+   * @param size Number of nodes.
+   * @param left Left child of a node, or nil.
+   * @param right Right child of a node, or nil.
+   * @return The statistics.
+   */
+  static ShapeStats of(int root, int nil, int size, IntUnaryOperator left,
+      IntUnaryOperator right) {
+    int[] stack = new int[64];
+    int top = 0;
+    if (root != nil) {
+      stack[top++] = root;
+      stack[top++] = 1;
+    }
+    long depthSum = 0;
+    int height = 0;
+    int leaves = 0;
+    while (top > 0) {
+      int d = stack[--top];
+      int n = stack[--top];
+      depthSum += d;
+      height = Math.max(height, d);
+      int l = left.applyAsInt(n);
+      int r = right.applyAsInt(n);
+      if (l == nil && r == nil) {
+        leaves++;
+        continue;
+      }
+      if (top + 4 > stack.length) {
+        stack = Arrays.copyOf(stack, 2 * stack.length);
+      }
+      if (r != nil) {
+        stack[top++] = r;
+        stack[top++] = d + 1;
+      }
+      if (l != nil) {
+        stack[top++] = l;
+        stack[top++] = d + 1;
+      }
+    }
+    return exact(size, height, depthSum, leaves);
+  }
+
+  private static ShapeStats exact(int size, int height, long depthSum,
+      int leaves) {
+    return new ShapeStats(size, height,
+        size == 0 ? 0 : (double) depthSum / size, leaves, false);
+  }
+
+  /**
+   * Sampled statistics of a tree of nodes.
+   *
+   * @param root Root of the tree, null if it is empty.
+   * @param size Number of nodes.
+   * @param samples Number of paths to follow.
+   * @param left Left child of a node, or null.
+   * @param right Right child of a node, or null.
+   * @param <N> Type for nodes.
+   * @return The statistics.
+   * @throws IllegalArgumentException If samples is less than 1.
+   */
+  static <N> ShapeStats sample(N root, int size, int samples,
+      UnaryOperator<N> left, UnaryOperator<N> right) {
+    checkSamples(samples);
+    if (root == null) {
+      return exact(0, 0, 0, 0);
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long depthSum = 0;
+    int height = 0;
+    for (int i = 0; i < samples; i++) {
+      N n = root;
+      int d = 1;
+      while (true) {
+        N l = left.apply(n);
+        N r = right.apply(n);
+        if (l == null && r == null) {
+          break;
+        }
+        n = l == null ? r : r == null ? l : random.nextBoolean() ? l : r;
+        d++;
+      }
+      depthSum += d;
+      height = Math.max(height, d);
+    }
+    return new ShapeStats(size, height, (double) depthSum / samples, -1,
+        true);
+  }
+
+  /**
+   * Sampled statistics of a tree of nodes in arrays.
+   *
+   * @param root Root of the tree, nil if it is empty.
+   * @param nil Index that stands for no node.
+   * @param size Number of nodes.
+   * @param samples Number of paths to follow.
+   * @param left Left child of a node, or nil.
+   * @param right Right child of a node, or nil.
+   * @return The statistics.
+   * @throws IllegalArgumentException If samples is less than 1.
+   */
+  static ShapeStats sample(int root, int nil, int size, int samples,
+      IntUnaryOperator left, IntUnaryOperator right) {
+    checkSamples(samples);
+    if (root == nil) {
+      return exact(0, 0, 0, 0);
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long depthSum = 0;
+    int height = 0;
+    for (int i = 0; i < samples; i++) {
+      int n = root;
+      int d = 1;
+      while (true) {
+        int l = left.applyAsInt(n);
+        int r = right.applyAsInt(n);
+        if (l == nil && r == nil) {
+          break;
+        }
+        n = l == nil ? r : r == nil ? l : random.nextBoolean() ? l : r;
+        d++;
+      }
+      depthSum += d;
+      height = Math.max(height, d);
+    }
+    return new ShapeStats(size, height, (double) depthSum / samples, -1,
+        true);
+  }
+
+  /**
+   * Exact statistics of a B+tree.
+   *
+   * @param size Number of keys.
+   * @param height Number of levels; 0 if there are no keys.
+   * @param leaves Number of leaf nodes.
+   * @return The statistics.
+   */
+  static ShapeStats ofLevels(int size, int height, int leaves) {
+    return new ShapeStats(size, height, height, leaves, false);
+  }
+
+  /**
+   * Sampled statistics of a B+tree. All paths from the root are equally
+   * long, so one is enough to know the height and depths exactly; only
+   * the number of leaves is unknown.
+   *
+   * @param size Number of keys.
+   * @param height Number of levels; 0 if there are no keys.
+   * @param samples Number of paths asked for.
+   * @return The statistics.
+   * @throws IllegalArgumentException If samples is less than 1.
+   */
+  static ShapeStats sampleLevels(int size, int height, int samples) {
+    checkSamples(samples);
+    return new ShapeStats(size, height, height, -1, true);
+  }
+
+  private static void checkSamples(int samples) {
+    if (samples < 1) {
+      throw new IllegalArgumentException("need at least one sample");
+    }
+  }
+
+  /**
+   * Number of keys in the tree.
+   *
+   * @return The number.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Height of the tree, the depth of its deepest node; 0 if it is
+   * empty.
+   *
+   * @return The height, or a lower bound if sampled.
+   */
+  public int height() {
+    return height;
+  }
+
+  /**
+   * Average depth of the nodes, i.e. comparisons per successful search.
+   *
+   * @return The average, or that of the leaves reached if sampled; 0 if
+   *     the tree is empty.
+   */
+  public double averageDepth() {
+    return averageDepth;
+  }
+
+  /**
+   * Number of nodes without children.
+   *
+   * @return The number, or -1 if sampled.
+   */
+  public int leaves() {
+    return leaves;
+  }
+
+  /**
+   * Whether these statistics were sampled.
+   *
+   * @return True if sampled, false if exact.
+   */
+  public boolean sampled() {
+    return sampled;
+  }
+
+  /**
+   * Height of the tree over the best possible height for its size.
+   *
+   * @return The ratio, at least 1 for binary trees unless sampled; 1 if
+   *     the tree is empty.
+   */
+  public double ratio() {
+    return size == 0 ? 1 : (double) height / optimalHeight(size);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s: size %d, height %d (optimal %d, ratio %.2f),"
+        + " average depth %.2f, leaves %d", sampled ? "sampled" : "exact",
+        size, height, optimalHeight(size), ratio(), averageDepth, leaves);
+  }
+}
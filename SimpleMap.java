@@ -3,6 +3,7 @@ package hw6;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.BiFunction;
 
 /**
  * Maps from arbitrary keys to arbitrary values.
@@ -22,6 +23,7 @@ import java.util.List;
  */
 public class SimpleMap<K, V> implements Map<K, V> {
   private List<Entry<K,V>> data;
+  private final MapMetrics metrics = MapMetrics.forMap();
 
   /**
    * Create an empty map.
@@ -36,11 +38,19 @@ public class SimpleMap<K, V> implements Map<K, V> {
       throw new IllegalArgumentException("cannot handle null key");
     }
 
+    int compared = 0;
     for (Entry<K,V> e : this.data) {
+      compared++;
       if (k.equals(e.key)) {
+        if (MapMetrics.ENABLED) {
+          this.metrics.searched(compared);
+        }
         return e;
       }
     }
+    if (MapMetrics.ENABLED) {
+      this.metrics.searched(compared);
+    }
     return null;
   }
 
@@ -96,6 +106,48 @@ public class SimpleMap<K, V> implements Map<K, V> {
     return this.data.size();
   }
 
+  /**
+   * Metrics of this map's searches, collected only if
+   * MapMetrics.ENABLED.
+   *
+   * @return The metrics, live; shared by all maps while disabled.
+   */
+  public MapMetrics metrics() {
+    return this.metrics;
+  }
+
+  @Override
+  public boolean putIfAbsent(K k, V v) {
+    if (this.find(k) != null) {
+      return false;
+    }
+    this.data.add(new Entry<K,V>(k, v));
+    return true;
+  }
+
+  @Override
+  public V merge(K k, V v, BiFunction<? super V, ? super V, ? extends V> f) {
+    Entry<K,V> e = this.find(k);
+    if (e == null) {
+      this.data.add(new Entry<K,V>(k, v));
+      return v;
+    }
+    e.value = f.apply(e.value, v);
+    return e.value;
+  }
+
+  @Override
+  public V compute(K k, BiFunction<? super K, ? super V, ? extends V> f) {
+    Entry<K,V> e = this.find(k);
+    if (e == null) {
+      V v = f.apply(k, null);
+      this.data.add(new Entry<K,V>(k, v));
+      return v;
+    }
+    e.value = f.apply(k, e.value);
+    return e.value;
+  }
+
   @Override
   public Iterator<K> iterator() {
     List<K> keys = new ArrayList<K>();
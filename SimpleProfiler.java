@@ -12,22 +12,26 @@ package hw6;
  * SimpleProfiler.getStatistics("Description of experiment");
  * </code>
  * </p>
+ *
+ * <p>It measures a single section of a Profiler: time comes from
+ * System.nanoTime() and memory is what the thread allocated, so it no
+ * longer depends on when the garbage collector happened to run. Call
+ * start() and stop() on the same thread. Use Profiler directly for
+ * nested sections, several threads or percentiles.</p>
  */
 public class SimpleProfiler {
 
-  private static final int NOT_RUNNING = -1;
   private static final long KB = 1024;
+  private static final long NANOS_PER_MS = 1_000_000;
 
-  private static Runtime runtime = Runtime.getRuntime();
-  private static boolean isRunning; // defaults to false.
+  private static final Profiler PROFILER = new Profiler();
+  private static Profiler.Section running; // null if not running.
 
-  // Time (in milliseconds)
+  // Time (in nanoseconds, printed as milliseconds)
   private static long netTime;
-  private static long startTime = NOT_RUNNING;
 
-  // Memory used (in bytes, printed as kilobytes)
+  // Memory allocated (in bytes, printed as kilobytes)
   private static long netMemory;
-  private static long startMemory = NOT_RUNNING;
 
 
   /**
@@ -35,14 +39,12 @@ public class SimpleProfiler {
    *
    * @throws RuntimeException If already running when started.
    */
-  public static void start() {
-    if (isRunning) {
+  public static synchronized void start() {
+    if (running != null) {
       throw new RuntimeException("the profiler is already running");
     }
 
-    isRunning = true;
-    startTime = getCurrentTime();
-    startMemory = getCurrentMemory();
+    running = PROFILER.section("SimpleProfiler");
   }
 
   /**
@@ -50,24 +52,26 @@ public class SimpleProfiler {
    *
    * @throws RuntimeException If not running when stopped.
    */
-  public static void stop() {
-    if (!isRunning) {
+  public static synchronized void stop() {
+    if (running == null) {
       throw new RuntimeException("the profiler was not running");
     }
 
-    netTime += getCurrentTime() - startTime;
-    netMemory += getCurrentMemory() - startMemory;
-    isRunning = false;
+    running.close();
+    netTime += running.nanos();
+    netMemory += Math.max(running.allocatedBytes(), 0);
+    running = null;
   }
 
   /**
    * Reset statistics.
    */
-  public static void reset() {
-    if (isRunning) {
-      startMemory = getCurrentMemory();
-      startTime = getCurrentTime();
+  public static synchronized void reset() {
+    if (running != null) {
+      running.close();
+      running = PROFILER.section("SimpleProfiler");
     }
+    PROFILER.reset();
     netTime = 0;
     netMemory = 0;
   }
@@ -76,20 +80,11 @@ public class SimpleProfiler {
    * Get string of statistics.
    *
    * @param description of the process being profiled.
-   * @return String containing time in milliseconds and heap usage in kilobytes.
+   * @return String containing time in milliseconds and allocated memory
+   *     in kilobytes.
    */
-  public static String getStatistics(String description) {
+  public static synchronized String getStatistics(String description) {
     return String.format("%s in %d ms using %d kb memory.",
-        description, netTime, netMemory / KB);
-  }
-
-  // Get current memory used.
-  private static long getCurrentMemory() {
-    return (runtime.totalMemory() - runtime.freeMemory());
-  }
-
-  // Get current time.
-  private static long getCurrentTime() {
-    return System.currentTimeMillis();
+        description, netTime / NANOS_PER_MS, netMemory / KB);
   }
 }
@@ -0,0 +1,73 @@
+package hw6;
+
+import java.util.Iterator;
+
+/**
+ * Key/value input for the fromSorted() bulk builders of the tree maps.
+ *
+ * <p>Checks the promises the builders rely on: keys are not null and
+ * strictly increasing, and there are at least as many keys and values
+ * as announced. Builders call nextKey() and then nextValue() for one
+ * entry at a time, so the two iterators may share a single underlying
+ * stream of entries.</p>
+ *
+ * @param <K> Type for keys.
+ * @param <V> Type for values.
+ */
+final class SortedInput<K extends Comparable<K>, V> {
+  private final Iterator<K> keys;
+  private final Iterator<V> values;
+  private K last;
+
+  /**
+   * Wrap key and value iterators.
+   *
+   * @param keys Keys in strictly increasing order.
+   * @param values Values in the same order as the keys.
+   * @param n Number of entries the caller is going to read.
+   * @throws IllegalArgumentException If n is negative.
+   */
+  SortedInput(Iterator<K> keys, Iterator<V> values, int n) {
+    if (n < 0) {
+      throw new IllegalArgumentException("negative size " + n);
+    }
+    this.keys = keys;
+    this.values = values;
+  }
+
+  /**
+   * Next key.
+   *
+   * @return The next key.
+   * @throws IllegalArgumentException If there are no more keys, or the
+   *     key is null or not greater than the previous one.
+   */
+  K nextKey() {
+    if (!keys.hasNext()) {
+      throw new IllegalArgumentException("fewer keys than promised");
+    }
+    K k = keys.next();
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    if (last != null && last.compareTo(k) >= 0) {
+      throw new IllegalArgumentException("keys not strictly increasing at "
+          + k);
+    }
+    last = k;
+    return k;
+  }
+
+  /**
+   * Next value.
+   *
+   * @return The next value.
+   * @throws IllegalArgumentException If there are no more values.
+   */
+  V nextValue() {
+    if (!values.hasNext()) {
+      throw new IllegalArgumentException("fewer values than keys");
+    }
+    return values.next();
+  }
+}
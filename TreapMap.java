@@ -1,11 +1,15 @@
 package hw6;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.Random;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
 
 /**
  * Map implemented as a Treap.
@@ -18,9 +22,23 @@ public class TreapMap<K extends Comparable<K>, V>
 
   /*** Do not change variable name of 'rand'. ***/
   private static Random rand;
+  // Initial capacity of the iterator stack; it grows if needed.
+  private static final int INITIAL_STACK = 32;
+  // Set operations on at least this many nodes (in both treaps
+  // together) process the two sides of the split in parallel.
+  private static final int PARALLEL_THRESHOLD = 1 << 12;
+
   /*** Do not change variable name of 'root'. ***/
   private Node<K, V> root;
   private int size;
+  // Number of structural changes, for fail-fast iterators.
+  private int modCount;
+  // Whether the last findOrCreate call created its node.
+  private boolean created;
+  // Nodes on the path from the root taken by the current insert or
+  // remove, reused between calls; path[0] is the root.
+  private Node<K, V>[] path = newPath(INITIAL_STACK);
+  private final MapMetrics metrics = MapMetrics.forMap();
 
   /**
    * Make a TreapMap.
@@ -38,6 +56,62 @@ public class TreapMap<K extends Comparable<K>, V>
     rand.setSeed(seed);
   }
 
+  // Make a TreapMap around an existing treap. Unlike the public
+  // constructors, this leaves the shared random generator alone.
+  private TreapMap(Node<K, V> root) {
+    this.root = root;
+    this.size = size(root);
+  }
+
+  /**
+   * Build a perfectly balanced treap from sorted input in O(n) time.
+   *
+   * <p>Priorities are still random, but drawn from disjoint bands per
+   * depth (shallower nodes get smaller priorities), which makes them
+   * heap-ordered for the balanced shape. The iterators are read one key
+   * and then its value at a time, so they may be backed by a single
+   * stream of entries.</p>
+   *
+   * @param keys n keys in strictly increasing order.
+   * @param values The n values, in the same order.
+   * @param n Number of entries.
+   * @param <K> Type for keys.
+   * @param <V> Type for values.
+   * @return A new map with the given entries.
+   * @throws IllegalArgumentException If n is negative, there are fewer
+   *     than n entries, or keys are null or out of order.
+   */
+  public static <K extends Comparable<K>, V> TreapMap<K, V> fromSorted(
+      Iterator<K> keys, Iterator<V> values, int n)
+      throws IllegalArgumentException {
+    SortedInput<K, V> in = new SortedInput<>(keys, values, n);
+    if (rand == null) {
+      rand = new Random();
+    }
+    // Depth of the deepest node in a balanced tree of n nodes.
+    int height = 31 - Integer.numberOfLeadingZeros(n | 1);
+    long band = (1L << 32) / (height + 1);
+    return new TreapMap<>(build(in, n, 0, band));
+  }
+
+  // Build a balanced subtree of the next n entries, in order, whose root
+  // is at the given depth.
+  private static <K extends Comparable<K>, V> Node<K, V> build(
+      SortedInput<K, V> in, int n, int depth, long band) {
+    if (n == 0) {
+      return null;
+    }
+    int leftSize = (n - 1) / 2;
+    Node<K, V> left = build(in, leftSize, depth + 1, band);
+    long offset = Math.floorMod(rand.nextLong(), band);
+    int priority = (int) (Integer.MIN_VALUE + depth * band + offset);
+    Node<K, V> node = new Node<>(in.nextKey(), in.nextValue(), priority);
+    node.left = left;
+    node.right = build(in, n - 1 - leftSize, depth + 1, band);
+    update(node);
+    return node;
+  }
+
   /**
    * insert a node with given key and value.
    * @param k The key.
@@ -46,45 +120,138 @@ public class TreapMap<K extends Comparable<K>, V>
    */
   @Override
   public void insert(K k, V v) throws IllegalArgumentException {
+    Node<K, V> n = findOrCreate(k);
+    if (!created) {
+      throw new IllegalArgumentException("duplicate key" + k);
+    }
+    n.value = v;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K, V> Node<K, V>[] newPath(int capacity) {
+    return (Node<K, V>[]) new Node<?, ?>[capacity];
+  }
+
+  // Record a node on the path, growing the buffer if needed.
+  private void pathSet(int depth, Node<K, V> node) {
+    if (depth == path.length) {
+      path = Arrays.copyOf(path, 2 * depth);
+    }
+    path[depth] = node;
+  }
+
+  // Make the parent of the path node at the given depth (or the root
+  // pointer) point to a replacement subtree.
+  private void relink(int depth, Node<K, V> old, Node<K, V> replacement) {
+    if (depth == 0) {
+      root = replacement;
+    } else if (path[depth - 1].left == old) {
+      path[depth - 1].left = replacement;
+    } else {
+      path[depth - 1].right = replacement;
+    }
+  }
+
+  // Find the node with key k, or insert a new one with a null value if
+  // there is none, in a single iterative descent. Sets created
+  // accordingly. A new node is rotated up the path while its priority
+  // is smaller than its parent's; the nodes above where it stops just
+  // grow by one.
+  private Node<K, V> findOrCreate(K k) {
     if (k == null) {
       throw new IllegalArgumentException("cannot insert null key.");
     }
-    root = insertHelper(root, k, v);
+    int depth = 0;
+    int cmp = 0;
+    Node<K, V> n = root;
+    while (n != null) {
+      cmp = k.compareTo(n.key);
+      if (cmp == 0) {
+        if (MapMetrics.ENABLED) {
+          metrics.searched(depth + 1);
+        }
+        // Nothing changed, but don't keep nodes alive from the path.
+        Arrays.fill(path, 0, depth, null);
+        created = false;
+        return n;
+      }
+      pathSet(depth++, n);
+      n = cmp < 0 ? n.left : n.right;
+    }
+    if (MapMetrics.ENABLED) {
+      metrics.searched(depth);
+    }
+    Node<K, V> fresh = new Node<>(k, null);
+    if (depth == 0) {
+      root = fresh;
+    } else if (cmp < 0) {
+      path[depth - 1].left = fresh;
+    } else {
+      path[depth - 1].right = fresh;
+    }
+    int i = depth - 1;
+    for (; i >= 0 && fresh.priority < path[i].priority; i--) {
+      Node<K, V> parent = path[i];
+      path[i] = null;
+      Node<K, V> sub = parent.left == fresh
+          ? rightRotation(parent) : leftRotation(parent);
+      relink(i, parent, sub);
+    }
+    if (MapMetrics.ENABLED && i < depth - 1) {
+      metrics.rebalanced();
+    }
+    for (; i >= 0; i--) {
+      path[i].size++;
+      path[i] = null;
+    }
     size++;
+    modCount++;
+    created = true;
+    return fresh;
   }
 
-  /**
-   * insert a node with given key and value to a subtree.
-   * @param node subtree root.
-   * @param k key.
-   * @param v value.
-   * @return modified subtree.
-   */
-  private Node<K, V> insertHelper(Node<K, V> node, K k, V v) {
-    if (node == null) {
-      return new Node<>(k, v);
+  @Override
+  public boolean putIfAbsent(K k, V v) throws IllegalArgumentException {
+    Node<K, V> n = findOrCreate(k);
+    if (created) {
+      n.value = v;
     }
-    if (k.compareTo(node.key) < 0) {
-      node.left = insertHelper(node.left, k, v);
-      if (node.left.priority < node.priority) {
-        node = rightRotation(node);
-      }
-    } else if (k.compareTo(node.key) > 0) {
-      node.right = insertHelper(node.right, k, v);
-      if (node.right.priority < node.priority) {
-        node = leftRotation(node);
+    return created;
+  }
+
+  @Override
+  public V merge(K k, V v, BiFunction<? super V, ? super V, ? extends V> f)
+      throws IllegalArgumentException {
+    Node<K, V> n = findOrCreate(k);
+    n.value = created ? v : f.apply(n.value, v);
+    return n.value;
+  }
+
+  @Override
+  public V compute(K k, BiFunction<? super K, ? super V, ? extends V> f)
+      throws IllegalArgumentException {
+    Node<K, V> n = findOrCreate(k);
+    boolean isNew = created;
+    try {
+      n.value = f.apply(k, n.value);
+    } catch (RuntimeException | Error e) {
+      if (isNew) {
+        remove(k);
       }
-    } else {
-      throw new IllegalArgumentException("duplicate key" + k);
+      throw e;
     }
-    return node;
+    return n.value;
   }
 
   private Node<K,V> rightRotation(Node<K,V> node) {
     Node<K, V> leftChild = node.left;
     node.left = leftChild.right;
     leftChild.right = node;
-    //update height
+    update(node);
+    update(leftChild);
+    if (MapMetrics.ENABLED) {
+      metrics.rotated(MapMetrics.Rotation.RIGHT);
+    }
     return leftChild;
   }
 
@@ -92,10 +259,23 @@ public class TreapMap<K extends Comparable<K>, V>
     Node<K,V> rightChild = node.right;
     node.right = rightChild.left;
     rightChild.left = node;
-    //update height
+    update(node);
+    update(rightChild);
+    if (MapMetrics.ENABLED) {
+      metrics.rotated(MapMetrics.Rotation.LEFT);
+    }
     return rightChild;
   }
 
+  // Recompute the subtree size of a node from its children.
+  private static void update(Node<?, ?> node) {
+    node.size = size(node.left) + size(node.right) + 1;
+  }
+
+  private static int size(Node<?, ?> node) {
+    return node == null ? 0 : node.size;
+  }
+
   private Node<K, V> findForSure(K k) {
     Node<K, V> n = find(k);
     if (n == null) {
@@ -109,137 +289,627 @@ public class TreapMap<K extends Comparable<K>, V>
       throw new IllegalArgumentException("cannot handle null key");
     }
     Node<K, V> n = root;
+    int compared = 0;
     while (n != null) {
       int cmp = k.compareTo(n.key);
+      compared++;
       if (cmp < 0) {
         n = n.left;
       } else if (cmp > 0) {
         n = n.right;
       } else {
-        return n;
+        break;
       }
     }
-    return null;
+    if (MapMetrics.ENABLED) {
+      metrics.searched(compared);
+    }
+    return n;
   }
 
+  // Find the node to remove, then rotate it down, always lifting the
+  // child with the smaller priority so the heap order holds, until it
+  // has at most one child; then splice it out. Every node on the path,
+  // including the ones lifted above it, loses one descendant.
   @Override
   public V remove(K k) throws IllegalArgumentException {
-    Node<K, V> toRemove = findForSure(k);
-    root = remove(root, toRemove);
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    int depth = 0;
+    Node<K, V> n = root;
+    while (n != null) {
+      int cmp = k.compareTo(n.key);
+      if (cmp == 0) {
+        break;
+      }
+      pathSet(depth++, n);
+      n = cmp < 0 ? n.left : n.right;
+    }
+    if (MapMetrics.ENABLED) {
+      metrics.searched(n == null ? depth : depth + 1);
+    }
+    if (n == null) {
+      Arrays.fill(path, 0, depth, null);
+      throw new IllegalArgumentException("cannot find key " + k);
+    }
+    if (MapMetrics.ENABLED && n.left != null && n.right != null) {
+      metrics.rebalanced();
+    }
+    while (n.left != null && n.right != null) {
+      Node<K, V> sub = n.left.priority < n.right.priority
+          ? rightRotation(n) : leftRotation(n);
+      relink(depth, n, sub);
+      pathSet(depth++, sub);
+    }
+    relink(depth, n, n.left == null ? n.right : n.left);
+    while (--depth >= 0) {
+      path[depth].size--;
+      path[depth] = null;
+    }
     size--;
-    return toRemove.value;
+    modCount++;
+    return n.value;
   }
 
-  private Node<K, V> remove(Node<K, V> node, Node<K, V> toRemove) {
-    int cmp = toRemove.key.compareTo(node.key);
-    if (cmp == 0) {
-      return remove(node);
-    } else if (cmp < 0) {
-      node.left = remove(node.left, toRemove);
+  @Override
+  public void put(K k, V v) throws IllegalArgumentException {
+    Node<K, V> n = findForSure(k);
+    n.value = v;
+  }
+
+  @Override
+  public V get(K k) throws IllegalArgumentException {
+    Node<K, V> n = findForSure(k);
+    return n.value;
+  }
+
+  @Override
+  public boolean has(K k) {
+    if (k == null) {
+      return false;
+    }
+    Node<K, V> n = find(k);
+    return n != null;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Metrics of this map's searches and rotations, collected only if
+   * MapMetrics.ENABLED.
+   *
+   * @return The metrics, live; shared by all maps while disabled.
+   */
+  public MapMetrics metrics() {
+    return metrics;
+  }
+
+  @Override
+  public ShapeStats shapeStats() {
+    return ShapeStats.of(root, size, n -> n.left, n -> n.right);
+  }
+
+  @Override
+  public ShapeStats shapeStats(int samples) {
+    return ShapeStats.sample(root, size, samples, n -> n.left,
+        n -> n.right);
+  }
+
+  /**
+   * Split this treap at a key, in O(log n) expected time.
+   *
+   * <p>Keys less than k stay in this map; keys greater than or equal
+   * to k move to the returned map.</p>
+   *
+   * @param k The key to split at.
+   * @return New map with all keys &gt;= k.
+   * @throws IllegalArgumentException If k is null.
+   */
+  public TreapMap<K, V> split(K k) throws IllegalArgumentException {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    Split<K, V> s = split(root, k);
+    setRoot(s.left);
+    return new TreapMap<>(join(s.mid, s.right));
+  }
+
+  /**
+   * Move all entries of another treap, whose keys must all be greater
+   * than the keys in this one, into this map in O(log n) expected time.
+   * The other map is left empty.
+   *
+   * @param right Map with larger keys.
+   * @throws IllegalArgumentException If right is this map or the key
+   *     ranges overlap.
+   */
+  public void join(TreapMap<K, V> right) throws IllegalArgumentException {
+    if (right == this) {
+      throw new IllegalArgumentException("cannot join a map with itself");
+    }
+    if (root != null && right.root != null
+        && lastKey().compareTo(right.firstKey()) >= 0) {
+      throw new IllegalArgumentException("key ranges overlap");
+    }
+    setRoot(join(root, right.root));
+    right.setRoot(null);
+  }
+
+  /**
+   * Move all entries of another treap into this one.
+   *
+   * <p>Keys in both maps get the value combine(this value, other
+   * value). This takes O(m log(n/m + 1)) expected work for maps of
+   * sizes m &lt;= n; large inputs are processed in parallel on the
+   * common fork-join pool. The other map is left empty. The combine
+   * function may be called from several threads at once, and if it
+   * throws, both maps are left in an unspecified state.</p>
+   *
+   * @param other Map to merge into this one.
+   * @param combine Function combining the values of common keys.
+   * @throws IllegalArgumentException If other is this map.
+   */
+  public void union(TreapMap<K, V> other, BinaryOperator<V> combine)
+      throws IllegalArgumentException {
+    setOperation(SetOp.UNION, other, combine);
+  }
+
+  /**
+   * Keep only the keys that are also in another treap.
+   *
+   * <p>Kept keys get the value combine(this value, other value). Costs
+   * and caveats are the same as for union(); the other map is left
+   * empty.</p>
+   *
+   * @param other Map to intersect with.
+   * @param combine Function combining the values of common keys.
+   * @throws IllegalArgumentException If other is this map.
+   */
+  public void intersection(TreapMap<K, V> other, BinaryOperator<V> combine)
+      throws IllegalArgumentException {
+    setOperation(SetOp.INTERSECTION, other, combine);
+  }
+
+  /**
+   * Remove all keys that are in another treap.
+   *
+   * <p>Costs are the same as for union(); the other map is left
+   * empty.</p>
+   *
+   * @param other Map whose keys to remove.
+   * @throws IllegalArgumentException If other is this map.
+   */
+  public void difference(TreapMap<K, V> other)
+      throws IllegalArgumentException {
+    setOperation(SetOp.DIFFERENCE, other, null);
+  }
+
+  private void setOperation(SetOp op, TreapMap<K, V> other,
+      BinaryOperator<V> combine) {
+    if (other == this) {
+      throw new IllegalArgumentException("cannot combine a map with itself");
+    }
+    Node<K, V> result = setOperation(op, root, other.root, combine, false);
+    setRoot(result);
+    other.setRoot(null);
+  }
+
+  // Replace the whole treap, e.g. after a split or set operation.
+  private void setRoot(Node<K, V> node) {
+    root = node;
+    size = size(node);
+    modCount++;
+  }
+
+  // Split a treap into the nodes with keys less than k, the node with
+  // key k (if any) and the nodes with keys greater than k.
+  private static <K extends Comparable<K>, V> Split<K, V> split(
+      Node<K, V> node, K k) {
+    if (node == null) {
+      return new Split<>();
+    }
+    int cmp = k.compareTo(node.key);
+    Split<K, V> s;
+    if (cmp < 0) {
+      s = split(node.left, k);
+      node.left = s.right;
+      s.right = node;
+    } else if (cmp > 0) {
+      s = split(node.right, k);
+      node.right = s.left;
+      s.left = node;
     } else {
-      node.right = remove(node.right, toRemove);
+      s = new Split<>();
+      s.left = node.left;
+      s.right = node.right;
+      s.mid = node;
+      node.left = null;
+      node.right = null;
     }
-    return node;
+    update(node);
+    return s;
   }
 
-  private Node<K, V> remove(Node<K, V> node) {
-    if (node.left == null) {
-      return node.right;
-    } else if (node.right == null) {
-      return node.left;
+  // Join two treaps where all keys in left are less than all keys in
+  // right, keeping the heap order of priorities.
+  private static <K, V> Node<K, V> join(Node<K, V> left, Node<K, V> right) {
+    if (left == null) {
+      return right;
+    } else if (right == null) {
+      return left;
+    }
+    if (left.priority < right.priority) {
+      left.right = join(left.right, right);
+      update(left);
+      return left;
+    } else {
+      right.left = join(left, right.left);
+      update(right);
+      return right;
     }
-    Node<K, V> toReplaceWith = max(node.left);
-    node.key = toReplaceWith.key;
-    node.value = toReplaceWith.value;
-    node.priority = toReplaceWith.priority;
-    node.left = remove(node.left, toReplaceWith);
-    return reBalance(node);
   }
 
-  private Node<K,V> reBalance(Node<K,V> node) {
-    if (node.left == null || node.right == null) {
-      return reBalanceHelper(node);
+  // Union, intersection or difference of two treaps. The root with the
+  // smaller priority (always a's for difference) stays on top; the
+  // other treap is split around its key, and the two halves are
+  // combined recursively, in parallel if there is enough work. Since
+  // the roots may swap, flipped tells whether a's values came from
+  // the "other" map, so combine sees its arguments in the right order.
+  private static <K extends Comparable<K>, V> Node<K, V> setOperation(
+      SetOp op, Node<K, V> a, Node<K, V> b, BinaryOperator<V> combine,
+      boolean flipped) {
+    if (a == null || b == null) {
+      if (op == SetOp.UNION) {
+        return a == null ? b : a;
+      }
+      return op == SetOp.INTERSECTION ? null : a;
+    }
+    if (op != SetOp.DIFFERENCE && b.priority < a.priority) {
+      Node<K, V> t = a;
+      a = b;
+      b = t;
+      flipped = !flipped;
+    }
+    boolean parallel = a.size + b.size >= PARALLEL_THRESHOLD;
+    Split<K, V> s = split(b, a.key);
+    Node<K, V> left;
+    Node<K, V> right;
+    if (parallel) {
+      SetOperationTask<K, V> task =
+          new SetOperationTask<>(op, a.left, s.left, combine, flipped);
+      task.fork();
+      right = setOperation(op, a.right, s.right, combine, flipped);
+      left = task.join();
     } else {
-      if (node.left.priority < node.right.priority) {
-        node = rightRotation(node);
-        node.right = reBalance(node.right);
+      left = setOperation(op, a.left, s.left, combine, flipped);
+      right = setOperation(op, a.right, s.right, combine, flipped);
+    }
+    if (s.mid != null && op != SetOp.DIFFERENCE) {
+      a.value = flipped
+          ? combine.apply(s.mid.value, a.value)
+          : combine.apply(a.value, s.mid.value);
+    }
+    boolean keep = op == SetOp.UNION
+        || (op == SetOp.INTERSECTION) == (s.mid != null);
+    if (!keep) {
+      return join(left, right);
+    }
+    a.left = left;
+    a.right = right;
+    update(a);
+    return a;
+  }
+
+  // Kinds of set operations.
+  private enum SetOp { UNION, INTERSECTION, DIFFERENCE }
+
+  // Result of splitting a treap around a key.
+  private static final class Split<K, V> {
+    Node<K, V> left;
+    Node<K, V> mid;
+    Node<K, V> right;
+  }
+
+  // One recursive set operation call, so it can be forked.
+  private static final class SetOperationTask<K extends Comparable<K>, V>
+      extends RecursiveTask<Node<K, V>> {
+    private static final long serialVersionUID = 1L;
+    private final SetOp op;
+    private final Node<K, V> a;
+    private final Node<K, V> b;
+    private final BinaryOperator<V> combine;
+    private final boolean flipped;
+
+    SetOperationTask(SetOp op, Node<K, V> a, Node<K, V> b,
+        BinaryOperator<V> combine, boolean flipped) {
+      this.op = op;
+      this.a = a;
+      this.b = b;
+      this.combine = combine;
+      this.flipped = flipped;
+    }
+
+    @Override
+    protected Node<K, V> compute() {
+      return setOperation(op, a, b, combine, flipped);
+    }
+  }
+
+  private Node<K, V> below(K k, boolean inclusive) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    Node<K, V> best = null;
+    Node<K, V> n = root;
+    while (n != null) {
+      int cmp = k.compareTo(n.key);
+      if (cmp > 0 || (cmp == 0 && inclusive)) {
+        best = n;
+        if (cmp == 0) {
+          break;
+        }
+        n = n.right;
       } else {
-        node = leftRotation(node);
-        node.left = reBalance(node.left);
+        n = n.left;
       }
     }
-    return node;
+    return best;
   }
 
-  private Node<K, V> reBalanceHelper(Node<K, V> node) {
-    if (node.left == null && node.right == null) {
-      return node;
-    } else if (node.left == null) {
-      if (node.priority <= node.right.priority) {
-        return node;
+  private Node<K, V> above(K k, boolean inclusive) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    Node<K, V> best = null;
+    Node<K, V> n = root;
+    while (n != null) {
+      int cmp = k.compareTo(n.key);
+      if (cmp < 0 || (cmp == 0 && inclusive)) {
+        best = n;
+        if (cmp == 0) {
+          break;
+        }
+        n = n.left;
       } else {
-        node = leftRotation(node);
-        node.left = reBalance(node.left);
+        n = n.right;
       }
-    } else if (node.right == null) {
-      if (node.priority < node.left.priority) {
-        return node;
+    }
+    return best;
+  }
+
+  @Override
+  public int rank(K k) {
+    if (k == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    int rank = 0;
+    Node<K, V> n = root;
+    while (n != null) {
+      int cmp = k.compareTo(n.key);
+      if (cmp < 0) {
+        n = n.left;
+      } else if (cmp > 0) {
+        rank += size(n.left) + 1;
+        n = n.right;
       } else {
-        node = rightRotation(node);
-        node.right = reBalance(node.right);
+        return rank + size(n.left);
       }
     }
-    return node;
+    return rank;
   }
 
-  private Node<K, V> max(Node<K, V> node) {
-    Node<K, V> cur = node;
-    while (cur.right != null) {
-      cur = cur.right;
+  @Override
+  public K select(int i) {
+    if (i < 0 || i >= size) {
+      throw new IllegalArgumentException("position out of range " + i);
+    }
+    Node<K, V> n = root;
+    while (true) {
+      int leftSize = size(n.left);
+      if (i < leftSize) {
+        n = n.left;
+      } else if (i > leftSize) {
+        i -= leftSize + 1;
+        n = n.right;
+      } else {
+        return n.key;
+      }
     }
-    return cur;
   }
 
   @Override
-  public void put(K k, V v) throws IllegalArgumentException {
-    Node<K, V> n = findForSure(k);
-    n.value = v;
+  public K firstKey() {
+    Node<K, V> n = root;
+    if (n == null) {
+      return null;
+    }
+    while (n.left != null) {
+      n = n.left;
+    }
+    return n.key;
   }
 
   @Override
-  public V get(K k) throws IllegalArgumentException {
-    Node<K, V> n = findForSure(k);
-    return n.value;
+  public K lastKey() {
+    Node<K, V> n = root;
+    if (n == null) {
+      return null;
+    }
+    while (n.right != null) {
+      n = n.right;
+    }
+    return n.key;
   }
 
   @Override
-  public boolean has(K k) {
-    if (k == null) {
-      return false;
+  public K floorKey(K k) {
+    Node<K, V> n = below(k, true);
+    return n == null ? null : n.key;
+  }
+
+  @Override
+  public K lowerKey(K k) {
+    Node<K, V> n = below(k, false);
+    return n == null ? null : n.key;
+  }
+
+  @Override
+  public K ceilingKey(K k) {
+    Node<K, V> n = above(k, true);
+    return n == null ? null : n.key;
+  }
+
+  @Override
+  public K higherKey(K k) {
+    Node<K, V> n = above(k, false);
+    return n == null ? null : n.key;
+  }
+
+  @Override
+  public OrderedMap<K, V> subMap(K lo, K hi) {
+    if (lo == null || hi == null) {
+      throw new IllegalArgumentException("cannot handle null key");
     }
-    Node<K, V> n = find(k);
-    return n != null;
+    return new SubMap(lo, hi);
   }
 
   @Override
-  public int size() {
-    return size;
+  public OrderedMap<K, V> headMap(K hi) {
+    if (hi == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(null, hi);
+  }
+
+  @Override
+  public OrderedMap<K, V> tailMap(K lo) {
+    if (lo == null) {
+      throw new IllegalArgumentException("cannot handle null key");
+    }
+    return new SubMap(lo, null);
+  }
+
+  // Range view backed by this tree that iterates over just the range.
+  private class SubMap extends OrderedSubMap<K, V> {
+    SubMap(K lo, K hi) {
+      super(TreapMap.this, lo, hi);
+    }
+
+    @Override
+    OrderedSubMap<K, V> narrow(K lo, K hi) {
+      return new SubMap(lo, hi);
+    }
+
+    @Override
+    public Iterator<K> iterator() {
+      return new InorderIterator(lo, hi);
+    }
+
+    @Override
+    public EntryIterator<K, V> entryIterator() {
+      return new InorderIterator(lo, hi);
+    }
   }
 
   @Override
   public Iterator<K> iterator() {
-    List<K> keys = new ArrayList<>();
-    iteratorHelper(root, keys);
-    return keys.iterator();
+    return new InorderIterator();
   }
 
-  private void iteratorHelper(Node<K,V> n, List<K> keys) {
-    if (n == null) {
-      return;
+  @Override
+  public EntryIterator<K, V> entryIterator() {
+    return new InorderIterator();
+  }
+
+  // In-order iterator that walks the tree on demand. The stack holds
+  // the nodes whose key has not been returned yet but whose left
+  // subtree is done (or in progress), so it never holds more nodes
+  // than the tree is high.
+  private class InorderIterator implements EntryIterator<K, V> {
+    private Node<K, V>[] stack;
+    private int top;
+    private final int expectedModCount;
+    // Exclusive upper bound, or null to iterate to the end.
+    private final K hi;
+    // Node of the key next() returned last, or null.
+    private Node<K, V> last;
+
+    InorderIterator() {
+      this(null, null);
+    }
+
+    // Iterate over the keys in [lo, hi); null bounds are open. The
+    // stack starts out as the path to the smallest key >= lo, minus
+    // the nodes below lo which are skipped.
+    @SuppressWarnings("unchecked")
+    InorderIterator(K lo, K hi) {
+      stack = (Node<K, V>[]) new Node<?, ?>[INITIAL_STACK];
+      expectedModCount = modCount;
+      this.hi = hi;
+      if (lo == null) {
+        pushLeftSpine(root);
+        return;
+      }
+      Node<K, V> n = root;
+      while (n != null) {
+        if (n.key.compareTo(lo) < 0) {
+          n = n.right;
+        } else {
+          push(n);
+          n = n.left;
+        }
+      }
+    }
+
+    private void push(Node<K, V> n) {
+      if (top == stack.length) {
+        stack = Arrays.copyOf(stack, 2 * top);
+      }
+      stack[top++] = n;
+    }
+
+    // Push n and all of its left descendants.
+    private void pushLeftSpine(Node<K, V> n) {
+      while (n != null) {
+        push(n);
+        n = n.left;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return top > 0 && (hi == null || stack[top - 1].key.compareTo(hi) < 0);
+    }
+
+    @Override
+    public K next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Node<K, V> n = stack[--top];
+      stack[top] = null;
+      pushLeftSpine(n.right);
+      last = n;
+      return n.key;
+    }
+
+    @Override
+    public V value() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (last == null) {
+        throw new IllegalStateException("next() not called yet");
+      }
+      return last.value;
     }
-    iteratorHelper(n.left, keys);
-    keys.add(n.key);
-    iteratorHelper(n.right, keys);
   }
 
   /*** Do not change this function's name or modify its code. ***/
@@ -308,8 +978,8 @@ public class TreapMap<K extends Comparable<K>, V>
    * Just avoid changing what we've provided already.
    * ***/
   // Inner node class, each holds a key (which is what we sort the
-  // BST by) as well as a value. We don't need a parent pointer as
-  // long as we use recursive insert/remove helpers. Since this
+  // BST by) as well as a value. We don't need a parent pointer since
+  // insert/remove remember the path they took in a buffer. Since this
   // is a node class for a Treap we also include a priority field.
   private static class Node<K, V> {
     /***  Do not change variable names in this section. ***/
@@ -320,6 +990,8 @@ public class TreapMap<K extends Comparable<K>, V>
     int priority;
 
     /*** End of section. ***/
+    // Number of nodes in the subtree rooted here, for rank/select.
+    int size = 1;
 
     // Constructor to make node creation easier to read.
     Node(K k, V v) {
@@ -330,6 +1002,13 @@ public class TreapMap<K extends Comparable<K>, V>
       //just to make reading and debugging easier a little bit
     }
 
+    // Constructor for nodes whose priority is chosen by the caller.
+    Node(K k, V v, int p) {
+      key = k;
+      value = v;
+      priority = p;
+    }
+
     // Use this function to generate random values
     // to use as node priorities as you insert new
     // nodes into your TreapMap.
@@ -0,0 +1,359 @@
+package hw6;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs WordFrequencyCountExperiment's counting for several corpora and
+ * maps and reports statistics, instead of editing the experiment and
+ * taking medians by hand.
+ *
+ * <pre>
+ * java hw6.WordCountDriver [options] [corpus...]
+ *   --map NAME     map to measure, repeatable; by default SimpleMap,
+ *                  BinarySearchTreeMap, AvlTreeMap and TreapMap
+ *   --warmup N     unmeasured runs per fork, default 2
+ *   --reps N       measured runs per fork, default 5
+ *   --forks N      JVMs per corpus and map, default 1; 0 runs all in
+ *                  this JVM
+ *   --jvm-arg ARG  option for the forked JVMs, repeatable
+ *   --csv FILE     also write the results as CSV
+ *   --json FILE    also write the results as JSON
+ * </pre>
+ *
+ * <p>Corpora that aren't files are looked up in res/src, so the default,
+ * the four Part D corpora, is "hotel_california.txt Fed01.txt
+ * moby_dick.txt pride_and_prejudice.txt". Each run counts the corpus
+ * into a new map like the experiment does and is measured by a Profiler
+ * section: wall-clock time and bytes allocated. Every fork is a new JVM
+ * with the same class path, so a map doesn't run on code the JIT
+ * compiler shaped for the one before it; its warmup runs let the JIT
+ * compile the counting loop, then its measured runs are reported back
+ * and pooled with those of the other forks.</p>
+ *
+ * <p>For each corpus and map the table has the number of words counted
+ * (the same for every map, as a sanity check), the number of measured
+ * runs, and the median, 90th percentile (by the nearest-rank method)
+ * and standard deviation of time and allocation. Rows are in the order
+ * of the arguments and numbers have fixed precision, so the CSV and
+ * JSON files of two commits can be diffed.</p>
+ */
+public final class WordCountDriver {
+  private static final List<String> CORPORA = List.of(
+      "hotel_california.txt", "Fed01.txt", "moby_dick.txt",
+      "pride_and_prejudice.txt");
+  private static final List<String> MAPS = List.of("SimpleMap",
+      "BinarySearchTreeMap", "AvlTreeMap", "TreapMap");
+  // Option that makes main() a fork measuring one corpus and map.
+  private static final String CHILD = "--child";
+
+  private WordCountDriver() {}
+
+  /**
+   * Measure and report; see above for the arguments.
+   *
+   * @param args Options, then corpora.
+   * @throws IOException If a corpus or output file can't be used, or a
+   *     fork fails.
+   * @throws IllegalArgumentException If the arguments are bad.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length == 5 && args[0].equals(CHILD)) {
+      child(args);
+      return;
+    }
+    List<String> corpora = new ArrayList<>();
+    List<String> maps = new ArrayList<>();
+    List<String> jvmArgs = new ArrayList<>();
+    int warmup = 2;
+    int reps = 5;
+    int forks = 1;
+    Path csv = null;
+    Path json = null;
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (!arg.startsWith("--")) {
+        corpora.add(arg);
+        continue;
+      }
+      if (i + 1 == args.length) {
+        throw new IllegalArgumentException("missing value for " + arg);
+      }
+      String value = args[++i];
+      switch (arg) {
+        case "--map":
+          // Fail now rather than after measuring the maps before it.
+          ParallelWordCount.newMap(value);
+          maps.add(value);
+          break;
+        case "--warmup":
+          warmup = count(arg, value, 0);
+          break;
+        case "--reps":
+          reps = count(arg, value, 1);
+          break;
+        case "--forks":
+          forks = count(arg, value, 0);
+          break;
+        case "--jvm-arg":
+          jvmArgs.add(value);
+          break;
+        case "--csv":
+          csv = Paths.get(value);
+          break;
+        case "--json":
+          json = Paths.get(value);
+          break;
+        default:
+          throw new IllegalArgumentException("unknown option " + arg);
+      }
+    }
+    if (corpora.isEmpty()) {
+      corpora.addAll(CORPORA);
+    }
+    if (maps.isEmpty()) {
+      maps.addAll(MAPS);
+    }
+
+    List<Result> results = new ArrayList<>();
+    System.out.printf("%-24s %-20s %9s %4s %10s %10s %9s %10s %10s %9s%n",
+        "corpus", "map", "words", "runs", "median ms", "p90 ms", "sd ms",
+        "median kb", "p90 kb", "sd kb");
+    for (String corpus : corpora) {
+      Path file = corpus(corpus);
+      for (String map : maps) {
+        Result r = new Result(corpus, map);
+        if (forks == 0) {
+          for (long[] run : runs(file, map, warmup, reps)) {
+            r.add(run);
+          }
+        }
+        for (int f = 0; f < forks; f++) {
+          fork(r, file, jvmArgs, warmup, reps);
+        }
+        results.add(r);
+        System.out.printf("%-24s %-20s %9d %4d %10.3f %10.3f %9.3f"
+            + " %10d %10d %9d%n", corpus, map, r.words, r.runs,
+            r.time(50), r.time(90), r.timeDeviation(), r.alloc(50),
+            r.alloc(90), r.allocDeviation());
+      }
+    }
+    if (csv != null) {
+      Files.write(csv, toCsv(results).getBytes(StandardCharsets.UTF_8));
+    }
+    if (json != null) {
+      Files.write(json, toJson(results).getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private static int count(String option, String value, int least) {
+    int n;
+    try {
+      n = Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("bad number for " + option, e);
+    }
+    if (n < least) {
+      throw new IllegalArgumentException(option + " must be at least "
+          + least);
+    }
+    return n;
+  }
+
+  // The corpus file: as given if it exists, otherwise in res/src.
+  private static Path corpus(String name) throws IOException {
+    Path file = Paths.get(name);
+    if (!Files.isRegularFile(file)) {
+      file = Paths.get("res", "src", name);
+    }
+    if (!Files.isRegularFile(file)) {
+      throw new IOException("no corpus " + name);
+    }
+    return file.toAbsolutePath();
+  }
+
+  // Count a corpus warmup + reps times; for each measured run, its
+  // nanoseconds, allocated bytes (-1 if unknown) and number of words.
+  private static List<long[]> runs(Path file, String map, int warmup,
+      int reps) throws IOException {
+    Profiler profiler = new Profiler();
+    List<long[]> runs = new ArrayList<>();
+    for (int i = 0; i < warmup + reps; i++) {
+      Map<String, Integer> data = ParallelWordCount.newMap(map);
+      Profiler.Section s = profiler.section("count");
+      long words = WordFrequencyCountExperiment.countWords(file, data);
+      s.close();
+      if (i >= warmup) {
+        runs.add(new long[] {s.nanos(), s.allocatedBytes(), words});
+      }
+    }
+    return runs;
+  }
+
+  // Body of a fork: measure and print one line per run to stdout.
+  private static void child(String[] args) throws IOException {
+    List<long[]> runs = runs(Paths.get(args[1]), args[2],
+        Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+    for (long[] run : runs) {
+      System.out.println(run[0] + " " + run[1] + " " + run[2]);
+    }
+  }
+
+  // Measure in a new JVM, adding its runs to r.
+  private static void fork(Result r, Path file, List<String> jvmArgs,
+      int warmup, int reps) throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java")
+        .toString());
+    command.addAll(jvmArgs);
+    command.addAll(List.of("-cp", System.getProperty("java.class.path"),
+        WordCountDriver.class.getName(), CHILD, file.toString(), r.map,
+        Integer.toString(warmup), Integer.toString(reps)));
+    Process process = new ProcessBuilder(command)
+        .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(
+        process.getInputStream(), StandardCharsets.US_ASCII))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] fields = line.trim().split(" ");
+        if (fields.length != 3) {
+          throw new IOException("unexpected output from fork: " + line);
+        }
+        r.add(new long[] {Long.parseLong(fields[0]),
+            Long.parseLong(fields[1]), Long.parseLong(fields[2])});
+      }
+      if (process.waitFor() != 0) {
+        throw new IOException("fork for " + r.map + " on " + r.corpus
+            + " failed with exit code " + process.exitValue());
+      }
+    } catch (InterruptedException e) {
+      process.destroy();
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted", e);
+    }
+  }
+
+  private static String toCsv(List<Result> results) {
+    StringBuilder s = new StringBuilder("corpus,map,words,runs,"
+        + "time_median_ms,time_p90_ms,time_sd_ms,"
+        + "alloc_median_kb,alloc_p90_kb,alloc_sd_kb\n");
+    for (Result r : results) {
+      s.append(String.format("%s,%s,%d,%d,%.3f,%.3f,%.3f,%d,%d,%d%n",
+          csv(r.corpus), csv(r.map), r.words, r.runs, r.time(50), r.time(90),
+          r.timeDeviation(), r.alloc(50), r.alloc(90), r.allocDeviation()));
+    }
+    return s.toString();
+  }
+
+  // A CSV field.
+  private static String csv(String text) {
+    return text.indexOf(',') < 0 && text.indexOf('"') < 0 ? text
+        : "\"" + text.replace("\"", "\"\"") + "\"";
+  }
+
+  private static String toJson(List<Result> results) {
+    StringBuilder s = new StringBuilder("[");
+    for (Result r : results) {
+      if (s.length() > 1) {
+        s.append(",");
+      }
+      s.append(String.format("%n  {\"corpus\": %s, \"map\": %s,"
+          + " \"words\": %d, \"runs\": %d,%n   \"timeMedianMs\": %.3f,"
+          + " \"timeP90Ms\": %.3f, \"timeSdMs\": %.3f,%n"
+          + "   \"allocMedianKb\": %d, \"allocP90Kb\": %d,"
+          + " \"allocSdKb\": %d}", Profiler.quote(r.corpus),
+          Profiler.quote(r.map), r.words, r.runs, r.time(50), r.time(90),
+          r.timeDeviation(), r.alloc(50), r.alloc(90), r.allocDeviation()));
+    }
+    return s.append(String.format(s.length() > 1 ? "%n]%n" : "]%n"))
+        .toString();
+  }
+
+  // Measured runs of one corpus and map.
+  private static final class Result {
+    final String corpus;
+    final String map;
+    long words = -1;
+    int runs;
+    private long[] nanos = new long[16];
+    private long[] bytes = new long[16];
+
+    Result(String corpus, String map) {
+      this.corpus = corpus;
+      this.map = map;
+    }
+
+    void add(long[] run) {
+      if (words >= 0 && run[2] != words) {
+        throw new IllegalStateException(map + " counted " + run[2]
+            + " words in " + corpus + " after " + words + " before");
+      }
+      words = run[2];
+      if (runs == nanos.length) {
+        nanos = Arrays.copyOf(nanos, 2 * runs);
+        bytes = Arrays.copyOf(bytes, 2 * runs);
+      }
+      nanos[runs] = run[0];
+      bytes[runs++] = run[1];
+    }
+
+    // Percentile p of the time, in milliseconds.
+    double time(double p) {
+      return percentile(nanos, p) / 1e6;
+    }
+
+    double timeDeviation() {
+      return deviation(nanos) / 1e6;
+    }
+
+    // Percentile p of the allocation, in KB; -1 if unknown.
+    long alloc(double p) {
+      return unknown() ? -1 : percentile(bytes, p) / 1024;
+    }
+
+    long allocDeviation() {
+      return unknown() ? -1 : Math.round(deviation(bytes) / 1024);
+    }
+
+    private boolean unknown() {
+      for (int i = 0; i < runs; i++) {
+        if (bytes[i] < 0) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private long percentile(long[] samples, double p) {
+      long[] sorted = Arrays.copyOf(samples, runs);
+      Arrays.sort(sorted);
+      int rank = (int) Math.ceil(p / 100 * runs);
+      return sorted[Math.max(rank - 1, 0)];
+    }
+
+    // Sample standard deviation; 0 for a single run.
+    private double deviation(long[] samples) {
+      if (runs < 2) {
+        return 0;
+      }
+      double mean = 0;
+      for (int i = 0; i < runs; i++) {
+        mean += samples[i];
+      }
+      mean /= runs;
+      double squares = 0;
+      for (int i = 0; i < runs; i++) {
+        squares += (samples[i] - mean) * (samples[i] - mean);
+      }
+      return Math.sqrt(squares / (runs - 1));
+    }
+  }
+}
@@ -1,9 +1,8 @@
 package hw6;
 
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Scanner;
 
 /**
  * Read text from a text file, count how often each unique word appears.
@@ -19,39 +18,62 @@ public class WordFrequencyCountExperiment {
   }
 
   // Change the return statement to other implementations of Map.
+  // Word counting needs no order, so the hash map is the fastest.
   private static Map<String, Integer> createDataStorage() {
-    return new SimpleMap<>();
+    return new OpenHashMap<>();
   }
 
   /**
    * Execution starts here.
-   * @param args command-line arguments; not used here.
-   * @throws FileNotFoundException if the data file does not exist.
+   * @param args command-line arguments; a number of threads to count
+   *     with ParallelWordCount, or none to count on this thread.
+   * @throws IOException if the data file can't be read.
    */
-  public static void main(String[] args) throws FileNotFoundException {
+  public static void main(String[] args) throws IOException {
     Map<String, Integer> wordFrequencyData = createDataStorage();
     Path resourceDirectory = Paths.get("res", "src", getDataFile());
-    Scanner sc = new Scanner(resourceDirectory.toFile());
 
     SimpleProfiler.reset();
     SimpleProfiler.start();
 
-    int wordCount = 0;
-    while (sc.hasNext()) {
-      String word = sc.next();
-      if (isWord(word)) {
-        addWord(wordFrequencyData, word);
-        wordCount++;
+    long wordCount;
+    if (args.length > 0) {
+      int threads = Integer.parseInt(args[0]);
+      wordFrequencyData = ParallelWordCount.count(resourceDirectory, threads,
+          WordFrequencyCountExperiment::createDataStorage, null);
+      wordCount = 0;
+      for (String word : wordFrequencyData) {
+        wordCount += wordFrequencyData.get(word);
       }
+    } else {
+      wordCount = countWords(resourceDirectory, wordFrequencyData);
     }
 
     String description = String.format("Processed %d words using %s",
         wordCount, wordFrequencyData.getClass().getName());
     SimpleProfiler.stop();
     System.out.println(SimpleProfiler.getStatistics(description));
+    if (args.length > 0) {
+      // SimpleProfiler sees only this thread's allocations.
+      System.out.println("Memory is not measured in parallel mode: the"
+          + " counting allocates on the worker threads.");
+    }
+  }
+
+  // Count the words of a file into a map; returns the number of words.
+  // The tokenizer finds exactly the tokens isWord() accepts, straight
+  // from the mapped file; only the first occurrence of a word makes a
+  // String.
+  static long countWords(Path file, Map<String, Integer> data)
+      throws IOException {
+    WordInterner words = new WordInterner();
+    return MappedTokenizer.tokenize(file, (buf, offset, length) ->
+        addWord(data, words.intern(buf, offset, length)));
   }
 
-  private static boolean isWord(String word) {
+  // What counts as a word, for tokens split on whitespace like Scanner
+  // does; MappedTokenizer applies the same rule to bytes.
+  static boolean isWord(String word) {
     // The regular expression splits strings on whitespace and
     //   non-word characters (anything except [a-zA-Z_0-9]). Far
     //   from perfect, but close enough for this simple program.
@@ -59,12 +81,9 @@ public class WordFrequencyCountExperiment {
     return word.matches("[a-zA-Z0-9]+") && word.length() > 1;
   }
 
-  // Add word and update frequency count.
+  // Add word and update frequency count; merge() finds or inserts the
+  // word in a single search instead of has(), get() and put().
   private static void addWord(Map<String, Integer> data, String word) {
-    if (data.has(word)) {
-      data.put(word, data.get(word) + 1);
-    } else {
-      data.insert(word, 1);
-    }
+    data.merge(word, 1, Integer::sum);
   }
 }
@@ -0,0 +1,97 @@
+package hw6;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns words given as bytes into strings, making each distinct string
+ * only once.
+ *
+ * <p>This is an open-addressing hash table of the strings made so far,
+ * searched with the bytes of a word directly, so a word seen before
+ * costs a hash and a comparison but no allocation. Bytes are taken as
+ * ISO-8859-1 characters, which is right for the ASCII words
+ * MappedTokenizer finds.</p>
+ */
+public final class WordInterner {
+  private String[] words = new String[1024];
+  private int[] hashes = new int[1024];
+  private int size;
+  private byte[] scratch = new byte[64];
+
+  /**
+   * The string for some bytes.
+   *
+   * @param buf Buffer holding the bytes.
+   * @param offset Index of the first byte.
+   * @param length Number of bytes.
+   * @return The same string as on every earlier call with these bytes.
+   */
+  public String intern(ByteBuffer buf, int offset, int length) {
+    int h = 0;
+    for (int i = 0; i < length; i++) {
+      h = 31 * h + (buf.get(offset + i) & 0xff);
+    }
+    int mask = words.length - 1;
+    int slot = (h ^ h >>> 16) & mask;
+    for (String w = words[slot]; w != null; w = words[slot]) {
+      if (hashes[slot] == h && matches(w, buf, offset, length)) {
+        return w;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (length > scratch.length) {
+      scratch = new byte[Math.max(length, 2 * scratch.length)];
+    }
+    buf.get(offset, scratch, 0, length);
+    String w = new String(scratch, 0, length, StandardCharsets.ISO_8859_1);
+    words[slot] = w;
+    hashes[slot] = h;
+    if (++size > words.length / 2) {
+      grow();
+    }
+    return w;
+  }
+
+  private static boolean matches(String w, ByteBuffer buf, int offset,
+      int length) {
+    if (w.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (w.charAt(i) != (buf.get(offset + i) & 0xff)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Double the table.
+  private void grow() {
+    String[] oldWords = words;
+    int[] oldHashes = hashes;
+    words = new String[2 * oldWords.length];
+    hashes = new int[words.length];
+    int mask = words.length - 1;
+    for (int i = 0; i < oldWords.length; i++) {
+      if (oldWords[i] != null) {
+        int h = oldHashes[i];
+        int slot = (h ^ h >>> 16) & mask;
+        while (words[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        words[slot] = oldWords[i];
+        hashes[slot] = h;
+      }
+    }
+  }
+
+  /**
+   * Number of distinct strings made.
+   *
+   * @return The number.
+   */
+  public int size() {
+    return size;
+  }
+}
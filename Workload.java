@@ -0,0 +1,527 @@
+package hw6;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic key-value workloads in the style of YCSB, to see how maps
+ * behave under operation mixes other than the word count's
+ * insert-or-increment.
+ *
+ * <p>A run first loads a number of records into an empty map, then
+ * performs operations drawn from a Mix: reads (get), updates (put),
+ * inserts of new keys, scans of up to a maximum number of consecutive
+ * keys from a starting key (OrderedMaps only), and removes. Records are
+ * numbered in insertion order; the key of record i is i itself if keys
+ * are ordered, otherwise a bijective hash of i, so that inserts land
+ * all over the tree instead of at its right end. Reads, updates, scans
+ * and removes pick a record number from the Distribution, then take
+ * the first record from there on that still exists, so they never miss
+ * even under heavy removes; once no records are left, they become
+ * inserts.</p>
+ *
+ * <ul>
+ * <li>UNIFORM: every existing record equally likely.</li>
+ * <li>ZIPFIAN: a few loaded records are hot, with tunable skew (see
+ * ZipfianGenerator); the hot ones are spread over all of them.</li>
+ * <li>LATEST: the most recently inserted records are hot.</li>
+ * <li>SEQUENTIAL: records in order, starting over at the end.</li>
+ * </ul>
+ *
+ * <p>Every operation is timed with System.nanoTime() into a
+ * LatencyHistogram per kind. Runs with the same seed perform exactly the
+ * same operations, so maps can be compared; main() does that:</p>
+ *
+ * <pre>
+ * java hw6.Workload [options]
+ *   --map NAME      map to run, repeatable; by default TreapMap,
+ *                   AvlTreeMap and BinarySearchTreeMap
+ *   --mix MIX       read-heavy (default; 95% reads, 5% updates),
+ *                   update-heavy (50% reads, 50% updates), insert-only,
+ *                   scan-heavy (95% scans, 5% inserts), remove-heavy
+ *                   (40% reads, 10% updates, 25% inserts, 25% removes),
+ *                   or percentages like read=50,insert=25,remove=25
+ *   --keys DIST     uniform, zipfian (default) or zipfian:THETA, latest,
+ *                   sequential
+ *   --records N     records loaded before the run, default 100000
+ *   --ops N         measured operations, default 1000000
+ *   --warmup N      operations before those, default 100000
+ *   --scan N        longest scan, default 100
+ *   --ordered       use record numbers as keys instead of their hashes
+ *   --seed N        seed for the operations and keys, default 1
+ *   --histograms    also print the percentile distributions
+ * </pre>
+ */
+public final class Workload {
+  /** Kinds of operations. */
+  public enum Op {
+    /** get() of an existing key. */
+    READ,
+    /** put() to an existing key. */
+    UPDATE,
+    /** insert() of a new key. */
+    INSERT,
+    /** Iteration over consecutive keys from an existing one. */
+    SCAN,
+    /** remove() of an existing key. */
+    REMOVE
+  }
+
+  /** How records are picked. */
+  public enum Distribution {
+    /** Every existing record equally likely. */
+    UNIFORM,
+    /** A few loaded records are hot. */
+    ZIPFIAN,
+    /** The most recently inserted records are hot. */
+    LATEST,
+    /** Records in order, cyclically. */
+    SEQUENTIAL
+  }
+
+  private static final Op[] OPS = Op.values();
+  // The value of every record; the maps don't care.
+  private static final Long VALUE = 42L;
+
+  private final Mix mix;
+  private final Distribution keys;
+  private final double theta;
+  private final int records;
+  private final int maxScan;
+  private final boolean ordered;
+  private final long seed;
+
+  /**
+   * Make a workload.
+   *
+   * @param mix The operation mix.
+   * @param keys How records are picked.
+   * @param theta Skew of ZIPFIAN and LATEST, in (0, 1).
+   * @param records Number of records loaded before the operations.
+   * @param maxScan Largest number of keys a scan visits.
+   * @param ordered Whether keys are record numbers rather than hashes.
+   * @param seed Seed for all random choices.
+   * @throws IllegalArgumentException If records or maxScan is less than
+   *     1 or theta is outside (0, 1).
+   */
+  public Workload(Mix mix, Distribution keys, double theta, int records,
+      int maxScan, boolean ordered, long seed) {
+    if (records < 1 || maxScan < 1) {
+      throw new IllegalArgumentException("need a record and a scan length");
+    }
+    if (!(theta > 0 && theta < 1)) {
+      throw new IllegalArgumentException("theta must be in (0, 1)");
+    }
+    this.mix = mix;
+    this.keys = keys;
+    this.theta = theta;
+    this.records = records;
+    this.maxScan = maxScan;
+    this.ordered = ordered;
+    this.seed = seed;
+  }
+
+  // Key of a record: itself, or the finalizer of MurmurHash3, which is a
+  // bijection on longs.
+  private long key(long record) {
+    if (ordered) {
+      return record;
+    }
+    long h = record;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * Load the records into a map, then perform warmup operations and
+   * measured ones.
+   *
+   * @param map An empty map; an OrderedMap if the mix has scans.
+   * @param warmup Number of unmeasured operations.
+   * @param operations Number of measured operations.
+   * @return The measurements.
+   * @throws IllegalArgumentException If the map isn't empty, or the mix
+   *     has scans and the map isn't ordered.
+   */
+  public Result run(Map<Long, Long> map, long warmup, long operations) {
+    if (map.size() != 0) {
+      throw new IllegalArgumentException("map is not empty");
+    }
+    if (mix.percent(Op.SCAN) > 0 && !(map instanceof OrderedMap)) {
+      throw new IllegalArgumentException("scans need an OrderedMap");
+    }
+    Run run = new Run(map);
+    for (int i = 0; i < records; i++) {
+      run.insert();
+    }
+    for (long i = 0; i < warmup; i++) {
+      run.next(null);
+    }
+    Result result = new Result();
+    long start = System.nanoTime();
+    for (long i = 0; i < operations; i++) {
+      run.next(result);
+    }
+    result.nanos = System.nanoTime() - start;
+    result.size = map.size();
+    return result;
+  }
+
+  // State of one run.
+  private final class Run {
+    final Map<Long, Long> map;
+    final Random random = new Random(seed);
+    final ZipfianGenerator zipf = new ZipfianGenerator(records, theta,
+        random);
+    // Records that exist; inserted is the number of records ever made.
+    final BitSet live = new BitSet();
+    int inserted;
+    int sequential;
+
+    Run(Map<Long, Long> map) {
+      this.map = map;
+    }
+
+    void insert() {
+      map.insert(key(reserve()), VALUE);
+    }
+
+    // Number of a new record, which exists from now on.
+    int reserve() {
+      if (inserted == Integer.MAX_VALUE) {
+        throw new IllegalStateException("out of record numbers");
+      }
+      live.set(inserted);
+      return inserted++;
+    }
+
+    // A record from the distribution, or the next existing one after
+    // it; -1 if there are none.
+    int pick() {
+      int record;
+      switch (keys) {
+        case UNIFORM:
+          record = random.nextInt(inserted);
+          break;
+        case ZIPFIAN:
+          record = (int) zipf.scrambled();
+          break;
+        case LATEST:
+          record = (int) Math.max(0, inserted - 1 - zipf.next());
+          break;
+        default:
+          record = sequential;
+          sequential = sequential + 1 < inserted ? sequential + 1 : 0;
+          break;
+      }
+      int existing = live.nextSetBit(record);
+      return existing >= 0 ? existing : live.nextSetBit(0);
+    }
+
+    // Perform one operation, recording its latency unless result is
+    // null.
+    void next(Result result) {
+      Op op = mix.draw(random);
+      int record = op == Op.INSERT ? -1 : pick();
+      if (record < 0) {
+        op = Op.INSERT;
+        record = reserve();
+      }
+      Long k = key(record);
+      int length = op == Op.SCAN ? 1 + random.nextInt(maxScan) : 0;
+      long start = System.nanoTime();
+      switch (op) {
+        case READ:
+          map.get(k);
+          break;
+        case UPDATE:
+          map.put(k, VALUE);
+          break;
+        case INSERT:
+          map.insert(k, VALUE);
+          break;
+        case SCAN:
+          length = scan(k, length);
+          break;
+        default:
+          map.remove(k);
+          live.clear(record);
+          break;
+      }
+      long nanos = System.nanoTime() - start;
+      if (result != null) {
+        result.histograms[op.ordinal()].record(nanos);
+        result.scanned += length;
+      }
+    }
+
+    // Visit up to length keys from k on; returns how many there were.
+    int scan(Long k, int length) {
+      Iterator<Long> it = ((OrderedMap<Long, Long>) map).tailMap(k)
+          .iterator();
+      int n = 0;
+      while (n < length && it.hasNext()) {
+        it.next();
+        n++;
+      }
+      return n;
+    }
+  }
+
+  /**
+   * Percentages of the kinds of operations.
+   */
+  public static final class Mix {
+    private final int[] percent = new int[OPS.length];
+
+    private Mix() {}
+
+    /**
+     * Parse a mix: the name of a preset (read-heavy, update-heavy,
+     * insert-only, scan-heavy, remove-heavy) or percentages of the kinds
+     * of operations, e.g. "read=50,update=30,remove=20".
+     *
+     * @param spec The mix.
+     * @return The mix.
+     * @throws IllegalArgumentException If spec is bad or the percentages
+     *     don't add up to 100.
+     */
+    public static Mix parse(String spec) {
+      switch (spec) {
+        case "read-heavy":
+          return parse("read=95,update=5");
+        case "update-heavy":
+          return parse("read=50,update=50");
+        case "insert-only":
+          return parse("insert=100");
+        case "scan-heavy":
+          return parse("scan=95,insert=5");
+        case "remove-heavy":
+          return parse("read=40,update=10,insert=25,remove=25");
+        default:
+          break;
+      }
+      Mix mix = new Mix();
+      int total = 0;
+      for (String part : spec.split(",")) {
+        String[] kv = part.split("=");
+        if (kv.length != 2) {
+          throw new IllegalArgumentException("bad mix " + spec);
+        }
+        Op op = Op.valueOf(kv[0].trim().toUpperCase());
+        int p = Integer.parseInt(kv[1].trim());
+        if (p < 0) {
+          throw new IllegalArgumentException("bad mix " + spec);
+        }
+        mix.percent[op.ordinal()] += p;
+        total += p;
+      }
+      if (total != 100) {
+        throw new IllegalArgumentException("mix " + spec
+            + " adds up to " + total + "%");
+      }
+      return mix;
+    }
+
+    /**
+     * Percentage of a kind of operations.
+     *
+     * @param op The kind.
+     * @return The percentage.
+     */
+    public int percent(Op op) {
+      return percent[op.ordinal()];
+    }
+
+    Op draw(Random random) {
+      int r = random.nextInt(100);
+      for (Op op : OPS) {
+        r -= percent[op.ordinal()];
+        if (r < 0) {
+          return op;
+        }
+      }
+      throw new IllegalStateException("percentages don't add up");
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder s = new StringBuilder();
+      for (Op op : OPS) {
+        if (percent[op.ordinal()] > 0) {
+          s.append(s.length() == 0 ? "" : ",")
+              .append(op.name().toLowerCase()).append('=')
+              .append(percent[op.ordinal()]);
+        }
+      }
+      return s.toString();
+    }
+  }
+
+  /**
+   * Measurements of a run.
+   */
+  public static final class Result {
+    private final LatencyHistogram[] histograms =
+        new LatencyHistogram[OPS.length];
+    private long nanos;
+    private long scanned;
+    private int size;
+
+    private Result() {
+      for (int i = 0; i < histograms.length; i++) {
+        histograms[i] = new LatencyHistogram();
+      }
+    }
+
+    /**
+     * Latencies of a kind of operations.
+     *
+     * @param op The kind.
+     * @return The histogram.
+     */
+    public LatencyHistogram histogram(Op op) {
+      return histograms[op.ordinal()];
+    }
+
+    /**
+     * Measured operations per second, timing included.
+     *
+     * @return The throughput.
+     */
+    public double throughput() {
+      long n = 0;
+      for (LatencyHistogram h : histograms) {
+        n += h.count();
+      }
+      return nanos == 0 ? 0 : n * 1e9 / nanos;
+    }
+
+    /**
+     * Number of keys visited by measured scans; the same for every map
+     * running the same workload.
+     *
+     * @return The number.
+     */
+    public long scanned() {
+      return scanned;
+    }
+
+    /**
+     * Size of the map at the end of the run.
+     *
+     * @return The size.
+     */
+    public int size() {
+      return size;
+    }
+  }
+
+  /**
+   * Run a workload on several maps and report; see above for the
+   * arguments.
+   *
+   * @param args Options.
+   * @throws IllegalArgumentException If the arguments are bad.
+   */
+  public static void main(String[] args) {
+    List<String> maps = new ArrayList<>();
+    Mix mix = Mix.parse("read-heavy");
+    Distribution keys = Distribution.ZIPFIAN;
+    double theta = ZipfianGenerator.DEFAULT_THETA;
+    int records = 100000;
+    long operations = 1000000;
+    long warmup = 100000;
+    int maxScan = 100;
+    boolean ordered = false;
+    long seed = 1;
+    boolean histograms = false;
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.equals("--ordered")) {
+        ordered = true;
+        continue;
+      }
+      if (arg.equals("--histograms")) {
+        histograms = true;
+        continue;
+      }
+      if (i + 1 == args.length) {
+        throw new IllegalArgumentException("missing value for " + arg);
+      }
+      String value = args[++i];
+      switch (arg) {
+        case "--map":
+          ParallelWordCount.newMap(value);
+          maps.add(value);
+          break;
+        case "--mix":
+          mix = Mix.parse(value);
+          break;
+        case "--keys":
+          String[] dist = value.split(":");
+          keys = Distribution.valueOf(dist[0].toUpperCase());
+          if (dist.length > 1) {
+            theta = Double.parseDouble(dist[1]);
+          }
+          break;
+        case "--records":
+          records = Integer.parseInt(value);
+          break;
+        case "--ops":
+          operations = Long.parseLong(value);
+          break;
+        case "--warmup":
+          warmup = Long.parseLong(value);
+          break;
+        case "--scan":
+          maxScan = Integer.parseInt(value);
+          break;
+        case "--seed":
+          seed = Long.parseLong(value);
+          break;
+        default:
+          throw new IllegalArgumentException("unknown option " + arg);
+      }
+    }
+    if (maps.isEmpty()) {
+      maps.addAll(List.of("TreapMap", "AvlTreeMap", "BinarySearchTreeMap"));
+    }
+    Workload workload = new Workload(mix, keys, theta, records, maxScan,
+        ordered, seed);
+    System.out.printf("mix %s, keys %s%s, %d records%s, %d operations%n",
+        mix, keys.name().toLowerCase(), keys == Distribution.ZIPFIAN
+        || keys == Distribution.LATEST ? " " + theta : "", records,
+        ordered ? " (ordered)" : "", operations);
+    for (String impl : maps) {
+      Result r = workload.run(ParallelWordCount.newMap(impl), warmup,
+          operations);
+      System.out.printf("%n%s: %.0f ops/s, final size %d, %d keys"
+          + " scanned%n", impl, r.throughput(), r.size(), r.scanned());
+      System.out.printf("  %-6s %9s %9s %9s %9s %9s %9s %10s%n", "op",
+          "count", "mean us", "p50 us", "p90 us", "p99 us", "p99.9 us",
+          "max us");
+      for (Op op : OPS) {
+        LatencyHistogram h = r.histogram(op);
+        if (h.count() == 0) {
+          continue;
+        }
+        System.out.printf("  %-6s %9d %9.3f %9.3f %9.3f %9.3f %9.3f"
+            + " %10.3f%n", op.name().toLowerCase(), h.count(),
+            h.mean() / 1e3, h.percentile(50) / 1e3, h.percentile(90) / 1e3,
+            h.percentile(99) / 1e3, h.percentile(99.9) / 1e3,
+            h.max() / 1e3);
+        if (histograms) {
+          System.out.print(h.toText());
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,290 @@
+package hw6;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of records with group commit, used by DurableMap.
+ *
+ * <p>Each record is framed as a 4 byte length, the payload and a 4 byte
+ * CRC32 of the payload, so a record torn by a crash is recognized and
+ * dropped along with everything after it.</p>
+ *
+ * <p>Appending only copies the record into a buffer. The buffer goes to
+ * the file and the file to the storage device (one fsync for the whole
+ * batch) once groupRecords records are waiting, every groupMillis
+ * milliseconds on a background thread, and on sync() or close(). A
+ * crash loses at most the records of the current batch. Appends and
+ * syncs may come from different threads; the fsync itself doesn't hold
+ * up appends.</p>
+ *
+ * <p>If writing or forcing a batch fails, the file is cut back to the
+ * end of the last good batch and the log gives up: the failed batch is
+ * lost, as in a crash, and every later append() and sync() throws, so
+ * nothing is ever written after a torn frame that replay() would stop
+ * at. Reopening the log starts over from what is on the file.</p>
+ */
+final class WriteAheadLog {
+  // Length, CRC and a sanity limit on the payload length.
+  private static final int FRAME = 8;
+  private static final int MAX_RECORD = 1 << 30;
+
+  private final FileChannel channel;
+  private final int groupRecords;
+  private final ScheduledExecutorService flusher;
+  // Records appended but not written yet, guarded by this.
+  private byte[] batch = new byte[4096];
+  private int batchBytes;
+  private int batchRecords;
+  // Bytes appended in total, valid or not written yet, guarded by this.
+  private long size;
+  // End of the last batch written and forced, guarded by flushLock.
+  private long written;
+  // Failure of a write or force; once set, every call throws it.
+  private volatile IOException failure;
+  // Held while writing a batch to the file and forcing it.
+  private final Object flushLock = new Object();
+  private final CRC32 crc = new CRC32();
+
+  /**
+   * Open a log, creating the file if needed. Call replay() before
+   * appending so that a torn tail is cut off first.
+   *
+   * @param file Path of the log file.
+   * @param groupRecords Records per batch, at least 1.
+   * @param groupMillis Most milliseconds a record waits for its batch to
+   *     be synced, or 0 to sync only when a batch is full.
+   * @throws IOException If the file can't be opened.
+   */
+  WriteAheadLog(Path file, int groupRecords, long groupMillis)
+      throws IOException {
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.groupRecords = groupRecords;
+    if (groupMillis > 0) {
+      flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "wal-flusher");
+        t.setDaemon(true);
+        return t;
+      });
+      flusher.scheduleWithFixedDelay(this::backgroundSync, groupMillis,
+          groupMillis, TimeUnit.MILLISECONDS);
+    } else {
+      flusher = null;
+    }
+  }
+
+  /**
+   * Hand the payload of every valid record to a consumer, in order,
+   * then cut the file after the last valid one.
+   *
+   * @param consumer Called with a buffer holding one payload.
+   * @return Number of valid records.
+   * @throws IOException If reading or truncating fails.
+   */
+  int replay(Consumer<ByteBuffer> consumer) throws IOException {
+    long end = channel.size();
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        Channels.newInputStream(channel.position(0)), 1 << 16));
+    byte[] record = new byte[256];
+    long pos = 0;
+    int count = 0;
+    while (pos + FRAME <= end) {
+      int length = in.readInt();
+      if (length < 0 || length > MAX_RECORD || pos + FRAME + length > end) {
+        break;
+      }
+      if (length > record.length) {
+        record = new byte[Math.max(length, 2 * record.length)];
+      }
+      in.readFully(record, 0, length);
+      int sum = in.readInt();
+      crc.reset();
+      crc.update(record, 0, length);
+      if ((int) crc.getValue() != sum) {
+        break;
+      }
+      consumer.accept(ByteBuffer.wrap(record, 0, length));
+      pos += FRAME + length;
+      count++;
+    }
+    if (pos < end) {
+      channel.truncate(pos);
+      channel.force(false);
+    }
+    synchronized (flushLock) {
+      written = pos;
+    }
+    synchronized (this) {
+      size = pos;
+    }
+    return count;
+  }
+
+  /**
+   * Append a record, syncing if that fills the batch.
+   *
+   * @param payload Array holding the payload.
+   * @param length Bytes of the payload, from index 0.
+   * @throws UncheckedIOException If syncing fails, now or earlier in the
+   *     background.
+   */
+  void append(byte[] payload, int length) {
+    checkFailure();
+    boolean full;
+    synchronized (this) {
+      int need = batchBytes + FRAME + length;
+      if (need > batch.length) {
+        batch = Arrays.copyOf(batch, Math.max(need, 2 * batch.length));
+      }
+      ByteBuffer b = ByteBuffer.wrap(batch);
+      b.putInt(batchBytes, length);
+      System.arraycopy(payload, 0, batch, batchBytes + 4, length);
+      crc.reset();
+      crc.update(payload, 0, length);
+      b.putInt(batchBytes + 4 + length, (int) crc.getValue());
+      batchBytes = need;
+      size += FRAME + length;
+      full = ++batchRecords >= groupRecords;
+    }
+    if (full) {
+      try {
+        sync();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /**
+   * Write all appended records to the storage device.
+   *
+   * @throws IOException If that fails, now or earlier.
+   */
+  void sync() throws IOException {
+    synchronized (flushLock) {
+      if (failure != null) {
+        throw new IOException("log sync failed", failure);
+      }
+      byte[] out;
+      int n;
+      synchronized (this) {
+        if (batchRecords == 0) {
+          return;
+        }
+        out = batch;
+        n = batchBytes;
+        batch = new byte[out.length];
+        batchBytes = 0;
+        batchRecords = 0;
+      }
+      ByteBuffer b = ByteBuffer.wrap(out, 0, n);
+      try {
+        while (b.hasRemaining()) {
+          channel.write(b, written + b.position());
+        }
+        channel.force(false);
+      } catch (IOException e) {
+        fail(e);
+        throw e;
+      }
+      written += n;
+    }
+  }
+
+  // Give up after a failed write or force, cutting off what may be a
+  // torn batch; the caller holds flushLock.
+  private void fail(IOException e) {
+    try {
+      channel.truncate(written);
+      channel.force(false);
+    } catch (IOException suppressed) {
+      e.addSuppressed(suppressed);
+    }
+    failure = e;
+  }
+
+  private void backgroundSync() {
+    try {
+      sync();
+    } catch (IOException e) {
+      // Recorded in failure by sync(), for the next call to throw.
+    }
+  }
+
+  /**
+   * Throw if a write or force failed, since the log is unusable then.
+   *
+   * @throws UncheckedIOException If one did.
+   */
+  void checkFailure() {
+    IOException e = failure;
+    if (e != null) {
+      throw new UncheckedIOException("log sync failed", e);
+    }
+  }
+
+  /**
+   * Bytes in the log, including records not written yet.
+   *
+   * @return The size.
+   */
+  synchronized long size() {
+    return size;
+  }
+
+  /**
+   * Drop all records, once whatever they logged is safe elsewhere.
+   *
+   * @throws IOException If truncating fails.
+   */
+  void reset() throws IOException {
+    synchronized (flushLock) {
+      synchronized (this) {
+        batchBytes = 0;
+        batchRecords = 0;
+        size = 0;
+      }
+      channel.truncate(0);
+      channel.force(false);
+      written = 0;
+    }
+  }
+
+  /**
+   * Sync and close the log.
+   *
+   * @throws IOException If syncing or closing fails.
+   */
+  void close() throws IOException {
+    if (flusher != null) {
+      flusher.shutdown();
+      try {
+        flusher.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    try {
+      checkFailure();
+      sync();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      channel.close();
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package hw6;
+
+import java.util.Random;
+
+/**
+ * Generate integers in [0, n) following a Zipfian distribution.
+ *
+ * <p>Item 0 is the most popular, item 1 the second most popular, and
+ * so on; the probability of item i is proportional to 1 / (i + 1)^theta.
+ * This is the rejection-free method from Gray et al., "Quickly
+ * Generating Billion-Record Synthetic Databases" (the same one YCSB
+ * uses). Construction computes the zeta constant in O(n); after that
+ * every draw takes O(1).</p>
+ *
+ * <p>Popular items are clustered at small values. Use scrambled() if
+ * the hot items should instead be spread over the whole range, which
+ * is usually what you want when the items are used as map keys.</p>
+ */
+public class ZipfianGenerator {
+
+  /** The skew YCSB uses by default. */
+  public static final double DEFAULT_THETA = 0.99;
+
+  private final long items;
+  private final double theta;
+  private final double zetaN;
+  private final double alpha;
+  private final double eta;
+  private final double halfPowTheta;
+  private final Random random;
+
+  /**
+   * Make a generator over [0, n) with the default skew.
+   *
+   * @param n Number of items.
+   * @param random Source of randomness.
+   * @throws IllegalArgumentException If n is not positive.
+   */
+  public ZipfianGenerator(long n, Random random) {
+    this(n, DEFAULT_THETA, random);
+  }
+
+  /**
+   * Make a generator over [0, n) with the given skew.
+   *
+   * @param n Number of items.
+   * @param theta Skew, in (0, 1); larger values are more skewed.
+   * @param random Source of randomness.
+   * @throws IllegalArgumentException If n is not positive or theta is
+   *     outside (0, 1).
+   */
+  public ZipfianGenerator(long n, double theta, Random random) {
+    if (n <= 0) {
+      throw new IllegalArgumentException("need at least one item");
+    }
+    if (!(theta > 0 && theta < 1)) {
+      throw new IllegalArgumentException("theta must be in (0, 1)");
+    }
+    this.items = n;
+    this.theta = theta;
+    this.random = random;
+    this.zetaN = zeta(n, theta);
+    this.alpha = 1.0 / (1.0 - theta);
+    this.halfPowTheta = 1.0 + Math.pow(0.5, theta);
+    double zeta2 = zeta(2, theta);
+    this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zetaN);
+  }
+
+  // Sum of 1 / i^theta for i in [1, n].
+  private static double zeta(long n, double theta) {
+    double sum = 0;
+    for (long i = 1; i <= n; i++) {
+      sum += 1 / Math.pow(i, theta);
+    }
+    return sum;
+  }
+
+  /**
+   * Number of items.
+   *
+   * @return The n this generator was made with.
+   */
+  public long items() {
+    return items;
+  }
+
+  /**
+   * Draw the next item; small values are the popular ones.
+   *
+   * @return An item in [0, n).
+   */
+  public long next() {
+    double u = random.nextDouble();
+    double uz = u * zetaN;
+    if (uz < 1.0) {
+      return 0;
+    }
+    if (uz < halfPowTheta) {
+      return Math.min(1, items - 1);
+    }
+    long item = (long) (items * Math.pow(eta * u - eta + 1, alpha));
+    return Math.min(item, items - 1);
+  }
+
+  /**
+   * Draw the next item, with popular items spread over the range.
+   *
+   * <p>The item from next() is hashed (FNV-1a) so the hot items are not
+   * all neighbours. A few items may collide and become slightly more
+   * popular than the pure distribution says, which is harmless for
+   * benchmarking.</p>
+   *
+   * @return An item in [0, n).
+   */
+  public long scrambled() {
+    return Math.floorMod(fnv(next()), items);
+  }
+
+  // FNV-1a over the eight bytes of a long.
+  private static long fnv(long value) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < 8; i++) {
+      hash ^= value & 0xff;
+      hash *= 0x100000001b3L;
+      value >>>= 8;
+    }
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return "Zipfian<n: " + items + "; theta: " + theta + ">";
+  }
+}
@@ -0,0 +1,139 @@
+package hw6;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmark of BTreeMap against the binary search trees.
+ *
+ * <p>Each trial builds one map with the even integers below 2 * size,
+ * inserted in random order, then measures random point lookups, floor
+ * queries for odd keys (which never hit, so they always end in a leaf)
+ * and full iteration. The large size is meant to be well beyond the
+ * caches, which is where the number of nodes read per lookup shows.</p>
+ *
+ * <p>BTreeMap is given as "BTreeMap:fanout"; the other names are those
+ * of MapBenchmark.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xmx8g"})
+@State(Scope.Benchmark)
+public class BTreeBenchmark {
+
+  private static final long SEED = 0x5eed;
+  private static final Integer VALUE = 1;
+
+  @Param({"AvlTreeMap", "TreapMap", "PooledAvlTreeMap", "BTreeMap:32",
+      "BTreeMap:64", "BTreeMap:128"})
+  public String impl;
+
+  @Param({"1000000", "16000000"})
+  public int size;
+
+  private Integer[] keys;
+  private OrderedMap<Integer, Integer> filled;
+  private int cursor;
+
+  /**
+   * Make an empty map of the named implementation.
+   *
+   * @param impl "BTreeMap:fanout" or a name MapBenchmark knows.
+   * @return A new, empty map.
+   * @throws IllegalArgumentException If impl is unknown.
+   */
+  @SuppressWarnings("unchecked")
+  static OrderedMap<Integer, Integer> newMap(String impl) {
+    if (impl.startsWith("BTreeMap:")) {
+      int fanout = Integer.parseInt(impl.substring("BTreeMap:".length()));
+      return new BTreeMap<>(fanout);
+    }
+    return (OrderedMap<Integer, Integer>) (Map<?, ?>)
+        MapBenchmark.newMap(impl);
+  }
+
+  /**
+   * Build the map under test and the lookup order.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(SEED);
+    keys = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      keys[i] = 2 * i;
+    }
+    shuffle(random);
+    filled = newMap(impl);
+    for (Integer k : keys) {
+      filled.insert(k, VALUE);
+    }
+    shuffle(random);
+    cursor = 0;
+  }
+
+  // Put keys in random order.
+  private void shuffle(Random random) {
+    for (int i = size - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      Integer t = keys[i];
+      keys[i] = keys[j];
+      keys[j] = t;
+    }
+  }
+
+  // Next key to look up, cycling through the shuffled keys.
+  private Integer nextKey() {
+    int i = cursor;
+    cursor = i + 1 == size ? 0 : i + 1;
+    return keys[i];
+  }
+
+  /**
+   * Look up one existing key.
+   *
+   * @return The value found, so that the call is not eliminated.
+   */
+  @Benchmark
+  public Integer get() {
+    return filled.get(nextKey());
+  }
+
+  /**
+   * Find the floor of a key that is not mapped.
+   *
+   * @return The floor, so that the call is not eliminated.
+   */
+  @Benchmark
+  public Integer floorKey() {
+    return filled.floorKey(nextKey() + 1);
+  }
+
+  /**
+   * Iterate over all keys.
+   *
+   * @param blackhole Sink for the keys.
+   */
+  @Benchmark
+  public void iterate(Blackhole blackhole) {
+    Iterator<Integer> it = filled.iterator();
+    while (it.hasNext()) {
+      blackhole.consume(it.next());
+    }
+  }
+}
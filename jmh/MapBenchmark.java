@@ -0,0 +1,366 @@
+package hw6;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmarks for every implementation of Map.
+ *
+ * <p>Each trial builds one map of the given size by inserting its keys
+ * in the order the distribution prescribes, then measures single
+ * get/has/put calls against it. The bulk benchmarks (insertAll,
+ * removeAll, iterate) touch every key once per invocation; the "keys"
+ * counter next to their results is the per-key figure.</p>
+ *
+ * <p>Distributions decide both the build order and the access order:
+ * RANDOM is a random permutation, SORTED and REVERSE_SORTED are what
+ * they say, and ZIPFIAN draws (scrambled) Zipfian ranks. For the
+ * operations that need distinct keys, ZIPFIAN uses the keys in the
+ * order they are first drawn, followed by the keys never drawn.</p>
+ *
+ * <p>Not every combination is feasible: SimpleMap is O(n) per call and
+ * BinarySearchTreeMap degenerates into a list on sorted input, so
+ * restrict the parameters with "-p" for the large sizes. See the
+ * README for how to run this.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xmx8g"})
+@State(Scope.Benchmark)
+public class MapBenchmark {
+
+  /** Orders in which keys are inserted and looked up. */
+  public enum Distribution { RANDOM, SORTED, REVERSE_SORTED, ZIPFIAN }
+
+  /** Types of keys. */
+  public enum KeyType { STRING, INTEGER }
+
+  private static final long SEED = 0x5eed;
+  private static final Integer VALUE = 1;
+
+  @Param({"SimpleMap", "BinarySearchTreeMap", "AvlTreeMap", "TreapMap",
+      "OpenHashMap", "BTreeMap"})
+  public String impl;
+
+  @Param({"1000", "10000", "100000", "1000000", "10000000"})
+  public int size;
+
+  @Param({"RANDOM", "SORTED", "REVERSE_SORTED", "ZIPFIAN"})
+  public Distribution distribution;
+
+  @Param({"STRING", "INTEGER"})
+  public KeyType keyType;
+
+  // keys[i] is the i-th smallest key.
+  private Object[] keys;
+  // Distinct key indices in build (and bulk insert/remove) order.
+  private int[] order;
+  // Key indices for point lookups, possibly with repetitions.
+  private int[] access;
+  private Map<Object, Integer> filled;
+  private int cursor;
+
+  /**
+   * Counts keys processed by the bulk benchmarks so JMH can report a
+   * per-key time (or rate) next to the per-invocation one.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class KeyCounter {
+    public long keys;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      keys = 0;
+    }
+  }
+
+  /**
+   * Make an empty map of the named implementation.
+   *
+   * <p>The cast is safe because the benchmark only ever uses keys of a
+   * single Comparable type per trial.</p>
+   *
+   * @param impl Simple class name of a Map implementation.
+   * @return A new, empty map.
+   * @throws IllegalArgumentException If impl is unknown.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  static Map<Object, Integer> newMap(String impl) {
+    switch (impl) {
+      case "SimpleMap":
+        return new SimpleMap<>();
+      case "BinarySearchTreeMap":
+        return (Map) new BinarySearchTreeMap();
+      case "AvlTreeMap":
+        return (Map) new AvlTreeMap();
+      case "TreapMap":
+        return (Map) new TreapMap();
+      case "OpenHashMap":
+        return new OpenHashMap<>();
+      case "ConcurrentTreapMap":
+        return (Map) new ConcurrentTreapMap();
+      case "PersistentAvlTreeMap":
+        return (Map) new PersistentAvlTreeMap();
+      case "PooledAvlTreeMap":
+        return (Map) new PooledAvlTreeMap();
+      case "PooledTreapMap":
+        return (Map) new PooledTreapMap();
+      case "BTreeMap":
+        return (Map) new BTreeMap();
+      default:
+        throw new IllegalArgumentException("unknown map " + impl);
+    }
+  }
+
+  // Key of the given rank; string keys are zero-padded so that their
+  // lexicographic order matches the numeric one.
+  private Object key(int rank) {
+    if (keyType == KeyType.STRING) {
+      return String.format("k%010d", rank);
+    }
+    return rank;
+  }
+
+  /**
+   * Generate keys and access orders, then build the map under test.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(SEED);
+    keys = new Object[size];
+    for (int i = 0; i < size; i++) {
+      keys[i] = key(i);
+    }
+    order = new int[size];
+    access = new int[size];
+    switch (distribution) {
+      case RANDOM:
+        order = permutation(size, random);
+        access = permutation(size, random);
+        break;
+      case SORTED:
+        for (int i = 0; i < size; i++) {
+          order[i] = i;
+        }
+        access = order.clone();
+        break;
+      case REVERSE_SORTED:
+        for (int i = 0; i < size; i++) {
+          order[i] = size - 1 - i;
+        }
+        access = order.clone();
+        break;
+      case ZIPFIAN:
+        zipfian(random);
+        break;
+      default:
+        throw new IllegalStateException("unknown " + distribution);
+    }
+    filled = newMap(impl);
+    for (int i : order) {
+      filled.insert(keys[i], VALUE);
+    }
+    cursor = 0;
+  }
+
+  // Random permutation of [0, n).
+  private static int[] permutation(int n, Random random) {
+    int[] p = new int[n];
+    for (int i = 0; i < n; i++) {
+      p[i] = i;
+    }
+    for (int i = n - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int t = p[i];
+      p[i] = p[j];
+      p[j] = t;
+    }
+    return p;
+  }
+
+  // Fill access with Zipfian draws and order with the distinct keys in
+  // order of first appearance, followed by the rest in random order.
+  private void zipfian(Random random) {
+    ZipfianGenerator zipf = new ZipfianGenerator(size, random);
+    boolean[] seen = new boolean[size];
+    int distinct = 0;
+    for (int i = 0; i < size; i++) {
+      int k = (int) zipf.scrambled();
+      access[i] = k;
+      if (!seen[k]) {
+        seen[k] = true;
+        order[distinct++] = k;
+      }
+    }
+    for (int k : permutation(size, random)) {
+      if (!seen[k]) {
+        order[distinct++] = k;
+      }
+    }
+  }
+
+  // Next key to look up, cycling through the access order.
+  private Object nextKey() {
+    int i = cursor;
+    cursor = i + 1 == size ? 0 : i + 1;
+    return keys[access[i]];
+  }
+
+  /**
+   * Look up one existing key.
+   *
+   * @return The value found, so that the call is not eliminated.
+   */
+  @Benchmark
+  public Integer get() {
+    return filled.get(nextKey());
+  }
+
+  /**
+   * Check one existing key.
+   *
+   * @return Whether it was found, so that the call is not eliminated.
+   */
+  @Benchmark
+  public boolean has() {
+    return filled.has(nextKey());
+  }
+
+  /**
+   * Update one existing key.
+   */
+  @Benchmark
+  public void put() {
+    filled.put(nextKey(), VALUE);
+  }
+
+  /**
+   * Iterate over all keys.
+   *
+   * @param counter Counts the keys visited.
+   * @param blackhole Sink for the keys.
+   */
+  @Benchmark
+  public void iterate(KeyCounter counter, Blackhole blackhole) {
+    Iterator<Object> it = filled.iterator();
+    while (it.hasNext()) {
+      blackhole.consume(it.next());
+    }
+    counter.keys += size;
+  }
+
+  /**
+   * Fresh, empty map for insertAll.
+   */
+  @State(Scope.Thread)
+  public static class EmptyMap {
+    Map<Object, Integer> map;
+
+    @Setup(Level.Invocation)
+    public void setUp(MapBenchmark b) {
+      map = newMap(b.impl);
+    }
+  }
+
+  /**
+   * Insert all keys into an empty map.
+   *
+   * @param empty Map to insert into.
+   * @param counter Counts the keys inserted.
+   * @return The map, so that the work is not eliminated.
+   */
+  @Benchmark
+  public Map<Object, Integer> insertAll(EmptyMap empty, KeyCounter counter) {
+    Map<Object, Integer> map = empty.map;
+    for (int i : order) {
+      map.insert(keys[i], VALUE);
+    }
+    counter.keys += size;
+    return map;
+  }
+
+  /**
+   * Fresh, filled map for removeAll.
+   */
+  @State(Scope.Thread)
+  public static class FullMap {
+    Map<Object, Integer> map;
+
+    @Setup(Level.Invocation)
+    public void setUp(MapBenchmark b) {
+      map = newMap(b.impl);
+      for (int i : b.order) {
+        map.insert(b.keys[i], VALUE);
+      }
+    }
+  }
+
+  /**
+   * Remove all keys from a filled map, in build order.
+   *
+   * @param full Map to remove from.
+   * @param counter Counts the keys removed.
+   * @return The map, so that the work is not eliminated.
+   */
+  @Benchmark
+  public Map<Object, Integer> removeAll(FullMap full, KeyCounter counter) {
+    Map<Object, Integer> map = full.map;
+    for (int i : order) {
+      map.remove(keys[i]);
+    }
+    counter.keys += size;
+    return map;
+  }
+
+  /**
+   * Run the suite twice, once for throughput and once for ns/op, with
+   * the GC profiler attached. Command-line arguments are passed on to
+   * JMH, so "-p impl=AvlTreeMap -p size=1000" and friends work.
+   *
+   * @param args JMH command-line options.
+   * @throws RunnerException If JMH fails.
+   * @throws CommandLineOptionException If an option is malformed.
+   */
+  public static void main(String[] args)
+      throws RunnerException, CommandLineOptionException {
+    CommandLineOptions cli = new CommandLineOptions(args);
+    new Runner(new OptionsBuilder()
+        .parent(cli)
+        .include(MapBenchmark.class.getSimpleName())
+        .mode(Mode.Throughput)
+        .timeUnit(TimeUnit.SECONDS)
+        .addProfiler(GCProfiler.class)
+        .build()).run();
+    new Runner(new OptionsBuilder()
+        .parent(cli)
+        .include(MapBenchmark.class.getSimpleName())
+        .mode(Mode.AverageTime)
+        .timeUnit(TimeUnit.NANOSECONDS)
+        .addProfiler(GCProfiler.class)
+        .build()).run();
+  }
+}
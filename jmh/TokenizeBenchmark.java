@@ -0,0 +1,75 @@
+package hw6;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmark of finding the words of a corpus, the way
+ * WordFrequencyCountExperiment used to (Scanner plus a regular
+ * expression per token) against MappedTokenizer with a WordInterner.
+ *
+ * <p>Neither counts anything, so this is the tokenizing cost alone;
+ * WordCountBenchmark measures the map side.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class TokenizeBenchmark {
+
+  @Param({"hotel_california.txt", "Fed01.txt", "moby_dick.txt",
+      "pride_and_prejudice.txt"})
+  public String corpus;
+
+  private Path file() {
+    return Paths.get("res", "src", corpus);
+  }
+
+  /**
+   * Split on whitespace with a Scanner and match every token.
+   *
+   * @param bh Consumes the words.
+   * @throws FileNotFoundException If the corpus does not exist.
+   */
+  @Benchmark
+  public void scanner(Blackhole bh) throws FileNotFoundException {
+    try (Scanner sc = new Scanner(file().toFile())) {
+      while (sc.hasNext()) {
+        String word = sc.next();
+        if (WordFrequencyCountExperiment.isWord(word)) {
+          bh.consume(word);
+        }
+      }
+    }
+  }
+
+  /**
+   * Scan the mapped bytes and intern the words.
+   *
+   * @param bh Consumes the words.
+   * @throws IOException If the corpus can't be read.
+   */
+  @Benchmark
+  public void mapped(Blackhole bh) throws IOException {
+    WordInterner words = new WordInterner();
+    MappedTokenizer.tokenize(file(), (buf, offset, length) ->
+        bh.consume(words.intern(buf, offset, length)));
+  }
+}
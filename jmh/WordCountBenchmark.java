@@ -0,0 +1,101 @@
+package hw6;
+
+import java.io.FileNotFoundException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark of WordFrequencyCountExperiment's counting loop.
+ *
+ * <p>The corpus is read and filtered once per trial, so only the map
+ * work is measured: one merge() per word into a fresh map. Corpora are
+ * looked up in res/src like the experiment does. SimpleMap is left
+ * out; use "-p impl=SimpleMap" on the small corpora if you want it.</p>
+ *
+ * <p>The ObjectInt maps count with increment() instead of merge(), so
+ * comparing them to their boxed counterparts under "-prof gc" shows
+ * how much of the garbage is Integer objects.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class WordCountBenchmark {
+
+  @Param({"BinarySearchTreeMap", "AvlTreeMap", "TreapMap", "OpenHashMap",
+      "ObjectIntAvlTreeMap", "ObjectIntTreapMap"})
+  public String impl;
+
+  @Param({"hotel_california.txt", "Fed01.txt", "moby_dick.txt",
+      "pride_and_prejudice.txt"})
+  public String corpus;
+
+  private String[] words;
+
+  /**
+   * Read the words of the corpus.
+   *
+   * @throws FileNotFoundException If the corpus does not exist.
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws FileNotFoundException {
+    List<String> list = new ArrayList<>();
+    Scanner sc = new Scanner(Paths.get("res", "src", corpus).toFile());
+    while (sc.hasNext()) {
+      String word = sc.next();
+      if (WordFrequencyCountExperiment.isWord(word)) {
+        list.add(word);
+      }
+    }
+    sc.close();
+    words = list.toArray(new String[0]);
+  }
+
+  /**
+   * Count all words of the corpus.
+   *
+   * @return The map, so that the work is not eliminated.
+   */
+  @Benchmark
+  public Object count() {
+    switch (impl) {
+      case "ObjectIntAvlTreeMap":
+        return countInts(new ObjectIntAvlTreeMap<>());
+      case "ObjectIntTreapMap":
+        return countInts(new ObjectIntTreapMap<>());
+      default:
+        break;
+    }
+    Map<Object, Integer> map = MapBenchmark.newMap(impl);
+    for (String word : words) {
+      map.merge(word, 1, Integer::sum);
+    }
+    return map;
+  }
+
+  // Count all words of the corpus into a primitive counting map.
+  private ObjectIntOrderedMap<String> countInts(
+      ObjectIntOrderedMap<String> map) {
+    for (String word : words) {
+      map.increment(word, 1);
+    }
+    return map;
+  }
+}